@@ -0,0 +1,69 @@
+package org.wahlzeit.model;
+
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A BenchmarkEnvironment is the least App Engine environment that lets model classes be loaded outside App Engine:
+ * making datastore keys, as ObjectManager does when it is loaded, needs the app id of the current environment. It
+ * offers no services; benchmarks that call them fail.
+ */
+public class BenchmarkEnvironment implements ApiProxy.Environment {
+
+	/**
+	 *
+	 */
+	protected final Map<String, Object> attributes = new HashMap<String, Object>();
+
+	/**
+	 * @methodtype command
+	 */
+	public static void setUpCurrentThread() {
+		if (ApiProxy.getCurrentEnvironment() == null) {
+			ApiProxy.setEnvironmentForCurrentThread(new BenchmarkEnvironment());
+		}
+	}
+
+	public String getAppId() {
+		return "wahlzeit-benchmark";
+	}
+
+	public String getModuleId() {
+		return "default";
+	}
+
+	public String getVersionId() {
+		return "1";
+	}
+
+	public String getEmail() {
+		return null;
+	}
+
+	public boolean isLoggedIn() {
+		return false;
+	}
+
+	public boolean isAdmin() {
+		return false;
+	}
+
+	public String getAuthDomain() {
+		return null;
+	}
+
+	public String getRequestNamespace() {
+		return "";
+	}
+
+	public Map<String, Object> getAttributes() {
+		return attributes;
+	}
+
+	public long getRemainingMillis() {
+		return Long.MAX_VALUE;
+	}
+
+}
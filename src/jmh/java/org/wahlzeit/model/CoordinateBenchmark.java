@@ -0,0 +1,94 @@
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting between cartesian and spheric coordinates and the distance between coordinates. Coordinates
+ * are shared value objects, so the benchmarks cycle through NO_COORDINATES coordinates that have all been made once
+ * in setUp; a conversion then measures the computation and the lookup of the shared object.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinateBenchmark {
+
+	/**
+	 *
+	 */
+	protected static final int NO_COORDINATES = 64;
+
+	/**
+	 *
+	 */
+	protected SphericCoordinate[] sphericCoordinates = new SphericCoordinate[NO_COORDINATES];
+	protected CartesianCoordinate[] cartesianCoordinates = new CartesianCoordinate[NO_COORDINATES];
+	protected int next = 0;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		for (int i = 0; i < NO_COORDINATES; i++) {
+			double latitude = random.nextDouble() * 180.0 - 90.0;
+			double longitude = random.nextDouble() * 360.0 - 180.0;
+			sphericCoordinates[i] = SphericCoordinate.getSphericCoordinate(latitude, longitude,
+					AbstractCoordinate.EARTH_RADIUS_KM);
+			cartesianCoordinates[i] = CartesianCoordinate.asCartesianCoordinate(sphericCoordinates[i]);
+			SphericCoordinate.asSphericCoordinate(cartesianCoordinates[i]);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public CartesianCoordinate asCartesianCoordinate() {
+		next = (next + 1) & (NO_COORDINATES - 1);
+		return CartesianCoordinate.asCartesianCoordinate(sphericCoordinates[next]);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public SphericCoordinate asSphericCoordinate() {
+		next = (next + 1) & (NO_COORDINATES - 1);
+		return SphericCoordinate.asSphericCoordinate(cartesianCoordinates[next]);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public double getSphericDistance() {
+		next = (next + 1) & (NO_COORDINATES - 1);
+		return sphericCoordinates[next].getDistance(sphericCoordinates[(next + 1) & (NO_COORDINATES - 1)]);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public double getCartesianDistance() {
+		next = (next + 1) & (NO_COORDINATES - 1);
+		return cartesianCoordinates[next].getDistance(cartesianCoordinates[(next + 1) & (NO_COORDINATES - 1)]);
+	}
+
+}
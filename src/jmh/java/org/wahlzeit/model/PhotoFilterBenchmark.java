@@ -0,0 +1,83 @@
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks PhotoFilter.getFilteredPhotoIds without filter conditions, for catalogues of different sizes in the
+ * photo cache of the PhotoManager. Every tenth photo is invisible, and the filter has already processed and skipped
+ * some photos, as during a rating session. Filtering by tags needs the datastore, so it is not benchmarked here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhotoFilterBenchmark {
+
+	/**
+	 *
+	 */
+	@Param({"100", "1000", "10000"})
+	public int noPhotos;
+
+	/**
+	 *
+	 */
+	@Param({"20"})
+	public int noProcessedPhotos;
+
+	/**
+	 *
+	 */
+	protected PhotoFilter filter;
+
+	/**
+	 *
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchmarkEnvironment.setUpCurrentThread();
+		PhotoManager photoManager = PhotoManager.getInstance();
+		photoManager.getPhotoCache().clear();
+		PhotoId.setCurrentIdFromInt(PhotoId.ID_START);
+
+		filter = new PhotoFilter();
+		for (int i = 0; i < noPhotos; i++) {
+			Photo photo = new Photo(PhotoId.getNextId());
+			if (i % 10 == 9) {
+				photo.setStatus(PhotoStatus.INVISIBLE);
+			}
+			photoManager.doAddPhoto(photo);
+
+			if (i < noProcessedPhotos) {
+				filter.processedPhotoIds.add(photo.getId());
+			} else if (i < 2 * noProcessedPhotos) {
+				filter.addSkippedPhotoId(photo.getId());
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public List<PhotoId> getFilteredPhotoIds() {
+		return filter.getFilteredPhotoIds();
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encoding photo ids as strings and decoding them, as done for every photo link and request. The ids
+ * cycle through NO_IDS values, so that the branches do not depend on one id.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhotoIdBenchmark {
+
+	/**
+	 *
+	 */
+	protected static final int NO_IDS = 1024;
+
+	/**
+	 *
+	 */
+	protected int[] ids = new int[NO_IDS];
+	protected String[] idsAsString = new String[NO_IDS];
+	protected int next = 0;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < NO_IDS; i++) {
+			ids[i] = PhotoId.ID_START + i * 997;
+			idsAsString[i] = PhotoId.getFromInt(ids[i]);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public String getFromInt() {
+		next = (next + 1) & (NO_IDS - 1);
+		return PhotoId.getFromInt(ids[next]);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public int getFromString() {
+		next = (next + 1) & (NO_IDS - 1);
+		return PhotoId.getFromString(idsAsString[next]);
+	}
+
+}
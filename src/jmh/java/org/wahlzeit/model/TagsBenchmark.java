@@ -0,0 +1,74 @@
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing tags as users enter them, and writing them back as a string, for a few and for the maximum
+ * number of tags.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagsBenchmark {
+
+	/**
+	 *
+	 */
+	@Param({"4", "32"})
+	public int noTags;
+
+	/**
+	 *
+	 */
+	protected String tagsAsString;
+	protected Tags tags;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setUp() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < noTags; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append("Maple Leaf ").append(i);
+		}
+		tagsAsString = sb.toString();
+		tags = new Tags(tagsAsString);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public Set<String> asTagSetFromString() {
+		return Tags.asTagSetFromString(tagsAsString);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public String asString() {
+		return tags.asString();
+	}
+
+}
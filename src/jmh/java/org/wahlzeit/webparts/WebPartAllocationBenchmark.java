@@ -0,0 +1,86 @@
+package org.wahlzeit.webparts;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building and writing a page with one nested WebPart per photo, like the user home page. Run it with the
+ * GC profiler to see the bytes allocated per page, e.g. ./gradlew jmh -PjmhArgs='WebPartAllocation -prof gc'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebPartAllocationBenchmark {
+
+	/**
+	 *
+	 */
+	@Param({"10", "50"})
+	public int noPhotos;
+
+	/**
+	 *
+	 */
+	protected WebPartTemplate pageTemplate;
+	protected WebPartTemplate photoTemplate;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		pageTemplate = new WebPartTemplate("pages/ShowPartPage");
+		pageTemplate.initialize(Files.toString(new File(WebPartBenchmark.TEMPLATES_DIR, "pages/ShowPartPage.html"),
+				Charsets.UTF_8));
+		photoTemplate = new WebPartTemplate("photo");
+		photoTemplate.initialize("<div class=\"photo\"><a href=\"{$photoId}.html\"><img src=\"{$thumbUrl}\" /></a>" +
+				"<p>{$tags}</p><p>{$status} {$praise}</p><a href=\"?edit={$photoId}\">{$editLink}</a></div>");
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void buildAndWritePage() throws IOException {
+		WebPart page = new WebPart(pageTemplate);
+		page.addString("title", "Wahlzeit");
+		page.addString("heading", "Wahlzeit - Photo Rating");
+		page.addString("processingTime", "0.01");
+
+		WritableList photos = new WritableList();
+		for (int i = 0; i < noPhotos; i++) {
+			WebPart photo = new WebPart(photoTemplate);
+			photo.addString("photoId", "x1y");
+			photo.addString("thumbUrl", "/img/x1y-0.jpg");
+			photo.maskAndAddString("tags", "flowers, tulips");
+			photo.addString("status", "visible");
+			photo.addString("praise", "7.5");
+			photo.addString("editLink", "edit");
+			photos.append(photo);
+		}
+		page.addWritable("part", photos);
+
+		Utf8Writer out = new Utf8Writer(new WebPartBenchmark.NullOutputStream());
+		page.writeOn(out);
+		out.close();
+	}
+
+}
@@ -0,0 +1,118 @@
+package org.wahlzeit.webparts;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks WebPart.writeOn for the main page templates, read from the English templates in src/main/webapp; the
+ * part page holds the filter and admin forms and an info as nested parts. Every key of a template gets a short value.
+ * Pages are written through a Utf8Writer, as AbstractServlet does, and through a PrintWriter for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebPartBenchmark {
+
+	/**
+	 *
+	 */
+	protected static final String TEMPLATES_DIR = "src/main/webapp/config/templates/default/en";
+
+	/**
+	 *
+	 */
+	@Param({"pages/ShowPhotoPage", "pages/ShowUserHomePage", "pages/ShowAdminPage", "pages/ShowPartPage"})
+	public String templateName;
+
+	/**
+	 *
+	 */
+	@Param({"utf8", "print"})
+	public String writerType;
+
+	/**
+	 *
+	 */
+	protected WebPart page;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		page = createWebPart(templateName);
+		if ("pages/ShowPartPage".equals(templateName)) {
+			WritableList parts = new WritableList();
+			parts.append(createWebPart("forms/FilterPhotosForm"));
+			parts.append(createWebPart("forms/AdminUserProfileForm"));
+			parts.append(createWebPart("infos/TermsInfo"));
+			page.addWritable("part", parts);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void writeOn() throws IOException {
+		OutputStream out = new NullOutputStream();
+		Writer writer = "utf8".equals(writerType) ? new Utf8Writer(out) :
+				new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+		page.writeOn(writer);
+		writer.close();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static WebPart createWebPart(String name) throws IOException {
+		WebPartTemplate template = new WebPartTemplate(name);
+		template.initialize(Files.toString(new File(TEMPLATES_DIR, name + ".html"), Charsets.UTF_8));
+
+		WebPart result = new WebPart(template);
+		for (int i = 0; i < template.getNoDistinctKeys(); i++) {
+			String key = template.getDistinctKey(i);
+			result.addString(key, "value of " + key);
+		}
+		return result;
+	}
+
+	/**
+	 * Discards all bytes, so that only writing the page is measured.
+	 */
+	protected static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+			// do nothing
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			// do nothing
+		}
+	}
+
+}
@@ -22,6 +22,7 @@ package org.wahlzeit.agents;
 
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -68,15 +69,15 @@ public abstract class Agent {
 	public void run() {
 		synchronized (Agent.class) {
 			String agentName = "agent" + id++;
-			log.config(LogBuilder.createSystemMessage().addAction("started new agent").addParameter("name", agentName)
-					.addParameter("ID", id).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("started new agent").addParameter("name", agentName)
+					.addParameter("ID", id).log();
 		}
 
 		try {
 			doRun();
 		} catch (Exception e) {
-			log.config(LogBuilder.createSystemMessage().addParameter("agent name", name).addException(
-					"Problem when executing task", e).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("agent name", name).addException(
+					"Problem when executing task", e).log();
 		}
 	}
 
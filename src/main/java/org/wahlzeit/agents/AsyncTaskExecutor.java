@@ -5,7 +5,13 @@ import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.RetryOptions;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestContext;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.google.appengine.api.taskqueue.RetryOptions.Builder.withTaskRetryLimit;
@@ -19,15 +25,32 @@ public class AsyncTaskExecutor {
 
 	private static final Logger log = Logger.getLogger(AsyncTaskExecutor.class.getName());
 
+	/**
+	 * Tasks enqueued, and the time adding them to the queue took
+	 */
+	protected static final Counter noEnqueuedTasks = MetricRegistry.getInstance().getCounter("tasks enqueued");
+	protected static final TimingHistogram enqueueTimes = MetricRegistry.getInstance().getHistogram("task enqueue");
+
 	/**
 	 * @methodtype command
 	 *
-	 * Starts a task in the default queue to save the photo with the specified ID.
+	 * Starts a task in the default queue to save the photo with the specified ID. The task gets the id of the current
+	 * request, so that its log messages can be traced back to it.
 	 */
 	public static void savePhotoAsync(String photoId) {
-		log.info("Calling async push task to persist PhotoId " + photoId);
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addAction("call async push task to persist photo").
+				addParameter("photoId", photoId).log();
 		Queue queue = QueueFactory.getDefaultQueue();
 		RetryOptions retryOptions = withTaskRetryLimit(3);
-		queue.add(TaskOptions.Builder.withUrl("/persistPhoto").param(Photo.ID, photoId).retryOptions(retryOptions));
+		TaskOptions taskOptions = TaskOptions.Builder.withUrl("/persistPhoto").param(Photo.ID, photoId);
+		String requestId = RequestContext.getThreadLocalRequestId();
+		if (requestId != null) {
+			taskOptions.param(RequestContext.REQUEST_ID, requestId);
+		}
+		long startTime = System.nanoTime();
+		queue.add(taskOptions.retryOptions(retryOptions));
+		enqueueTimes.recordSince(startTime);
+		noEnqueuedTasks.increment();
 	}
 }
@@ -3,12 +3,17 @@ package org.wahlzeit.agents;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestContext;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -22,19 +27,42 @@ public class PersistPhotoAgent extends HttpServlet {
 
 	private static final Logger log = Logger.getLogger(PersistPhotoAgent.class.getName());
 
+	/**
+	 * Tasks that persisted their photo, and the time all tasks took
+	 */
+	protected static final Counter noCompletedTasks = MetricRegistry.getInstance().getCounter("tasks completed");
+	protected static final TimingHistogram runTimes = MetricRegistry.getInstance().getHistogram("task persistPhoto");
+
 	/**
 	 * @methodtype command
+	 *
+	 * Logs under the id of the request that started the task.
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
+		String requestId = request.getParameter(RequestContext.REQUEST_ID);
+		RequestContext.setThreadLocalContext(new RequestContext(requestId, null, null));
+		long startTime = System.nanoTime();
+		try {
+			persistPhoto(request, response);
+			noCompletedTasks.increment();
+		} finally {
+			runTimes.recordSince(startTime);
+			RequestContext.dropThreadLocalContext();
+		}
+	}
 
+	/**
+	 * @methodtype command
+	 */
+	protected void persistPhoto(HttpServletRequest request, HttpServletResponse response) {
 		String id = request.getParameter(Photo.ID);
-		log.config(LogBuilder.createSystemMessage().addParameter("Try to persist PhotoId", id).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Try to persist PhotoId", id).log();
 		if (id != null && !"".equals(id)) {
 			Photo photo = PhotoManager.getInstance().getPhoto(id);
 			if (photo != null) {
 				PhotoManager.getInstance().savePhoto(photo);
-				log.config(LogBuilder.createSystemMessage().addMessage("Photo saved.").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("Photo saved.").log();
 			} else {
 				response.setStatus(299);
 				throw new IllegalArgumentException("Could not find Photo with ID " + id + " " + PhotoManager.getInstance().getIds());
@@ -27,7 +27,10 @@ import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.StringWritable;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartCache;
+import org.wahlzeit.webparts.Writable;
 
 /**
  * A superclass for handling web pages.
@@ -38,7 +41,12 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	 *
 	 */
 	public WebPart makeWebPart(UserSession us) {
-		return makeWebPage(us);
+		long startTime = System.nanoTime();
+		try {
+			return makeWebPage(us);
+		} finally {
+			makeWebPartTimes.recordSince(startTime);
+		}
 	}
 
 	/**
@@ -83,6 +91,15 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 		page.addString("heading", heading);
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Pages show session specific content unless they say otherwise.
+	 */
+	public boolean isCacheableForGuests(UserSession us, String link) {
+		return false;
+	}
+
 	/**
 	 * @methodtype boolean-query
 	 */
@@ -91,24 +108,34 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	}
 
 	/**
-	 *
+	 * The menu only depends on language and access rights, so it is served from the WebPartCache.
 	 */
 	protected void makeWebPageMenu(UserSession us, WebPart page) {
-		Client client = us.getClient();
-		String menu = "";
+		final Client client = us.getClient();
+		Writable menu = getCachedWebPart(us, "menu", new WebPartCache.FragmentSource() {
+			public Writable makeFragment() {
+				return new StringWritable(getMenu(client));
+			}
+		});
+
+		page.addWritable("menu", menu);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getMenu(Client client) {
 		ModelConfig config = client.getLanguageConfiguration();
 
 		if (client.hasAdministratorRights()) {
-			menu = config.getAdministratorMenu();
+			return config.getAdministratorMenu();
 		} else if (client.hasModeratorRights()) {
-			menu = config.getModeratorMenu();
+			return config.getModeratorMenu();
 		} else if (client.hasUserRights()) {
-			menu = config.getUserMenu();
+			return config.getUserMenu();
 		} else {
-			menu = config.getGuestMenu();
+			return config.getGuestMenu();
 		}
-
-		page.addString("menu", menu.toString());
 	}
 
 	/**
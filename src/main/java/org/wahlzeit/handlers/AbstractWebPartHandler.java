@@ -21,6 +21,7 @@
 package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.Client;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
@@ -30,14 +31,20 @@ import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.metrics.TimingHistogram;
+import org.wahlzeit.services.metrics.MetricRegistry;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartCache;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -55,6 +62,13 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected AccessRights neededRights;
 
+	/**
+	 * Times of handleGet, handlePost and makeWebPart, kept in the MetricRegistry by handler class
+	 */
+	protected final TimingHistogram handleGetTimes = getTimingHistogram("handleGet");
+	protected final TimingHistogram handlePostTimes = getTimingHistogram("handlePost");
+	protected final TimingHistogram makeWebPartTimes = getTimingHistogram("makeWebPart");
+
 	/**
 	 *
 	 */
@@ -63,6 +77,17 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 		neededRights = myRights;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	protected final TimingHistogram getTimingHistogram(String methodName) {
+		String handlerName = getClass().getSimpleName();
+		if (handlerName.length() == 0) {
+			handlerName = getClass().getName();
+		}
+		return MetricRegistry.getInstance().getHistogram("handler " + handlerName + "." + methodName);
+	}
+
 	/**
 	 * @methodtype factory
 	 */
@@ -79,6 +104,44 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 		return new WebPart(tmpl);
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the WebPart of a template without slots to fill from the WebPartCache.
+	 */
+	protected final Writable createCachedWebPart(final UserSession us, final String name) {
+		return getCachedWebPart(us, name, new WebPartCache.FragmentSource() {
+			public Writable makeFragment() {
+				return createWebPart(us, name);
+			}
+		});
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns a rendered part from the WebPartCache; the source makes it on a cache miss. The part may only depend on
+	 * the name, the language and access rights of the client, and the args.
+	 */
+	protected final Writable getCachedWebPart(UserSession us, String name, WebPartCache.FragmentSource source,
+											  String... args) {
+		Client client = us.getClient();
+		String[] keyParts = new String[args.length + 3];
+		keyParts[0] = name;
+		keyParts[1] = client.getLanguageConfiguration().getLanguageCode();
+		keyParts[2] = client.getAccessRights().asString();
+		System.arraycopy(args, 0, keyParts, 3, args.length);
+
+		try {
+			return WebPartCache.getInstance().getFragment(WebPartCache.createKey(keyParts), source);
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("part", name).
+					addException("Problem when caching part", e).log();
+			return source.makeFragment();
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -159,15 +222,27 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 *
 	 */
 	public final String handleGet(UserSession us, String link, Map args) {
+		long startTime = System.nanoTime();
+		try {
+			return doHandleGetWithChecks(us, link, args);
+		} finally {
+			handleGetTimes.recordSince(startTime);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected String doHandleGetWithChecks(UserSession us, String link, Map args) {
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("insufficient rights for GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("insufficient rights for GET").log();
 			return getIllegalAccessErrorPage(us);
 		}
 
 		if (!isWellFormedGet(us, link, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("received ill-formed GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("received ill-formed GET").log();
 			return getIllegalArgumentErrorPage(us);
 		}
 
@@ -175,7 +250,7 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 			// may throw Exception
 			return doHandleGet(us, link, args);
 		} catch (Throwable t) {
-			log.warning(LogBuilder.createSystemMessage().addException("Handle get failed", t).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Handle get failed", t).log();
 			return getInternalProcessingErrorPage(us);
 		}
 	}
@@ -37,6 +37,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -100,6 +101,7 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
 		photo.setStatus(photo.getStatus().asFlagged(true));
+		PhotoManager.getInstance().notifyPhotoChanged(photo);
 		AsyncTaskExecutor.savePhotoAsync(id);
 
 		PhotoCase photoCase = new PhotoCase(photo);
@@ -120,9 +122,9 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 
 		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), emailSubject, emailBody);
 
-		log.info(LogBuilder.createUserMessage()
+		LogBuilder.createUserMessage(log, Level.INFO)
 				.addAction("Flag Photo")
-				.addParameter("Photo", photo.getId().asString()).toString());
+				.addParameter("Photo", photo.getId().asString()).log();
 
 		us.setTwoLineMessage(config.getModeratorWasInformed(), config.getContinueWithShowPhoto());
 
@@ -12,6 +12,7 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -30,7 +31,6 @@ public class LoginFormHandler extends AbstractWebFormHandler {
 	@Override
 	protected void doMakeWebPart(UserSession us, WebPart part) {
 		// do nothing as there is no page that should be displayed
-		log.info("doMakeWebPart");
 	}
 
 	/**
@@ -38,25 +38,25 @@ public class LoginFormHandler extends AbstractWebFormHandler {
 	 */
 	@Override
 	protected String doHandleGet(UserSession us, String link, Map args) {
-		log.info("Link: " + link);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("link", link).log();
 
 		UserService userService = UserServiceFactory.getUserService();
 		com.google.appengine.api.users.User googleUser = userService.getCurrentUser();
 
 		if (googleUser != null) {
 			// googleUser logged in
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addMessage("Google user exists").
-					addParameter("E-Mail", googleUser.getEmail()).toString());
+					addParameter("E-Mail", googleUser.getEmail()).log();
 			String userId = googleUser.getUserId();
 			UserManager userManager = UserManager.getInstance();
 			User user = userManager.getUserById(userId);
 			if (user != null) {
 				// Wahlzeit user already exists
 				us.setClient(user);
-				log.config(LogBuilder.createSystemMessage().
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
 						addMessage("Wahlzeit user exists").
-						addParameter("id", user.getId()).toString());
+						addParameter("id", user.getId()).log();
 			} else {
 				// create new Wahlzeit user
 				String emailAddress = googleUser.getEmail();
@@ -71,7 +71,7 @@ public class LoginFormHandler extends AbstractWebFormHandler {
 				userManager.emailWelcomeMessage(us, user);
 				us.setClient(user);
 
-				log.info(LogBuilder.createUserMessage().addAction("Signup").toString());
+				LogBuilder.createUserMessage(log, Level.INFO).addAction("Signup").log();
 			}
 
 //              TODO
@@ -150,4 +150,7 @@ public interface PartUtil {
 	String ADMIN_USER_PHOTO_FORM_NAME = "adminUserPhotoForm";
 	String ADMIN_USER_PHOTO_FORM_FILE = "forms/AdminUserPhotoForm";
 
+	String SHOW_METRICS_PAGE_NAME = "metrics";
+	String SHOW_METRICS_PAGE_FILE = "pages/ShowMetricsPage";
+
 }
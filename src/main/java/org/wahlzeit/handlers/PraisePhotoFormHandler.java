@@ -31,6 +31,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -82,13 +83,14 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 			if (!us.hasPraisedPhoto(photo)) {
 				int value = Integer.parseInt(praise);
 				photo.addToPraise(value);
+				PhotoManager.getInstance().notifyPhotoChanged(photo);
 				client.addPraisedPhotoId(photo.getId());
 				us.addProcessedPhoto(photo);
 				wasPraised = true;
 			}
 		}
 
-		log.info(LogBuilder.createUserMessage().addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").log();
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
 	}
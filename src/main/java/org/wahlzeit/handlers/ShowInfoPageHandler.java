@@ -44,10 +44,17 @@ public class ShowInfoPageHandler extends AbstractWebPageHandler {
 	}
 
 	/**
-	 *
+	 * @methodtype boolean-query
+	 */
+	public boolean isCacheableForGuests(UserSession us, String link) {
+		return true;
+	}
+
+	/**
+	 * Info texts are static, so they are served from the WebPartCache.
 	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
-		page.addWritable("info", createWebPart(us, infoTmplName));
+		page.addWritable("info", createCachedWebPart(us, infoTmplName));
 	}
 
 }
@@ -0,0 +1,99 @@
+package org.wahlzeit.handlers;
+
+import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.Gauge;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
+import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.WebPart;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A handler class for the page showing the counters, gauges and timings of the MetricRegistry to administrators. The
+ * same metrics can be scraped in the Prometheus text format from the MetricsServlet.
+ */
+public class ShowMetricsPageHandler extends AbstractWebPageHandler {
+
+	/**
+	 *
+	 */
+	public ShowMetricsPageHandler() {
+		initialize(PartUtil.SHOW_METRICS_PAGE_FILE, AccessRights.ADMINISTRATOR);
+	}
+
+	/**
+	 *
+	 */
+	protected void makeWebPageBody(UserSession us, WebPart page) {
+		MetricRegistry registry = MetricRegistry.getInstance();
+		page.addString("counters", asCountersTable(registry.getCounters()));
+		page.addString("gauges", asGaugesTable(registry.getGauges()));
+		page.addString("timings", asTimingsTable(registry.getHistograms()));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asCountersTable(List<Counter> counters) {
+		StringBuilder result = new StringBuilder(64 * (counters.size() + 1));
+		result.append("<table class=\"metrics\"><tr><th>name</th><th>count</th></tr>");
+		for (Counter counter : counters) {
+			appendRow(result, counter.getName(), String.valueOf(counter.getCount()));
+		}
+		return result.append("</table>").toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asGaugesTable(List<Map.Entry<String, Gauge>> gauges) {
+		StringBuilder result = new StringBuilder(64 * (gauges.size() + 1));
+		result.append("<table class=\"metrics\"><tr><th>name</th><th>value</th></tr>");
+		for (Map.Entry<String, Gauge> gauge : gauges) {
+			appendRow(result, gauge.getKey(), String.valueOf(gauge.getValue().getValue()));
+		}
+		return result.append("</table>").toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asTimingsTable(List<TimingHistogram> histograms) {
+		StringBuilder result = new StringBuilder(128 * (histograms.size() + 1));
+		result.append("<table class=\"metrics\"><tr><th>name</th><th>count</th><th>p50 ms</th><th>p99 ms</th>");
+		result.append("<th>max ms</th><th>total ms</th></tr>");
+		for (TimingHistogram histogram : histograms) {
+			appendRow(result, histogram.getName(),
+					String.valueOf(histogram.getCount()),
+					asMillisString(histogram.getNanosAtPercentile(50.0)),
+					asMillisString(histogram.getNanosAtPercentile(99.0)),
+					asMillisString(histogram.getMaxNanos()),
+					asMillisString(histogram.getTotalNanos()));
+		}
+		return result.append("</table>").toString();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void appendRow(StringBuilder table, String name, String... values) {
+		table.append("<tr><td align=\"left\">").append(HtmlUtil.maskForWeb(name)).append("</td>");
+		for (String value : values) {
+			table.append("<td align=\"right\">").append(value).append("</td>");
+		}
+		table.append("</tr>");
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asMillisString(long nanos) {
+		return String.format(Locale.US, "%.3f", TimingHistogram.asMillis(nanos));
+	}
+
+}
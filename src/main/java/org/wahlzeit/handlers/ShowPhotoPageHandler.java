@@ -30,7 +30,9 @@ import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.Tags;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartCache;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
@@ -83,6 +85,20 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		return link;
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * The permalink page of a photo is the same for all guests that have neither praised a photo nor set a filter.
+	 */
+	public boolean isCacheableForGuests(UserSession us, String link) {
+		if (link.equals(PartUtil.SHOW_PHOTO_PAGE_NAME) || us.getClient().getLastPraisedPhoto() != null) {
+			return false;
+		}
+
+		PhotoFilter filter = us.getPhotoFilter();
+		return StringUtil.isNullOrEmptyString(filter.getUserName()) && filter.getTags().getSize() == 0;
+	}
+
 	/**
 	 *
 	 */
@@ -120,7 +136,7 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 	/**
 	 *
 	 */
-	protected void makeLeftSidebar(UserSession us, WebPart page) {
+	protected void makeLeftSidebar(final UserSession us, WebPart page) {
 		WritableList parts = new WritableList();
 
 		Client client = us.getClient();
@@ -128,14 +144,20 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (lastPraisedPhoto != null) {
 			parts.append(makePriorPhotoInfo(us, lastPraisedPhoto));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(createCachedWebPart(us, PartUtil.BLURP_INFO_FILE));
 		}
 
-		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
-		Writable filterPhotos = handler.makeWebPart(us);
+		// the filter form only shows the filter settings, so they are all the cache needs to know
+		PhotoFilter filter = us.getPhotoFilter();
+		Writable filterPhotos = getCachedWebPart(us, PartUtil.FILTER_PHOTOS_FORM_NAME,
+				new WebPartCache.FragmentSource() {
+					public Writable makeFragment() {
+						return getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME).makeWebPart(us);
+					}
+				}, filter.getUserName(), filter.getTags().asString());
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(createCachedWebPart(us, PartUtil.LINKS_INFO_FILE));
 
 		page.addWritable("sidebar", parts);
 	}
@@ -229,6 +251,18 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	public String handlePost(UserSession us, Map args) {
+		long startTime = System.nanoTime();
+		try {
+			return doHandlePost(us, args);
+		} finally {
+			handlePostTimes.recordSince(startTime);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected String doHandlePost(UserSession us, Map args) {
 		String result = PartUtil.DEFAULT_PAGE_NAME;
 
 		String id = us.getAndSaveAsString(args, Photo.ID);
@@ -21,8 +21,11 @@
 package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoCursor;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoSortOrder;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.utils.HtmlUtil;
@@ -30,11 +33,31 @@ import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * A handler class for a specific web page.
+ *
+ * The photos of the user are shown page by page, newest or most praised first, with {@value #PAGE_SIZE_PROPERTY}
+ * photos per page ({@value #DEFAULT_PAGE_SIZE} by default). The order and the cursor of the page come as the request
+ * arguments {@value #ORDER_ARG} and {@value #AFTER_ARG}.
  */
 public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 
+	/**
+	 *
+	 */
+	public static final String PAGE_SIZE_PROPERTY = "wahlzeit.userHome.pageSize";
+	public static final int DEFAULT_PAGE_SIZE = 20;
+	public static final String ORDER_ARG = "order";
+	public static final String AFTER_ARG = "after";
+
+	/**
+	 *
+	 */
+	protected final int pageSize = Math.max(1, Integer.getInteger(PAGE_SIZE_PROPERTY, DEFAULT_PAGE_SIZE));
+
 	/**
 	 *
 	 */
@@ -42,6 +65,15 @@ public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 		initialize(PartUtil.SHOW_USER_HOME_PAGE_FILE, AccessRights.USER);
 	}
 
+	/**
+	 * Saves order and cursor for making the page.
+	 */
+	protected String doHandleGet(UserSession us, String link, Map args) {
+		us.getAndSaveAsString(args, ORDER_ARG);
+		us.getAndSaveAsString(args, AFTER_ARG);
+		return super.doHandleGet(us, link, args);
+	}
+
 	/**
 	 *
 	 */
@@ -49,43 +81,53 @@ public class ShowUserHomePageHandler extends AbstractWebPageHandler {
 		Writable part = makeUserProfileForm(us);
 		page.addWritable("profile", part);
 
+		PhotoSortOrder order = PhotoSortOrder.getFromString(getSavedArgAsString(us, ORDER_ARG));
+		PhotoCursor cursor = PhotoCursor.getFromString(getSavedArgAsString(us, AFTER_ARG));
+
 		User user = (User) us.getClient();
-		Photo[] photos = user.getPhotos();
-		boolean wasEmpty = true;
-		if (photos.length != 0) {
+		// one more than shown tells whether there is a next page
+		List<Photo> photos = user.getPhotoPage(order, cursor, pageSize + 1);
+		boolean hasNextPage = photos.size() > pageSize;
+		if (hasNextPage) {
+			photos = photos.subList(0, pageSize);
+		}
+
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		if (!photos.isEmpty()) {
+			ShowUserPhotoFormHandler handler =
+					(ShowUserPhotoFormHandler) getFormHandler(PartUtil.SHOW_USER_PHOTO_FORM_NAME);
 			WritableList list = new WritableList();
 			for (Photo photo : photos) {
 				// load it from the PhotoManager to make sure the same copy is used
 				photo = PhotoManager.getInstance().getPhotoFromId(photo.getId());
-				if (!photo.getStatus().isDeleted()) {
-					part = makeUserPhotoForm(us, photo);
-					list.append(part);
-					wasEmpty = false;
-				}
+				list.append(handler.makeWebPart(us, photo));
 			}
 			page.addWritable("photos", list);
+		} else if (cursor == null) {
+			page.addString("photos", HtmlUtil.asP(config.getNoPhotoUploaded()));
 		}
 
-		if (wasEmpty) {
-			page.addString("photos", HtmlUtil.asP(us.getClient().getLanguageConfiguration().getNoPhotoUploaded()));
+		if (hasNextPage) {
+			String cursorArg = order.asCursor(photos.get(photos.size() - 1)).asString();
+			String link = PartUtil.SHOW_USER_HOME_PAGE_NAME + ".html?" + ORDER_ARG + "=" + order.asString() + "&amp;" +
+					AFTER_ARG + "=" + cursorArg;
+			page.addString("morePhotos", HtmlUtil.asP("<a href=\"" + link + "\">" + config.getMorePhotos() + "</a>"));
 		}
 	}
 
 	/**
-	 *
+	 * @methodtype get
 	 */
-	protected Writable makeUserProfileForm(UserSession us) {
-		WebFormHandler handler = getFormHandler(PartUtil.SHOW_USER_PROFILE_FORM_NAME);
-		return handler.makeWebPart(us);
+	protected String getSavedArgAsString(UserSession us, String key) {
+		Object value = us.getSavedArg(key);
+		return (value == null || value.toString().isEmpty()) ? null : value.toString();
 	}
 
-
 	/**
 	 *
 	 */
-	protected Writable makeUserPhotoForm(UserSession us, Photo photo) {
-		us.setPhotoId(photo.getId());
-		WebFormHandler handler = getFormHandler(PartUtil.SHOW_USER_PHOTO_FORM_NAME);
+	protected Writable makeUserProfileForm(UserSession us) {
+		WebFormHandler handler = getFormHandler(PartUtil.SHOW_USER_PROFILE_FORM_NAME);
 		return handler.makeWebPart(us);
 	}
 
@@ -34,6 +34,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -51,12 +52,34 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 		initialize(PartUtil.SHOW_USER_PHOTO_FORM_FILE, AccessRights.USER);
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Makes the form for the photo, without setting it as the photo of the session.
+	 */
+	public WebPart makeWebPart(UserSession us, Photo photo) {
+		long startTime = System.nanoTime();
+		try {
+			WebPart result = createWebPart(us);
+			doMakeWebPart(us, result, photo);
+			return result;
+		} finally {
+			makeWebPartTimes.recordSince(startTime);
+		}
+	}
+
 	/**
 	 *
 	 */
 	protected void doMakeWebPart(UserSession us, WebPart part) {
 		PhotoId photoId = us.getPhotoId();
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+		doMakeWebPart(us, part, PhotoManager.getInstance().getPhoto(photoId));
+	}
+
+	/**
+	 *
+	 */
+	protected void doMakeWebPart(UserSession us, WebPart part, Photo photo) {
 		String id = photo.getId().asString();
 		ModelConfig config = us.getClient().getLanguageConfiguration();
 		part.addString(Photo.ID, id);
@@ -105,9 +128,9 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 			user.setUserPhoto(photo);
 			us.setClient(user);
 			userManager.saveClient(user);
-			log.info(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.INFO).
 					addAction("Select user photo").
-					addParameter("Photo", id).toString());
+					addParameter("Photo", id).log();
 		} else if (us.isFormType(args, "delete")) {
 			photo.setStatus(photo.getStatus().asDeleted(true));
 			PhotoManager.getInstance().savePhoto(photo);
@@ -115,8 +138,8 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 				user.setUserPhoto(null);
 				userManager.saveClient(user);
 			}
-			log.info(LogBuilder.createUserMessage().
-					addAction("Deselect user photo").toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addAction("Deselect user photo").log();
 		}
 
 		return result;
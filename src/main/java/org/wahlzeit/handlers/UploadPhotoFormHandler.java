@@ -20,9 +20,10 @@
 
 package org.wahlzeit.handlers;
 
-import com.google.appengine.api.images.Image;
 import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.ImageScalingPipeline;
+import org.wahlzeit.model.ImageUpload;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
@@ -34,6 +35,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -72,31 +74,39 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 			return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
 		}
 
+		User user = (User) us.getClient();
+		ImageUpload imageUpload = user.takeImageUpload();
 		try {
 			PhotoManager pm = PhotoManager.getInstance();
 			String fileName = us.getAsString(args, "fileName");
-			User user = (User) us.getClient();
-			Image uploadedImage = user.getUploadedImage();
-			Photo photo = pm.createPhoto(fileName, uploadedImage);
+			Photo photo = pm.createPhoto(fileName, imageUpload);
+			ImageScalingPipeline pipeline = ImageScalingPipeline.getInstance();
+			if (pipeline.isBoundToRequest()) {
+				pipeline.awaitScaling(photo.getId());
+			}
 
 			user.addPhoto(photo);
 
 			photo.setTags(new Tags(tags));
 
-			log.config(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.CONFIG).
 					addAction("Upload Photo").
 					addParameter("Photo", photo.getId().asString()).
-					addParameter("tags", photo.getTags().asString()).toString());
+					addParameter("tags", photo.getTags().asString()).log();
 
 			us.setTwoLineMessage(config.getPhotoUploadSucceeded(), config.getKeepGoing());
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addAction("Calling async task to save Photo").
-					addParameter("ID", photo.getId().asString()).toString());
+					addParameter("ID", photo.getId().asString()).log();
 
 			AsyncTaskExecutor.savePhotoAsync(photo.getId().asString());
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("uploading photo failed", ex).log();
 			us.setMessage(config.getPhotoUploadFailed());
+		} finally {
+			if (imageUpload != null) {
+				imageUpload.dispose();
+			}
 		}
 
 		return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
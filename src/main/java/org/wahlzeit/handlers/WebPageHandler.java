@@ -34,5 +34,10 @@ public interface WebPageHandler extends WebPartHandler {
 	 */
 	WebPart makeWebPart(UserSession us);
 
+	/**
+	 * Returns true if the page for the link looks the same for all guests with the same language and photo size, so
+	 * that it may be served from the guest page cache. Called after handleGet().
+	 */
+	boolean isCacheableForGuests(UserSession us, String link);
 
 }
@@ -21,27 +21,53 @@
 package org.wahlzeit.main;
 
 import org.wahlzeit.model.GlobalsManager;
+import org.wahlzeit.model.ImageScalingPipeline;
+import org.wahlzeit.model.ModelInvalidator;
+import org.wahlzeit.model.ModelSnapshot;
+import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCaseManager;
 import org.wahlzeit.model.PhotoFactory;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.PhotoSortOrder;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.TieredImageStorage;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A single-threaded Main class with database connection. Can be used by tools that don't want to start a server.
+ * A Main class with database connection. Can be used by tools that don't want to start a server. It restores users and
+ * photos from a ModelSnapshot, if one is configured, or else loads them side by side, in StartupPhases.
  */
 public abstract class ModelMain extends AbstractMain {
 
 	private static final Logger log = Logger.getLogger(ModelMain.class.getName());
 
+	/**
+	 * System property for the number of thumbnails of the newest photos that are read into the image caches at start
+	 * up; the others are cached on first request
+	 */
+	public static final String PREWARM_THUMBNAILS_PROPERTY = "wahlzeit.prewarm.thumbnails";
+	public static final int DEFAULT_PREWARM_THUMBNAILS = 100;
+
+	/**
+	 * Null if no snapshot file is configured
+	 */
+	protected ModelSnapshot modelSnapshot = null;
+
 	/**
 	 *
 	 */
@@ -49,21 +75,93 @@ public abstract class ModelMain extends AbstractMain {
 		super.startUp(rootDir);
 		log.info("AbstractMain.startUp completed");
 
-		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("load image storage").log();
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		final TieredImageStorage imageStorage = new TieredImageStorage.Builder(new DatastoreAdapter()).build();
+		ImageStorage.setInstance(imageStorage);
+
+		// listen for the writes of other instances before loading, so that none is missed
+		ModelInvalidator.getInstance();
+
+		// globals set the id counters, then users and photos are restored or load side by side; thumbnails need photos
+		StartupPhases phases = new StartupPhases();
+		try {
+			phases.run("load globals", new StartupPhases.Phase() {
+				public void run() {
+					GlobalsManager.getInstance().loadGlobals();
+				}
+			});
+
+			long loadStartTime = System.currentTimeMillis();
+			Future<Void> users = null;
+			if (!restoreModelSnapshot(phases)) {
+				users = phases.start("load users", new StartupPhases.Phase() {
+					public void run() {
+						UserManager.getInstance().init();
+					}
+				});
+				Future<Void> photos = phases.start("load photos", new StartupPhases.Phase() {
+					public void run() {
+						PhotoFactory.initialize();
+						PhotoManager.getInstance().init();
+					}
+				});
+				phases.await(photos);
+			}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
-		GlobalsManager.getInstance().loadGlobals();
+			phases.run("prewarm thumbnails", new StartupPhases.Phase() {
+				public void run() {
+					prewarmThumbnails(imageStorage);
+				}
+			});
+			if (users != null) {
+				phases.await(users);
+				ModelSnapshot.setModelTime(loadStartTime);
+			}
+		} finally {
+			phases.finish();
+		}
+	}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load user").toString());
-		UserManager.getInstance().init();
+	/**
+	 * @methodtype command
+	 *
+	 * Restores users and photos from the configured snapshot and starts writing it; returns false if they still need
+	 * to be loaded.
+	 */
+	protected boolean restoreModelSnapshot(StartupPhases phases) throws Exception {
+		modelSnapshot = ModelSnapshot.getFromProperties();
+		if (modelSnapshot == null) {
+			return false;
+		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("init PhotoFactory").toString());
-		PhotoFactory.initialize();
+		final AtomicBoolean isRestored = new AtomicBoolean(false);
+		phases.run("restore snapshot", new StartupPhases.Phase() {
+			public void run() {
+				PhotoFactory.initialize();
+				isRestored.set(modelSnapshot.restore());
+			}
+		});
+		modelSnapshot.startWriting(Integer.getInteger(ModelSnapshot.INTERVAL_PROPERTY, 0));
+		return isRestored.get();
+	}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load Photos").toString());
-		PhotoManager.getInstance().init();
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the thumbnails of the newest photos only, so that start up does not take longer the more photos there are.
+	 */
+	protected void prewarmThumbnails(TieredImageStorage imageStorage) {
+		List<Photo> photos = new ArrayList<Photo>(PhotoManager.getInstance().getPhotoCache().values());
+		Collections.sort(photos, PhotoSortOrder.NEWEST.getComparator());
+
+		int noThumbnails = Math.min(photos.size(),
+				Integer.getInteger(PREWARM_THUMBNAILS_PROPERTY, DEFAULT_PREWARM_THUMBNAILS));
+		List<String> photoIds = new ArrayList<String>(noThumbnails);
+		for (Photo photo : photos.subList(0, noThumbnails)) {
+			photoIds.add(photo.getId().asString());
+		}
+		imageStorage.prewarm(photoIds, PhotoSize.THUMB);
 	}
 
 
@@ -72,6 +170,11 @@ public abstract class ModelMain extends AbstractMain {
 	 */
 	protected void shutDown() throws Exception {
 		saveAll();
+		if (modelSnapshot != null) {
+			modelSnapshot.stop();
+			modelSnapshot.tryWrite();
+		}
+		ImageScalingPipeline.dropInstance();
 
 		super.shutDown();
 	}
@@ -25,12 +25,16 @@ import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.EnglishModelConfig;
 import org.wahlzeit.model.GermanModelConfig;
 import org.wahlzeit.model.LanguageConfigs;
+import org.wahlzeit.services.AsyncLogWriter;
 import org.wahlzeit.services.ConfigDir;
+import org.wahlzeit.services.ConfigDirWatcher;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.LogEventBuffer;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -40,6 +44,20 @@ public class ServiceMain extends ModelMain {
 
 	private static final Logger log = Logger.getLogger(ServiceMain.class.getName());
 
+	/**
+	 *
+	 */
+	public static final String WATCH_CONFIG_DIRS_PROPERTY = "wahlzeit.configDirs.watch";
+
+	/**
+	 * Whether log messages are written by an AsyncLogWriter, how many it buffers, and whether messages that do not fit
+	 * are dropped ("drop") or wait ("block")
+	 */
+	public static final String ASYNC_LOG_PROPERTY = "wahlzeit.log.async";
+	public static final String ASYNC_LOG_BUFFER_SIZE_PROPERTY = "wahlzeit.log.bufferSize";
+	public static final String ASYNC_LOG_OVERFLOW_PROPERTY = "wahlzeit.log.overflow";
+	public static final int DEFAULT_ASYNC_LOG_BUFFER_SIZE = 8192;
+
 	/**
 	 *
 	 */
@@ -55,6 +73,16 @@ public class ServiceMain extends ModelMain {
 	 */
 	protected boolean isInProduction = false;
 
+	/**
+	 * Refreshes the ConfigDirs outside production; null if they are not watched
+	 */
+	protected ConfigDirWatcher configDirWatcher = null;
+
+	/**
+	 * Null if messages are logged synchronously
+	 */
+	protected AsyncLogWriter asyncLogWriter = null;
+
 	/**
 	 *
 	 */
@@ -90,20 +118,43 @@ public class ServiceMain extends ModelMain {
 	 */
 	public void startUp(boolean inProduction, String rootDir) throws Exception {
 		isInProduction = inProduction;
+		configureLogging();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start up ModelMain").log();
 		super.startUp(rootDir);
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Scan ConfigDirs").log();
+		configureConfigDirs();
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartTemplateService").log();
 		configureWebPartTemplateService();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartHandler").log();
 		configureWebPartHandlers();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure LanguageModels").log();
 		configureLanguageModels();
 
-		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Preload WebPartTemplates").log();
+		WebPartTemplateService.getInstance().preloadTemplates(LanguageConfigs.getLanguageCodes());
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("StartUp complete.").log();
+	}
+
+	/**
+	 * Scans the config directories up front, so that no request has to, and watches them for new files unless the
+	 * system property {@value #WATCH_CONFIG_DIRS_PROPERTY} says otherwise (by default only outside production).
+	 */
+	public void configureConfigDirs() {
+		ConfigDir[] configDirs = {SysConfig.getStaticDir(), SysConfig.getScriptsDir(), SysConfig.getTemplatesDir()};
+		for (ConfigDir configDir : configDirs) {
+			configDir.refresh();
+		}
+
+		String isToWatch = System.getProperty(WATCH_CONFIG_DIRS_PROPERTY, String.valueOf(!isInProduction));
+		if (Boolean.parseBoolean(isToWatch)) {
+			configDirWatcher = ConfigDirWatcher.startWatching(configDirs);
+		}
 	}
 
 	/**
@@ -203,6 +254,26 @@ public class ServiceMain extends ModelMain {
 		manager.addWebPartHandler(PartUtil.SHOW_ADMIN_MENU_FORM_NAME, temp);
 		manager.addWebPartHandler(PartUtil.ADMIN_USER_PROFILE_FORM_NAME, new AdminUserProfileFormHandler());
 		manager.addWebPartHandler(PartUtil.ADMIN_USER_PHOTO_FORM_NAME, new AdminUserPhotoFormHandler());
+		manager.addWebPartHandler(PartUtil.SHOW_METRICS_PAGE_NAME, new ShowMetricsPageHandler());
+	}
+
+	/**
+	 * Starts an AsyncLogWriter if the system property {@value #ASYNC_LOG_PROPERTY} is true.
+	 */
+	public void configureLogging() {
+		if (!Boolean.getBoolean(ASYNC_LOG_PROPERTY)) {
+			return;
+		}
+
+		int bufferSize = Integer.getInteger(ASYNC_LOG_BUFFER_SIZE_PROPERTY, DEFAULT_ASYNC_LOG_BUFFER_SIZE);
+		LogEventBuffer.OverflowPolicy overflowPolicy =
+				LogEventBuffer.OverflowPolicy.getFromString(System.getProperty(ASYNC_LOG_OVERFLOW_PROPERTY));
+		asyncLogWriter = AsyncLogWriter.startWriting(bufferSize, overflowPolicy);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("configure logging").
+				addParameter("async", asyncLogWriter != null).
+				addParameter("buffer size", bufferSize).
+				addParameter("overflow", overflowPolicy).log();
 	}
 
 	/**
@@ -220,7 +291,18 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		if (configDirWatcher != null) {
+			configDirWatcher.stop();
+			configDirWatcher = null;
+		}
+
 		super.shutDown();
+
+		// last, so that the messages of shutting down are written, too
+		if (asyncLogWriter != null) {
+			asyncLogWriter.stop();
+			asyncLogWriter = null;
+		}
 	}
 
 }
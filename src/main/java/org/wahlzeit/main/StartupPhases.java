@@ -0,0 +1,203 @@
+package org.wahlzeit.main;
+
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestThreadFactory;
+import org.wahlzeit.services.Session;
+import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.metrics.MetricRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * StartupPhases runs the phases of a start up, like loading users or photos, and times them. Phases that do not depend
+ * on each other can be started to run concurrently, each on its own request thread with the App Engine environment and
+ * the session of the starting thread; a phase that depends on others awaits them first. Each phase runs in its own
+ * Objectify context. The time of each phase goes into the log and into a histogram of the MetricRegistry named after
+ * the phase, and finish logs the times of all phases.
+ */
+public class StartupPhases {
+
+	/**
+	 *
+	 */
+	private static final Logger log = Logger.getLogger(StartupPhases.class.getName());
+
+	/**
+	 * System property to run all phases one after the other on the starting thread, e.g. for debugging
+	 */
+	public static final String PARALLEL_PROPERTY = "wahlzeit.startup.parallel";
+
+	/**
+	 *
+	 */
+	protected static final long FINISH_TIMEOUT_SECONDS = 30;
+
+	/**
+	 *
+	 */
+	public interface Phase {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Null if the phases run one after the other
+	 */
+	protected final ExecutorService executor;
+
+	/**
+	 *
+	 */
+	protected final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+	protected final Session session = SessionManager.getThreadLocalSession();
+	protected final long startTime = System.nanoTime();
+	protected final List<String> phaseTimes = new ArrayList<String>();
+
+	/**
+	 *
+	 */
+	public StartupPhases() {
+		this(Boolean.parseBoolean(System.getProperty(PARALLEL_PROPERTY, "true")));
+	}
+
+	/**
+	 *
+	 */
+	public StartupPhases(boolean isParallel) {
+		if (!isParallel) {
+			executor = null;
+			return;
+		}
+
+		executor = Executors.newCachedThreadPool(new RequestThreadFactory("startup"));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Runs the phase on the calling thread.
+	 */
+	public void run(String name, Phase phase) throws Exception {
+		runPhase(name, phase);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts the phase on a thread of its own; await its result before using what it loads. If the phases run one
+	 * after the other, it runs the phase right away.
+	 */
+	public Future<Void> start(final String name, final Phase phase) {
+		Callable<Void> callable = new Callable<Void>() {
+			public Void call() throws Exception {
+				// App Engine services are bound to the calling thread, so hand its environment over to the phase
+				ApiProxy.Environment threadEnvironment = ApiProxy.getCurrentEnvironment();
+				Session threadSession = SessionManager.getThreadLocalSession();
+				if (environment != null) {
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+				}
+				SessionManager.setThreadLocalSession(session);
+				try {
+					runPhase(name, phase);
+					return null;
+				} finally {
+					SessionManager.setThreadLocalSession(threadSession);
+					if (threadEnvironment != null) {
+						ApiProxy.setEnvironmentForCurrentThread(threadEnvironment);
+					} else {
+						ApiProxy.clearEnvironmentForCurrentThread();
+					}
+				}
+			}
+		};
+
+		if (executor != null) {
+			return executor.submit(callable);
+		}
+
+		FutureTask<Void> result = new FutureTask<Void>(callable);
+		result.run();
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Waits for the phase to end, and throws what it threw.
+	 */
+	public void await(Future<Void> phase) throws Exception {
+		try {
+			phase.get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void runPhase(String name, Phase phase) throws Exception {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("start up").addParameter("phase", name).log();
+		long phaseStartTime = System.nanoTime();
+		Closeable ofy = ObjectifyService.begin();
+		try {
+			phase.run();
+		} finally {
+			ofy.close();
+		}
+
+		long nanos = System.nanoTime() - phaseStartTime;
+		MetricRegistry.getInstance().getHistogram("startup " + name).record(nanos);
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		synchronized (phaseTimes) {
+			phaseTimes.add(name + " " + millis + " ms");
+		}
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("started up").
+				addParameter("phase", name).
+				addParameter("ms", millis).log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Waits for the phases that have not ended, as request threads may not outlive the request, and logs the time of
+	 * all phases.
+	 */
+	public void finish() {
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(FINISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		String times;
+		synchronized (phaseTimes) {
+			times = phaseTimes.toString();
+		}
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("start up phases").
+				addParameter("phases", times).
+				addParameter("total ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)).log();
+	}
+
+}
@@ -24,6 +24,7 @@ import com.google.appengine.api.datastore.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
@@ -53,6 +54,7 @@ public abstract class Client implements Serializable, Persistent {
 	public static final String ID = "id";
 	public static final String NICK_NAME = "nickName";
 	public static final String LANGUAGE = "language";
+	public static final String MODIFIED_ON = "modifiedOn";
 
 	@Id
 	protected String id;
@@ -75,6 +77,17 @@ public abstract class Client implements Serializable, Persistent {
 	@Ignore
 	protected int writeCount = 0;
 
+	/**
+	 * Time of the last write, 0 if the client has not been written since the field was introduced
+	 */
+	@Index
+	protected long modifiedOn = 0;
+
+	/**
+	 * Counts the writes of the client; other instances compare it rather than the time of the write, as clocks differ
+	 */
+	protected long version = 0;
+
 	private String httpSessionId;
 
 	protected Language language = Language.ENGLISH;
@@ -216,6 +229,36 @@ public abstract class Client implements Serializable, Persistent {
 		writeCount = 0;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public long getModifiedOn() {
+		return modifiedOn;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setModifiedOn(long time) {
+		modifiedOn = time;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * To be called right before the client is written.
+	 */
+	public void incVersion() {
+		version++;
+	}
+
 	/**
 	 *
 	 */
@@ -2,11 +2,13 @@ package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.Persistent;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -73,7 +75,7 @@ public abstract class ClientManager extends ObjectManager {
 		idClientMap.put(client.getId(), client);
 		writeObject(client);
 		listOfUsedNicknames.add(client.getNickName());
-		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Added new user", client.getId()).log();
 	}
 
 	/**
@@ -126,9 +128,9 @@ public abstract class ClientManager extends ObjectManager {
 	public void doAddHttpSessionIdToClientMapping(String httpSessionId, Client client) {
 		httpSessionIdToClientMap.put(httpSessionId, client);
 		client.setHttpSessionId(httpSessionId);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addParameter("client name", client.getNickName()).
-				addParameter("httpSessionId", httpSessionId).toString());
+				addParameter("httpSessionId", httpSessionId).log();
 	}
 
 
@@ -141,6 +143,20 @@ public abstract class ClientManager extends ObjectManager {
 		updateObject(client);
 	}
 
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 *
+	 * Counts the write in the version of the client, which other instances compare to their cached one.
+	 */
+	@Override
+	protected void doWriteObject(Persistent object) {
+		if (object instanceof Client) {
+			((Client) object).incVersion();
+		}
+		super.doWriteObject(object);
+	}
+
 
 	// save methods ----------------------------------------------------------------------------------------------------
 
@@ -0,0 +1,19 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+
+/**
+ * An ImageScaler creates a scaled version of an image that fits into a photo size.
+ * Use {@link PhotoFactory#getImageScaler()} to get the configured one.
+ */
+public interface ImageScaler {
+
+	/**
+	 * Scales the source so that it fits into the given size, keeping its aspect ratio. Implementations may modify the
+	 * source, so callers that still need it have to pass a copy.
+	 *
+	 * @methodtype factory
+	 */
+	Image scale(Image source, PhotoSize size) throws Exception;
+
+}
@@ -0,0 +1,338 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.util.concurrent.SettableFuture;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ImageScalingPipeline creates the eagerly needed sizes of an uploaded image in parallel on a bounded thread pool.
+ * All other sizes are created on first request by the {@link ScaledImageProvider}. The workers use the App Engine
+ * environment of the uploading request. On App Engine, each scaling gets a pool of request threads of its own, and
+ * as request threads may not outlive their request, the uploading request has to await the scaling before it ends.
+ * Elsewhere, the scalings share one pool and the uploading request may end before they are done; requests for a
+ * size that is still being scaled await it.
+ *
+ * Each size is derived from the smallest already scaled size that is at least twice as large, or from the source if
+ * there is none (cascade downscaling). This way, most sizes are scaled from a much smaller image than the original,
+ * and independent branches (e.g. EXTRA_LARGE -> MEDIUM -> EXTRA_SMALL -> THUMB and LARGE -> SMALL) run in parallel.
+ */
+public class ImageScalingPipeline {
+
+	private static final Logger log = Logger.getLogger(ImageScalingPipeline.class.getName());
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+	public static final long DEFAULT_AWAIT_SECONDS = 30;
+
+	/**
+	 *
+	 */
+	protected static ImageScalingPipeline instance = null;
+
+	/**
+	 * Null on App Engine
+	 */
+	protected final ThreadPoolExecutor executor;
+	protected final int noThreads;
+	protected final int queueCapacity;
+
+	/**
+	 * Scalings that have been started but are not done yet
+	 */
+	protected final Map<PhotoId, Future<Photo>> pendingScalings = new ConcurrentHashMap<PhotoId, Future<Photo>>();
+
+	/**
+	 *
+	 */
+	public static synchronized ImageScalingPipeline getInstance() {
+		if (instance == null) {
+			int noThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+			instance = new ImageScalingPipeline(noThreads, DEFAULT_QUEUE_CAPACITY);
+		}
+		return instance;
+	}
+
+	/**
+	 * Shuts down the thread pool and drops the singleton instance to cope with repeated startup/shutdown scenarios.
+	 */
+	public static synchronized void dropInstance() {
+		if (instance != null) {
+			if (instance.executor != null) {
+				instance.executor.shutdown();
+			}
+			instance = null;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected ImageScalingPipeline(int noThreads, int queueCapacity) {
+		this.noThreads = noThreads;
+		this.queueCapacity = queueCapacity;
+		executor = RequestThreadFactory.isOnAppEngine() ? null : createExecutor();
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * When the queue is full, the submitting thread does the scaling itself, which throttles uploads under load. To be
+	 * called on the thread of the request.
+	 */
+	protected ThreadPoolExecutor createExecutor() {
+		ThreadPoolExecutor result = new ThreadPoolExecutor(noThreads, noThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueCapacity), new RequestThreadFactory("image-scaling"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		result.allowCoreThreadTimeOut(true);
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts scaling the source image to its eager sizes and adds them to the photo. The returned future is done when
+	 * all these sizes have been set; if the scaling is bound to the request, the request has to await it before it
+	 * ends.
+	 */
+	public Future<Photo> scale(Image source, Photo photo) {
+		return scale(source, photo, getEagerSizes(source.getWidth(), source.getHeight()));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts scaling the source image to the specified sizes, which the source has to satisfy.
+	 */
+	public Future<Photo> scale(Image source, Photo photo, List<PhotoSize> sizes) {
+		ScalingJob job = new ScalingJob(source.getImageData(), photo, sizes);
+		pendingScalings.put(photo.getId(), job.result);
+		job.start();
+		return job.result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Blocks until a pending scaling of the photo is done. Returns immediately if there is none.
+	 */
+	public void awaitScaling(PhotoId photoId) {
+		Future<Photo> pending = pendingScalings.get(photoId);
+		if (pending == null) {
+			return;
+		}
+
+		try {
+			pending.get(DEFAULT_AWAIT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("photo id", photoId.asString()).
+					addException("Scaling of photo failed", e.getCause()).log();
+		} catch (TimeoutException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("photo id", photoId.asString()).
+					addMessage("Scaling of photo did not finish in time").log();
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Tells whether scalings run on request threads, which the uploading request has to await before it ends.
+	 */
+	public boolean isBoundToRequest() {
+		return executor == null;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPendingScaling(PhotoId photoId) {
+		return pendingScalings.containsKey(photoId);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sizes that are created at upload: the largest size the source can satisfy, as all other sizes can
+	 * later be scaled from it, plus the thumbnail and the default size of the photo pages.
+	 */
+	public static List<PhotoSize> getEagerSizes(int sourceWidth, int sourceHeight) {
+		PhotoSize largestSize = PhotoSize.getFromWidthHeight(sourceWidth, sourceHeight);
+
+		List<PhotoSize> result = new ArrayList<PhotoSize>();
+		for (PhotoSize size : PhotoSize.values()) {
+			boolean isEager = size == largestSize || size == PhotoSize.THUMB || size == PhotoSize.MEDIUM;
+			if (isEager && !size.isWiderAndHigher(sourceWidth, sourceHeight)) {
+				result.add(size);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest of the scaled sizes that is at least twice as wide and high as the requested size, or null
+	 * if the size has to be scaled from the source.
+	 */
+	public static PhotoSize getParentSize(PhotoSize size, Collection<PhotoSize> scaledSizes) {
+		PhotoSize result = null;
+		for (PhotoSize candidate : scaledSizes) {
+			boolean isLargeEnough = candidate.getMaxPhotoWidth() >= 2 * size.getMaxPhotoWidth() &&
+					candidate.getMaxPhotoHeight() >= 2 * size.getMaxPhotoHeight();
+			if (isLargeEnough && (result == null || candidate.isSmaller(result))) {
+				result = candidate;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Scaling of one photo into all its sizes.
+	 */
+	protected class ScalingJob {
+
+		protected final byte[] sourceData;
+		protected final Photo photo;
+		protected final List<PhotoSize> sizes;
+		protected final Map<PhotoSize, PhotoSize> parentSizes = new ConcurrentHashMap<PhotoSize, PhotoSize>();
+		protected final Map<PhotoSize, Image> scaledImages = new ConcurrentHashMap<PhotoSize, Image>();
+		protected final AtomicInteger noOpenSizes;
+		protected final SettableFuture<Photo> result = SettableFuture.create();
+		protected final ThreadPoolExecutor jobExecutor = (executor != null) ? executor : createExecutor();
+
+		/**
+		 *
+		 */
+		protected ScalingJob(byte[] sourceData, Photo photo, List<PhotoSize> sizes) {
+			this.sourceData = sourceData;
+			this.photo = photo;
+			this.sizes = sizes;
+			this.noOpenSizes = new AtomicInteger(sizes.size());
+
+			for (PhotoSize size : sizes) {
+				PhotoSize parentSize = getParentSize(size, sizes);
+				if (parentSize != null) {
+					parentSizes.put(size, parentSize);
+				}
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void start() {
+			if (sizes.isEmpty()) {
+				finish();
+				return;
+			}
+
+			for (PhotoSize size : sizes) {
+				if (!parentSizes.containsKey(size)) {
+					submit(size);
+				}
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void submit(final PhotoSize size) {
+			// App Engine services are bound to the calling thread, so hand its environment over to the worker
+			final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+			jobExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					ApiProxy.Environment workerEnvironment = ApiProxy.getCurrentEnvironment();
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+					try {
+						scaleSize(size);
+					} finally {
+						if (workerEnvironment != null) {
+							ApiProxy.setEnvironmentForCurrentThread(workerEnvironment);
+						} else {
+							ApiProxy.clearEnvironmentForCurrentThread();
+						}
+					}
+				}
+			});
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void scaleSize(PhotoSize size) {
+			if (result.isDone()) {
+				return;
+			}
+
+			try {
+				PhotoSize parentSize = parentSizes.get(size);
+				byte[] parentData = (parentSize == null) ? sourceData : scaledImages.get(parentSize).getImageData();
+
+				// copy, as scalers may modify the image they scale
+				Image scaledImage = PhotoUtil.scaleImage(ImagesServiceFactory.makeImage(parentData), size);
+				scaledImages.put(size, scaledImage);
+				photo.setImage(size, scaledImage);
+
+				for (Map.Entry<PhotoSize, PhotoSize> entry : parentSizes.entrySet()) {
+					if (entry.getValue() == size) {
+						submit(entry.getKey());
+					}
+				}
+
+				if (noOpenSizes.decrementAndGet() == 0) {
+					finish();
+				}
+			} catch (Exception ex) {
+				pendingScalings.remove(photo.getId());
+				result.setException(ex);
+				shutDownJobExecutor();
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void finish() {
+			pendingScalings.remove(photo.getId());
+			result.set(photo);
+			shutDownJobExecutor();
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Scaled eager sizes of photo", photo.getId().asString()).log();
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * Lets the threads of a pool of the job's own end; queued sizes still run, but none remain when the job ends.
+		 */
+		protected void shutDownJobExecutor() {
+			if (jobExecutor != executor) {
+				jobExecutor.shutdown();
+			}
+		}
+	}
+}
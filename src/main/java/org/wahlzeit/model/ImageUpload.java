@@ -0,0 +1,123 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An uploaded image file that has been spooled to a temporary file, or to memory where there is no writable file
+ * system, until it is turned into a photo. Call dispose() when done to remove the temporary file.
+ */
+public class ImageUpload {
+
+	/**
+	 *
+	 */
+	protected final String fileName;
+	protected final String contentType;
+	protected final long length;
+
+	/**
+	 * Either the spool file or the data is set
+	 */
+	protected final File spoolFile;
+	protected final byte[] data;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageUpload(String fileName, String contentType, File spoolFile) {
+		this.fileName = fileName;
+		this.contentType = contentType;
+		this.length = spoolFile.length();
+		this.spoolFile = spoolFile;
+		this.data = null;
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageUpload(String fileName, String contentType, byte[] data) {
+		this.fileName = fileName;
+		this.contentType = contentType;
+		this.length = data.length;
+		this.spoolFile = null;
+		this.data = data;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public InputStream openStream() throws IOException {
+		if (spoolFile != null) {
+			return new FileInputStream(spoolFile);
+		} else {
+			return new ByteArrayInputStream(data);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Reads the upload into an image. The image API needs the whole file as array, so it is read once into an array of
+	 * the exact size.
+	 */
+	public Image readImage() throws IOException {
+		if (data != null) {
+			return ImagesServiceFactory.makeImage(data);
+		}
+
+		byte[] imageData = new byte[(int) length];
+		DataInputStream input = new DataInputStream(openStream());
+		try {
+			input.readFully(imageData);
+		} finally {
+			input.close();
+		}
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void dispose() {
+		if (spoolFile != null) {
+			spoolFile.delete();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isSpooledToFile() {
+		return spoolFile != null;
+	}
+
+}
@@ -0,0 +1,29 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.Transform;
+
+/**
+ * ImageScaler that uses the Google App Engine images service. Requires the App Engine environment of the calling
+ * thread.
+ */
+public class ImagesServiceScaler implements ImageScaler {
+
+	/**
+	 * @methodtype factory
+	 */
+	public Image scale(Image source, PhotoSize size) throws Exception {
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+
+		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
+		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+
+		ImagesService imagesService = ImagesServiceFactory.getImagesService();
+		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
+		return imagesService.applyTransform(resize, source);
+	}
+
+}
@@ -0,0 +1,206 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * ImageScaler that runs in-process with javax.imageio and Java 2D, so it needs no App Engine service.
+ *
+ * The image is halved by averaging 2x2 pixel blocks (area averaging) as long as it stays at least as large as the
+ * target; the remaining step of less than 2x is done with bilinear interpolation. This avoids the aliasing of a
+ * single bilinear step over a large factor. Opaque results are written as JPEG with the configured quality, images
+ * with an alpha channel as PNG.
+ */
+public class Java2DImageScaler implements ImageScaler {
+
+	/**
+	 *
+	 */
+	public static final float DEFAULT_JPEG_QUALITY = 0.85f;
+
+	/**
+	 *
+	 */
+	protected final float jpegQuality;
+
+	/**
+	 *
+	 */
+	public Java2DImageScaler() {
+		this(DEFAULT_JPEG_QUALITY);
+	}
+
+	/**
+	 * @param jpegQuality between 0.0 (smallest file) and 1.0 (best quality)
+	 */
+	public Java2DImageScaler(float jpegQuality) {
+		if (jpegQuality < 0.0f || jpegQuality > 1.0f) {
+			throw new IllegalArgumentException("invalid JPEG quality: " + jpegQuality);
+		}
+		this.jpegQuality = jpegQuality;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public Image scale(Image source, PhotoSize size) throws IOException {
+		BufferedImage sourceImage = ImageIO.read(new ByteArrayInputStream(source.getImageData()));
+		if (sourceImage == null) {
+			throw new IOException("unsupported image format");
+		}
+
+		BufferedImage scaledImage = scale(sourceImage, size);
+		return ImagesServiceFactory.makeImage(encode(scaledImage));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public BufferedImage scale(BufferedImage source, PhotoSize size) {
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
+		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+
+		BufferedImage result = asIntImage(source);
+		while (result.getWidth() / 2 >= targetWidth && result.getHeight() / 2 >= targetHeight) {
+			result = halve(result);
+		}
+
+		if (result.getWidth() != targetWidth || result.getHeight() != targetHeight) {
+			result = resizeBilinear(result, targetWidth, targetHeight);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected BufferedImage asIntImage(BufferedImage image) {
+		int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		if (image.getType() == type) {
+			return image;
+		}
+
+		BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), type);
+		Graphics2D g = result.createGraphics();
+		try {
+			g.drawImage(image, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Halves width and height by averaging each 2x2 block of pixels per channel.
+	 */
+	protected BufferedImage halve(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int newWidth = width / 2;
+		int newHeight = height / 2;
+
+		int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+		int[] newPixels = new int[newWidth * newHeight];
+
+		for (int y = 0; y < newHeight; y++) {
+			int row = 2 * y * width;
+			for (int x = 0; x < newWidth; x++) {
+				int i = row + 2 * x;
+				int p1 = pixels[i];
+				int p2 = pixels[i + 1];
+				int p3 = pixels[i + width];
+				int p4 = pixels[i + width + 1];
+
+				newPixels[y * newWidth + x] = (average(p1, p2, p3, p4, 24) << 24) |
+						(average(p1, p2, p3, p4, 16) << 16) |
+						(average(p1, p2, p3, p4, 8) << 8) |
+						average(p1, p2, p3, p4, 0);
+			}
+		}
+
+		BufferedImage result = new BufferedImage(newWidth, newHeight, image.getType());
+		result.setRGB(0, 0, newWidth, newHeight, newPixels, 0, newWidth);
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Rounded average of the channel at the given bit offset of four ARGB pixels.
+	 */
+	protected static int average(int p1, int p2, int p3, int p4, int shift) {
+		int sum = ((p1 >>> shift) & 0xff) + ((p2 >>> shift) & 0xff) + ((p3 >>> shift) & 0xff) + ((p4 >>> shift) & 0xff);
+		return (sum + 2) >> 2;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected BufferedImage resizeBilinear(BufferedImage image, int width, int height) {
+		BufferedImage result = new BufferedImage(width, height, image.getType());
+		Graphics2D g = result.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			g.dispose();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected byte[] encode(BufferedImage image) throws IOException {
+		boolean hasAlpha = image.getColorModel().hasAlpha();
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(hasAlpha ? "png" : "jpeg");
+		if (!writers.hasNext()) {
+			throw new IOException("no image writer available");
+		}
+
+		ImageWriter writer = writers.next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (!hasAlpha) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(jpegQuality);
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ImageOutputStream out = ImageIO.createImageOutputStream(result);
+		try {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+
+}
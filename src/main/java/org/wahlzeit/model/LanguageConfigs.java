@@ -22,7 +22,9 @@ package org.wahlzeit.model;
 
 import org.wahlzeit.services.Language;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -44,6 +46,17 @@ public class LanguageConfigs {
 		return configurations.get(language);
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public static List<String> getLanguageCodes() {
+		List<String> result = new ArrayList<String>();
+		for (ModelConfig config : configurations.values()) {
+			result.add(config.getLanguageCode());
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 */
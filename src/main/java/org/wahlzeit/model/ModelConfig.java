@@ -163,6 +163,8 @@ public interface ModelConfig extends Configuration, Serializable {
 	// SHOW_USER_PROFILE_FORM
 	String getNoPhotoUploaded();
 
+	String getMorePhotos();
+
 	// SHOW_USER_PHOTO_FORM
 	String getNoCharacterName();
 
@@ -0,0 +1,227 @@
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.Key;
+import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.invalidation.Invalidation;
+import org.wahlzeit.services.invalidation.InvalidationBus;
+import org.wahlzeit.services.invalidation.LocalInvalidationBus;
+import org.wahlzeit.services.invalidation.MemcacheInvalidationBus;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.MetricRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ModelInvalidator keeps the photo cache and the users of an instance in step with the writes of other instances.
+ * Each photo and user an instance writes is published on an InvalidationBus, with the count of its writes as version,
+ * as the clocks of instances may differ.
+ * At the start of a request, at most every POLL_MILLIS_PROPERTY ms, the invalidations of other instances are received,
+ * and each photo or user that is cached in an older version, or not at all, is read again. If invalidations may have
+ * been lost, the photos and users written since the model time of the ModelSnapshot are read instead. Each receive
+ * moves the model time forward, as the model then knows all writes up to it.
+ */
+public class ModelInvalidator {
+
+	private static final Logger log = Logger.getLogger(ModelInvalidator.class.getName());
+
+	/**
+	 * System property for the ms between two receives
+	 */
+	public static final String POLL_MILLIS_PROPERTY = "wahlzeit.invalidation.pollMillis";
+	public static final int DEFAULT_POLL_MILLIS = 1000;
+
+	/**
+	 * Kinds of invalidations
+	 */
+	public static final String PHOTO = "Photo";
+	public static final String USER = "User";
+
+	/**
+	 *
+	 */
+	protected static final Counter noPublished = MetricRegistry.getInstance().getCounter("invalidations published");
+	protected static final Counter noReceived = MetricRegistry.getInstance().getCounter("invalidations received");
+	protected static final Counter noRefreshed = MetricRegistry.getInstance().getCounter("invalidations refreshed");
+	protected static final Counter noCatchUps = MetricRegistry.getInstance().getCounter("invalidation catch ups");
+
+	/**
+	 *
+	 */
+	protected static ModelInvalidator instance = null;
+
+	/**
+	 *
+	 */
+	protected final InvalidationBus bus;
+	protected final long pollMillis;
+	protected final AtomicLong nextReceiveTime = new AtomicLong(0);
+
+	/**
+	 * @methodtype get
+	 */
+	public static synchronized ModelInvalidator getInstance() {
+		if (instance == null) {
+			setInstance(new ModelInvalidator(createDefaultBus()));
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(ModelInvalidator newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Instances only share memcache in production; the development server runs one instance.
+	 */
+	protected static InvalidationBus createDefaultBus() {
+		if (ServiceMain.getInstance().isInProduction()) {
+			return new MemcacheInvalidationBus();
+		} else {
+			return new LocalInvalidationBus();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public ModelInvalidator(InvalidationBus myBus) {
+		bus = myBus;
+		pollMillis = Integer.getInteger(POLL_MILLIS_PROPERTY, DEFAULT_POLL_MILLIS);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public InvalidationBus getBus() {
+		return bus;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * To be called after the photo has been written.
+	 */
+	public void publishPhoto(Photo photo) {
+		bus.publish(new Invalidation(PHOTO, photo.getId().asString(), Key.create(photo).getString(),
+				photo.getSavedVersion()));
+		noPublished.increment();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * To be called after the user has been written.
+	 */
+	public void publishUser(User user) {
+		bus.publish(new Invalidation(USER, user.getId(), Key.create(user).getString(), user.getVersion()));
+		noPublished.increment();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Receives unless the last receive is less than the poll interval ago; only one thread receives at a time.
+	 */
+	public void receiveIfDue() {
+		long now = System.currentTimeMillis();
+		long receiveTime = nextReceiveTime.get();
+		if (now >= receiveTime && nextReceiveTime.compareAndSet(receiveTime, now + pollMillis)) {
+			receive();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads what other instances have written since the last receive; failures are logged and caught up on later.
+	 */
+	public synchronized void receive() {
+		long receiveTime = System.currentTimeMillis();
+		try {
+			List<Invalidation> invalidations = bus.receive();
+			if (invalidations == null) {
+				catchUp();
+			} else {
+				noReceived.add(invalidations.size());
+				for (Invalidation invalidation : invalidations) {
+					refresh(invalidation);
+				}
+			}
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addAction("receive invalidations").
+					addException("model may be stale until the next receive", ex).log();
+			return;
+		}
+
+		// a model that has not been loaded yet reads all writes anyway
+		if (ModelSnapshot.getModelTime() != 0) {
+			ModelSnapshot.setModelTime(receiveTime);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void refresh(Invalidation invalidation) {
+		boolean isRefreshed = false;
+		if (PHOTO.equals(invalidation.getKind())) {
+			PhotoManager photoManager = PhotoManager.getInstance();
+			PhotoId id = PhotoId.getIdFromString(invalidation.getId());
+			if (!photoManager.hasPhotoVersion(id, invalidation.getVersion())) {
+				Photo photo = photoManager.readPhoto(invalidation.getKey());
+				isRefreshed = (photo != null) && photoManager.refreshPhoto(photo);
+			}
+		} else if (USER.equals(invalidation.getKind())) {
+			UserManager userManager = UserManager.getInstance();
+			if (!userManager.hasUserVersion(invalidation.getId(), invalidation.getVersion())) {
+				User user = userManager.readUser(invalidation.getKey());
+				isRefreshed = (user != null) && userManager.refreshUser(user);
+			}
+		}
+
+		if (isRefreshed) {
+			noRefreshed.increment();
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("refresh").
+					addParameter("invalidation", invalidation).log();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the photos and users written since the model time, less the clock skew.
+	 */
+	protected void catchUp() {
+		long modelTime = ModelSnapshot.getModelTime();
+		if (modelTime == 0) {
+			return;
+		}
+
+		noCatchUps.increment();
+		List<Photo> photos = new ArrayList<Photo>();
+		PhotoManager.getInstance().readPhotosModifiedSince(modelTime - ModelSnapshot.CLOCK_SKEW_MILLIS, photos);
+		for (Photo photo : photos) {
+			PhotoManager.getInstance().refreshPhoto(photo);
+		}
+		List<User> users = new ArrayList<User>();
+		UserManager.getInstance().readUsersModifiedSince(modelTime - ModelSnapshot.CLOCK_SKEW_MILLIS, users);
+		for (User user : users) {
+			UserManager.getInstance().refreshUser(user);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("catch up on lost invalidations").
+				addParameter("photos", photos.size()).
+				addParameter("users", users.size()).log();
+	}
+
+}
@@ -0,0 +1,435 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.cmd.Loader;
+import com.googlecode.objectify.cmd.Saver;
+import com.googlecode.objectify.util.Closeable;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A ModelSnapshot is a file with the photos and users an instance holds in memory, so that a restarted instance reads
+ * them in one go instead of querying the datastore for all of them. Each photo and user is stored as the protocol
+ * buffer of its datastore entity, so restoring it gives what loading it from the datastore would. The file starts
+ * with a magic number, the format version, the model time and a CRC32 of the records; it is written to a temporary
+ * file and renamed into place, and read memory-mapped. After the records, a delta query reads the photos and users
+ * written since the model time, e.g. by other instances. A snapshot that does not check out, or is older than
+ * MAX_AGE_PROPERTY hours, is ignored, and the model is loaded from the datastore as before.
+ */
+public class ModelSnapshot implements Runnable {
+
+	private static final Logger log = Logger.getLogger(ModelSnapshot.class.getName());
+
+	/**
+	 * System property for the snapshot file; without it, no snapshot is restored or written
+	 */
+	public static final String FILE_PROPERTY = "wahlzeit.snapshot.file";
+
+	/**
+	 * System property for the minutes between two snapshots; with 0, the snapshot is only written at shut down
+	 */
+	public static final String INTERVAL_PROPERTY = "wahlzeit.snapshot.intervalMinutes";
+
+	/**
+	 * System property for the age in hours after which a snapshot is not restored
+	 */
+	public static final String MAX_AGE_PROPERTY = "wahlzeit.snapshot.maxAgeHours";
+	public static final int DEFAULT_MAX_AGE_HOURS = 24;
+
+	/**
+	 * The delta query starts this much before the model time, for instances with clocks that are ahead
+	 */
+	public static final long CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Header: magic number, version, model time, length and checksum of the records
+	 */
+	protected static final int MAGIC = 0x575A534E; // "WZSN"
+	protected static final int VERSION = 1;
+	protected static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+
+	/**
+	 * Each record is its kind, the length of the entity and the entity
+	 */
+	protected static final byte PHOTO_RECORD = 1;
+	protected static final byte USER_RECORD = 2;
+
+	/**
+	 *
+	 */
+	protected static final int CHECKSUM_CHUNK_SIZE = 64 * 1024;
+	protected static final int NO_WRITE_ATTEMPTS = 3;
+
+	/**
+	 *
+	 */
+	protected static final TimingHistogram writeTimes = MetricRegistry.getInstance().getHistogram("snapshot write");
+
+	/**
+	 * Time up to which the in-memory model knows the writes of all instances; set when the model has been loaded
+	 */
+	protected static volatile long modelTime = 0;
+
+	/**
+	 *
+	 */
+	protected final File file;
+	protected volatile Thread thread = null;
+	protected long intervalMillis = 0;
+	protected ApiProxy.Environment environment = null;
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the snapshot of FILE_PROPERTY, or null if none is configured.
+	 */
+	public static ModelSnapshot getFromProperties() {
+		String fileName = System.getProperty(FILE_PROPERTY);
+		if (fileName == null || fileName.isEmpty()) {
+			return null;
+		}
+		return new ModelSnapshot(new File(fileName));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static long getModelTime() {
+		return modelTime;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * To be set to the time loading the model started, once it has been loaded.
+	 */
+	public static void setModelTime(long time) {
+		modelTime = time;
+	}
+
+	/**
+	 *
+	 */
+	public ModelSnapshot(File myFile) {
+		file = myFile;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Restores the photos and users of the snapshot and those written since, and sets the model time. Returns false,
+	 * with nothing restored, if there is no usable snapshot or the delta query fails.
+	 */
+	public boolean restore() {
+		if (!file.isFile()) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addAction("restore snapshot").
+					addParameter("no snapshot", file.getPath()).log();
+			return false;
+		}
+
+		long catchUpTime = System.currentTimeMillis();
+		try {
+			Map<PhotoId, Photo> photos = new LinkedHashMap<PhotoId, Photo>();
+			Map<String, User> users = new LinkedHashMap<String, User>();
+			long snapshotTime = read(photos, users);
+
+			List<Photo> newPhotos = new ArrayList<Photo>();
+			PhotoManager.getInstance().readPhotosModifiedSince(snapshotTime - CLOCK_SKEW_MILLIS, newPhotos);
+			for (Photo photo : newPhotos) {
+				photos.put(photo.getId(), photo);
+			}
+			List<User> newUsers = new ArrayList<User>();
+			UserManager.getInstance().readUsersModifiedSince(snapshotTime - CLOCK_SKEW_MILLIS, newUsers);
+			for (User user : newUsers) {
+				users.put(user.getId(), user);
+			}
+
+			PhotoManager.getInstance().restorePhotos(photos.values());
+			UserManager.getInstance().restoreUsers(users.values());
+			setModelTime(catchUpTime);
+
+			LogBuilder.createSystemMessage(log, Level.INFO).addAction("restore snapshot").
+					addParameter("photos", photos.size()).
+					addParameter("users", users.size()).
+					addParameter("caught up photos", newPhotos.size()).
+					addParameter("caught up users", newUsers.size()).
+					addParameter("snapshot age ms", catchUpTime - snapshotTime).log();
+			return true;
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addAction("restore snapshot").
+					addParameter("file", file.getPath()).
+					addException("loading model from datastore instead", ex).log();
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the records into the maps after checking the header and checksum, and returns the model time of the
+	 * snapshot.
+	 */
+	protected long read(Map<PhotoId, Photo> photos, Map<String, User> users) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("snapshot is truncated");
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("file is no snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("snapshot has unknown version " + version);
+			}
+			long snapshotTime = buffer.getLong();
+			long length = buffer.getLong();
+			long checksum = buffer.getLong();
+			if (length != buffer.remaining()) {
+				throw new IOException("snapshot is truncated");
+			}
+			if (getChecksum(buffer.slice()) != checksum) {
+				throw new IOException("snapshot checksum does not match");
+			}
+			long maxAgeMillis = TimeUnit.HOURS.toMillis(Integer.getInteger(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE_HOURS));
+			if (System.currentTimeMillis() - snapshotTime > maxAgeMillis) {
+				throw new IOException("snapshot is older than " + MAX_AGE_PROPERTY);
+			}
+
+			Loader loader = OfyService.ofy().load();
+			while (buffer.hasRemaining()) {
+				byte kind = buffer.get();
+				byte[] record = new byte[buffer.getInt()];
+				buffer.get(record);
+				Entity entity = EntityTranslator.createFromPbBytes(record);
+				if (kind == PHOTO_RECORD) {
+					Photo photo = loader.fromEntity(entity);
+					photos.put(photo.getId(), photo);
+				} else if (kind == USER_RECORD) {
+					User user = loader.fromEntity(entity);
+					users.put(user.getId(), user);
+				} else {
+					throw new IOException("snapshot has unknown record kind " + kind);
+				}
+			}
+			return snapshotTime;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static long getChecksum(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[CHECKSUM_CHUNK_SIZE];
+		while (buffer.hasRemaining()) {
+			int chunkSize = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, chunkSize);
+			crc.update(chunk, 0, chunkSize);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the photos that have been saved and the users to the snapshot, with the model time. Does nothing if the
+	 * model has not been loaded.
+	 */
+	public synchronized void write() throws IOException {
+		long snapshotTime = modelTime;
+		if (snapshotTime == 0) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addAction("write snapshot").
+					addMessage("model has not been loaded").log();
+			return;
+		}
+
+		long startTime = System.nanoTime();
+		byte[] records = null;
+		Closeable ofy = ObjectifyService.begin();
+		try {
+			for (int i = 1; records == null; i++) {
+				try {
+					records = getRecords();
+				} catch (ConcurrentModificationException ex) {
+					// requests changed the caches or a user's photos while they were copied; try again
+					if (i == NO_WRITE_ATTEMPTS) {
+						throw new IOException("model kept changing while writing snapshot", ex);
+					}
+				}
+			}
+		} finally {
+			ofy.close();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(records, 0, records.length);
+		File tempFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(snapshotTime);
+			out.writeLong(records.length);
+			out.writeLong(crc.getValue());
+			out.write(records);
+		} finally {
+			out.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		writeTimes.recordSince(startTime);
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("write snapshot").
+				addParameter("file", file.getPath()).
+				addParameter("bytes", HEADER_SIZE + records.length).
+				addParameter("ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)).log();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected byte[] getRecords() throws IOException {
+		List<Photo> photos = new ArrayList<Photo>(PhotoManager.getInstance().photoCache.values());
+		List<Client> clients = new ArrayList<Client>(UserManager.getInstance().idClientMap.values());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Saver saver = OfyService.ofy().save();
+		for (Photo photo : photos) {
+			// photos without datastore id have not been saved yet; the delta query finds them once they are
+			if (photo.hasDatastoreId()) {
+				writeRecord(out, PHOTO_RECORD, saver.toEntity(photo));
+			}
+		}
+		for (Client client : clients) {
+			if (client instanceof User) {
+				writeRecord(out, USER_RECORD, saver.toEntity(client));
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeRecord(DataOutputStream out, byte kind, Entity entity) throws IOException {
+		byte[] record = EntityTranslator.convertToPb(entity).toByteArray();
+		out.writeByte(kind);
+		out.writeInt(record.length);
+		out.write(record);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the snapshot and logs instead of throwing if that fails; returns whether it has been written.
+	 */
+	public boolean tryWrite() {
+		try {
+			write();
+			return true;
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addAction("write snapshot").
+					addParameter("file", file.getPath()).
+					addException("snapshot not written", ex).log();
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the snapshot every given minutes on a daemon thread with the App Engine environment of the calling
+	 * thread; does nothing for 0 minutes or if no thread can be started.
+	 */
+	public synchronized void startWriting(int intervalMinutes) {
+		if (intervalMinutes <= 0 || thread != null) {
+			return;
+		}
+
+		intervalMillis = TimeUnit.MINUTES.toMillis(intervalMinutes);
+		environment = ApiProxy.getCurrentEnvironment();
+		try {
+			thread = new Thread(this, "ModelSnapshot");
+			thread.setDaemon(true);
+			thread.start();
+		} catch (Exception ex) {
+			thread = null;
+			LogBuilder.createSystemMessage(log, Level.WARNING).addAction("start writing snapshots").
+					addException("snapshot only written at shut down", ex).log();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void stop() {
+		Thread stoppedThread = thread;
+		thread = null;
+		if (stoppedThread != null) {
+			stoppedThread.interrupt();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void run() {
+		if (environment != null) {
+			ApiProxy.setEnvironmentForCurrentThread(environment);
+		}
+
+		while (thread == Thread.currentThread()) {
+			try {
+				Thread.sleep(intervalMillis);
+			} catch (InterruptedException ex) {
+				break;
+			}
+			if (thread == Thread.currentThread()) {
+				tryWrite();
+			}
+		}
+	}
+
+}
@@ -26,14 +26,15 @@ import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
-import org.wahlzeit.services.ObjectManager;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -113,6 +114,50 @@ public class Photo extends DataObject {
 	protected int praiseSum = 10;
 	protected int noVotes = 1;
 	protected int noVotesAtLastNotification = 1;
+
+	/**
+	 * Counts the saves of the photo; a save that finds another version in the datastore merges it first
+	 */
+	protected long version = 0;
+
+	/**
+	 * Version, praise, status and tags as last read from or saved to the datastore, to tell what has changed since
+	 */
+	@Ignore
+	transient protected long savedVersion = version;
+	@Ignore
+	transient protected int savedPraiseSum = praiseSum;
+	@Ignore
+	transient protected int savedNoVotes = noVotes;
+	@Ignore
+	transient protected PhotoStatus savedStatus = status;
+	@Ignore
+	transient protected Tags savedTags = tags;
+
+	/**
+	 * Version, praise, status and tags of a photo as it is saved; to be taken under the lock of the photo, together
+	 * with handing it to the datastore, so that no change falls in between
+	 */
+	public static class SavedState {
+
+		protected final long version;
+		protected final int praiseSum;
+		protected final int noVotes;
+		protected final PhotoStatus status;
+		protected final Tags tags;
+
+		/**
+		 *
+		 */
+		public SavedState(Photo photo) {
+			version = photo.version;
+			praiseSum = photo.praiseSum;
+			noVotes = photo.noVotes;
+			status = photo.status;
+			tags = photo.tags;
+		}
+
+	}
 	
 	/**
 	 *
@@ -136,8 +181,13 @@ public class Photo extends DataObject {
 	//TODO: change it to a single long
 	@Id
 	Long idLong;
+
+	/**
+	 * Null, as each photo is an entity group of its own, so that saving it does not contend with saving others;
+	 * photos stored before are children of the application root key until they are saved again
+	 */
 	@Parent
-	Key parent = ObjectManager.applicationRootKey;
+	Key parent = null;
 
 	private static final Logger log = Logger.getLogger(Photo.class.getName());
 	
@@ -147,7 +197,7 @@ public class Photo extends DataObject {
 	public Photo() {
 		id = PhotoId.getNextId();
 		incWriteCount();
-		log.config(LogBuilder.createSystemMessage().addMessage("empty Photo created").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("empty Photo created").log();
 	}
 
 	/**
@@ -157,21 +207,52 @@ public class Photo extends DataObject {
 		id = myId;
 
 		incWriteCount();
-		log.config(LogBuilder.createSystemMessage().addMessage("Photo with id " + myId + " created").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("Photo with id " + myId + " created").log();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns whether the photo has been saved and has got its datastore id.
+	 */
+	public boolean hasDatastoreId() {
+		return idLong != null;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns whether the photo is still stored as a child of the application root key.
+	 */
+	public boolean isInApplicationGroup() {
+		return parent != null;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Moves the photo into an entity group of its own, or back into the one of its parent, e.g. if moving it failed.
+	 */
+	public void setParent(Key newParent) {
+		parent = newParent;
 	}
 
 	/**
 	 * @methodtype get
 	 */
 	public Image getImage(PhotoSize photoSize) {
-		return images.get(photoSize);
+		synchronized (images) {
+			return images.get(photoSize);
+		}
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setImage(PhotoSize photoSize, Image image) {
-		this.images.put(photoSize, image);
+		synchronized (images) {
+			this.images.put(photoSize, image);
+		}
 	}
 
 	/**
@@ -350,7 +431,7 @@ public class Photo extends DataObject {
 	/**
 	 *
 	 */
-	public void addToPraise(int value) {
+	public synchronized void addToPraise(int value) {
 		praiseSum += value;
 		noVotes += 1;
 		incWriteCount();
@@ -373,7 +454,7 @@ public class Photo extends DataObject {
 	/**
 	 * @methodtype set
 	 */
-	public void setStatus(PhotoStatus newStatus) {
+	public synchronized void setStatus(PhotoStatus newStatus) {
 		status = newStatus;
 		incWriteCount();
 	}
@@ -395,7 +476,7 @@ public class Photo extends DataObject {
 	/**
 	 * @methodtype set
 	 */
-	public void setTags(Tags newTags) {
+	public synchronized void setTags(Tags newTags) {
 		tags = newTags;
 		incWriteCount();
 	}
@@ -416,6 +497,99 @@ public class Photo extends DataObject {
 		this.ending = ending;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getSavedVersion() {
+		return savedVersion;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * To be called right before the photo is saved; saving again, e.g. when retried, does not skip a version.
+	 */
+	public synchronized void incVersion() {
+		version = savedVersion + 1;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Remembers version, praise, status and tags as they are in the datastore, after the photo has been read.
+	 */
+	@OnLoad
+	public synchronized void rememberSavedState() {
+		rememberSavedState(new SavedState(this));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Remembers the state the photo has been saved in, once the save has committed. Changes made since the state was
+	 * taken are not part of it, so they are saved with the next save.
+	 */
+	public synchronized void rememberSavedState(SavedState saved) {
+		savedVersion = saved.version;
+		savedPraiseSum = saved.praiseSum;
+		savedNoVotes = saved.noVotes;
+		savedStatus = saved.status;
+		savedTags = saved.tags;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Takes over what has been saved to the stored photo since this one was read or saved, keeping the changes made
+	 * here: the votes given here are added to the stored ones, as votes commute; status and tags are taken over unless
+	 * they have been changed here. Merging again with a newer stored photo, e.g. when saving is retried, keeps the
+	 * votes given here once.
+	 */
+	public synchronized void mergeStored(Photo stored) {
+		praiseSum = stored.praiseSum + (praiseSum - savedPraiseSum);
+		noVotes = stored.noVotes + (noVotes - savedNoVotes);
+		noVotesAtLastNotification = Math.max(noVotesAtLastNotification, stored.noVotesAtLastNotification);
+		if (status == savedStatus) {
+			status = stored.status;
+		}
+		if (tags == savedTags) {
+			tags = stored.tags;
+		}
+
+		savedPraiseSum = stored.praiseSum;
+		savedNoVotes = stored.noVotes;
+		savedStatus = stored.status;
+		savedTags = stored.tags;
+		savedVersion = stored.version;
+		version = stored.version;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Takes over the stored photo, e.g. one that another instance has saved, merging it if there are changes here that
+	 * have not been saved yet. The settings of the owner and the location are only taken over if there are none.
+	 */
+	public synchronized void refreshStored(Photo stored) {
+		if (!isDirty()) {
+			ownerId = stored.ownerId;
+			ownerNotifyAboutPraise = stored.ownerNotifyAboutPraise;
+			ownerEmailAddress = stored.ownerEmailAddress;
+			ownerLanguage = stored.ownerLanguage;
+			location = stored.location;
+		}
+		parent = stored.parent;
+		mergeStored(stored);
+		setModifiedOn(stored.getModifiedOn());
+	}
+
 	/**
 	 * @methodtype boolean query
 	 */
@@ -0,0 +1,14 @@
+package org.wahlzeit.model;
+
+/**
+ * A PhotoChangeListener is told by the PhotoManager when the status, tags or praise of a photo have changed, e.g. to
+ * drop cached pages that show the photo.
+ */
+public interface PhotoChangeListener {
+
+	/**
+	 *
+	 */
+	void photoChanged(Photo photo);
+
+}
@@ -0,0 +1,71 @@
+package org.wahlzeit.model;
+
+/**
+ * A PhotoCursor marks a position in a list of photos by the sort value and id of the last photo shown, so that the next
+ * page starts right after it even if photos have been added or removed in between.
+ */
+public class PhotoCursor {
+
+	/**
+	 *
+	 */
+	protected static final char SEPARATOR = '_';
+
+	/**
+	 *
+	 */
+	protected final double sortValue;
+	protected final String photoId;
+
+	/**
+	 *
+	 */
+	public PhotoCursor(double sortValue, String photoId) {
+		this.sortValue = sortValue;
+		this.photoId = photoId;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns null if the value is not a cursor.
+	 */
+	public static PhotoCursor getFromString(String value) {
+		if (value == null) {
+			return null;
+		}
+
+		int index = value.indexOf(SEPARATOR);
+		if (index == -1) {
+			return null;
+		}
+
+		try {
+			return new PhotoCursor(Double.parseDouble(value.substring(0, index)), value.substring(index + 1));
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return String.valueOf(sortValue) + SEPARATOR + photoId;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getSortValue() {
+		return sortValue;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getPhotoId() {
+		return photoId;
+	}
+
+}
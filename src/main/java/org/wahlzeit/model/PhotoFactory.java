@@ -21,7 +21,9 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestThreadFactory;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -35,6 +37,23 @@ public class PhotoFactory {
 	 */
 	private static PhotoFactory instance = null;
 
+	/**
+	 * System property to choose the image scaler, either "imagesService" or "java2d"
+	 */
+	public static final String IMAGE_SCALER_PROPERTY = "wahlzeit.imageScaler";
+	public static final String IMAGES_SERVICE_SCALER = "imagesService";
+	public static final String JAVA_2D_SCALER = "java2d";
+
+	/**
+	 * System property for the JPEG quality of the java2d scaler, between 0.0 and 1.0
+	 */
+	public static final String JPEG_QUALITY_PROPERTY = "wahlzeit.jpegQuality";
+
+	/**
+	 *
+	 */
+	protected ImageScaler imageScaler = null;
+
 	/**
 	 *
 	 */
@@ -54,7 +73,7 @@ public class PhotoFactory {
 	 */
 	public static synchronized PhotoFactory getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("setting generic PhotoFactory").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("setting generic PhotoFactory").log();
 			setInstance(new LeafPhotoFactory());
 		}
 
@@ -103,6 +122,44 @@ public class PhotoFactory {
 	}
 
 
+	/**
+	 * @methodtype get
+	 */
+	public synchronized ImageScaler getImageScaler() {
+		if (imageScaler == null) {
+			imageScaler = createImageScaler();
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("image scaler", imageScaler.getClass().getSimpleName()).log();
+		}
+		return imageScaler;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Uses the images service when running on App Engine and the in-process Java 2D scaler otherwise, e.g. on the
+	 * development server, the same way the ImageScalingPipeline tells where it runs, unless the scaler is set
+	 * explicitly via system property.
+	 */
+	public ImageScaler createImageScaler() {
+		String scalerName = System.getProperty(IMAGE_SCALER_PROPERTY);
+		if (scalerName == null) {
+			scalerName = RequestThreadFactory.isOnAppEngine() ? IMAGES_SERVICE_SCALER : JAVA_2D_SCALER;
+		}
+
+		if (IMAGES_SERVICE_SCALER.equals(scalerName)) {
+			return new ImagesServiceScaler();
+		} else if (JAVA_2D_SCALER.equals(scalerName)) {
+			String jpegQuality = System.getProperty(JPEG_QUALITY_PROPERTY);
+			if (jpegQuality == null) {
+				return new Java2DImageScaler();
+			}
+			return new Java2DImageScaler(Float.parseFloat(jpegQuality));
+		}
+
+		throw new IllegalArgumentException("unknown image scaler: " + scalerName);
+	}
+
 	/**
 	 *
 	 */
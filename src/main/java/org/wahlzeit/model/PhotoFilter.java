@@ -29,6 +29,7 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -188,11 +189,28 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
+		LogBuilder.createSystemMessage(log, Level.FINEST).
+				addParameter("photoId", photoId.asString()).
+				addLazyParameter("processed ids", new LogBuilder.LazyValue() {
+					public Object getValue() {
+						return getProcessedPhotoIdsAsString();
+					}
+				}).log();
+		return processedPhotoIds.contains(photoId);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String getProcessedPhotoIdsAsString() {
+		StringBuilder result = new StringBuilder();
 		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
+			if (result.length() > 0) {
+				result.append(' ');
+			}
+			result.append(id.asString());
 		}
-		return processedPhotoIds.contains(photoId);
+		return result.toString();
 	}
 
 	/**
@@ -238,8 +256,8 @@ public class PhotoFilter implements Serializable {
 		// get all tags that match the filter conditions
 		List<PhotoId> result = new LinkedList<PhotoId>();
 		int noFilterConditions = getFilterConditions().size();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).log();
 
 		Collection<PhotoId> candidates;
 		if (noFilterConditions == 0) {
@@ -271,8 +289,8 @@ public class PhotoFilter implements Serializable {
 			newPhotos = skippedPhotos;
 		}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Number of photos to show", newPhotos)
+				.log();
 
 		return result;
 	}
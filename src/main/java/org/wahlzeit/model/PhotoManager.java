@@ -21,23 +21,31 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.Gauge;
+import org.wahlzeit.services.metrics.MetricRegistry;
 
 import java.io.IOException;
-import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -53,20 +61,46 @@ public class PhotoManager extends ObjectManager {
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
 	/**
-	 * In-memory cache for photos
+	 * In-memory cache for photos; requests iterate over it while saves and refreshes put photos into it
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected Map<PhotoId, Photo> photoCache = new ConcurrentHashMap<PhotoId, Photo>();
+
+	/**
+	 * Lookups of photos that were found in the cache, and that had to be loaded from the datastore
+	 */
+	protected static final Counter noCacheHits = MetricRegistry.getInstance().getCounter("photo cache hits");
+	protected static final Counter noCacheMisses = MetricRegistry.getInstance().getCounter("photo cache misses");
+	protected static final Counter noSaveMerges = MetricRegistry.getInstance().getCounter("photo save merges");
+	protected static final Counter noSaveAttempts = MetricRegistry.getInstance().getCounter("photo save attempts");
+	protected static final Counter noMovedPhotos =
+			MetricRegistry.getInstance().getCounter("photos moved to own entity group");
+
+	/**
+	 * Tries of a photo save, which only collides with saves of the same photo
+	 */
+	public static final int MAX_SAVE_TRIES = 10;
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 *
+	 */
+	protected final List<PhotoChangeListener> photoChangeListeners = new CopyOnWriteArrayList<PhotoChangeListener>();
+
 	/**
 	 *
 	 */
 	public PhotoManager() {
 		photoTagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+
+		MetricRegistry.getInstance().registerGauge("photo cache size", new Gauge() {
+			public long getValue() {
+				return photoCache.size();
+			}
+		});
 	}
 
 	/**
@@ -107,7 +141,10 @@ public class PhotoManager extends ObjectManager {
 
 		Photo result = doGetPhotoFromId(id);
 
-		if (result == null) {
+		if (result != null) {
+			noCacheHits.increment();
+		} else {
+			noCacheMisses.increment();
 			result = PhotoFactory.getInstance().loadPhoto(id);
 			if (result != null) {
 				doAddPhoto(result);
@@ -150,31 +187,104 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos. Executed when Wahlzeit is restarted. Their images are not read, as that would take a
+	 * storage round trip per photo and size; the thumbnails of the newest photos are prewarmed, and the
+	 * ScaledImageProvider reads all others on first request.
 	 */
 	public void loadPhotos() {
-		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
+		int noPhotos = ObjectifyService.run(new Work<Integer>() {
 			@Override
-			public Collection<Photo> run() {
-				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
-				return existingPhotos;
+			public Integer run() {
+				return readObjectsInPages(Photo.class, new PageHandler<Photo>() {
+					public void handlePage(List<Photo> page) {
+						for (Photo photo : page) {
+							// a photo that failed to leave the application group is found in both groups
+							Photo loaded = doGetPhotoFromId(photo.getId());
+							if (loaded == null || (loaded.isInApplicationGroup() && !photo.isInApplicationGroup())) {
+								LogBuilder.createSystemMessage(log, Level.CONFIG).
+										addParameter("Load Photo with ID", photo.getIdAsString()).log();
+								doAddPhoto(photo);
+							} else {
+								LogBuilder.createSystemMessage(log, Level.CONFIG).
+										addParameter("Already loaded Photo", photo.getIdAsString()).log();
+							}
+						}
+					}
+				});
 			}
 		});
 
-		for (Photo photo : existingPhotos) {
-			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
-				doAddPhoto(photo);
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
-			}
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("All photos loaded.").
+				addParameter("photos", noPhotos).log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the photos written after the given time, e.g. by other instances.
+	 */
+	public void readPhotosModifiedSince(long time, Collection<Photo> result) {
+		readObjects(result, Photo.class, Photo.MODIFIED_ON + " >", time);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Puts the photos into the cache, replacing those with the same id, e.g. when a ModelSnapshot is restored. Their
+	 * images are not read, as that would take a storage round trip per photo and size; the ScaledImageProvider reads
+	 * each one when it is first requested.
+	 */
+	public void restorePhotos(Collection<Photo> photos) {
+		for (Photo photo : photos) {
+			photo.resetWriteCount();
+			doAddPhoto(photo);
 		}
+	}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns whether the cached photo has been read or saved in the given version or a later one.
+	 */
+	public boolean hasPhotoVersion(PhotoId id, long version) {
+		Photo cached = doGetPhotoFromId(id);
+		return (cached != null) && (cached.getSavedVersion() >= version);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Reads the photo with the given web-safe datastore key, without caching it.
+	 */
+	public Photo readPhoto(String key) {
+		return readObject(Key.<Photo>create(key));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Takes over the photo read from the datastore, unless the cached one is as new, and tells the
+	 * PhotoChangeListeners. A cached photo is refreshed in place rather than replaced, as its owner and others hold on
+	 * to it; it keeps its images, as they do not change, and the changes that have not been saved yet. An uncached
+	 * photo is put into the cache without images, which are read on first request. Returns whether the cache has
+	 * changed.
+	 */
+	public boolean refreshPhoto(Photo photo) {
+		Photo cached = doGetPhotoFromId(photo.getId());
+		if (cached == null) {
+			photo.resetWriteCount();
+			doAddPhoto(photo);
+			notifyPhotoChanged(photo);
+			return true;
+		}
+
+		if (cached.getSavedVersion() >= photo.getVersion()) {
+			return false;
+		}
+
+		cached.refreshStored(photo);
+		notifyPhotoChanged(cached);
+		return true;
 	}
 
 	/**
@@ -185,44 +295,139 @@ public class PhotoManager extends ObjectManager {
 		return photoCache.containsKey(id);
 	}
 
+	/**
+	 *
+	 */
+	public void savePhoto(Photo photo) {
+		updateObject(photo);
+		notifyPhotoChanged(photo);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addPhotoChangeListener(PhotoChangeListener listener) {
+		photoChangeListeners.add(listener);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removePhotoChangeListener(PhotoChangeListener listener) {
+		photoChangeListeners.remove(listener);
+	}
+
 	/**
 	 * @methodtype command
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * To be called when the status, tags or praise of a photo have changed.
 	 */
-	protected void loadScaledImages(Photo photo) {
-		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
+	public void notifyPhotoChanged(Photo photo) {
+		for (PhotoChangeListener listener : photoChangeListeners) {
+			listener.photoChanged(photo);
+		}
+	}
 
-		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
-					addAction("loading image").
-					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 *
+	 * Photos are saved by compare-and-set, as other instances may have saved them since they were read.
+	 */
+	@Override
+	protected void doWriteObject(Persistent object) {
+		if (object instanceof Photo) {
+			compareAndSetPhoto((Photo) object);
+		} else {
+			super.doWriteObject(object);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Saves the photo in a transaction on its own entity group, which fails if the stored photo changes meanwhile;
+	 * Objectify retries it up to MAX_SAVE_TRIES times. If the stored photo has another version than the one last read
+	 * or saved, its changes are merged first, e.g. votes of other instances are added to those given here, rather
+	 * than overwritten. The state that is written is taken under the lock of the photo, and remembered as saved once
+	 * the transaction has committed, so that votes given while saving are saved with the next save rather than taken
+	 * as saved. A photo that is still a child of the application root key is moved into a group of its own, and the
+	 * old entity is deleted.
+	 */
+	protected void compareAndSetPhoto(final Photo photo) {
+		com.google.appengine.api.datastore.Key applicationGroup = null;
+		Key<Photo> oldKey = null;
+		if (photo.isInApplicationGroup()) {
+			applicationGroup = ObjectManager.applicationRootKey;
+			oldKey = Key.create(photo);
+			photo.setParent(null);
+		}
+
+		Photo.SavedState saved;
+		try {
+			saved = doCompareAndSetPhoto(photo);
+		} catch (RuntimeException ex) {
+			photo.setParent(applicationGroup);
+			throw ex;
+		}
+		photo.rememberSavedState(saved);
+
+		if (oldKey != null) {
+			try {
+				OfyService.ofy().delete().key(oldKey).now();
+				noMovedPhotos.increment();
+			} catch (RuntimeException ex) {
+				// the photo has been saved; loading prefers it to the old entity
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addParameter("photo id", photo.getIdAsString()).
+						addException("Could not delete photo in application group", ex).log();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected Photo.SavedState doCompareAndSetPhoto(final Photo photo) {
+		return OfyService.ofy().transactNew(MAX_SAVE_TRIES, new Work<Photo.SavedState>() {
+			@Override
+			public Photo.SavedState run() {
+				noSaveAttempts.increment();
+				Photo stored = null;
+				if (photo.hasDatastoreId()) {
+					stored = OfyService.ofy().load().key(Key.create(photo)).now();
+				}
+
+				Photo.SavedState result;
+				Result<Key<Photo>> saving;
+				synchronized (photo) {
+					if ((stored != null) && (stored.getVersion() != photo.getSavedVersion())) {
+						photo.mergeStored(stored);
+						noSaveMerges.increment();
 					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
+					photo.incVersion();
+					result = new Photo.SavedState(photo);
+					saving = OfyService.ofy().save().entity(photo);
 				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+				saving.now();
+				return result;
 			}
-		}
+		});
 	}
 
 	/**
+	 * @methodtype factory
 	 *
+	 * Photos are entity groups of their own, or still children of the application root key, so they are queried
+	 * without ancestor.
 	 */
-	public void savePhoto(Photo photo) {
-		updateObject(photo);
+	@Override
+	protected <E> Query<E> createQuery(Class<E> type) {
+		if (Photo.class.isAssignableFrom(type)) {
+			return OfyService.ofy().load().type(type);
+		}
+		return super.createQuery(type);
 	}
 
 	@Override
@@ -234,6 +439,7 @@ public class PhotoManager extends ObjectManager {
 			UserManager userManager = UserManager.getInstance();
 			Client owner = userManager.getClientById(photo.getOwnerId());
 			userManager.saveClient(owner);
+			ModelInvalidator.getInstance().publishPhoto(photo);
 		}
 	}
 
@@ -248,35 +454,77 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * Persists all available sizes of the Photo, from the largest down. Sizes that have not been created yet are
+	 * skipped, as they are created on demand from a larger stored size. A size that can not be persisted, e.g. as it
+	 * exceeds 1MB for the Datastore, is skipped, and the next smaller sizes are created from it until one is persisted,
+	 * so that the largest size that fits is stored as source of the others. Waits for the ImageScalingPipeline if the
+	 * photo is still being scaled.
 	 */
 	protected void saveScaledImages(Photo photo) {
-		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
-		PhotoSize photoSize;
-		int it = 0;
-		boolean moreSizesExist = true;
-		do{
-			photoSize = PhotoSize.values()[it];
-			it++;
+		ImageScalingPipeline.getInstance().awaitScaling(photo.getId());
+
+		Image unsavedImage = null;
+		PhotoSize[] photoSizes = PhotoSize.values();
+		for (int i = photoSizes.length - 1; i >= 0; i--) {
+			PhotoSize photoSize = photoSizes[i];
 			Image image = photo.getImage(photoSize);
-			if (image != null) {
-				try {
-					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
-					}
-				} catch (Exception e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addException("Problem when storing image", e).toString());
-					moreSizesExist = false;
-				}
+			if (image == null && unsavedImage != null) {
+				image = createSmallerImage(photo, photoSize, unsavedImage);
+			}
+			if (image == null) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("No image for size", photoSize.asString()).log();
+				continue;
+			}
+
+			if (saveScaledImage(photo, photoSize, image)) {
+				unsavedImage = null;
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
-				moreSizesExist = false;
+				unsavedImage = image;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Returns whether the image is persisted.
+	 */
+	protected boolean saveScaledImage(Photo photo, PhotoSize photoSize, Image image) {
+		String photoIdAsString = photo.getId().asString();
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		try {
+			if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
+				imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 			}
-		} while (it < PhotoSize.values().length && moreSizesExist);
+			return true;
+		} catch (Exception e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("photo ID", photoIdAsString).
+					addParameter("size", photoSize.asString()).
+					addException("Problem when storing image, storing a smaller size instead", e).log();
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Scales a larger image that could not be persisted to the size and adds it to the photo; returns null if that fails.
+	 */
+	protected Image createSmallerImage(Photo photo, PhotoSize photoSize, Image largerImage) {
+		try {
+			// copy, as scalers may modify the image they scale
+			Image result = PhotoUtil.scaleImage(ImagesServiceFactory.makeImage(largerImage.getImageData()), photoSize);
+			photo.setImage(photoSize, result);
+			return result;
+		} catch (Exception e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("photo ID", photo.getId().asString()).
+					addParameter("size", photoSize.asString()).
+					addException("Problem when scaling image to store", e).log();
+			return null;
+		}
 	}
 
 	/**
@@ -292,7 +540,7 @@ public class PhotoManager extends ObjectManager {
 		photoTagCollector.collect(tags, photo);
 		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
 			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Writing Tag", tag.asString()).log();
 			writeObject(tag);
 		}
 	}
@@ -336,9 +584,9 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 *
 	 */
-	public Photo createPhoto(String filename, Image uploadedImage) throws Exception {
+	public Photo createPhoto(String filename, ImageUpload imageUpload) throws Exception {
 		PhotoId id = PhotoId.getNextId();
-		Photo result = PhotoUtil.createPhoto(filename, id, uploadedImage);
+		Photo result = PhotoUtil.createPhoto(filename, id, imageUpload);
 		System.out.println("NewID: " + id.toString());
 		addPhoto(result);
 		return result;
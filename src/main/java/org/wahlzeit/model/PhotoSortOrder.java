@@ -0,0 +1,100 @@
+package org.wahlzeit.model;
+
+import java.util.Comparator;
+
+/**
+ * The PhotoSortOrder defines how photos of a user are listed page by page: newest first or most praised first. Ties
+ * are broken by photo id, so that the order is total and a PhotoCursor marks exactly where the next page begins.
+ */
+public enum PhotoSortOrder {
+
+	/**
+	 *
+	 */
+	NEWEST("newest") {
+		public double getSortValue(Photo photo) {
+			return photo.getCreationTime();
+		}
+	},
+	MOST_PRAISED("praise") {
+		public double getSortValue(Photo photo) {
+			return photo.getPraise();
+		}
+	};
+
+	/**
+	 *
+	 */
+	private final String name;
+
+	/**
+	 *
+	 */
+	PhotoSortOrder(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns NEWEST for unknown names.
+	 */
+	public static PhotoSortOrder getFromString(String name) {
+		for (PhotoSortOrder order : values()) {
+			if (order.name.equals(name)) {
+				return order;
+			}
+		}
+		return NEWEST;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return name;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Higher values come first.
+	 */
+	public abstract double getSortValue(Photo photo);
+
+	/**
+	 * @methodtype comparison
+	 */
+	public int compare(Photo photo, double sortValue, String photoId) {
+		int result = Double.compare(sortValue, getSortValue(photo));
+		return (result != 0) ? result : photo.getId().asString().compareTo(photoId);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Comparator<Photo> getComparator() {
+		return new Comparator<Photo>() {
+			public int compare(Photo p1, Photo p2) {
+				return PhotoSortOrder.this.compare(p1, getSortValue(p2), p2.getId().asString());
+			}
+		};
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public PhotoCursor asCursor(Photo photo) {
+		return new PhotoCursor(getSortValue(photo), photo.getId().asString());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Tells whether the photo comes after the cursor; any photo does if there is no cursor.
+	 */
+	public boolean isAfterCursor(Photo photo, PhotoCursor cursor) {
+		return (cursor == null) || compare(photo, cursor.getSortValue(), cursor.getPhotoId()) > 0;
+	}
+
+}
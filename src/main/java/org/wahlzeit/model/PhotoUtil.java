@@ -21,11 +21,9 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.Transform;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -38,22 +36,40 @@ public class PhotoUtil {
 
 	/**
 	 * @methodtype creation
+	 *
+	 * Reads the spooled upload once and creates the photo from it.
+	 */
+	public static Photo createPhoto(String filename, PhotoId id, ImageUpload imageUpload) throws Exception {
+		if (imageUpload == null) {
+			throw new IllegalArgumentException("ImageUpload = null!");
+		}
+
+		return createPhoto(filename, id, imageUpload.readImage());
+	}
+
+	/**
+	 * @methodtype creation
+	 *
+	 * Creates the photo right away; the scaled images are added in the background by the ImageScalingPipeline.
 	 */
 	public static Photo createPhoto(String filename, PhotoId id, Image uploadedImage) throws Exception {
 		Photo result = PhotoFactory.getInstance().createPhoto(id);
 		result.setEnding(filename.substring(filename.lastIndexOf(".") + 1));
 
-		createImageFiles(uploadedImage, result);
-
 		int sourceWidth = uploadedImage.getWidth();
 		int sourceHeight = uploadedImage.getHeight();
 		result.setWidthAndHeight(sourceWidth, sourceHeight);
 
+		createImageFiles(uploadedImage, result);
+
 		return result;
 	}
 
 	/**
+	 * @methodtype command
 	 *
+	 * Starts scaling the source to its eager sizes; the others are created on demand by the ScaledImageProvider. Use
+	 * ImageScalingPipeline.awaitScaling to wait until the eager images have been added to the photo.
 	 */
 	public static void createImageFiles(Image source, Photo photo) throws Exception {
 		assertIsValidImage(source);
@@ -62,11 +78,7 @@ public class PhotoUtil {
 		int sourceHeight = source.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
-		for (PhotoSize size : PhotoSize.values()) {
-			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
-			}
-		}
+		ImageScalingPipeline.getInstance().scale(source, photo);
 	}
 
 	/**
@@ -92,19 +104,19 @@ public class PhotoUtil {
 	 * photo.
 	 */
 	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
-		int sourceWidth = source.getWidth();
-		int sourceHeight = source.getHeight();
-
-		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
-		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+		photo.setImage(size, scaleImage(source, size));
+	}
 
-		ImagesService imagesService = ImagesServiceFactory.getImagesService();
-		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
+	/**
+	 * @methodtype factory Scale the source picture to the given size with the scaler chosen by the PhotoFactory. The
+	 * source may be modified, so callers that still need it have to pass a copy.
+	 */
+	protected static Image scaleImage(Image source, PhotoSize size) throws Exception {
+		Image newImage = PhotoFactory.getInstance().getImageScaler().scale(source, size);
 
-		photo.setImage(size, newImage);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Scaled image to size", size.asString()).log();
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+		return newImage;
 	}
 
 }
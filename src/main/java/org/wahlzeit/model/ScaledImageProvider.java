@@ -0,0 +1,206 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ScaledImageProvider returns the image of a photo in a requested size and creates it on first request if it has
+ * not been scaled at upload (see {@link ImageScalingPipeline#getEagerSizes(int, int)}).
+ *
+ * A missing size is scaled from a larger size of the same photo and then persisted to the ImageStorage. Concurrent
+ * requests for the same photo and size are collapsed into one generation (single-flight); all of them get its result.
+ */
+public class ScaledImageProvider {
+
+	private static final Logger log = Logger.getLogger(ScaledImageProvider.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final ScaledImageProvider instance = new ScaledImageProvider();
+
+	/**
+	 * Generations that are running, keyed by photo id and size
+	 */
+	protected final ConcurrentMap<String, FutureTask<Image>> inFlightImages =
+			new ConcurrentHashMap<String, FutureTask<Image>>();
+
+	/**
+	 *
+	 */
+	public static ScaledImageProvider getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected ScaledImageProvider() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the image of the photo in the specified size, or null if the photo is too small for it or there is no
+	 * image it can be scaled from.
+	 */
+	public Image getImage(final Photo photo, final PhotoSize size) throws Exception {
+		Image result = photo.getImage(size);
+		if (result != null) {
+			return result;
+		}
+
+		String key = photo.getIdAsString() + "-" + size.asInt();
+		FutureTask<Image> task = new FutureTask<Image>(new Callable<Image>() {
+			@Override
+			public Image call() throws Exception {
+				return loadOrCreateImage(photo, size);
+			}
+		});
+
+		FutureTask<Image> inFlight = inFlightImages.putIfAbsent(key, task);
+		if (inFlight == null) {
+			inFlight = task;
+			try {
+				task.run();
+			} finally {
+				inFlightImages.remove(key, task);
+			}
+		}
+
+		try {
+			return inFlight.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof Exception) ? (Exception) cause : e;
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isGenerating(Photo photo, PhotoSize size) {
+		return inFlightImages.containsKey(photo.getIdAsString() + "-" + size.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected Image loadOrCreateImage(Photo photo, PhotoSize size) throws Exception {
+		// a fresh upload may still be scaling the requested size
+		ImageScalingPipeline.getInstance().awaitScaling(photo.getId());
+
+		Image result = loadImage(photo, size);
+		if (result != null || !photo.hasPhotoSize(size)) {
+			return result;
+		}
+
+		Image source = null;
+		for (PhotoSize sourceSize : getSourceSizeCandidates(photo, size)) {
+			source = loadImage(photo, sourceSize);
+			if (source != null) {
+				break;
+			}
+		}
+
+		if (source == null) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("photo id", photo.getIdAsString()).
+					addParameter("size", size.asString()).
+					addMessage("No larger image to scale from").log();
+			return null;
+		}
+
+		// copy, as scalers may modify the image they scale
+		result = PhotoUtil.scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size);
+		photo.setImage(size, result);
+		saveImage(photo, size, result);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Created image on demand", photo.getIdAsString()).
+				addParameter("size", size.asString()).log();
+
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sizes a missing size can be scaled from, best first: the smallest one that is at least twice as large,
+	 * then all larger ones from the largest down.
+	 */
+	protected List<PhotoSize> getSourceSizeCandidates(Photo photo, PhotoSize size) {
+		List<PhotoSize> largerSizes = new ArrayList<PhotoSize>();
+		for (PhotoSize candidate : PhotoSize.values()) {
+			if (size.isSmaller(candidate) && photo.hasPhotoSize(candidate)) {
+				largerSizes.add(0, candidate);
+			}
+		}
+
+		PhotoSize parentSize = ImageScalingPipeline.getParentSize(size, largerSizes);
+		if (parentSize != null) {
+			largerSizes.remove(parentSize);
+			largerSizes.add(0, parentSize);
+		}
+		return largerSizes;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the image from the photo or else from the ImageStorage, adding it to the photo.
+	 */
+	protected Image loadImage(Photo photo, PhotoSize size) {
+		Image result = photo.getImage(size);
+		if (result != null) {
+			return result;
+		}
+
+		try {
+			Serializable rawImage = ImageStorage.getInstance().readImage(photo.getIdAsString(), size.asInt());
+			if (rawImage instanceof Image) {
+				result = (Image) rawImage;
+				photo.setImage(size, result);
+			}
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("photo id", photo.getIdAsString()).
+					addParameter("size", size.asString()).
+					addException("Problem when reading image", e).log();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Persists a generated image. A failure is only logged, as the image is kept with the photo and can be created
+	 * again.
+	 */
+	protected void saveImage(Photo photo, PhotoSize size, Image image) {
+		try {
+			ImageStorage.getInstance().writeImage(image, photo.getIdAsString(), size.asInt());
+		} catch (Exception e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("photo id", photo.getIdAsString()).
+					addParameter("size", size.asString()).
+					addException("Problem when storing generated image", e).log();
+		}
+	}
+
+}
@@ -20,18 +20,22 @@
 
 package org.wahlzeit.model;
 
-import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Subclass;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -83,7 +87,7 @@ public class User extends Client {
 	protected Photo userPhoto = null;
 	protected Set<Photo> photos = new HashSet<Photo>();
 	@Ignore // only used as temporary variable
-	protected Image uploadedImage = null;
+	protected ImageUpload imageUpload = null;
 
 	/**
 	 *
@@ -119,11 +123,11 @@ public class User extends Client {
 							  Client previousClient) {
 		super.initialize(id, nickName, emailAddress, accessRights, previousClient);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("initialize user").
 				addParameter("id", id).
 				addParameter("name", nickName).
-				addParameter("E-Mail", emailAddress.asString()).toString());
+				addParameter("E-Mail", emailAddress.asString()).log();
 		incWriteCount();
 	}
 
@@ -227,7 +231,9 @@ public class User extends Client {
 	 */
 	public void setUserPhoto(Photo newPhoto) {
 		userPhoto = newPhoto;
-		log.info("SetUserPhoto: " + newPhoto.getIdAsString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("set user photo").
+				addParameter("photoId", newPhoto.getIdAsString()).log();
 		incWriteCount();
 	}
 
@@ -274,6 +280,30 @@ public class User extends Client {
 		return getPhotosReverseOrderedByPraise();
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns up to limit photos that are not deleted, in the given order and after the cursor (from the start if it
+	 * is null). Only the photos of the page are kept and sorted, so the cost grows with the page size rather than with
+	 * the number of photos.
+	 */
+	public List<Photo> getPhotoPage(PhotoSortOrder order, PhotoCursor cursor, int limit) {
+		Comparator<Photo> comparator = order.getComparator();
+		PriorityQueue<Photo> lastPhotoFirst = new PriorityQueue<Photo>(limit + 1, Collections.reverseOrder(comparator));
+		for (Photo photo : photos) {
+			if (!photo.getStatus().isDeleted() && order.isAfterCursor(photo, cursor)) {
+				lastPhotoFirst.add(photo);
+				if (lastPhotoFirst.size() > limit) {
+					lastPhotoFirst.poll();
+				}
+			}
+		}
+
+		List<Photo> result = new ArrayList<Photo>(lastPhotoFirst);
+		Collections.sort(result, comparator);
+		return result;
+	}
+
 	/**
 	 * @methodtype conversion
 	 */
@@ -306,15 +336,24 @@ public class User extends Client {
 
 	/**
 	 * @methodtype set
+	 *
+	 * Disposes a previous upload that has not been taken.
 	 */
-	public void setUploadedImage(Image image) {
-		uploadedImage = image;
+	public void setImageUpload(ImageUpload newImageUpload) {
+		if (imageUpload != null && imageUpload != newImageUpload) {
+			imageUpload.dispose();
+		}
+		imageUpload = newImageUpload;
 	}
 
 	/**
 	 * @methodtype get
+	 *
+	 * Returns and forgets the upload; the caller has to dispose it.
 	 */
-	public Image getUploadedImage() {
-		return uploadedImage;
+	public ImageUpload takeImageUpload() {
+		ImageUpload result = imageUpload;
+		imageUpload = null;
+		return result;
 	}
 }
@@ -24,13 +24,15 @@ import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.Persistent;
 import org.wahlzeit.services.mailing.EmailService;
 import org.wahlzeit.services.mailing.EmailServiceManager;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -82,25 +84,96 @@ public class UserManager extends ClientManager {
 	 *
 	 */
 	public void loadExistingUsers() {
-		ObjectifyService.run(new Work<Void>() {
+		int noUsers = ObjectifyService.run(new Work<Integer>() {
 			@Override
-			public Void run() {
-				Collection<User> existingUser = new ArrayList<User>();
-				readObjects(existingUser, User.class);
-
-				for (User user : existingUser) {
-					if (!hasClientById(user.getId())) {
-						doAddClient(user);
-					} else {
-						log.config(LogBuilder.createSystemMessage().addParameter("user has been loaded", user.getId())
-								.toString());
+			public Integer run() {
+				return readObjectsInPages(User.class, new PageHandler<User>() {
+					public void handlePage(List<User> page) {
+						for (User user : page) {
+							if (!hasClientById(user.getId())) {
+								doAddClient(user);
+							} else {
+								LogBuilder.createSystemMessage(log, Level.CONFIG).
+										addParameter("user has been loaded", user.getId()).log();
+							}
+						}
 					}
-				}
-				return null;
+				});
 			}
 		});
 
-		log.info(LogBuilder.createSystemMessage().addMessage("loaded all clients").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("loaded all clients").
+				addParameter("users", noUsers).log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the users written after the given time, e.g. by other instances.
+	 */
+	public void readUsersModifiedSince(long time, Collection<User> result) {
+		readObjects(result, User.class, User.MODIFIED_ON + " >", time);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the users, replacing those with the same id, e.g. when a ModelSnapshot is restored.
+	 */
+	public void restoreUsers(Collection<User> users) {
+		for (User user : users) {
+			user.resetWriteCount();
+			Client previous = doGetClientById(user.getId());
+			if (previous != null) {
+				listOfUsedNicknames.remove(previous.getNickName());
+			}
+			doAddClient(user);
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns whether the user is known in the given version or a later one.
+	 */
+	public boolean hasUserVersion(String id, long version) {
+		Client cached = doGetClientById(id);
+		return (cached != null) && (cached.getVersion() >= version);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Reads the user with the given web-safe datastore key, without adding it.
+	 */
+	public User readUser(String key) {
+		return readObject(com.googlecode.objectify.Key.<User>create(key));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the user read from the datastore, replacing the one with the same id unless that is as new. Returns
+	 * whether a user has been added.
+	 */
+	public boolean refreshUser(User user) {
+		Client cached = doGetClientById(user.getId());
+		if ((cached != null) && (cached.getVersion() >= user.getVersion())) {
+			return false;
+		}
+
+		restoreUsers(Collections.singletonList(user));
+		return true;
+	}
+
+	/**
+	 * Tells other instances about written users; guests live in one session only.
+	 */
+	@Override
+	protected void updateDependents(Persistent object) {
+		if (object instanceof User) {
+			ModelInvalidator.getInstance().publishUser((User) object);
+		}
 	}
 
 	/**
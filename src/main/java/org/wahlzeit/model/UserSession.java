@@ -21,6 +21,7 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.Language;
+import org.wahlzeit.services.RequestContext;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.utils.HtmlUtil;
 
@@ -165,6 +166,12 @@ public class UserSession extends Session implements Serializable {
 
 		httpSession.setAttribute(CLIENT_ID, newClient.getId());
 		UserManager.getInstance().addHttpSessionIdToClientMapping(httpSession.getId(), newClient);
+
+		// the rest of the request logs the new client
+		RequestContext context = RequestContext.getThreadLocalContext();
+		if (context != null && getName().equals(context.getSessionName())) {
+			RequestContext.setThreadLocalContext(context.withClientName(newClient.getNickName()));
+		}
 	}
 
 	/**
@@ -32,6 +32,7 @@ import org.wahlzeit.services.OfyService;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -68,11 +69,11 @@ public class DatastoreAdapter extends ImageStorage {
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
 		} else {
-			log.warning(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.WARNING).
 					addMessage("did not get an Image type to store").
-					addParameter("image type", image.toString()).toString());
+					addParameter("image type", image.toString()).log();
 		}
 	}
 
@@ -88,13 +89,13 @@ public class DatastoreAdapter extends ImageStorage {
 		});
 
 		if (imageWrapper == null) {
-			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
-				log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
 			} else {
-				log.warning(LogBuilder.createSystemMessage().addMessage("ImageWrapper contains no Image").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("ImageWrapper contains no Image").log();
 			}
 		}
 		return result;
@@ -107,14 +108,13 @@ public class DatastoreAdapter extends ImageStorage {
 		try {
 			image = doReadImage(photoIdAsString, size);
 		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("IOException when checking for Image existance", e)
+							.log();
 		}
 		if (image != null) {
 			result = true;
 		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
 		return result;
 	}
 
@@ -163,4 +163,13 @@ public class DatastoreAdapter extends ImageStorage {
 			}
 		}
 	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	protected String getMetricName() {
+		return "datastore";
+	}
+
 }
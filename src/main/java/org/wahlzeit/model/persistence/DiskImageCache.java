@@ -0,0 +1,211 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Image storage on the local disk, bounded by a maximum number of bytes. When the budget is exceeded, the least
+ * recently used images are deleted. Meant to be used as the middle tier of a {@link TieredImageStorage}.
+ *
+ * Files that are already in the cache directory (e.g. from a previous run) are picked up again on creation, ordered
+ * by their last modification.
+ */
+public class DiskImageCache extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(DiskImageCache.class.getName());
+
+	protected static final String TEMP_FILE_ENDING = ".tmp";
+
+	private final File cacheDir;
+	private final long maxBytes;
+	private long currentBytes = 0;
+	private boolean isEnabled = false;
+
+	/**
+	 * Maps file names to file sizes; access-ordered, so the first entry is the least recently used one.
+	 */
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(64, 0.75f, true);
+
+	/**
+	 *
+	 */
+	public DiskImageCache(String cacheDirName, long maxBytes) {
+		this.cacheDir = new File(cacheDirName);
+		this.maxBytes = maxBytes;
+
+		if (cacheDir.isDirectory() || cacheDir.mkdirs()) {
+			isEnabled = true;
+			loadIndex();
+		} else {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("could not create disk image cache, disk tier is disabled").
+					addParameter("directory", cacheDir.getAbsolutePath()).log();
+		}
+	}
+
+	/**
+	 * @methodtype initialization
+	 */
+	protected synchronized void loadIndex() {
+		File[] files = cacheDir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+
+		for (File file : files) {
+			if (file.getName().endsWith(TEMP_FILE_ENDING)) {
+				file.delete();
+			} else if (file.isFile()) {
+				index.put(file.getName(), file.length());
+				currentBytes += file.length();
+			}
+		}
+		evictIfNecessary();
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("load disk image cache index").
+				addParameter("images", index.size()).
+				addParameter("bytes", String.valueOf(currentBytes)).log();
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			throw new InvalidParameterException("not an Image object!");
+		}
+		if (!isEnabled) {
+			return;
+		}
+
+		byte[] imageData = ((Image) image).getImageData();
+		if (imageData.length > maxBytes) {
+			return;
+		}
+
+		String fileName = asFileName(photoIdAsString, size);
+		File tempFile = File.createTempFile("img-" + fileName, TEMP_FILE_ENDING, cacheDir);
+		FileOutputStream out = new FileOutputStream(tempFile);
+		try {
+			out.write(imageData);
+		} finally {
+			out.close();
+		}
+
+		synchronized (this) {
+			File file = new File(cacheDir, fileName);
+			doRemove(fileName);
+			if (!tempFile.renameTo(file)) {
+				tempFile.delete();
+				throw new IOException("could not move image into disk cache: " + file.getAbsolutePath());
+			}
+			index.put(fileName, (long) imageData.length);
+			currentBytes += imageData.length;
+			evictIfNecessary();
+		}
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		String fileName = asFileName(photoIdAsString, size);
+		synchronized (this) {
+			if (index.get(fileName) == null) {
+				return null;
+			}
+		}
+
+		try {
+			byte[] imageData = Files.readAllBytes(new File(cacheDir, fileName).toPath());
+			return ImagesServiceFactory.makeImage(imageData);
+		} catch (IOException e) {
+			// file has been evicted in the meantime or was removed from the outside
+			synchronized (this) {
+				doRemove(fileName);
+			}
+			return null;
+		}
+	}
+
+	@Override
+	protected synchronized boolean doDoesImageExist(String photoIdAsString, int size) {
+		return index.containsKey(asFileName(photoIdAsString, size));
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRemove(String fileName) {
+		Long fileSize = index.remove(fileName);
+		if (fileSize != null) {
+			currentBytes -= fileSize;
+			new File(cacheDir, fileName).delete();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Deletes least recently used images until the cache fits into its budget again.
+	 */
+	protected void evictIfNecessary() {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (currentBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			currentBytes -= eldest.getValue();
+			new File(cacheDir, eldest.getKey()).delete();
+			it.remove();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asFileName(String photoIdAsString, int size) {
+		return photoIdAsString + size;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	protected String getMetricName() {
+		return "disk";
+	}
+
+}
@@ -39,6 +39,7 @@ import java.io.Serializable;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -84,18 +85,18 @@ public class GcsAdapter extends ImageStorage {
 			throws IOException, InvalidParameterException {
 
 		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
-		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("gcsFileName", gcsFilename).log();
 
 		String fileType = URLConnection.guessContentTypeFromName(gcsFilename.getObjectName());
 		GcsFileOptions.Builder fileOptionsBuilder = new GcsFileOptions.Builder();
 		if (fileType != null) {
 			fileOptionsBuilder.mimeType(fileType);
-			log.config(LogBuilder.createSystemMessage().addParameter("found file type", fileType).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("found file type", fileType).log();
 		} else {
 			fileOptionsBuilder.mimeType(defaultImageMimeTypeName);
-			log.warning(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.WARNING).
 					addMessage("did not found file type, used default type").
-					addParameter("default type", defaultImageMimeTypeName).toString());
+					addParameter("default type", defaultImageMimeTypeName).log();
 		}
 
 		GcsFileOptions fileOptions = fileOptionsBuilder.build();
@@ -104,7 +105,7 @@ public class GcsAdapter extends ImageStorage {
 			Image imageObject = (Image) image;
 			outputChannel.write(ByteBuffer.wrap(imageObject.getImageData()));
 			outputChannel.close();
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
 		} else {
 			throw new InvalidParameterException("not an Image object!");
 		}
@@ -113,7 +114,7 @@ public class GcsAdapter extends ImageStorage {
 	@Override
 	protected Image doReadImage(String filename, int size) throws IOException {
 		GcsFilename gcsFilename = getGcsFileName(filename, size);
-		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("gcsFileName", gcsFilename).log();
 
 		GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
 		ByteBuffer bb = ByteBuffer.allocate(bufferLength);
@@ -125,9 +126,9 @@ public class GcsAdapter extends ImageStorage {
 			// when image does not exist, IOException is thrown
 		}
 		if (result == null) {
-			log.warning(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("does not exist!").log();
 		} else {
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
 		}
 		return result;
 	}
@@ -143,7 +144,7 @@ public class GcsAdapter extends ImageStorage {
 		} catch (IOException e) {
 			result = false;
 		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
 		return result;
 	}
 
@@ -204,4 +205,13 @@ public class GcsAdapter extends ImageStorage {
 			return new GcsAdapter(bucketName, photoFolderName, defaultImageMimeTypeName, bufferLength, gcsService);
 		}
 	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	protected String getMetricName() {
+		return "gcs";
+	}
+
 }
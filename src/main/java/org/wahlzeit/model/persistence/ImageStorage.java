@@ -1,11 +1,16 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -27,6 +32,21 @@ public abstract class ImageStorage {
 	private static final Logger log = Logger.getLogger(ImageStorage.class.getName());
 	private static ImageStorage instance = null;
 
+	/**
+	 * Bytes written and read, and the time the storage took, named after the kind of storage, e.g. "image storage read
+	 * memory", so that a TieredImageStorage and each of its tiers count their own
+	 */
+	protected final Counter noWrittenBytes =
+			MetricRegistry.getInstance().getCounter("image storage bytes written " + getMetricName());
+	protected final Counter noReadBytes =
+			MetricRegistry.getInstance().getCounter("image storage bytes read " + getMetricName());
+	protected final TimingHistogram writeTimes =
+			MetricRegistry.getInstance().getHistogram("image storage write " + getMetricName());
+	protected final TimingHistogram readTimes =
+			MetricRegistry.getInstance().getHistogram("image storage read " + getMetricName());
+	protected final TimingHistogram existTimes =
+			MetricRegistry.getInstance().getHistogram("image storage exists " + getMetricName());
+
 	/**
 	 * @methodtype get
 	 */
@@ -43,12 +63,20 @@ public abstract class ImageStorage {
 	 * @methodtype set
 	 */
 	public static void setInstance(ImageStorage newInstance) {
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", newInstance).log();
 		instance = newInstance;
 	}
 
+	/**
+	 * @methodtype get
+	 * @methodproperty hook
+	 *
+	 * Names the kind of storage in its metrics; called while the storage is constructed, so it may not use its fields.
+	 */
+	protected abstract String getMetricName();
+
 
 	// write-methods ---------------------------------------------------------------------------------------------------
 
@@ -66,13 +94,16 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("write image to storage").
 				addParameter("image", image).
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
+		long startTime = System.nanoTime();
 		doWriteImage(image, photoIdAsString, size);
+		writeTimes.recordSince(startTime);
+		noWrittenBytes.add(getNoBytes(image));
 	}
 
 	/**
@@ -99,12 +130,16 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("read image from storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
-		return doReadImage(photoIdAsString, size);
+		long startTime = System.nanoTime();
+		Serializable result = doReadImage(photoIdAsString, size);
+		readTimes.recordSince(startTime);
+		noReadBytes.add(getNoBytes(result));
+		return result;
 	}
 
 	/**
@@ -131,12 +166,15 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("check if image exists in storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
-		return doDoesImageExist(photoIdAsString, size);
+		long startTime = System.nanoTime();
+		boolean result = doDoesImageExist(photoIdAsString, size);
+		existTimes.recordSince(startTime);
+		return result;
 	}
 
 
@@ -149,6 +187,16 @@ public abstract class ImageStorage {
 	protected abstract boolean doDoesImageExist(String photoIdAsString, int size);
 
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the size of the image data, or 0 if the image is not an Image.
+	 */
+	protected static long getNoBytes(Serializable image) {
+		return (image instanceof Image) ? ((Image) image).getImageData().length : 0;
+	}
+
+
 	// assertion methods -----------------------------------------------------------------------------------------------
 
 	/**
@@ -0,0 +1,124 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory image storage that keeps the most recently used images up to a maximum number of bytes. Meant to be used
+ * as the first tier of a {@link TieredImageStorage}.
+ */
+public class MemoryImageCache extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(MemoryImageCache.class.getName());
+
+	private final long maxBytes;
+	private long currentBytes = 0;
+
+	/**
+	 * Access-ordered, so the first entry is always the least recently used one.
+	 */
+	private final LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(64, 0.75f, true);
+
+	/**
+	 *
+	 */
+	public MemoryImageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	protected synchronized void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			throw new InvalidParameterException("not an Image object!");
+		}
+
+		Image imageObject = (Image) image;
+		long imageBytes = imageObject.getImageData().length;
+		if (imageBytes > maxBytes) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addMessage("image exceeds memory cache size, not cached").
+					addParameter("bytes", String.valueOf(imageBytes)).log();
+			return;
+		}
+
+		String key = asKey(photoIdAsString, size);
+		doRemove(key);
+		images.put(key, imageObject);
+		currentBytes += imageBytes;
+		evictIfNecessary();
+	}
+
+	@Override
+	protected synchronized Image doReadImage(String photoIdAsString, int size) throws IOException {
+		return images.get(asKey(photoIdAsString, size));
+	}
+
+	@Override
+	protected synchronized boolean doDoesImageExist(String photoIdAsString, int size) {
+		return images.containsKey(asKey(photoIdAsString, size));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRemove(String key) {
+		Image removed = images.remove(key);
+		if (removed != null) {
+			currentBytes -= removed.getImageData().length;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops least recently used images until the cache fits into its budget again.
+	 */
+	protected void evictIfNecessary() {
+		Iterator<Map.Entry<String, Image>> it = images.entrySet().iterator();
+		while (currentBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Image> eldest = it.next();
+			currentBytes -= eldest.getValue().getImageData().length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asKey(String photoIdAsString, int size) {
+		return photoIdAsString + size;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	protected String getMetricName() {
+		return "memory";
+	}
+
+}
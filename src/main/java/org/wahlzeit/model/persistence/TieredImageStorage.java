@@ -0,0 +1,196 @@
+package org.wahlzeit.model.persistence;
+
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Image storage that layers several storages on top of each other, usually memory, local disk and a remote adapter
+ * like {@link GcsAdapter} or {@link DatastoreAdapter}. The last tier is the authoritative one.
+ *
+ * Reads go from the fastest to the slowest tier; on a hit, all faster tiers are filled with the image. Writes go to
+ * the authoritative tier first and then through all faster tiers.
+ * Use {@link org.wahlzeit.model.persistence.TieredImageStorage.Builder} to create an object.
+ */
+
+/**
+ * @Pattern (
+ * 		name = "Decorator"
+ * 		participants = {
+ * 			"Decorator"
+ * 		}
+ *	)
+ */
+public class TieredImageStorage extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(TieredImageStorage.class.getName());
+
+	/**
+	 * Ordered from fastest to slowest; the last one is the authoritative storage.
+	 */
+	private final List<ImageStorage> tiers;
+
+	/**
+	 * Do not use directly, instead use {@link org.wahlzeit.model.persistence.TieredImageStorage.Builder}.
+	 */
+	private TieredImageStorage(List<ImageStorage> tiers) {
+		this.tiers = Collections.unmodifiableList(new ArrayList<ImageStorage>(tiers));
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		getAuthoritativeTier().writeImage(image, photoIdAsString, size);
+		fillTiers(tiers.size() - 1, image, photoIdAsString, size);
+	}
+
+	@Override
+	protected Serializable doReadImage(String photoIdAsString, int size) throws IOException {
+		for (int i = 0; i < tiers.size(); i++) {
+			Serializable image = tiers.get(i).readImage(photoIdAsString, size);
+			if (image != null) {
+				fillTiers(i, image, photoIdAsString, size);
+				return image;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		for (ImageStorage tier : tiers) {
+			if (tier.doesImageExist(photoIdAsString, size)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the images of the specified size into all faster tiers, e.g. all thumbnails at startup.
+	 */
+	public void prewarm(Collection<String> photoIdsAsStrings, PhotoSize size) {
+		int loaded = 0;
+		for (String photoIdAsString : photoIdsAsStrings) {
+			try {
+				if (readImage(photoIdAsString, size.asInt()) != null) {
+					loaded++;
+				}
+			} catch (IOException e) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addParameter("photo id", photoIdAsString).
+						addException("Problem when prewarming image", e).log();
+			}
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addAction("prewarm image storage").
+				addParameter("size", size.asString()).
+				addParameter("loaded images", loaded).log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the image to all tiers that are faster than the specified one. Failing tiers are skipped, as they are
+	 * only caches.
+	 */
+	protected void fillTiers(int hitTier, Serializable image, String photoIdAsString, int size) {
+		for (int i = hitTier - 1; i >= 0; i--) {
+			try {
+				tiers.get(i).writeImage(image, photoIdAsString, size);
+			} catch (Exception e) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addParameter("tier", tiers.get(i)).
+						addException("Problem when filling image cache tier", e).log();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public ImageStorage getAuthoritativeTier() {
+		return tiers.get(tiers.size() - 1);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<ImageStorage> getTiers() {
+		return tiers;
+	}
+
+
+	public static class Builder {
+		private ImageStorage remoteStorage;
+		private long memoryCacheBytes;
+		private String diskCacheDirName;
+		private long diskCacheBytes;
+
+		public Builder(ImageStorage remoteStorage) {
+			this.remoteStorage = remoteStorage;
+			memoryCacheBytes = 32L * 1024 * 1024;
+			diskCacheDirName = SysConfig.getTempDir().asString() + File.separator + "images";
+			diskCacheBytes = 512L * 1024 * 1024;
+		}
+
+		/**
+		 * A size of 0 disables the memory tier.
+		 */
+		public void setMemoryCacheBytes(long memoryCacheBytes) {
+			this.memoryCacheBytes = memoryCacheBytes;
+		}
+
+		/**
+		 * A directory name of null disables the disk tier.
+		 */
+		public void setDiskCacheDirName(String diskCacheDirName) {
+			this.diskCacheDirName = diskCacheDirName;
+		}
+
+		/**
+		 * A size of 0 disables the disk tier.
+		 */
+		public void setDiskCacheBytes(long diskCacheBytes) {
+			this.diskCacheBytes = diskCacheBytes;
+		}
+
+		public TieredImageStorage build() {
+			List<ImageStorage> tiers = new ArrayList<ImageStorage>();
+			if (memoryCacheBytes > 0) {
+				tiers.add(new MemoryImageCache(memoryCacheBytes));
+			}
+			if (diskCacheDirName != null && diskCacheBytes > 0) {
+				DiskImageCache diskImageCache = new DiskImageCache(diskCacheDirName, diskCacheBytes);
+				if (diskImageCache.isEnabled()) {
+					tiers.add(diskImageCache);
+				}
+			}
+			tiers.add(remoteStorage);
+			return new TieredImageStorage(tiers);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	protected String getMetricName() {
+		return "tiered";
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.wahlzeit.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The AsyncLogWriter takes the LogEvents out of a LogEventBuffer on a daemon thread and writes each of them as a JSON
+ * line to its logger, so that threads that log do not wait for log I/O. Where threads may not be started, as on App
+ * Engine front end instances, starting the writer fails and logging stays synchronous.
+ */
+public class AsyncLogWriter implements Runnable {
+
+	private static final Logger log = Logger.getLogger(AsyncLogWriter.class.getName());
+
+	/**
+	 * How long the writer waits for events when the buffer is empty
+	 */
+	protected static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 *
+	 */
+	protected final LogEventBuffer buffer;
+	protected volatile Thread thread = null;
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Starts writing the events of a new buffer and lets LogBuilder put events into it; returns null if no thread
+	 * could be started.
+	 */
+	public static AsyncLogWriter startWriting(int capacity, LogEventBuffer.OverflowPolicy overflowPolicy) {
+		AsyncLogWriter result = new AsyncLogWriter(new LogEventBuffer(capacity, overflowPolicy));
+		try {
+			result.start();
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addAction("start async log writer").
+					addException("logging stays synchronous", ex).log();
+			return null;
+		}
+		LogBuilder.setEventBuffer(result.getBuffer());
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected AsyncLogWriter(LogEventBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LogEventBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void start() {
+		thread = new Thread(this, "AsyncLogWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Makes LogBuilder log synchronously again, and writes the events that are still in the buffer.
+	 */
+	public void stop() throws InterruptedException {
+		LogBuilder.setEventBuffer(null);
+		Thread writerThread;
+		synchronized (this) {
+			writerThread = thread;
+			thread = null;
+		}
+		if (writerThread != null) {
+			writerThread.join();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void run() {
+		while (thread != null) {
+			if (!writeEvents()) {
+				LockSupport.parkNanos(IDLE_WAIT_NANOS);
+			}
+		}
+
+		// events put before logging became synchronous again
+		buffer.close();
+		writeEvents();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the events in the buffer; returns false if there were none.
+	 */
+	protected boolean writeEvents() {
+		boolean result = false;
+		for (LogEvent event = buffer.take(); event != null; event = buffer.take()) {
+			writeEvent(event);
+			result = true;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeEvent(LogEvent event) {
+		try {
+			event.getLogger().log(event.getLevel(), event.asJsonLine());
+		} catch (RuntimeException ex) {
+			// a broken handler must not stop the writer
+		}
+	}
+
+}
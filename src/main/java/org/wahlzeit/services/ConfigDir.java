@@ -21,9 +21,21 @@
 package org.wahlzeit.services;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A ConfigDir is a Directory that can provides a two-way switch between a default directory and custom directory.
+ *
+ * The files of both directories are scanned once and looked up in memory afterwards, so that resolving a file name
+ * does not touch the file system. After files have been added or removed, {@link #refresh()} scans again; the
+ * ConfigDirWatcher does so when it watches the ConfigDir, and tells the ConfigDirListeners about the changed files.
  */
 public class ConfigDir extends Directory {
 
@@ -39,6 +51,12 @@ public class ConfigDir extends Directory {
 	protected String defaultDirName;
 	protected String customDirName;
 
+	/**
+	 *
+	 */
+	protected volatile Files files = null;
+	protected final List<ConfigDirListener> listeners = new CopyOnWriteArrayList<ConfigDirListener>();
+
 	/**
 	 *
 	 */
@@ -59,11 +77,17 @@ public class ConfigDir extends Directory {
 	 *
 	 */
 	public String getRelativeConfigFileName(String shortFileName) {
-		if (hasDefaultFile(shortFileName)) {
-			return getRelativeDefaultConfigFileName(shortFileName);
-		} else {
-			return getRelativeCustomConfigFileName(shortFileName);
+		Files currentFiles = getFiles();
+		String result = currentFiles.resolvedFileNames.get(shortFileName);
+		if (result == null) {
+			if (currentFiles.defaultFiles.contains(shortFileName)) {
+				result = getRelativeDefaultConfigFileName(shortFileName);
+			} else {
+				result = getRelativeCustomConfigFileName(shortFileName);
+			}
+			currentFiles.resolvedFileNames.put(shortFileName, result);
 		}
+		return result;
 	}
 
 	/**
@@ -98,21 +122,163 @@ public class ConfigDir extends Directory {
 	 *
 	 */
 	public boolean hasDefaultFile(String shortFileName) {
-		return doesFileExist(defaultDirName + File.separator + shortFileName);
+		return getFiles().defaultFiles.contains(shortFileName);
 	}
 
 	/**
 	 *
 	 */
 	public boolean hasCustomFile(String shortFileName) {
-		return doesFileExist(customDirName + File.separator + shortFileName);
+		return getFiles().customFiles.contains(shortFileName);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Files getFiles() {
+		Files result = files;
+		if (result == null) {
+			refresh();
+			result = files;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Scans the default and custom directory again and drops all resolved file names.
+	 */
+	public void refresh() {
+		files = new Files(scanDir(new File(defaultDirName)), scanDir(new File(customDirName)));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the short names of all files and directories in the default and custom directory.
+	 */
+	public Set<String> getShortFileNames() {
+		Files currentFiles = getFiles();
+		Set<String> result = new HashSet<String>(currentFiles.defaultFiles);
+		result.addAll(currentFiles.customFiles);
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the short name of a file in the default or custom directory, or null for any other file.
+	 */
+	public String getShortFileName(File file) {
+		String fileName = file.getPath();
+		for (String dirName : new String[] {defaultDirName, customDirName}) {
+			String prefix = new File(dirName).getPath() + File.separator;
+			if (fileName.startsWith(prefix)) {
+				return fileName.substring(prefix.length());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addListener(ConfigDirListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removeListener(ConfigDirListener listener) {
+		listeners.remove(listener);
 	}
 
 	/**
+	 * @methodtype command
 	 *
+	 * Scans again and tells the listeners about the changed files.
 	 */
-	protected boolean doesFileExist(String fullFileName) {
-		return new File(fullFileName).exists();
+	public void filesChanged(Set<String> shortFileNames) {
+		refresh();
+		for (ConfigDirListener listener : listeners) {
+			listener.configFilesChanged(this, shortFileNames);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the default and custom directory and all directories below, e.g. to watch them for changes.
+	 */
+	public List<File> getDirs() {
+		List<File> result = new ArrayList<File>();
+		collectDirs(new File(defaultDirName), result);
+		collectDirs(new File(customDirName), result);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected static void collectDirs(File dir, List<File> result) {
+		if (dir.isDirectory()) {
+			result.add(dir);
+			File[] children = dir.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					collectDirs(child, result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the short names of all files and directories below the directory.
+	 */
+	protected static Set<String> scanDir(File dir) {
+		Set<String> result = new HashSet<String>();
+		scanDir(dir, "", result);
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 *
+	 */
+	protected static void scanDir(File dir, String prefix, Set<String> result) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+
+		for (File child : children) {
+			String shortName = prefix + child.getName();
+			result.add(shortName);
+			if (child.isDirectory()) {
+				scanDir(child, shortName + File.separator, result);
+			}
+		}
+	}
+
+	/**
+	 * The files of a ConfigDir as of one scan, with the file names resolved since.
+	 */
+	protected static class Files {
+
+		protected final Set<String> defaultFiles;
+		protected final Set<String> customFiles;
+		protected final Map<String, String> resolvedFileNames = new ConcurrentHashMap<String, String>();
+
+		/**
+		 *
+		 */
+		protected Files(Set<String> defaultFiles, Set<String> customFiles) {
+			this.defaultFiles = defaultFiles;
+			this.customFiles = customFiles;
+		}
 	}
 
 }
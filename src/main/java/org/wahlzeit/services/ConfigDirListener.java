@@ -0,0 +1,17 @@
+package org.wahlzeit.services;
+
+import java.util.Set;
+
+/**
+ * A ConfigDirListener is told by a ConfigDir which of its files have been created, changed or deleted, e.g. to
+ * reload templates.
+ */
+public interface ConfigDirListener {
+
+	/**
+	 * The short file names are relative to the default or custom directory; they are empty if it is unknown which
+	 * files have changed.
+	 */
+	void configFilesChanged(ConfigDir configDir, Set<String> shortFileNames);
+
+}
@@ -0,0 +1,153 @@
+package org.wahlzeit.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ConfigDirWatcher refreshes ConfigDirs when files in their directories are created, changed or deleted. It watches
+ * with a WatchService on a daemon thread, where the platform allows it; where it does not, as on App Engine, the
+ * files of a deployed application do not change anyway.
+ */
+public class ConfigDirWatcher implements Runnable {
+
+	private static final Logger log = Logger.getLogger(ConfigDirWatcher.class.getName());
+
+	/**
+	 *
+	 */
+	protected final WatchService watchService;
+	protected final Map<WatchKey, ConfigDir> configDirs = new ConcurrentHashMap<WatchKey, ConfigDir>();
+	protected Thread thread = null;
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Starts watching the ConfigDirs, or returns null if the file system cannot be watched.
+	 */
+	public static ConfigDirWatcher startWatching(ConfigDir... dirs) {
+		ConfigDirWatcher result;
+		try {
+			result = new ConfigDirWatcher(FileSystems.getDefault().newWatchService());
+			for (ConfigDir dir : dirs) {
+				result.watch(dir);
+			}
+			result.start();
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addAction("watch config dirs").
+					addException("config dirs are not refreshed", ex).log();
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected ConfigDirWatcher(WatchService watchService) {
+		this.watchService = watchService;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Registers all directories of the ConfigDir; registering a directory again does no harm.
+	 */
+	public void watch(ConfigDir dir) throws IOException {
+		for (File file : dir.getDirs()) {
+			Path path = file.toPath();
+			WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			configDirs.put(key, dir);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void start() {
+		thread = new Thread(this, "ConfigDirWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void stop() {
+		try {
+			watchService.close();
+		} catch (IOException ex) {
+			// ignore, the thread ends anyway
+		}
+		thread = null;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the short names of the changed files, or an empty set if events have been lost.
+	 */
+	protected Set<String> getShortFileNames(ConfigDir dir, WatchKey key) {
+		Set<String> result = new HashSet<String>();
+		Path dirPath = (Path) key.watchable();
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+			} else if (dir != null && event.context() instanceof Path) {
+				String shortFileName = dir.getShortFileName(dirPath.resolve((Path) event.context()).toFile());
+				if (shortFileName != null) {
+					result.add(shortFileName);
+				}
+			}
+		}
+		return overflow ? Collections.<String>emptySet() : result;
+	}
+
+	/**
+	 *
+	 */
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				ConfigDir dir = configDirs.get(key);
+				Set<String> shortFileNames = getShortFileNames(dir, key);
+				if (dir != null) {
+					watch(dir); // new directories first, so that no file in them is missed
+					dir.filesChanged(shortFileNames);
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
+							addAction("refresh config dir").
+							addParameter("dir", dir.asString()).
+							addParameter("files", shortFileNames).log();
+				}
+				if (!key.reset()) {
+					configDirs.remove(key);
+				}
+			}
+		} catch (InterruptedException ex) {
+			// stop watching
+		} catch (ClosedWatchServiceException ex) {
+			// stopped
+		} catch (IOException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("stop watching config dirs", ex).log();
+		}
+	}
+
+}
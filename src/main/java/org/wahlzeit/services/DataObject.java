@@ -20,6 +20,8 @@
 
 package org.wahlzeit.services;
 
+import com.googlecode.objectify.annotation.Index;
+
 import java.io.Serializable;
 
 /**
@@ -33,11 +35,22 @@ public abstract class DataObject implements Persistent, Serializable {
 	 */
 	public static final String ID = "id";
 
+	/**
+	 *
+	 */
+	public static final String MODIFIED_ON = "modifiedOn";
+
 	/**
 	 *
 	 */
 	protected transient int writeCount = 0;
 
+	/**
+	 * Time of the last write, 0 if the object has not been written since the field was introduced
+	 */
+	@Index
+	protected long modifiedOn = 0;
+
 	/**
 	 *
 	 */
@@ -66,4 +79,18 @@ public abstract class DataObject implements Persistent, Serializable {
 		incWriteCount();
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public long getModifiedOn() {
+		return modifiedOn;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setModifiedOn(long time) {
+		modifiedOn = time;
+	}
+
 }
@@ -6,6 +6,9 @@ import org.wahlzeit.model.UserSession;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Builder class for log messages, that ensures that log messages are all formatted equally.
@@ -14,6 +17,18 @@ import java.io.StringWriter;
  * <code>Formatter</code> could not be used
  *
  * (see https://stackoverflow.com/questions/30345665/how-to-customize-logging-for-google-app-engine-java).
+ *
+ * Messages created for a logger and level, and written with {@link #log()}, cost close to nothing if the level is
+ * disabled: the factory checks the level first and then hands out a builder that ignores everything added to it.
+ * Otherwise, each thread reuses its builder, so only the final message string is allocated. Values that are expensive
+ * to compute can be added as a {@link LazyValue}, which is only asked when the message is actually built.
+ *
+ * The session and client of a message, and the id of the request, come from the {@link RequestContext} of the
+ * thread.
+ *
+ * While an {@link AsyncLogWriter} runs, log() does not write the message itself but puts it as a {@link LogEvent}
+ * into the writer's buffer; the builder remembers where each part starts for this. The stacktrace of an exception is
+ * then rendered by the writer, too.
  * 
  * @review
  */
@@ -24,6 +39,7 @@ public class LogBuilder {
 	protected static final String SYSTEM_LEVEL = "sl";
 	protected static final String SESSION = "session";
 	protected static final String CLIENT = "client";
+	protected static final String REQUEST = "request";
 	protected static final String MESSAGE = "message";
 	protected static final String ACTION = "action";
 	protected static final String NAME_VALUE_SEPARATOR = "=";
@@ -31,11 +47,79 @@ public class LogBuilder {
 	protected static final String EXCEPTION_REASON = "exception reason";
 	protected static final String STACKTRACE = "stacktrace";
 
+	/**
+	 * Builders with a larger buffer are not kept for reuse, e.g. after a long stacktrace
+	 */
+	protected static final int MAX_REUSED_CAPACITY = 8 * 1024;
+
+	/**
+	 * Ignores everything; handed out for disabled levels
+	 */
+	protected static final LogBuilder DISABLED = new LogBuilder(null);
+
+	/**
+	 *
+	 */
+	protected static final ThreadLocal<LogBuilder> threadBuilder = new ThreadLocal<LogBuilder>() {
+		@Override
+		protected LogBuilder initialValue() {
+			return new LogBuilder();
+		}
+	};
+
+	/**
+	 * Buffer of the AsyncLogWriter; null while messages are logged synchronously
+	 */
+	protected static volatile LogEventBuffer eventBuffer = null;
+
 	protected StringBuilder logMessage;
 
+	/**
+	 * Where each part of the message and its value start; -1 for parts without value
+	 */
+	protected int[] partStarts = new int[16];
+	protected int[] valueStarts = new int[16];
+	protected int noParts = 0;
+
+	/**
+	 * Buffer the message goes to on log(), and the exception whose stacktrace the writer renders
+	 */
+	protected LogEventBuffer messageBuffer = null;
+	protected Throwable throwable = null;
+
+	/**
+	 * Logger and level the message goes to on log(); null for builders that are only turned into strings
+	 */
+	protected Logger logger = null;
+	protected Level logLevel = null;
+
+	/**
+	 * Whether the builder of the thread is building a message, so that a message built while building another one,
+	 * e.g. in a toString() method, gets a builder of its own
+	 */
+	protected boolean isInUse = false;
+
 
 	protected LogBuilder() {
-		logMessage = new StringBuilder();
+		this(new StringBuilder());
+	}
+
+	/**
+	 *
+	 */
+	protected LogBuilder(StringBuilder myLogMessage) {
+		logMessage = myLogMessage;
+	}
+
+	/**
+	 * A value of a log message that is computed only if the message is built.
+	 */
+	public interface LazyValue {
+
+		/**
+		 *
+		 */
+		Object getValue();
 	}
 
 
@@ -59,6 +143,69 @@ public class LogBuilder {
 	 */
 	protected static LogBuilder doCreateMessage(String level) {
 		LogBuilder result = new LogBuilder();
+		result.addSessionInfo(level);
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Like {@link #createUserMessage()}, but for a message that is written with {@link #log()}; returns a builder that
+	 * ignores everything if the level is disabled.
+	 */
+	public static LogBuilder createUserMessage(Logger logger, Level level) {
+		return doCreateMessage(logger, level, USER_LEVEL);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Like {@link #createSystemMessage()}, but for a message that is written with {@link #log()}; returns a builder
+	 * that ignores everything if the level is disabled.
+	 */
+	public static LogBuilder createSystemMessage(Logger logger, Level level) {
+		return doCreateMessage(logger, level, SYSTEM_LEVEL);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static LogBuilder doCreateMessage(Logger logger, Level level, String logLevelName) {
+		if (!logger.isLoggable(level)) {
+			return DISABLED;
+		}
+
+		LogBuilder result = threadBuilder.get();
+		if (result.isInUse) {
+			result = new LogBuilder();
+		}
+
+		result.isInUse = true;
+		result.logger = logger;
+		result.logLevel = level;
+		result.messageBuffer = eventBuffer;
+		result.logMessage.setLength(0);
+		result.noParts = 0;
+		result.addSessionInfo(logLevelName);
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the Level, the current <code>HttpSession</code>, and the clients name. They come from the RequestContext of
+	 * the thread, which also gives the request id; only threads without one look the client up.
+	 */
+	protected void addSessionInfo(String level) {
+		RequestContext context = RequestContext.getThreadLocalContext();
+		if (context != null) {
+			addField(LEVEL).append(level);
+			addField(SESSION).append(context.getSessionName());
+			addField(CLIENT).append(context.getClientName());
+			addField(REQUEST).append(context.getRequestId());
+			return;
+		}
+
 		Session session = SessionManager.getThreadLocalSession();
 		String sessionName;
 		String clientName;
@@ -75,26 +222,57 @@ public class LogBuilder {
 			clientName = UserSession.ANONYMOUS_CLIENT;
 		}
 
-		result.add(LEVEL + NAME_VALUE_SEPARATOR + level);
-		result.add(SESSION + NAME_VALUE_SEPARATOR + sessionName);
-		result.add(CLIENT + NAME_VALUE_SEPARATOR + clientName);
+		addField(LEVEL).append(level);
+		addField(SESSION).append(sessionName);
+		addField(CLIENT).append(clientName);
+	}
 
-		return result;
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isDisabled() {
+		return logMessage == null;
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	protected void add(String logMessagePart) {
+		if (!isDisabled()) {
+			addPart(logMessagePart);
+		}
+	}
 
-		assert logMessage != null;
-
-		if (logMessage.length() == 0) {
-			logMessage.append(logMessagePart);
-		} else {
+	/**
+	 * @methodtype set
+	 *
+	 * Appends the separator if needed and the part, and returns the message to append the rest of the part to.
+	 */
+	protected StringBuilder addPart(String logMessagePart) {
+		if (logMessage.length() != 0) {
 			logMessage.append(INFO_SEPARATOR);
-			logMessage.append(logMessagePart);
 		}
+
+		if (noParts == partStarts.length) {
+			partStarts = Arrays.copyOf(partStarts, 2 * noParts);
+			valueStarts = Arrays.copyOf(valueStarts, 2 * noParts);
+		}
+		partStarts[noParts] = logMessage.length();
+		valueStarts[noParts] = -1;
+		noParts++;
+
+		return logMessage.append(logMessagePart);
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Adds the name of a name/value part, and returns the message to append the value to.
+	 */
+	protected StringBuilder addField(String name) {
+		addPart(name).append(NAME_VALUE_SEPARATOR);
+		valueStarts[noParts - 1] = logMessage.length();
+		return logMessage;
 	}
 
 
@@ -116,7 +294,9 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, int value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		if (!isDisabled()) {
+			addField(name).append(value);
+		}
 		return this;
 	}
 
@@ -126,7 +306,9 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, boolean value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		if (!isDisabled()) {
+			addField(name).append(value);
+		}
 		return this;
 	}
 
@@ -136,7 +318,9 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, String value) {
-		add(name + NAME_VALUE_SEPARATOR + value);
+		if (!isDisabled()) {
+			addField(name).append(value);
+		}
 		return this;
 	}
 
@@ -146,7 +330,22 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>.toString()".
 	 */
 	public LogBuilder addParameter(String name, Object value) {
-		add(name + NAME_VALUE_SEPARATOR + value.toString());
+		if (!isDisabled()) {
+			addField(name).append(value);
+		}
+		return this;
+	}
+
+	/**
+	 * @methodtype mutate
+	 *
+	 * Adds the following to the LogMessage: ", <name>=<value.getValue()>", asking for the value only if the level is
+	 * enabled.
+	 */
+	public LogBuilder addLazyParameter(String name, LazyValue value) {
+		if (!isDisabled()) {
+			addField(name).append(value.getValue());
+		}
 		return this;
 	}
 
@@ -166,10 +365,18 @@ public class LogBuilder {
 	 * Adds the stacktrace and the <code>exceptionMessage</code> to the log message.
 	 */
 	public LogBuilder addException(String exceptionMessage, Throwable throwable) {
-		add(EXCEPTION_REASON + NAME_VALUE_SEPARATOR + exceptionMessage);
-		StringWriter sw = new StringWriter();
-		throwable.printStackTrace(new PrintWriter(sw));
-		add(STACKTRACE + NAME_VALUE_SEPARATOR + sw.toString());
+		if (isDisabled()) {
+			return this;
+		}
+
+		addField(EXCEPTION_REASON).append(exceptionMessage);
+		if (messageBuffer != null) {
+			this.throwable = throwable;
+		} else {
+			StringWriter sw = new StringWriter();
+			throwable.printStackTrace(new PrintWriter(sw));
+			addField(STACKTRACE).append(sw.getBuffer());
+		}
 		return this;
 	}
 
@@ -182,10 +389,65 @@ public class LogBuilder {
 	 * Adds the info that the action is performed the log message: "action=<action>".
 	 */
 	public LogBuilder addAction(String action) {
-		add(ACTION + NAME_VALUE_SEPARATOR + action);
+		if (!isDisabled()) {
+			addField(ACTION).append(action);
+		}
 		return this;
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the message to the logger it was created for, or puts it into the buffer of the AsyncLogWriter, and frees
+	 * the builder for the next message.
+	 */
+	public void log() {
+		if (isDisabled() || logger == null) {
+			return;
+		}
+
+		String message = logMessage.toString();
+		Logger messageLogger = logger;
+		Level messageLevel = logLevel;
+		LogEventBuffer buffer = messageBuffer;
+		LogEvent event = null;
+		if (buffer != null) {
+			event = new LogEvent(messageLogger, messageLevel, message, Arrays.copyOf(partStarts, noParts),
+					Arrays.copyOf(valueStarts, noParts), INFO_SEPARATOR.length(), throwable);
+		}
+
+		logger = null;
+		logLevel = null;
+		messageBuffer = null;
+		throwable = null;
+		if (logMessage.capacity() > MAX_REUSED_CAPACITY) {
+			logMessage = new StringBuilder();
+		}
+		isInUse = false;
+
+		if (event != null) {
+			buffer.put(event);
+		} else {
+			messageLogger.log(messageLevel, message);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Lets log() put messages into the buffer, or write them itself if the buffer is null.
+	 */
+	public static void setEventBuffer(LogEventBuffer newEventBuffer) {
+		eventBuffer = newEventBuffer;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static LogEventBuffer getEventBuffer() {
+		return eventBuffer;
+	}
+
 
 	// hidden setter and getter methods --------------------------------------------------------------------------------
 
@@ -196,8 +458,10 @@ public class LogBuilder {
 	 */
 	@Override
 	public String toString() {
+		if (isDisabled()) {
+			return "";
+		}
 
-		assert logMessage != null;
 		assert logMessage.length() > 0;
 
 		return logMessage.toString();
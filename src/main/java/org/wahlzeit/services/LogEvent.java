@@ -0,0 +1,165 @@
+package org.wahlzeit.services;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A LogEvent is a log message of a LogBuilder taken apart into its name/value parts, for writing it as a JSON line
+ * later. It keeps the text of the message and where each part and value starts, so that taking it apart costs nothing
+ * on the thread that logs. The stacktrace of an exception is only rendered when the event is written.
+ */
+public class LogEvent {
+
+	/**
+	 *
+	 */
+	protected final long time;
+	protected final Logger logger;
+	protected final Level level;
+	protected final String threadName;
+
+	/**
+	 * Parts are separated by separatorLength characters; a part without value has a value start of -1
+	 */
+	protected final String text;
+	protected final int[] partStarts;
+	protected final int[] valueStarts;
+	protected final int separatorLength;
+
+	/**
+	 *
+	 */
+	protected final Throwable throwable;
+
+	/**
+	 *
+	 */
+	public LogEvent(Logger myLogger, Level myLevel, String myText, int[] myPartStarts, int[] myValueStarts,
+					int mySeparatorLength, Throwable myThrowable) {
+		time = System.currentTimeMillis();
+		logger = myLogger;
+		level = myLevel;
+		threadName = Thread.currentThread().getName();
+		text = myText;
+		partStarts = myPartStarts;
+		valueStarts = myValueStarts;
+		separatorLength = mySeparatorLength;
+		throwable = myThrowable;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Logger getLogger() {
+		return logger;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the event as one line of JSON; parts without a value are joined into the "message" field.
+	 */
+	public String asJsonLine() {
+		StringBuilder result = new StringBuilder(text.length() + 128);
+		result.append('{');
+		appendJsonField(result, "time", String.valueOf(time));
+		appendJsonField(result, "severity", level.getName());
+		appendJsonField(result, "logger", logger.getName());
+		appendJsonField(result, "thread", threadName);
+
+		StringBuilder message = null;
+		for (int i = 0; i < partStarts.length; i++) {
+			int partEnd = (i + 1 < partStarts.length) ? partStarts[i + 1] - separatorLength : text.length();
+			if (valueStarts[i] == -1) {
+				if (message == null) {
+					message = new StringBuilder();
+				} else {
+					message.append(LogBuilder.INFO_SEPARATOR);
+				}
+				message.append(text, partStarts[i], partEnd);
+			} else {
+				String name = text.substring(partStarts[i], valueStarts[i] - LogBuilder.NAME_VALUE_SEPARATOR.length());
+				appendJsonField(result, name, text.substring(valueStarts[i], partEnd));
+			}
+		}
+
+		if (message != null) {
+			appendJsonField(result, LogBuilder.MESSAGE, message.toString());
+		}
+		if (throwable != null) {
+			StringWriter sw = new StringWriter();
+			throwable.printStackTrace(new PrintWriter(sw));
+			appendJsonField(result, LogBuilder.STACKTRACE, sw.toString());
+		}
+
+		return result.append('}').toString();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void appendJsonField(StringBuilder json, String name, String value) {
+		if (json.length() > 1) {
+			json.append(',');
+		}
+		appendJsonString(json, name);
+		json.append(':');
+		appendJsonString(json, value);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void appendJsonString(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					json.append("\\\"");
+					break;
+				case '\\':
+					json.append("\\\\");
+					break;
+				case '\n':
+					json.append("\\n");
+					break;
+				case '\r':
+					json.append("\\r");
+					break;
+				case '\t':
+					json.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						json.append(String.format("\\u%04x", (int) c));
+					} else {
+						json.append(c);
+					}
+			}
+		}
+		json.append('"');
+	}
+
+}
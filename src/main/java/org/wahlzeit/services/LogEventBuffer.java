@@ -0,0 +1,172 @@
+package org.wahlzeit.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A LogEventBuffer is a bounded ring buffer of LogEvents that many threads put events into and one AsyncLogWriter
+ * takes them out of. Putting an event takes no lock: a thread claims the next free slot by advancing the tail, and the
+ * writer frees a slot by advancing the head. If the buffer is full, the OverflowPolicy decides whether events are
+ * dropped or the thread waits for the writer.
+ */
+public class LogEventBuffer {
+
+	/**
+	 *
+	 */
+	public enum OverflowPolicy {
+		DROP, BLOCK;
+
+		/**
+		 * @methodtype conversion
+		 *
+		 * Returns DROP for unknown names.
+		 */
+		public static OverflowPolicy getFromString(String name) {
+			return "block".equalsIgnoreCase(name) ? BLOCK : DROP;
+		}
+	}
+
+	/**
+	 * How long a blocked thread waits before it looks for a free slot again
+	 */
+	protected static final long BLOCKED_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/**
+	 *
+	 */
+	protected final AtomicReferenceArray<LogEvent> slots;
+	protected final int capacity;
+	protected final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Sequence numbers of the next event to take and the next slot to claim
+	 */
+	protected final AtomicLong head = new AtomicLong();
+	protected final AtomicLong tail = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected final AtomicLong noDroppedEvents = new AtomicLong();
+	protected final AtomicLong noTakenEvents = new AtomicLong();
+
+	/**
+	 * Set when the writer has stopped, so that blocked threads do not wait forever
+	 */
+	protected volatile boolean isClosed = false;
+
+	/**
+	 *
+	 */
+	public LogEventBuffer(int myCapacity, OverflowPolicy myOverflowPolicy) {
+		if (myCapacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		capacity = myCapacity;
+		slots = new AtomicReferenceArray<LogEvent>(capacity);
+		overflowPolicy = myOverflowPolicy;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Puts the event into the buffer; returns false if it has been dropped.
+	 */
+	public boolean put(LogEvent event) {
+		if (isClosed) {
+			noDroppedEvents.incrementAndGet();
+			return false;
+		}
+
+		while (true) {
+			long sequence = tail.get();
+			if (sequence - head.get() >= capacity) {
+				if (overflowPolicy == OverflowPolicy.DROP || isClosed) {
+					noDroppedEvents.incrementAndGet();
+					return false;
+				}
+				LockSupport.parkNanos(BLOCKED_WAIT_NANOS);
+			} else if (tail.compareAndSet(sequence, sequence + 1)) {
+				slots.set(getIndex(sequence), event);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Takes the next event out of the buffer, or returns null if there is none. Only one thread may take events.
+	 */
+	public LogEvent take() {
+		long sequence = head.get();
+		if (sequence == tail.get()) {
+			return null;
+		}
+
+		int index = getIndex(sequence);
+		LogEvent result = slots.get(index);
+		if (result == null) {
+			// the slot has been claimed, but the event is not in it yet
+			return null;
+		}
+
+		slots.set(index, null);
+		head.set(sequence + 1);
+		noTakenEvents.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected int getIndex(long sequence) {
+		return (int) (sequence % capacity);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void close() {
+		isClosed = true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoDroppedEvents() {
+		return noDroppedEvents.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoTakenEvents() {
+		return noTakenEvents.get();
+	}
+
+}
@@ -20,11 +20,19 @@
 
 package org.wahlzeit.services;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.cmd.Query;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -40,6 +48,32 @@ public abstract class ObjectManager {
 
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
+	/**
+	 * System property for the number of entities readObjectsInPages reads per query
+	 */
+	public static final String PAGE_SIZE_PROPERTY = "wahlzeit.datastore.pageSize";
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	/**
+	 * Handles the entities of a query page by page, see readObjectsInPages
+	 */
+	public interface PageHandler<E> {
+		void handlePage(List<E> page);
+	}
+
+	/**
+	 * Entities read, written and deleted, and the time the datastore took, of all ObjectManagers
+	 */
+	protected static final Counter noReadEntities = MetricRegistry.getInstance().getCounter("datastore entities read");
+	protected static final Counter noWrittenEntities =
+			MetricRegistry.getInstance().getCounter("datastore entities written");
+	protected static final Counter noDeletedEntities =
+			MetricRegistry.getInstance().getCounter("datastore entities deleted");
+	protected static final TimingHistogram readTimes = MetricRegistry.getInstance().getHistogram("datastore read");
+	protected static final TimingHistogram queryTimes = MetricRegistry.getInstance().getHistogram("datastore query");
+	protected static final TimingHistogram writeTimes = MetricRegistry.getInstance().getHistogram("datastore write");
+	protected static final TimingHistogram deleteTimes = MetricRegistry.getInstance().getHistogram("datastore delete");
+
 
 	/**
 	 * Reads the first Entity with the given key in the Datastore
@@ -48,9 +82,16 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("Datastore: load entity").
+				addParameter("type", type.getName()).
+				addParameter("id", id).log();
+
+		long startTime = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).id(id).now();
+		readTimes.recordSince(startTime);
+		countRead(result);
+		return result;
 	}
 
 	/**
@@ -69,9 +110,43 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("Datastore: load entity").
+				addParameter("type", type.getName()).
+				addParameter("id", id).log();
+
+		long startTime = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).id(id).now();
+		readTimes.recordSince(startTime);
+		countRead(result);
+		return result;
+	}
+
+	/**
+	 * Reads the Entity with the given key in the Datastore
+	 */
+	protected <E> E readObject(com.googlecode.objectify.Key<E> key) {
+		assertIsNonNullArgument(key, "key");
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("Datastore: load entity").
+				addParameter("key", key).log();
+
+		long startTime = System.nanoTime();
+		E result = OfyService.ofy().load().key(key).now();
+		readTimes.recordSince(startTime);
+		countRead(result);
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates a query for the entities of the type, which are children of the application root key; overwrite for
+	 * types whose entities are entity groups of their own.
+	 */
+	protected <E> Query<E> createQuery(Class<E> type) {
+		return OfyService.ofy().load().type(type).ancestor(applicationRootKey);
 	}
 
 	/**
@@ -83,12 +158,25 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with parameter " +
-						parameterName + " == " + value + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("Datastore: load entity").
+				addParameter("type", type.getName()).
+				addParameter(parameterName, value).log();
 
-		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
-				.now();
+		long startTime = System.nanoTime();
+		E result = createQuery(type).filter(parameterName, value).first().now();
+		queryTimes.recordSince(startTime);
+		countRead(result);
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void countRead(Object result) {
+		if (result != null) {
+			noReadEntities.increment();
+		}
 	}
 
 	/**
@@ -98,14 +186,64 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: load all entities of type", type.getName()).toString());
-		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities of type", type.getName()).log();
+		long startTime = System.nanoTime();
+		List<E> objects = createQuery(type).list();
+		queryTimes.recordSince(startTime);
+		noReadEntities.add(objects.size());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
+	/**
+	 * Reads all Entities of the specified type in pages of PAGE_SIZE_PROPERTY entities, each with its own query that
+	 * continues at the cursor of the last one, and hands each page to the handler before reading the next. The
+	 * session cache is cleared after each page, so that only one page is held at a time. Returns the number of
+	 * entities read.
+	 */
+	protected <E> int readObjectsInPages(Class<E> type, PageHandler<E> handler) {
+		assertIsNonNullArgument(type, "type");
+		assertIsNonNullArgument(handler, "handler");
+
+		int pageSize = Math.max(1, Integer.getInteger(PAGE_SIZE_PROPERTY, DEFAULT_PAGE_SIZE));
+		int noObjects = 0;
+		int noPages = 0;
+		Cursor cursor = null;
+		while (true) {
+			long startTime = System.nanoTime();
+			Query<E> query = createQuery(type).limit(pageSize);
+			if (cursor != null) {
+				query = query.startAt(cursor);
+			}
+			QueryResultIterator<E> iterator = query.iterator();
+			List<E> page = new ArrayList<E>(pageSize);
+			while (iterator.hasNext()) {
+				page.add(iterator.next());
+			}
+			queryTimes.recordSince(startTime);
+			noReadEntities.add(page.size());
+
+			if (!page.isEmpty()) {
+				handler.handlePage(page);
+				OfyService.ofy().clear();
+				noObjects += page.size();
+				noPages++;
+			}
+			if (page.size() < pageSize) {
+				break;
+			}
+			cursor = iterator.getCursor();
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: loaded all entities of type", type.getName()).
+				addParameter("objects", noObjects).
+				addParameter("pages", noPages).log();
+		return noObjects;
+	}
+
 	/**
 	 * Reads all Entities of the specified type, where the given property matches the wanted value e.g.
 	 * readObject(User.class) to get a list of all clients
@@ -116,13 +254,16 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
-						+ propertyName + " = " + value.toString() + " from datastore.").toString());
-		List<E> objects = OfyService.ofy().load().type(type).
-				ancestor(applicationRootKey).filter(propertyName, value).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addAction("Datastore: load all entities").
+				addParameter("type", type.getName()).
+				addParameter(propertyName, value).log();
+		long startTime = System.nanoTime();
+		List<E> objects = createQuery(type).filter(propertyName, value).list();
+		queryTimes.recordSince(startTime);
+		noReadEntities.add(objects.size());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
@@ -143,23 +284,42 @@ public abstract class ObjectManager {
 	}
 
 	/**
-	 * Writes the given entity to the datastore.
+	 * Writes the given entity to the datastore and stamps it with the time of the write.
 	 */
 	protected void writeObject(Persistent object) {
 		assertIsNonNullArgument(object, "object");
 
 		if (object.isDirty()) {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: Write object of type", object).toString());
-			OfyService.ofy().save().entity(object).now();
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: Write object of type", object).log();
+			object.setModifiedOn(System.currentTimeMillis());
+			object.resetWriteCount(); // changes made while writing make the object dirty again
+			long startTime = System.nanoTime();
+			try {
+				doWriteObject(object);
+			} catch (RuntimeException ex) {
+				object.incWriteCount();
+				throw ex;
+			}
+			writeTimes.recordSince(startTime);
+			noWrittenEntities.increment();
 			updateDependents(object);
-			object.resetWriteCount();
 		} else {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: No need to update object", object).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: No need to update object", object).log();
 		}
 	}
 
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 *
+	 * Saves the entity; overwrite to save it differently, e.g. in a transaction.
+	 */
+	protected void doWriteObject(Persistent object) {
+		OfyService.ofy().save().entity(object).now();
+	}
+
 	/**
 	 * Updates all dependencies of the object.
 	 */
@@ -173,8 +333,11 @@ public abstract class ObjectManager {
 	protected <E> void deleteObject(E object) {
 		assertIsNonNullArgument(object, "object");
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Datastore: delete entity", object).log();
+		long startTime = System.nanoTime();
 		OfyService.ofy().delete().entity(object).now();
+		deleteTimes.recordSince(startTime);
+		noDeletedEntities.increment();
 	}
 
 	/**
@@ -186,12 +349,16 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: delete entities of type " + type
-						+ " where property " + propertyName + " == " + value).toString());
-		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
-				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addAction("Datastore: delete entities").
+				addParameter("type", type.getName()).
+				addParameter(propertyName, value).log();
+		long startTime = System.nanoTime();
+		List<com.googlecode.objectify.Key<E>> keys = createQuery(type).filter(propertyName, value).keys()
+				.list();
 		OfyService.ofy().delete().keys(keys);
+		deleteTimes.recordSince(startTime);
+		noDeletedEntities.add(keys.size());
 	}
 
 	/**
@@ -41,4 +41,9 @@ public interface Persistent {
 	 */
 	void resetWriteCount();
 
+	/**
+	 * Set to the time of each write, so that others can query for objects written after a given time
+	 */
+	void setModifiedOn(long time);
+
 }
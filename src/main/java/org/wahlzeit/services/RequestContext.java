@@ -0,0 +1,119 @@
+package org.wahlzeit.services;
+
+import org.wahlzeit.model.UserSession;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A RequestContext holds what log messages say about the request that is being handled: its id, the session name and
+ * the nickname of the client. It is made once per request, when the client is known, and kept by thread, so that all
+ * log messages of a request, from the handler to managers and storage, carry the same request id without looking up
+ * the client again. It is immutable; a client that logs in gets a new context.
+ */
+public class RequestContext {
+
+	/**
+	 * Parameter that carries the request id to tasks that are run later, e.g. in a task queue
+	 */
+	public static final String REQUEST_ID = "requestId";
+
+	/**
+	 * Header with the id App Engine logs the request under
+	 */
+	public static final String REQUEST_LOG_ID_HEADER = "X-AppEngine-Request-Log-Id";
+
+	/**
+	 *
+	 */
+	protected static ThreadLocal<RequestContext> contexts = new ThreadLocal<RequestContext>();
+
+	/**
+	 * Request ids not given by App Engine are made of an instance prefix and a counter
+	 */
+	protected static final String INSTANCE_ID = Integer.toString(new SecureRandom().nextInt(36 * 36 * 36 * 36), 36);
+	protected static final AtomicLong lastRequestNo = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected final String requestId;
+	protected final String sessionName;
+	protected final String clientName;
+
+	/**
+	 *
+	 */
+	public RequestContext(String myRequestId, String mySessionName, String myClientName) {
+		requestId = (myRequestId != null) ? myRequestId : createRequestId();
+		sessionName = (mySessionName != null) ? mySessionName : Session.NO_SESSION;
+		clientName = (myClientName != null) ? myClientName : UserSession.ANONYMOUS_CLIENT;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static String createRequestId() {
+		return INSTANCE_ID + "-" + Long.toString(lastRequestNo.incrementAndGet(), 36);
+	}
+
+	/**
+	 *
+	 */
+	public static RequestContext getThreadLocalContext() {
+		return contexts.get();
+	}
+
+	/**
+	 *
+	 */
+	public static void setThreadLocalContext(RequestContext context) {
+		contexts.set(context);
+	}
+
+	/**
+	 *
+	 */
+	public static void dropThreadLocalContext() {
+		contexts.remove();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the id of the request of the thread, or null if the thread handles none.
+	 */
+	public static String getThreadLocalRequestId() {
+		RequestContext context = contexts.get();
+		return (context == null) ? null : context.getRequestId();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSessionName() {
+		return sessionName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getClientName() {
+		return clientName;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public RequestContext withClientName(String newClientName) {
+		return new RequestContext(requestId, sessionName, newClientName);
+	}
+
+}
@@ -0,0 +1,53 @@
+package org.wahlzeit.services;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.utils.SystemProperty;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A RequestThreadFactory makes the threads that do work for the request that creates it. On App Engine, where a
+ * request may not start plain threads, these are request threads: they have the request's environment and must end
+ * before the request does, so they may not be pooled across requests. Elsewhere, they are named daemon threads of the
+ * default ThreadFactory.
+ */
+public class RequestThreadFactory implements ThreadFactory {
+
+	/**
+	 *
+	 */
+	protected final String name;
+	protected final ThreadFactory factory;
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Tells whether the application runs on App Engine rather than the development server or in tests.
+	 */
+	public static boolean isOnAppEngine() {
+		return SystemProperty.environment.value() == SystemProperty.Environment.Value.Production;
+	}
+
+	/**
+	 * To be called on the thread of the request.
+	 */
+	public RequestThreadFactory(String myName) {
+		name = myName;
+		factory = isOnAppEngine() ? ThreadManager.currentRequestThreadFactory() : Executors.defaultThreadFactory();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread result = factory.newThread(runnable);
+		if (!isOnAppEngine()) {
+			result.setName(name + "-" + result.getName());
+			result.setDaemon(true);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,122 @@
+package org.wahlzeit.services.invalidation;
+
+import java.security.SecureRandom;
+
+/**
+ * An Invalidation tells other instances that an object has been written, so that they read it again if they hold an
+ * older version. The kind says what the id is an id of, the key is the datastore key of the object as a web-safe
+ * string, and the version is the time of the write. Invalidations are immutable.
+ */
+public class Invalidation {
+
+	/**
+	 * Version of the message format; messages in other formats are ignored
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 *
+	 */
+	protected static final String SEPARATOR = "|";
+
+	/**
+	 *
+	 */
+	protected final String kind;
+	protected final String id;
+	protected final String key;
+	protected final long version;
+
+	/**
+	 *
+	 */
+	public Invalidation(String myKind, String myId, String myKey, long myVersion) {
+		kind = myKind;
+		id = myId;
+		key = myKey;
+		version = myVersion;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns a new name for a source of messages, e.g. a bus.
+	 */
+	public static String createSource() {
+		return Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the message for the invalidation published by the given source; the id comes last, as it may contain
+	 * the separator.
+	 */
+	public String asMessage(String source) {
+		return FORMAT_VERSION + SEPARATOR + source + SEPARATOR + kind + SEPARATOR + version + SEPARATOR + key +
+				SEPARATOR + id;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the invalidation of the message, or null if it is in another format.
+	 */
+	public static Invalidation getFromMessage(String message) {
+		String[] parts = message.split("\\" + SEPARATOR, 6);
+		if (parts.length != 6 || !String.valueOf(FORMAT_VERSION).equals(parts[0])) {
+			return null;
+		}
+		return new Invalidation(parts[2], parts[5], parts[4], Long.parseLong(parts[3]));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the source of the message, or null if it is in another format.
+	 */
+	public static String getSourceFromMessage(String message) {
+		String[] parts = message.split("\\" + SEPARATOR, 3);
+		if (parts.length != 3 || !String.valueOf(FORMAT_VERSION).equals(parts[0])) {
+			return null;
+		}
+		return parts[1];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getKind() {
+		return kind;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return kind + " " + id + " version " + version;
+	}
+
+}
@@ -0,0 +1,22 @@
+package org.wahlzeit.services.invalidation;
+
+import java.util.List;
+
+/**
+ * An InvalidationBus carries Invalidations from the instance that wrote an object to all other instances. Each
+ * instance has its own bus, which receives what others have published since it was made or last received.
+ */
+public interface InvalidationBus {
+
+	/**
+	 * Sends the invalidation to all other instances; failures are logged, not thrown.
+	 */
+	void publish(Invalidation invalidation);
+
+	/**
+	 * Returns the invalidations other instances have published since the last call, in the order they were published,
+	 * or null if some of them may have been lost.
+	 */
+	List<Invalidation> receive();
+
+}
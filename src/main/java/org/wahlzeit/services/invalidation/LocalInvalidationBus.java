@@ -0,0 +1,109 @@
+package org.wahlzeit.services.invalidation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A LocalInvalidationBus passes Invalidations between the buses of one process, as a stand-in for the
+ * MemcacheInvalidationBus in tests and on the development server. Buses made with createPeer share one message log;
+ * a bus that falls more than the capacity of the log behind has lost messages.
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The messages of all peers; the first one has number firstMessageNo
+	 */
+	protected static class MessageLog {
+		protected final int capacity;
+		protected final List<String> messages = new ArrayList<String>();
+		protected long firstMessageNo = 0;
+
+		protected MessageLog(int myCapacity) {
+			capacity = myCapacity;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected final MessageLog log;
+	protected final String source = Invalidation.createSource();
+	protected long nextMessageNo;
+
+	/**
+	 *
+	 */
+	public LocalInvalidationBus() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 */
+	public LocalInvalidationBus(int capacity) {
+		this(new MessageLog(capacity));
+	}
+
+	/**
+	 *
+	 */
+	protected LocalInvalidationBus(MessageLog myLog) {
+		log = myLog;
+		synchronized (log) {
+			nextMessageNo = log.firstMessageNo + log.messages.size();
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns a bus that shares the message log of this one, like the bus of another instance.
+	 */
+	public LocalInvalidationBus createPeer() {
+		return new LocalInvalidationBus(log);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void publish(Invalidation invalidation) {
+		synchronized (log) {
+			log.messages.add(invalidation.asMessage(source));
+			if (log.messages.size() > log.capacity) {
+				log.messages.remove(0);
+				log.firstMessageNo++;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized List<Invalidation> receive() {
+		List<String> messages;
+		synchronized (log) {
+			boolean isLost = nextMessageNo < log.firstMessageNo;
+			int fromIndex = (int) Math.max(0, nextMessageNo - log.firstMessageNo);
+			messages = new ArrayList<String>(log.messages.subList(fromIndex, log.messages.size()));
+			nextMessageNo = log.firstMessageNo + log.messages.size();
+			if (isLost) {
+				return null;
+			}
+		}
+
+		List<Invalidation> result = new ArrayList<Invalidation>(messages.size());
+		for (String message : messages) {
+			Invalidation invalidation = Invalidation.getFromMessage(message);
+			if (invalidation != null && !source.equals(Invalidation.getSourceFromMessage(message))) {
+				result.add(invalidation);
+			}
+		}
+		return result;
+	}
+
+}
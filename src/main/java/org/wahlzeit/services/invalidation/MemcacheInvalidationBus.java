@@ -0,0 +1,178 @@
+package org.wahlzeit.services.invalidation;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A MemcacheInvalidationBus passes Invalidations between instances through memcache, which all instances of an
+ * application share. Publishing increments a sequence number and puts the message under it, so that it expires after
+ * RETENTION_SECONDS_PROPERTY seconds; receiving reads the sequence number and gets the messages up to it in one call.
+ * A message that is still missing after PENDING_MILLIS has been evicted or its publisher failed, and is lost, as are
+ * all messages if the sequence number itself has been evicted.
+ */
+public class MemcacheInvalidationBus implements InvalidationBus {
+
+	private static final Logger log = Logger.getLogger(MemcacheInvalidationBus.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String NAMESPACE = "invalidation";
+
+	/**
+	 * System property for the seconds a message is kept
+	 */
+	public static final String RETENTION_SECONDS_PROPERTY = "wahlzeit.invalidation.retentionSeconds";
+	public static final int DEFAULT_RETENTION_SECONDS = 600;
+
+	/**
+	 *
+	 */
+	protected static final String SEQUENCE_KEY = "sequence";
+	protected static final String MESSAGE_KEY_PREFIX = "message ";
+
+	/**
+	 * A message may be missing for a moment between incrementing the sequence number and putting it
+	 */
+	protected static final long PENDING_MILLIS = 5000;
+
+	/**
+	 * A bus further behind than this has lost messages, as reading them all would take too long
+	 */
+	protected static final int MAX_RECEIVED_MESSAGES = 1000;
+
+	/**
+	 *
+	 */
+	protected final MemcacheService memcache;
+	protected final Expiration expiration;
+	protected final String source = Invalidation.createSource();
+
+	/**
+	 * Number of the last message received; -1 if memcache could not be read when the bus was made
+	 */
+	protected long lastMessageNo;
+
+	/**
+	 * Number of the first missing message and since when it is missing, or 0
+	 */
+	protected long pendingMessageNo = 0;
+	protected long pendingSince = 0;
+
+	/**
+	 *
+	 */
+	public MemcacheInvalidationBus() {
+		this(MemcacheServiceFactory.getMemcacheService(NAMESPACE));
+	}
+
+	/**
+	 *
+	 */
+	public MemcacheInvalidationBus(MemcacheService myMemcache) {
+		memcache = myMemcache;
+		expiration = Expiration.byDeltaSeconds(Integer.getInteger(RETENTION_SECONDS_PROPERTY,
+				DEFAULT_RETENTION_SECONDS));
+		Long sequenceNo = readSequenceNo();
+		lastMessageNo = (sequenceNo != null) ? sequenceNo : -1;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the number of the last message published, 0 if there is none, or null if memcache cannot be read.
+	 */
+	protected Long readSequenceNo() {
+		try {
+			Object result = memcache.get(SEQUENCE_KEY);
+			return (result instanceof Number) ? ((Number) result).longValue() : 0L;
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addAction("read invalidation sequence").
+					addException("memcache failed", ex).log();
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void publish(Invalidation invalidation) {
+		try {
+			Long messageNo = memcache.increment(SEQUENCE_KEY, 1, 0L);
+			if (messageNo == null) {
+				throw new IllegalStateException("memcache did not increment the sequence number");
+			}
+			memcache.put(MESSAGE_KEY_PREFIX + messageNo, invalidation.asMessage(source), expiration);
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addAction("publish invalidation").
+					addParameter("invalidation", invalidation).
+					addException("other instances read it when they catch up", ex).log();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized List<Invalidation> receive() {
+		Long sequenceNo = readSequenceNo();
+		if (sequenceNo == null) {
+			return null;
+		}
+
+		long fromNo = lastMessageNo;
+		if (fromNo < 0 || sequenceNo < fromNo || sequenceNo - fromNo > MAX_RECEIVED_MESSAGES) {
+			lastMessageNo = sequenceNo;
+			pendingMessageNo = 0;
+			return null;
+		}
+
+		List<String> keys = new ArrayList<String>();
+		for (long messageNo = fromNo + 1; messageNo <= sequenceNo; messageNo++) {
+			keys.add(MESSAGE_KEY_PREFIX + messageNo);
+		}
+		Map<String, Object> messages = memcache.getAll(keys);
+
+		boolean isLost = false;
+		List<Invalidation> result = new ArrayList<Invalidation>(keys.size());
+		for (long messageNo = fromNo + 1; messageNo <= sequenceNo; messageNo++) {
+			Object message = messages.get(MESSAGE_KEY_PREFIX + messageNo);
+			if (message == null) {
+				if (!isPendingTooLong(messageNo)) {
+					break;
+				}
+				isLost = true;
+			} else if (message instanceof String) {
+				Invalidation invalidation = Invalidation.getFromMessage((String) message);
+				if (invalidation != null && !source.equals(Invalidation.getSourceFromMessage((String) message))) {
+					result.add(invalidation);
+				}
+			}
+			lastMessageNo = messageNo;
+		}
+
+		return isLost ? null : result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns whether the missing message has been missing for more than PENDING_MILLIS.
+	 */
+	protected boolean isPendingTooLong(long messageNo) {
+		long now = System.currentTimeMillis();
+		if (pendingMessageNo != messageNo) {
+			pendingMessageNo = messageNo;
+			pendingSince = now;
+		}
+		return now - pendingSince > PENDING_MILLIS;
+	}
+
+}
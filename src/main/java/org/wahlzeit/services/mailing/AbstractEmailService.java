@@ -22,9 +22,13 @@ package org.wahlzeit.services.mailing;
 
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
 import org.wahlzeit.utils.StringUtil;
 
 import javax.mail.Message;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -34,6 +38,13 @@ public abstract class AbstractEmailService implements EmailService {
 
 	private static final Logger log = Logger.getLogger(AbstractEmailService.class.getName());
 
+	/**
+	 * Emails sent and failed, and the time sending took, of all email services
+	 */
+	protected static final Counter noSentEmails = MetricRegistry.getInstance().getCounter("emails sent");
+	protected static final Counter noFailedEmails = MetricRegistry.getInstance().getCounter("emails failed");
+	protected static final TimingHistogram sendTimes = MetricRegistry.getInstance().getHistogram("email send");
+
 	/**
 	 *
 	 */
@@ -61,8 +72,16 @@ public abstract class AbstractEmailService implements EmailService {
 		assertIsValidString(subject, "subject");
 		assertIsValidString(body, "body");
 
-		Message msg = doCreateEmail(from, to, bcc, subject, body);
-		doSendEmail(msg);
+		long startTime = System.nanoTime();
+		boolean isSent = false;
+		try {
+			Message msg = doCreateEmail(from, to, bcc, subject, body);
+			doSendEmail(msg);
+			isSent = true;
+		} finally {
+			sendTimes.recordSince(startTime);
+			(isSent ? noSentEmails : noFailedEmails).increment();
+		}
 	}
 
 	/**
@@ -75,8 +94,8 @@ public abstract class AbstractEmailService implements EmailService {
 			sendEmail(from, to, bcc, subject, body);
 			return true;
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().
-					addException("Problem sending email", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Problem sending email", ex).log();
 			return false;
 		}
 	}
@@ -0,0 +1,94 @@
+package org.wahlzeit.services.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Counter counts events that many threads report at the same time. Like LongAdder (which App Engine's Java 7 does
+ * not have), it spreads the count over stripes, one per group of threads, so that threads do not fight over one
+ * cache line; reading the count adds up the stripes. Stripes are PADDING longs apart, so that each has a cache line.
+ */
+public class Counter {
+
+	/**
+	 *
+	 */
+	protected static final int MAX_STRIPES = 16;
+	protected static final int NO_STRIPES = getNoStripes(Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * 8 longs are 64 bytes, the size of a cache line
+	 */
+	protected static final int PADDING = 8;
+
+	/**
+	 *
+	 */
+	protected final String name;
+
+	/**
+	 *
+	 */
+	protected final AtomicLongArray stripes = new AtomicLongArray(NO_STRIPES * PADDING);
+
+	/**
+	 *
+	 */
+	public Counter(String myName) {
+		name = myName;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the smallest power of two not below the number of processors, at most MAX_STRIPES.
+	 */
+	protected static int getNoStripes(int noProcessors) {
+		int result = 1;
+		while (result < noProcessors && result < MAX_STRIPES) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void add(long value) {
+		stripes.addAndGet(getStripeIndex(), value);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int getStripeIndex() {
+		return (int) (Thread.currentThread().getId() & (NO_STRIPES - 1)) * PADDING;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sum of the stripes; values added while adding them up may or may not be in it.
+	 */
+	public long getCount() {
+		long result = 0;
+		for (int i = 0; i < NO_STRIPES; i++) {
+			result += stripes.get(i * PADDING);
+		}
+		return result;
+	}
+
+}
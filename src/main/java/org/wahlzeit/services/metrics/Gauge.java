@@ -0,0 +1,13 @@
+package org.wahlzeit.services.metrics;
+
+/**
+ * A Gauge is a value that is read when the metrics are shown, like the size of a cache, rather than counted.
+ */
+public interface Gauge {
+
+	/**
+	 * @methodtype get
+	 */
+	public long getValue();
+
+}
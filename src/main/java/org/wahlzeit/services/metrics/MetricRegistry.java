@@ -0,0 +1,143 @@
+package org.wahlzeit.services.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The MetricRegistry keeps the Counters, Gauges and TimingHistograms by name. Callers that count or time often look
+ * their metric up once and keep it, so that counting does not cost a map lookup.
+ */
+public class MetricRegistry {
+
+	/**
+	 *
+	 */
+	protected static final MetricRegistry instance = new MetricRegistry();
+
+	/**
+	 *
+	 */
+	protected final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	protected final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	protected final ConcurrentMap<String, TimingHistogram> histograms =
+			new ConcurrentHashMap<String, TimingHistogram>();
+
+	/**
+	 *
+	 */
+	protected MetricRegistry() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static MetricRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the counter of the name, creating it if there is none yet.
+	 */
+	public Counter getCounter(String name) {
+		Counter result = counters.get(name);
+		if (result == null) {
+			Counter newCounter = new Counter(name);
+			result = counters.putIfAbsent(name, newCounter);
+			if (result == null) {
+				result = newCounter;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Registers the gauge under the name; a gauge registered before under the name is replaced.
+	 */
+	public void registerGauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the histogram of the name, creating it if there is none yet.
+	 */
+	public TimingHistogram getHistogram(String name) {
+		TimingHistogram result = histograms.get(name);
+		if (result == null) {
+			TimingHistogram newHistogram = new TimingHistogram(name);
+			result = histograms.putIfAbsent(name, newHistogram);
+			if (result == null) {
+				result = newHistogram;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the counters, sorted by name.
+	 */
+	public List<Counter> getCounters() {
+		List<Counter> result = new ArrayList<Counter>(counters.values());
+		Collections.sort(result, new Comparator<Counter>() {
+			public int compare(Counter c1, Counter c2) {
+				return c1.getName().compareTo(c2.getName());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the gauges by name, sorted by name.
+	 */
+	public List<Map.Entry<String, Gauge>> getGauges() {
+		List<Map.Entry<String, Gauge>> result = new ArrayList<Map.Entry<String, Gauge>>(gauges.entrySet());
+		Collections.sort(result, new Comparator<Map.Entry<String, Gauge>>() {
+			public int compare(Map.Entry<String, Gauge> e1, Map.Entry<String, Gauge> e2) {
+				return e1.getKey().compareTo(e2.getKey());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the histograms with recorded durations, the one with the most total time first.
+	 */
+	public List<TimingHistogram> getHistograms() {
+		List<TimingHistogram> result = new ArrayList<TimingHistogram>();
+		final Map<TimingHistogram, Long> totals = new HashMap<TimingHistogram, Long>();
+		for (TimingHistogram histogram : histograms.values()) {
+			if (histogram.getCount() > 0) {
+				result.add(histogram);
+				totals.put(histogram, histogram.getTotalNanos());
+			}
+		}
+
+		// totals keep growing while sorting, so the order uses a snapshot of them
+		Collections.sort(result, new Comparator<TimingHistogram>() {
+			public int compare(TimingHistogram h1, TimingHistogram h2) {
+				int order = totals.get(h2).compareTo(totals.get(h1));
+				return (order != 0) ? order : h1.getName().compareTo(h2.getName());
+			}
+		});
+		return result;
+	}
+
+}
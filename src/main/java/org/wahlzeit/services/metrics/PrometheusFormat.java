@@ -0,0 +1,111 @@
+package org.wahlzeit.services.metrics;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The PrometheusFormat writes the metrics of a MetricRegistry in the Prometheus text exposition format (version
+ * 0.0.4). Counters and gauges become one metric each, named after them; all TimingHistograms become one summary of
+ * durations in seconds, with the histogram name as label.
+ */
+public class PrometheusFormat {
+
+	/**
+	 *
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	/**
+	 *
+	 */
+	public static final String PREFIX = "wahlzeit_";
+	public static final String DURATION_NAME = PREFIX + "duration_seconds";
+	public static final String MAX_DURATION_NAME = PREFIX + "max_duration_seconds";
+
+	/**
+	 *
+	 */
+	protected static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+	/**
+	 * @methodtype command
+	 */
+	public static void writeOn(MetricRegistry registry, PrintWriter out) {
+		for (Counter counter : registry.getCounters()) {
+			String name = getMetricName(counter.getName()) + "_total";
+			writeLineOn("# TYPE " + name + " counter", out);
+			writeLineOn(name + " " + counter.getCount(), out);
+		}
+
+		for (Map.Entry<String, Gauge> gauge : registry.getGauges()) {
+			String name = getMetricName(gauge.getKey());
+			writeLineOn("# TYPE " + name + " gauge", out);
+			writeLineOn(name + " " + gauge.getValue().getValue(), out);
+		}
+
+		List<TimingHistogram> histograms = registry.getHistograms();
+		if (histograms.isEmpty()) {
+			return;
+		}
+
+		writeLineOn("# TYPE " + DURATION_NAME + " summary", out);
+		for (TimingHistogram histogram : histograms) {
+			String label = "name=\"" + escapeLabelValue(histogram.getName()) + "\"";
+			for (double quantile : QUANTILES) {
+				writeLineOn(DURATION_NAME + "{" + label + ",quantile=\"" + quantile + "\"} " +
+						asSecondsString(histogram.getNanosAtPercentile(quantile * 100.0)), out);
+			}
+			writeLineOn(DURATION_NAME + "_sum{" + label + "} " + asSecondsString(histogram.getTotalNanos()), out);
+			writeLineOn(DURATION_NAME + "_count{" + label + "} " + histogram.getCount(), out);
+		}
+
+		writeLineOn("# TYPE " + MAX_DURATION_NAME + " gauge", out);
+		for (TimingHistogram histogram : histograms) {
+			writeLineOn(MAX_DURATION_NAME + "{name=\"" + escapeLabelValue(histogram.getName()) + "\"} " +
+					asSecondsString(histogram.getMaxNanos()), out);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Prometheus wants lines ending in '\n' only, so println does not do on all platforms.
+	 */
+	protected static void writeLineOn(String line, PrintWriter out) {
+		out.print(line);
+		out.print('\n');
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the name with the prefix and every character that Prometheus does not allow in names replaced by '_'.
+	 */
+	public static String getMetricName(String name) {
+		StringBuilder result = new StringBuilder(PREFIX.length() + name.length());
+		result.append(PREFIX);
+		for (int i = 0; i < name.length(); i++) {
+			char c = Character.toLowerCase(name.charAt(i));
+			boolean isAllowed = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+			result.append(isAllowed ? c : '_');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String escapeLabelValue(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asSecondsString(long nanos) {
+		return String.format(Locale.US, "%.9f", nanos / 1e9);
+	}
+
+}
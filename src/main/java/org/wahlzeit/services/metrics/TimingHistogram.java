@@ -0,0 +1,182 @@
+package org.wahlzeit.services.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A TimingHistogram counts durations in nanoseconds in buckets of logarithmic size, like HdrHistogram does: every
+ * power of two is split into SUB_BUCKETS buckets, so that percentiles are off by less than 1/SUB_BUCKETS. Recording a
+ * duration takes no lock and allocates nothing; count and total are striped Counters. Reading percentiles while
+ * durations are recorded is only approximate.
+ */
+public class TimingHistogram {
+
+	/**
+	 *
+	 */
+	protected static final int SUB_BUCKET_BITS = 4;
+	protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Durations of 2^MAX_EXPONENT nanoseconds (about 18 minutes) and longer go into the last bucket
+	 */
+	protected static final int MAX_EXPONENT = 40;
+	protected static final int NO_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	/**
+	 *
+	 */
+	protected final String name;
+
+	/**
+	 *
+	 */
+	protected final AtomicLongArray buckets = new AtomicLongArray(NO_BUCKETS);
+	protected final Counter count = new Counter(null);
+	protected final Counter totalNanos = new Counter(null);
+	protected final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public TimingHistogram(String myName) {
+		name = myName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet(getBucketIndex(nanos));
+		count.increment();
+		totalNanos.add(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Records the time since the start time, which came from System.nanoTime().
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Durations below SUB_BUCKETS nanoseconds have a bucket each; above, the bucket is given by the highest bit and the
+	 * SUB_BUCKET_BITS bits below it.
+	 */
+	protected static int getBucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent >= MAX_EXPONENT) {
+			return NO_BUCKETS - 1;
+		}
+
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the highest duration that goes into the bucket.
+	 */
+	protected static long getBucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCount() {
+		return count.getCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getTotalNanos() {
+		return totalNanos.getCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMeanNanos() {
+		long noValues = count.getCount();
+		return (noValues == 0) ? 0 : totalNanos.getCount() / noValues;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the duration that the percentage of recorded durations does not exceed, or 0 if there are none.
+	 */
+	public long getNanosAtPercentile(double percentile) {
+		long[] counts = new long[NO_BUCKETS];
+		long noValues = 0;
+		for (int i = 0; i < NO_BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			noValues += counts[i];
+		}
+		if (noValues == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(noValues * Math.min(percentile, 100.0) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < NO_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// the last bucket has no upper bound
+				return (i == NO_BUCKETS - 1) ? getMaxNanos() : Math.min(getBucketUpperBound(i), getMaxNanos());
+			}
+		}
+
+		return getMaxNanos();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static double asMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+}
@@ -21,11 +21,15 @@
 package org.wahlzeit.servlets;
 
 import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.ModelInvalidator;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestContext;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.Utf8Writer;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
@@ -38,6 +42,7 @@ import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -82,14 +87,19 @@ public abstract class AbstractServlet extends HttpServlet {
 
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
+		RequestContext.setThreadLocalContext(createRequestContext(request, us));
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myGet(request, response);
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				ModelInvalidator.getInstance().receiveIfDue();
+				myGet(request, response);
+			}
+		} finally {
+			SessionManager.dropThreadLocalSession();
+			RequestContext.dropThreadLocalContext();
 		}
-
-		SessionManager.dropThreadLocalSession();
 	}
 
 	/**
@@ -101,14 +111,19 @@ public abstract class AbstractServlet extends HttpServlet {
 
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
+		RequestContext.setThreadLocalContext(createRequestContext(request, us));
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myPost(request, response);
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				ModelInvalidator.getInstance().receiveIfDue();
+				myPost(request, response);
+			}
+		} finally {
+			SessionManager.dropThreadLocalSession();
+			RequestContext.dropThreadLocalContext();
 		}
-
-		SessionManager.dropThreadLocalSession();
 	}
 
 	/**
@@ -119,6 +134,22 @@ public abstract class AbstractServlet extends HttpServlet {
 		// do nothing
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Looks up the client once for all log messages of the request; the request id is the one App Engine logs the
+	 * request under, if there is one.
+	 */
+	protected RequestContext createRequestContext(HttpServletRequest request, UserSession us) {
+		String requestId = request.getHeader(RequestContext.REQUEST_LOG_ID_HEADER);
+		if (us == null) {
+			return new RequestContext(requestId, null, null);
+		}
+
+		Client client = us.getClient();
+		return new RequestContext(requestId, us.getName(), (client != null) ? client.getNickName() : null);
+	}
+
 	/**
 	 *
 	 */
@@ -170,28 +201,37 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void redirectRequest(HttpServletResponse response, String link) throws IOException {
 		response.setContentType("text/html");
 		String newTarget = new String("/" + link + ".html");
-		log.config(LogBuilder.createSystemMessage().addParameter("Redirect to", newTarget).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Redirect to", newTarget).log();
 		response.sendRedirect(newTarget);
 	}
 
 	/**
-	 *
+	 * Writes the page, compressed if the client accepts it and the page is large enough.
 	 */
-	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
-		long processingTime = ctx.getProcessingTime();
-		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("proctime", String.valueOf(processingTime)).toString());
+	protected void configureResponse(HttpServletRequest request, Session ctx, HttpServletResponse response,
+									 WebPart result) throws IOException {
+		result.addString("processingTime", getProcessingTimeAsString(ctx));
 
 		response.setContentType("text/html");
 
-		PrintWriter out = response.getWriter();
+		// write bytes, so that the pre-encoded template segments need no encoding
+		Utf8Writer out = new Utf8Writer(ResponseCompression.getInstance().openStream(request, response));
 		result.writeOn(out);
 		out.close();
 
 		response.setStatus(HttpServletResponse.SC_OK);
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	protected String getProcessingTimeAsString(Session ctx) {
+		long processingTime = ctx.getProcessingTime();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("proctime", String.valueOf(processingTime)).log();
+		return StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime);
+	}
+
 	/**
 	 *
 	 */
@@ -206,6 +246,17 @@ public abstract class AbstractServlet extends HttpServlet {
 		return remoteHost.equals(localHost) || remoteHost.equals("localhost");
 	}
 
+	/**
+	 *
+	 */
+	protected LogBuilder.LazyValue getRequestArgsAsValue(final UserSession us, final Map args) {
+		return new LogBuilder.LazyValue() {
+			public Object getValue() {
+				return getRequestArgsAsString(us, args);
+			}
+		};
+	}
+
 	/**
 	 *
 	 */
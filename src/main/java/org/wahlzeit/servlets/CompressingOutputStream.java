@@ -0,0 +1,181 @@
+package org.wahlzeit.servlets;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * A CompressingOutputStream holds back the first minBytes of a response. If the response ends before, it is written
+ * as it is; otherwise the Content-Encoding header is set and everything is compressed with a Deflater borrowed from
+ * the DeflaterPool, which goes back to the pool when the stream is closed. If no Deflater is free, the response is
+ * written uncompressed.
+ */
+public class CompressingOutputStream extends OutputStream {
+
+	/**
+	 *
+	 */
+	protected static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 *
+	 */
+	protected final HttpServletResponse response;
+	protected final ResponseCompression.ContentEncoding encoding;
+	protected final DeflaterPool deflaterPool;
+
+	/**
+	 *
+	 */
+	protected byte[] pending;
+	protected int pendingLength = 0;
+
+	/**
+	 *
+	 */
+	protected OutputStream out = null;
+	protected Deflater deflater = null;
+	protected Checksum checksum = null;
+	protected byte[] deflated = null;
+	protected long length = 0;
+	protected boolean isClosed = false;
+
+	/**
+	 *
+	 */
+	public CompressingOutputStream(HttpServletResponse response, ResponseCompression.ContentEncoding encoding,
+								   DeflaterPool deflaterPool, int minBytes) {
+		this.response = response;
+		this.encoding = encoding;
+		this.deflaterPool = deflaterPool;
+		this.pending = new byte[Math.max(minBytes, 1)];
+	}
+
+	/**
+	 *
+	 */
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	/**
+	 *
+	 */
+	public void write(byte[] bytes, int offset, int count) throws IOException {
+		if (isClosed) {
+			throw new IOException("stream closed");
+		}
+
+		if (pending != null) {
+			if (pendingLength + count < pending.length) {
+				System.arraycopy(bytes, offset, pending, pendingLength, count);
+				pendingLength += count;
+				return;
+			}
+			start(true);
+		}
+		doWrite(bytes, offset, count);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Decides about the encoding and writes what has been held back.
+	 */
+	protected void start(boolean isCompressing) throws IOException {
+		if (isCompressing) {
+			deflater = deflaterPool.borrow();
+		}
+
+		if (deflater != null) {
+			response.setHeader("Content-Encoding", encoding.asString());
+			out = response.getOutputStream();
+			checksum = ResponseCompression.createChecksum(encoding);
+			deflated = new byte[BUFFER_SIZE];
+			ResponseCompression.writeHeader(out, encoding);
+		} else {
+			out = response.getOutputStream();
+		}
+
+		byte[] bytes = pending;
+		pending = null;
+		doWrite(bytes, 0, pendingLength);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doWrite(byte[] bytes, int offset, int count) throws IOException {
+		if (deflater == null) {
+			out.write(bytes, offset, count);
+			return;
+		}
+
+		checksum.update(bytes, offset, count);
+		length += count;
+		deflater.setInput(bytes, offset, count);
+		while (!deflater.needsInput()) {
+			writeDeflated();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeDeflated() throws IOException {
+		int deflatedLength = deflater.deflate(deflated, 0, deflated.length);
+		if (deflatedLength > 0) {
+			out.write(deflated, 0, deflatedLength);
+		}
+	}
+
+	/**
+	 * Only passes on what has been written to the response so far; held back and buffered data stay where they are,
+	 * as flushing the Deflater would hurt compression.
+	 */
+	public void flush() throws IOException {
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void close() throws IOException {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+
+		try {
+			if (pending != null) {
+				start(false);
+			}
+
+			if (deflater != null) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					writeDeflated();
+				}
+				ResponseCompression.writeTrailer(out, encoding, checksum, length);
+			}
+			out.close();
+		} finally {
+			if (deflater != null) {
+				deflaterPool.release(deflater);
+				deflater = null;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isCompressing() {
+		return deflater != null;
+	}
+
+}
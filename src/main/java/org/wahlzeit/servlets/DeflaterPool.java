@@ -0,0 +1,63 @@
+package org.wahlzeit.servlets;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+
+/**
+ * The DeflaterPool hands out raw (headerless) Deflaters, so that their native buffers are reused across responses.
+ * At most maxDeflaters are in use at any time; when all of them are busy, {@link #borrow()} returns null and the
+ * caller sends its data uncompressed, which keeps the cost of compression bounded under load.
+ */
+public class DeflaterPool {
+
+	/**
+	 *
+	 */
+	protected final int level;
+	protected final Semaphore permits;
+	protected final Queue<Deflater> idleDeflaters = new ConcurrentLinkedQueue<Deflater>();
+
+	/**
+	 *
+	 */
+	public DeflaterPool(int level, int maxDeflaters) {
+		this.level = level;
+		this.permits = new Semaphore(maxDeflaters);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a reset Deflater, or null if all of them are in use.
+	 */
+	public Deflater borrow() {
+		if (!permits.tryAcquire()) {
+			return null;
+		}
+
+		Deflater result = idleDeflaters.poll();
+		if (result == null) {
+			result = new Deflater(level, true);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void release(Deflater deflater) {
+		deflater.reset();
+		idleDeflaters.offer(deflater);
+		permits.release();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getAvailableDeflaters() {
+		return permits.availablePermits();
+	}
+
+}
@@ -0,0 +1,420 @@
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoChangeListener;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.Gauge;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.webparts.TemplateChangeListener;
+import org.wahlzeit.webparts.Utf8Writer;
+import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartTemplateService;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+/**
+ * The GuestPageCache keeps complete pages that look the same for all guests, like info pages and photo permalinks, as
+ * rendered bytes for a limited time. Only the processing time differs between responses; it is filled in when a page
+ * is written.
+ *
+ * The key is made of the parts configured with the system property {@value #KEY_PROPERTY} (a comma separated list of
+ * url, language and photoSize; all by default), the time to live in seconds with {@value #TTL_PROPERTY}. Pages of a
+ * photo are dropped when the PhotoManager reports a change of its status, tags or praise, all pages when templates are
+ * reloaded.
+ *
+ * Pages large enough to be compressed are also kept as deflate data, so that cache hits are sent compressed without
+ * compressing them again; see {@link CachedPage#writeCompressedOn(OutputStream, String,
+ * ResponseCompression.ContentEncoding)}.
+ */
+public class GuestPageCache implements PhotoChangeListener, TemplateChangeListener {
+
+	private static final Logger log = Logger.getLogger(GuestPageCache.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String TTL_PROPERTY = "wahlzeit.guestPageCache.ttlSeconds";
+	public static final String KEY_PROPERTY = "wahlzeit.guestPageCache.key";
+	public static final long DEFAULT_TTL_SECONDS = 60;
+	public static final int DEFAULT_MAX_PAGES = 512;
+
+	/**
+	 * Stands in for the processing time while a page is rendered
+	 */
+	protected static final String PROCESSING_TIME_MARKER = "\u0000processingTime\u0000";
+	protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Parts of a request that distinguish cached pages
+	 */
+	public enum KeyPart {
+		URL, LANGUAGE, PHOTO_SIZE
+	}
+
+	/**
+	 *
+	 */
+	protected static GuestPageCache instance = null;
+
+	/**
+	 *
+	 */
+	protected final Map<String, CachedPage> pages = new ConcurrentHashMap<String, CachedPage>();
+	protected final EnumSet<KeyPart> keyParts;
+	protected final long ttlMillis;
+	protected final int maxPages;
+	protected final ResponseCompression compression;
+
+	/**
+	 *
+	 */
+	protected static final Counter noHits = MetricRegistry.getInstance().getCounter("guest page cache hits");
+	protected static final Counter noMisses = MetricRegistry.getInstance().getCounter("guest page cache misses");
+	protected static final Counter noInvalidations =
+			MetricRegistry.getInstance().getCounter("guest page cache invalidations");
+
+	/**
+	 * Creates the cache as configured by the system properties and registers it with the PhotoManager.
+	 */
+	public static synchronized GuestPageCache getInstance() {
+		if (instance == null) {
+			long ttlSeconds = Long.getLong(TTL_PROPERTY, DEFAULT_TTL_SECONDS);
+			EnumSet<KeyPart> keyParts = parseKeyParts(System.getProperty(KEY_PROPERTY));
+			instance = new GuestPageCache(keyParts, ttlSeconds * 1000, DEFAULT_MAX_PAGES,
+					ResponseCompression.getInstance());
+			PhotoManager.getInstance().addPhotoChangeListener(instance);
+			WebPartTemplateService.getInstance().addTemplateChangeListener(instance);
+
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("create guest page cache").
+					addParameter("key", keyParts).
+					addParameter("ttl seconds", ttlSeconds).log();
+		}
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	public static synchronized void dropInstance() {
+		if (instance != null) {
+			PhotoManager.getInstance().removePhotoChangeListener(instance);
+			WebPartTemplateService.getInstance().removeTemplateChangeListener(instance);
+			instance = null;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected GuestPageCache(EnumSet<KeyPart> keyParts, long ttlMillis, int maxPages,
+							 ResponseCompression compression) {
+		this.keyParts = keyParts;
+		this.ttlMillis = ttlMillis;
+		this.maxPages = maxPages;
+		this.compression = compression;
+
+		MetricRegistry.getInstance().registerGauge("guest page cache hit rate percent", new Gauge() {
+			public long getValue() {
+				return Math.round(getHitRate() * 100);
+			}
+		});
+		MetricRegistry.getInstance().registerGauge("guest page cache size", new Gauge() {
+			public long getValue() {
+				return pages.size();
+			}
+		});
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static EnumSet<KeyPart> parseKeyParts(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return EnumSet.allOf(KeyPart.class);
+		}
+
+		EnumSet<KeyPart> result = EnumSet.noneOf(KeyPart.class);
+		for (String part : value.split(",")) {
+			String name = part.trim().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase(Locale.ENGLISH);
+			result.add(KeyPart.valueOf(name));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public String createKey(HttpServletRequest request, Client client) {
+		StringBuilder result = new StringBuilder(96);
+		if (keyParts.contains(KeyPart.URL)) {
+			// the full URL, as pages contain links to the site they were requested from
+			result.append(request.getRequestURL());
+		}
+		result.append('|');
+		if (keyParts.contains(KeyPart.LANGUAGE)) {
+			result.append(client.getLanguage().asIsoCode());
+		}
+		result.append('|');
+		if (keyParts.contains(KeyPart.PHOTO_SIZE)) {
+			result.append(client.getPhotoSize().asInt());
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the cached page, or null if there is none or it has expired.
+	 */
+	public CachedPage get(String key) {
+		CachedPage result = pages.get(key);
+		if (result != null && result.expiresAt <= now()) {
+			pages.remove(key);
+			result = null;
+		}
+
+		if (result != null) {
+			noHits.increment();
+		} else {
+			noMisses.increment();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Renders the page and caches it for the link, which is the photo id for photo pages.
+	 */
+	public CachedPage put(String key, String link, WebPart page) throws IOException {
+		page.addString("processingTime", PROCESSING_TIME_MARKER);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * 1024);
+		Utf8Writer out = new Utf8Writer(bytes);
+		page.writeOn(out);
+		out.close();
+
+		CachedPage result = new CachedPage(link, bytes.toByteArray(), now() + ttlMillis);
+		if (compression.isWorthCompressing(result.getLength())) {
+			result.compress(compression);
+		}
+
+		if (pages.size() >= maxPages) {
+			removeExpiredPages();
+			if (pages.size() >= maxPages) {
+				pages.clear();
+			}
+		}
+		pages.put(key, result);
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void photoChanged(Photo photo) {
+		invalidateLink(photo.getId().asString());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void templatesChanged(Set<String> shortNames) {
+		invalidateAll();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void invalidateLink(String link) {
+		for (Iterator<CachedPage> i = pages.values().iterator(); i.hasNext(); ) {
+			if (link.equals(i.next().link)) {
+				i.remove();
+				noInvalidations.increment();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void invalidateAll() {
+		noInvalidations.add(pages.size());
+		pages.clear();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void removeExpiredPages() {
+		long now = now();
+		for (Iterator<CachedPage> i = pages.values().iterator(); i.hasNext(); ) {
+			if (i.next().expiresAt <= now) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return pages.size();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Share of lookups that found a page since start up, between 0.0 and 1.0.
+	 */
+	public static double getHitRate() {
+		long hits = noHits.getCount();
+		long noLookups = hits + noMisses.getCount();
+		return (noLookups == 0) ? 0.0 : (double) hits / noLookups;
+	}
+
+	/**
+	 * A rendered page, split where the processing time goes.
+	 */
+	public static class CachedPage {
+
+		protected final String link;
+		protected final byte[] head;
+		protected final byte[] tail; // null if the page has no processing time
+		protected final long expiresAt;
+
+		/**
+		 * Raw deflate data of head and tail; the head ends on a byte boundary, so that the processing time can follow
+		 * as a stored block. Both are null if the page is not kept compressed.
+		 */
+		protected volatile byte[] compressedHead = null;
+		protected volatile byte[] compressedTail = null;
+
+		/**
+		 *
+		 */
+		protected CachedPage(String link, byte[] page, long expiresAt) {
+			this.link = link;
+			this.expiresAt = expiresAt;
+
+			byte[] marker = PROCESSING_TIME_MARKER.getBytes(UTF_8);
+			int index = indexOf(page, marker);
+			if (index == -1) {
+				head = page;
+				tail = null;
+			} else {
+				head = new byte[index];
+				System.arraycopy(page, 0, head, 0, index);
+				tail = new byte[page.length - index - marker.length];
+				System.arraycopy(page, index + marker.length, tail, 0, tail.length);
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		public void writeOn(OutputStream out, String processingTime) throws IOException {
+			out.write(head);
+			if (tail != null) {
+				out.write(processingTime.getBytes(UTF_8));
+				out.write(tail);
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void compress(ResponseCompression compression) {
+			byte[] newHead = compression.deflate(head, tail == null);
+			byte[] newTail = (tail == null) ? null : compression.deflate(tail, true);
+			if (newHead != null && (tail == null || newTail != null)) {
+				compressedTail = newTail;
+				compressedHead = newHead;
+			}
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		public boolean isCompressed() {
+			return compressedHead != null;
+		}
+
+		/**
+		 * @methodtype get
+		 *
+		 * Returns the length without the processing time.
+		 */
+		public int getLength() {
+			return head.length + ((tail == null) ? 0 : tail.length);
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * Writes the page in gzip or deflate format from the compressed head and tail, which only takes checksumming
+		 * the page.
+		 */
+		public void writeCompressedOn(OutputStream out, String processingTime,
+									  ResponseCompression.ContentEncoding encoding) throws IOException {
+			byte[] newHead = compressedHead;
+			byte[] newTail = compressedTail;
+			Checksum checksum = ResponseCompression.createChecksum(encoding);
+			checksum.update(head, 0, head.length);
+			long length = head.length;
+
+			ResponseCompression.writeHeader(out, encoding);
+			out.write(newHead);
+			if (tail != null) {
+				byte[] time = processingTime.getBytes(UTF_8);
+				ResponseCompression.writeStoredBlock(out, time);
+				out.write(newTail);
+				checksum.update(time, 0, time.length);
+				checksum.update(tail, 0, tail.length);
+				length += time.length + tail.length;
+			}
+			ResponseCompression.writeTrailer(out, encoding, checksum, length);
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected static int indexOf(byte[] data, byte[] pattern) {
+			for (int i = 0; i <= data.length - pattern.length; i++) {
+				int j = 0;
+				while (j < pattern.length && data[i + j] == pattern[j]) {
+					j++;
+				}
+				if (j == pattern.length) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+}
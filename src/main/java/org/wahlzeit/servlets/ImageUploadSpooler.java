@@ -0,0 +1,247 @@
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.model.ImageUpload;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ImageUploadSpooler copies an uploaded file from the request to a temporary file in small chunks, so that
+ * concurrent uploads do not need the whole file in the heap. Where there is no writable file system, like on App
+ * Engine, it spools to a memory buffer instead.
+ *
+ * Uploads are rejected as early as possible: by content type before reading, by the magic bytes of the file header
+ * after the first bytes, and by size as soon as the limit is exceeded.
+ */
+public class ImageUploadSpooler {
+
+	private static final Logger log = Logger.getLogger(ImageUploadSpooler.class.getName());
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_MAX_UPLOAD_BYTES = 10L * 1024 * 1024;
+	protected static final int BUFFER_SIZE = 64 * 1024;
+	protected static final int HEADER_SIZE = 8;
+
+	/**
+	 *
+	 */
+	public static final Set<String> ACCEPTED_CONTENT_TYPES = Collections.unmodifiableSet(new HashSet<String>(
+			Arrays.asList("image/jpeg", "image/pjpeg", "image/png", "image/gif")));
+
+	/**
+	 * Magic bytes of JPEG, PNG and GIF files
+	 */
+	protected static final byte[][] IMAGE_SIGNATURES = {
+			{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},
+			{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'},
+			{'G', 'I', 'F', '8', '7', 'a'},
+			{'G', 'I', 'F', '8', '9', 'a'}
+	};
+
+	/**
+	 * Copy buffers are reused per thread, as every request thread spools at most one upload at a time
+	 */
+	protected static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected final long maxUploadBytes;
+
+	/**
+	 * null if uploads are spooled to memory
+	 */
+	protected final File spoolDir;
+
+	/**
+	 * Spools to the uploads directory in the temp dir, or to memory if that is not writable.
+	 */
+	public ImageUploadSpooler() {
+		this(DEFAULT_MAX_UPLOAD_BYTES, getDefaultSpoolDir());
+	}
+
+	/**
+	 * @param spoolDir directory for the temporary files, or null to spool to memory
+	 */
+	public ImageUploadSpooler(long maxUploadBytes, File spoolDir) {
+		this.maxUploadBytes = maxUploadBytes;
+		this.spoolDir = spoolDir;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static File getDefaultSpoolDir() {
+		try {
+			File result = new File(SysConfig.getTempDir().asString(), "uploads");
+			if ((result.isDirectory() || result.mkdirs()) && result.canWrite()) {
+				return result;
+			}
+		} catch (SecurityException e) {
+			// sandbox without file system access
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addMessage("No writable upload directory, spooling uploads to memory").log();
+		return null;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Reads the upload from the input, which is not closed. The caller has to dispose() the result.
+	 */
+	public ImageUpload spool(InputStream input, String fileName, String contentType) throws IOException {
+		assertIsAcceptedContentType(contentType);
+
+		byte[] buffer = buffers.get();
+		int headerLength = readHeader(input, buffer);
+		assertIsImageHeader(buffer, headerLength);
+
+		if (spoolDir == null) {
+			return spoolToMemory(input, buffer, headerLength, fileName, contentType);
+		} else {
+			return spoolToFile(input, buffer, headerLength, fileName, contentType);
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ImageUpload spoolToFile(InputStream input, byte[] buffer, int headerLength, String fileName,
+									  String contentType) throws IOException {
+		File spoolFile = File.createTempFile("upload-", ".tmp", spoolDir);
+		boolean isComplete = false;
+		try {
+			OutputStream output = new FileOutputStream(spoolFile);
+			try {
+				copy(input, output, buffer, headerLength);
+			} finally {
+				output.close();
+			}
+			isComplete = true;
+		} finally {
+			if (!isComplete) {
+				spoolFile.delete();
+			}
+		}
+		return new ImageUpload(fileName, contentType, spoolFile);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ImageUpload spoolToMemory(InputStream input, byte[] buffer, int headerLength, String fileName,
+										String contentType) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(BUFFER_SIZE);
+		copy(input, output, buffer, headerLength);
+		return new ImageUpload(fileName, contentType, output.toByteArray());
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the header that is already in the buffer and then the rest of the input, enforcing the size limit.
+	 */
+	protected void copy(InputStream input, OutputStream output, byte[] buffer, int headerLength) throws IOException {
+		output.write(buffer, 0, headerLength);
+		long total = headerLength;
+
+		int bytesRead = input.read(buffer);
+		while (bytesRead != -1) {
+			total += bytesRead;
+			if (total > maxUploadBytes) {
+				throw new UploadRejectedException("upload exceeds " + maxUploadBytes + " bytes");
+			}
+			output.write(buffer, 0, bytesRead);
+			bytesRead = input.read(buffer);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int readHeader(InputStream input, byte[] buffer) throws IOException {
+		int result = 0;
+		while (result < HEADER_SIZE) {
+			int bytesRead = input.read(buffer, result, HEADER_SIZE - result);
+			if (bytesRead == -1) {
+				break;
+			}
+			result += bytesRead;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsAcceptedContentType(String contentType) throws UploadRejectedException {
+		String mediaType = (contentType == null) ? "" : contentType.split(";")[0].trim().toLowerCase(Locale.ENGLISH);
+		if (!ACCEPTED_CONTENT_TYPES.contains(mediaType)) {
+			throw new UploadRejectedException("content type not accepted: " + contentType);
+		}
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsImageHeader(byte[] header, int headerLength) throws UploadRejectedException {
+		for (byte[] signature : IMAGE_SIGNATURES) {
+			if (hasPrefix(header, headerLength, signature)) {
+				return;
+			}
+		}
+		throw new UploadRejectedException("file is not a JPEG, PNG or GIF image");
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean hasPrefix(byte[] data, int length, byte[] prefix) {
+		if (length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxUploadBytes() {
+		return maxUploadBytes;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isSpoolingToFile() {
+		return spoolDir != null;
+	}
+
+}
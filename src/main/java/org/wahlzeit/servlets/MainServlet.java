@@ -21,31 +21,35 @@
 package org.wahlzeit.servlets;
 
 import com.google.api.client.util.Charsets;
-import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.common.io.CharStreams;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.wahlzeit.handlers.PartUtil;
 import org.wahlzeit.handlers.WebFormHandler;
 import org.wahlzeit.handlers.WebPageHandler;
 import org.wahlzeit.handlers.WebPartHandlerManager;
+import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.ImageUpload;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -60,6 +64,16 @@ public class MainServlet extends AbstractServlet {
 	 */
 	private static final long serialVersionUID = 42L; // any one does; class never serialized
 
+	/**
+	 * Form fields besides the file are small, so they get a fixed allowance on top of the file size limit
+	 */
+	protected static final long MAX_FORM_FIELDS_BYTES = 64 * 1024;
+
+	/**
+	 *
+	 */
+	protected transient ImageUploadSpooler uploadSpooler = null;
+
 	/**
 	 *
 	 */
@@ -75,11 +89,11 @@ public class MainServlet extends AbstractServlet {
 		} else {
 			link = PartUtil.NULL_FORM_NAME;
 		}
-		log.info(LogBuilder.createUserMessage().addParameter("posted to", link).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("posted to", link).log();
 
 		Map args = getRequestArgs(request, us);
-		log.info(LogBuilder.createSystemMessage().
-				addParameter("POST arguments", getRequestArgsAsString(us, args)).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addLazyParameter("POST arguments", getRequestArgsAsValue(us, args)).log();
 
 		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
 		link = PartUtil.DEFAULT_PAGE_NAME;
@@ -107,22 +121,26 @@ public class MainServlet extends AbstractServlet {
 		}
 
 		link = link.substring(linkStart, linkEnd);
-		log.info(LogBuilder.createUserMessage().addParameter("requested URI", request.getRequestURI()).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("requested URI", request.getRequestURI()).log();
 
 
 		WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
 		String newLink = PartUtil.DEFAULT_PAGE_NAME;
 		if (handler != null) {
 			Map args = getRequestArgs(request, us);
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("GET arguments", getRequestArgsAsString(us, args)).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addLazyParameter("GET arguments", getRequestArgsAsValue(us, args)).log();
 			newLink = handler.handleGet(us, link, args);
 		}
 
 		if (newLink.equals(link)) { // no redirect necessary
-			WebPart result = handler.makeWebPart(us);
-			us.addProcessingTime(System.currentTimeMillis() - startTime);
-			configureResponse(us, response, result);
+			if (isCacheableForGuests(request, us, handler, link)) {
+				configureCachedResponse(request, response, us, handler, link, startTime);
+			} else {
+				WebPart result = handler.makeWebPart(us);
+				us.addProcessingTime(System.currentTimeMillis() - startTime);
+				configureResponse(request, us, response, result);
+			}
 			us.clearSavedArgs(); // saved args go from post to next get
 			us.resetProcessingTime();
 		} else {
@@ -132,6 +150,56 @@ public class MainServlet extends AbstractServlet {
 		SessionManager.dropThreadLocalSession();
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Only pages of guests without query, message or saved arguments may come from the GuestPageCache; the handler
+	 * decides about the rest.
+	 */
+	protected boolean isCacheableForGuests(HttpServletRequest request, UserSession us, WebPageHandler handler,
+										   String link) {
+		if (request.getQueryString() != null || us.getClient().getAccessRights() != AccessRights.GUEST) {
+			return false;
+		}
+
+		Map<String, Object> savedArgs = us.getSavedArgs();
+		boolean hasSavedArgs = (savedArgs != null) && !savedArgs.isEmpty();
+		return !hasSavedArgs && StringUtil.isNullOrEmptyString(us.getMessage()) &&
+				handler.isCacheableForGuests(us, link);
+	}
+
+	/**
+	 * Writes the page from the GuestPageCache, rendering and caching it first if needed.
+	 */
+	protected void configureCachedResponse(HttpServletRequest request, HttpServletResponse response, UserSession us,
+										   WebPageHandler handler, String link, long startTime) throws IOException {
+		GuestPageCache cache = GuestPageCache.getInstance();
+		String key = cache.createKey(request, us.getClient());
+		GuestPageCache.CachedPage page = cache.get(key);
+		if (page == null) {
+			page = cache.put(key, link, handler.makeWebPart(us));
+		}
+		us.addProcessingTime(System.currentTimeMillis() - startTime);
+
+		response.setContentType("text/html");
+		ResponseCompression compression = ResponseCompression.getInstance();
+		ResponseCompression.ContentEncoding encoding = compression.getContentEncoding(request);
+		if (compression.isEnabled()) {
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+
+		OutputStream out = response.getOutputStream();
+		if (page.isCompressed() && encoding != ResponseCompression.ContentEncoding.IDENTITY) {
+			response.setHeader("Content-Encoding", encoding.asString());
+			page.writeCompressedOn(out, getProcessingTimeAsString(us), encoding);
+		} else {
+			page.writeOn(out, getProcessingTimeAsString(us));
+		}
+		out.close();
+
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+
 	/**
 	 *
 	 */
@@ -146,14 +214,19 @@ public class MainServlet extends AbstractServlet {
 
 	/**
 	 * Searches for files in the request and puts them in the resulting map with the key "fileName". When a file is
-	 * found, you can access its path by searching for elements with the key "fileName".
+	 * found, you can access its path by searching for elements with the key "fileName". The file itself is spooled by
+	 * the ImageUploadSpooler and handed to the user; a rejected file is skipped, so that the form handler reports a
+	 * failed upload. A request that exceeds the size limit is rejected the same way, with the fields read so far.
 	 */
 	protected Map getMultiPartRequestArgs(HttpServletRequest request, UserSession us) throws IOException,
 			ServletException {
 		Map<String, String> result = new HashMap<String, String>();
 		result.putAll(request.getParameterMap());
+		ImageUpload imageUpload = null;
 		try {
+			ImageUploadSpooler spooler = getUploadSpooler();
 			ServletFileUpload upload = new ServletFileUpload();
+			upload.setSizeMax(spooler.getMaxUploadBytes() + MAX_FORM_FIELDS_BYTES);
 			FileItemIterator iterator = upload.getItemIterator(request);
 
 			while (iterator.hasNext()) {
@@ -161,46 +234,81 @@ public class MainServlet extends AbstractServlet {
 				String filename = fileItemStream.getName();
 
 				if (!fileItemStream.isFormField()) {
-					InputStream inputStream = fileItemStream.openStream();
-					Image image = getImage(inputStream);
-					User user = (User) us.getClient();
-					user.setUploadedImage(image);
-					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					imageUpload = getImageUpload(spooler, fileItemStream);
+					if (imageUpload != null) {
+						User user = (User) us.getClient();
+						user.setImageUpload(imageUpload);
+						result.put("fileName", filename);
+						LogBuilder.createSystemMessage(log, Level.CONFIG).
+								addParameter("Uploaded image", filename).
+								addParameter("bytes", imageUpload.getLength()).log();
+					}
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
 					String value = CharStreams.toString(new InputStreamReader(is, Charsets.UTF_8));
 					result.put(key, value);
-					log.config(LogBuilder.createSystemMessage().
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
 							addParameter("Key of uploaded parameter", key).
-							addParameter("value", value).toString());
+							addParameter("value", value).log();
 				}
 			}
 		} catch (Exception ex) {
-			throw new ServletException(ex);
+			FileUploadException sizeException = getSizeException(ex);
+			if (sizeException == null) {
+				throw new ServletException(ex);
+			}
+
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Upload rejected", sizeException).log();
+			if (imageUpload != null) {
+				((User) us.getClient()).takeImageUpload();
+				imageUpload.dispose();
+			}
+			result.remove("fileName");
 		}
 
 		return result;
 	}
 
 	/**
-	 * Create an Image object from the Input stream.
+	 * @methodtype get
+	 *
+	 * Returns the exception of a request that exceeds the size limit, or null if ex is about something else. The limit
+	 * shows when the request starts, if its length is known, or else when reading reaches it.
 	 */
-	private Image getImage(InputStream input) throws IOException {
-		Image image;
+	protected static FileUploadException getSizeException(Exception ex) {
+		Throwable cause = (ex instanceof FileUploadBase.FileUploadIOException) ? ex.getCause() : ex;
+		boolean isSizeException = (cause instanceof FileUploadBase.SizeLimitExceededException) ||
+				(cause instanceof FileUploadBase.FileSizeLimitExceededException);
+		return isSizeException ? (FileUploadException) cause : null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected synchronized ImageUploadSpooler getUploadSpooler() {
+		if (uploadSpooler == null) {
+			uploadSpooler = new ImageUploadSpooler();
+		}
+		return uploadSpooler;
+	}
+
+	/**
+	 * Spools the uploaded file, or returns null if it has been rejected. Closing skips the rest of a rejected file, which
+	 * fails if that exceeds the size limit of the request; getMultiPartRequestArgs rejects the request then.
+	 */
+	private ImageUpload getImageUpload(ImageUploadSpooler spooler, FileItemStream fileItemStream) throws IOException {
+		InputStream input = fileItemStream.openStream();
 		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024 * 1024];
-			int bytesRead = input.read(buffer);
-			while (bytesRead != -1) {
-				outputStream.write(buffer, 0, bytesRead);
-				bytesRead = input.read(buffer);
-			}
-			image = ImagesServiceFactory.makeImage(outputStream.toByteArray());
+			return spooler.spool(input, fileItemStream.getName(), fileItemStream.getContentType());
+		} catch (UploadRejectedException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("file", fileItemStream.getName()).
+					addException("Upload rejected", ex).log();
+			return null;
 		} finally {
 			input.close();
 		}
-		return image;
 	}
 }
@@ -0,0 +1,120 @@
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.LogEventBuffer;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.Gauge;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.PrometheusFormat;
+import org.wahlzeit.services.metrics.TimingHistogram;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The servlet showing the metrics of the MetricRegistry as plain text tables, the timings with the most total time
+ * first, and the counts of the AsyncLogWriter. With the format parameter "prometheus", it writes the metrics in the
+ * Prometheus text format instead, for scraping. web.xml only lets administrators in.
+ */
+public class MetricsServlet extends HttpServlet {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 42L; // any one does; class never serialized
+
+	/**
+	 *
+	 */
+	public static final String FORMAT = "format";
+	public static final String PROMETHEUS_FORMAT = "prometheus";
+
+	/**
+	 *
+	 */
+	protected static final String ROW_FORMAT = "%-60s %10s %10s %10s %10s %12s%n";
+	protected static final String VALUE_ROW_FORMAT = "%-60s %10d%n";
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		boolean isPrometheusFormat = PROMETHEUS_FORMAT.equals(request.getParameter(FORMAT));
+		response.setContentType(isPrometheusFormat ? PrometheusFormat.CONTENT_TYPE : "text/plain");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+
+		PrintWriter out = response.getWriter();
+		MetricRegistry registry = MetricRegistry.getInstance();
+		if (isPrometheusFormat) {
+			PrometheusFormat.writeOn(registry, out);
+		} else {
+			writeValuesOn(registry, out);
+			writeTimingsOn(registry.getHistograms(), out);
+			writeLogEventsOn(LogBuilder.getEventBuffer(), out);
+		}
+		out.close();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void writeValuesOn(MetricRegistry registry, PrintWriter out) {
+		out.format(Locale.US, "%-60s %10s%n", "name", "value");
+		for (Counter counter : registry.getCounters()) {
+			out.format(Locale.US, VALUE_ROW_FORMAT, counter.getName(), counter.getCount());
+		}
+		for (Map.Entry<String, Gauge> gauge : registry.getGauges()) {
+			out.format(Locale.US, VALUE_ROW_FORMAT, gauge.getKey(), gauge.getValue().getValue());
+		}
+		out.println();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void writeTimingsOn(List<TimingHistogram> histograms, PrintWriter out) {
+		out.format(Locale.US, ROW_FORMAT, "name", "count", "p50 ms", "p99 ms", "max ms", "total ms");
+		for (TimingHistogram histogram : histograms) {
+			out.format(Locale.US, ROW_FORMAT, histogram.getName(),
+					String.valueOf(histogram.getCount()),
+					asMillisString(histogram.getNanosAtPercentile(50.0)),
+					asMillisString(histogram.getNanosAtPercentile(99.0)),
+					asMillisString(histogram.getMaxNanos()),
+					asMillisString(histogram.getTotalNanos()));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes how many log events the AsyncLogWriter has written and dropped, if it runs.
+	 */
+	protected static void writeLogEventsOn(LogEventBuffer buffer, PrintWriter out) {
+		if (buffer == null) {
+			return;
+		}
+
+		out.println();
+		out.format(Locale.US, "log events: %d written, %d dropped, %d of %d buffered, overflow policy %s%n",
+				buffer.getNoTakenEvents(), buffer.getNoDroppedEvents(), buffer.getSize(), buffer.getCapacity(),
+				buffer.getOverflowPolicy());
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asMillisString(long nanos) {
+		return String.format(Locale.US, "%.3f", TimingHistogram.asMillis(nanos));
+	}
+
+}
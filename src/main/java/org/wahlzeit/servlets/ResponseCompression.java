@@ -0,0 +1,298 @@
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * ResponseCompression negotiates the content encoding of text responses with the Accept-Encoding header of a request
+ * and opens streams that compress with Deflaters from a shared DeflaterPool. Responses smaller than the minimum size
+ * are sent as they are, as compressing them saves next to nothing.
+ *
+ * It is configured with the system properties {@value #MIN_BYTES_PROPERTY} (default {@value #DEFAULT_MIN_BYTES}),
+ * {@value #LEVEL_PROPERTY} (default {@value #DEFAULT_LEVEL}) and {@value #MAX_DEFLATERS_PROPERTY} (two per processor
+ * by default); a minimum size of -1 turns compression off.
+ */
+public class ResponseCompression {
+
+	private static final Logger log = Logger.getLogger(ResponseCompression.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String MIN_BYTES_PROPERTY = "wahlzeit.compression.minBytes";
+	public static final String LEVEL_PROPERTY = "wahlzeit.compression.level";
+	public static final String MAX_DEFLATERS_PROPERTY = "wahlzeit.compression.maxDeflaters";
+	public static final int DEFAULT_MIN_BYTES = 1024;
+	public static final int DEFAULT_LEVEL = 6;
+
+	/**
+	 *
+	 */
+	protected static final int GZIP_MAGIC = 0x8b1f;
+	protected static final int ZLIB_HEADER = 0x789c; // deflate, 32K window, default level
+
+	/**
+	 * Content encodings in order of preference
+	 */
+	public enum ContentEncoding {
+		GZIP("gzip"), DEFLATE("deflate"), IDENTITY("identity");
+
+		private final String name;
+
+		ContentEncoding(String name) {
+			this.name = name;
+		}
+
+		public String asString() {
+			return name;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected static ResponseCompression instance = null;
+
+	/**
+	 *
+	 */
+	protected final DeflaterPool deflaterPool;
+	protected final int minBytes;
+
+	/**
+	 *
+	 */
+	public static synchronized ResponseCompression getInstance() {
+		if (instance == null) {
+			int minBytes = Integer.getInteger(MIN_BYTES_PROPERTY, DEFAULT_MIN_BYTES);
+			int level = Integer.getInteger(LEVEL_PROPERTY, DEFAULT_LEVEL);
+			int maxDeflaters = Integer.getInteger(MAX_DEFLATERS_PROPERTY, Runtime.getRuntime().availableProcessors() * 2);
+			instance = new ResponseCompression(new DeflaterPool(level, maxDeflaters), minBytes);
+
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("configure response compression").
+					addParameter("min bytes", minBytes).
+					addParameter("level", level).
+					addParameter("max deflaters", maxDeflaters).log();
+		}
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected ResponseCompression(DeflaterPool deflaterPool, int minBytes) {
+		this.deflaterPool = deflaterPool;
+		this.minBytes = minBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public DeflaterPool getDeflaterPool() {
+		return deflaterPool;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return minBytes >= 0;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isWorthCompressing(long length) {
+		return isEnabled() && length >= minBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public ContentEncoding getContentEncoding(HttpServletRequest request) {
+		return isEnabled() ? negotiate(request.getHeader("Accept-Encoding")) : ContentEncoding.IDENTITY;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Picks the encoding with the highest quality value from an Accept-Encoding header; gzip wins a tie.
+	 */
+	protected static ContentEncoding negotiate(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return ContentEncoding.IDENTITY;
+		}
+
+		ContentEncoding result = ContentEncoding.IDENTITY;
+		float resultQuality = 0.0f;
+		float wildcardQuality = -1.0f;
+		float[] qualities = {-1.0f, -1.0f};
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+			float quality = 1.0f;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Float.parseFloat(parameter.substring(2));
+					} catch (NumberFormatException ex) {
+						quality = 0.0f;
+					}
+				}
+			}
+
+			if (name.equals("gzip") || name.equals("x-gzip")) {
+				qualities[0] = quality;
+			} else if (name.equals("deflate")) {
+				qualities[1] = quality;
+			} else if (name.equals("*")) {
+				wildcardQuality = quality;
+			}
+		}
+
+		ContentEncoding[] encodings = {ContentEncoding.GZIP, ContentEncoding.DEFLATE};
+		for (int i = 0; i < encodings.length; i++) {
+			float quality = (qualities[i] < 0) ? wildcardQuality : qualities[i];
+			if (quality > resultQuality) {
+				result = encodings[i];
+				resultQuality = quality;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Opens the output stream for a text response; it compresses once the response turns out large enough.
+	 */
+	public OutputStream openStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!isEnabled()) {
+			return response.getOutputStream();
+		}
+
+		response.addHeader("Vary", "Accept-Encoding");
+		ContentEncoding encoding = getContentEncoding(request);
+		if (encoding == ContentEncoding.IDENTITY) {
+			return response.getOutputStream();
+		}
+		return new CompressingOutputStream(response, encoding, deflaterPool, minBytes);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Compresses data to raw deflate blocks, the last ones of a stream or ones ending on a byte boundary that more
+	 * blocks can follow. Returns null if no Deflater is free.
+	 */
+	public byte[] deflate(byte[] data, boolean isLast) {
+		Deflater deflater = deflaterPool.borrow();
+		if (deflater == null) {
+			return null;
+		}
+
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 3 + 64);
+			byte[] buffer = new byte[CompressingOutputStream.BUFFER_SIZE];
+			deflater.setInput(data);
+			if (isLast) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					result.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				int length;
+				do {
+					length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					result.write(buffer, 0, length);
+				} while (length == buffer.length);
+			}
+			return result.toByteArray();
+		} finally {
+			deflaterPool.release(deflater);
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static Checksum createChecksum(ContentEncoding encoding) {
+		return (encoding == ContentEncoding.GZIP) ? new CRC32() : new Adler32();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes what goes before the raw deflate data.
+	 */
+	protected static void writeHeader(OutputStream out, ContentEncoding encoding) throws IOException {
+		if (encoding == ContentEncoding.GZIP) {
+			// magic, method deflate, no flags, no time, no extra flags, unknown OS
+			out.write(new byte[] {(byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, -1});
+		} else {
+			out.write(ZLIB_HEADER >> 8);
+			out.write(ZLIB_HEADER & 0xff);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes what goes after the raw deflate data: CRC-32 and size for gzip (little endian), Adler-32 for deflate (big
+	 * endian).
+	 */
+	protected static void writeTrailer(OutputStream out, ContentEncoding encoding, Checksum checksum, long length)
+			throws IOException {
+		int value = (int) checksum.getValue();
+		if (encoding == ContentEncoding.GZIP) {
+			writeIntLittleEndian(out, value);
+			writeIntLittleEndian(out, (int) length);
+		} else {
+			out.write(value >>> 24);
+			out.write(value >>> 16);
+			out.write(value >>> 8);
+			out.write(value);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void writeIntLittleEndian(OutputStream out, int value) throws IOException {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes data as a stored (uncompressed) deflate block; the deflate data before must end on a byte boundary, as
+	 * after a sync flush.
+	 */
+	protected static void writeStoredBlock(OutputStream out, byte[] data) throws IOException {
+		int length = data.length;
+		out.write(0); // not final, stored
+		out.write(length);
+		out.write(length >>> 8);
+		out.write(~length);
+		out.write(~length >>> 8);
+		out.write(data);
+	}
+
+}
@@ -5,6 +5,7 @@ import org.apache.http.HttpStatus;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.ScaledImageProvider;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 
@@ -12,6 +13,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -33,11 +35,11 @@ public class StaticDataServlet extends AbstractServlet {
 			String photoId = request.getParameter("photoId");
 			String sizeString = request.getParameter("size");
 			int size = Integer.valueOf(sizeString);
-			log.info(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.INFO).
 					addAction("Provide static resource").
 					addParameter("type", type).
 					addParameter("photoId", photoId).
-					addParameter("size", size).toString());
+					addParameter("size", size).log();
 
 			if ("image".equals(type)) {
 				Image image = getImage(photoId, size);
@@ -46,32 +48,33 @@ public class StaticDataServlet extends AbstractServlet {
 					response.getOutputStream().flush();
 					response.setStatus(HttpStatus.SC_OK);
 				} else {
-					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
+					LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("image not found").log();
 					response.setStatus(HttpStatus.SC_NOT_FOUND);
 				}
 			} else {
-				log.warning(LogBuilder.createSystemMessage().
-						addMessage("unimplemented static resource type has been requested").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addMessage("unimplemented static resource type has been requested").log();
 				response.setStatus(HttpStatus.SC_NOT_IMPLEMENTED);
 			}
 
 		} catch (Exception e) {
-			log.severe(LogBuilder.createSystemMessage().addException("Problem when loading image", e).toString());
+			LogBuilder.createSystemMessage(log, Level.SEVERE).addException("Problem when loading image", e).log();
 		}
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. Sizes that have
+	 * not been created yet are created by the <@link>ScaledImageProvider</@link>. If image does not exist, null is
+	 * returned.
 	 */
-	private Image getImage(String photoId, int size) {
+	private Image getImage(String photoId, int size) throws Exception {
 		Image image = null;
 		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
 		if (photo != null) {
 			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
+			image = ScaledImageProvider.getInstance().getImage(photo, photoSize);
 		}
 		// if not in cache load from Google Cloud Storage
 		if (image == null) {
@@ -79,7 +82,7 @@ public class StaticDataServlet extends AbstractServlet {
 			try {
 				rawImage = ImageStorage.getInstance().readImage(photoId, size);
 			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).addException("Problem when reading image.", e).log();
 			}
 			if (rawImage != null && rawImage instanceof Image) {
 				image = (Image) rawImage;
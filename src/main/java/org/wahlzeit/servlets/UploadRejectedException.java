@@ -0,0 +1,22 @@
+package org.wahlzeit.servlets;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an upload is refused, e.g. because it is too large or not an image.
+ */
+public class UploadRejectedException extends IOException {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *
+	 */
+	public UploadRejectedException(String reason) {
+		super(reason);
+	}
+
+}
@@ -21,6 +21,8 @@
 package org.wahlzeit.utils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  * A set of utility functions for HTML formatting.
@@ -105,26 +107,65 @@ public class HtmlUtil {
 	}
 
 	/**
-	 *
+	 * Returns s itself if there is nothing to mask.
 	 */
 	public static String maskForWeb(String s) {
-		StringBuffer result = new StringBuffer(s.length() + 16);
-		for (int i = 0; i < s.length(); i++) {
+		int i = indexOfMaskedChar(s, 0);
+		if (i == -1) {
+			return s;
+		}
+
+		StringBuilder result = new StringBuilder(s.length() + 16);
+		int start = 0;
+		for (; i != -1; i = indexOfMaskedChar(s, start)) {
+			result.append(s, start, i).append(getMask(s.charAt(i)));
+			start = i + 1;
+		}
+		result.append(s, start, s.length());
+
+		return result.toString();
+	}
+
+	/**
+	 * Writes s masked for the web; runs without special characters are written as they are.
+	 */
+	public static void maskForWeb(String s, Writer out) throws IOException {
+		int start = 0;
+		for (int i = indexOfMaskedChar(s, 0); i != -1; i = indexOfMaskedChar(s, start)) {
+			out.write(s, start, i - start);
+			out.write(getMask(s.charAt(i)));
+			start = i + 1;
+		}
+		out.write(s, start, s.length() - start);
+	}
+
+	/**
+	 *
+	 */
+	protected static int indexOfMaskedChar(String s, int start) {
+		for (int i = start; i < s.length(); i++) {
 			char c = s.charAt(i);
-			if (c == '&') {
-				result.append("&amp;");
-			} else if (c == '"') {
-				result.append("&quot;");
-			} else if (c == '<') {
-				result.append("&lt;");
-			} else if (c == '>') {
-				result.append("&gt;");
-			} else {
-				result.append(c);
+			if (c == '&' || c == '"' || c == '<' || c == '>') {
+				return i;
 			}
 		}
+		return -1;
+	}
 
-		return result.toString();
+	/**
+	 *
+	 */
+	protected static String getMask(char c) {
+		switch (c) {
+			case '&':
+				return "&amp;";
+			case '"':
+				return "&quot;";
+			case '<':
+				return "&lt;";
+			default:
+				return "&gt;";
+		}
 	}
 
 }
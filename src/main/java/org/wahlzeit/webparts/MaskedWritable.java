@@ -0,0 +1,40 @@
+package org.wahlzeit.webparts;
+
+import org.wahlzeit.utils.HtmlUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A MaskedWritable writes a string masked for the web, e.g. a tag or name a user has entered. Masking happens while
+ * writing, so that no masked copy of the string is made.
+ */
+public class MaskedWritable implements Writable {
+
+	/**
+	 *
+	 */
+	protected final String value;
+
+	/**
+	 *
+	 */
+	public MaskedWritable(String value) {
+		this.value = value;
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		HtmlUtil.maskForWeb(value, out);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String toString() {
+		return HtmlUtil.maskForWeb(value);
+	}
+
+}
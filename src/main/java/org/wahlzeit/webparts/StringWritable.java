@@ -0,0 +1,30 @@
+package org.wahlzeit.webparts;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A StringWritable writes a fixed string, e.g. to put a string into the WebPartCache.
+ */
+public class StringWritable implements Writable {
+
+	/**
+	 *
+	 */
+	protected final String value;
+
+	/**
+	 *
+	 */
+	public StringWritable(String value) {
+		this.value = value;
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		out.write(value);
+	}
+
+}
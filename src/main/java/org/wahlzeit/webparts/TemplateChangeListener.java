@@ -0,0 +1,16 @@
+package org.wahlzeit.webparts;
+
+import java.util.Set;
+
+/**
+ * A TemplateChangeListener is told by the WebPartTemplateService when templates have been reloaded, e.g. to drop
+ * pages rendered from them.
+ */
+public interface TemplateChangeListener {
+
+	/**
+	 * The names are of the form language/part-type/part-name.
+	 */
+	void templatesChanged(Set<String> shortNames);
+
+}
@@ -0,0 +1,180 @@
+package org.wahlzeit.webparts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A Utf8Writer writes UTF-8 straight to an OutputStream, e.g. the one of a servlet response. Besides text, it takes
+ * already encoded bytes, so that WebParts can write the pre-encoded segments of their templates as they are.
+ */
+public class Utf8Writer extends Writer {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 *
+	 */
+	protected final OutputStream out;
+
+	/**
+	 *
+	 */
+	protected final byte[] buffer;
+	protected int count = 0;
+
+	/**
+	 * High surrogate of a pair that has been split between two writes, or 0
+	 */
+	protected char pendingHighSurrogate = 0;
+
+	/**
+	 *
+	 */
+	public Utf8Writer(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 *
+	 */
+	public Utf8Writer(OutputStream out, int bufferSize) {
+		this.out = out;
+		this.buffer = new byte[Math.max(bufferSize, 4)];
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void writeBytes(byte[] bytes) throws IOException {
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+		flushPendingSurrogate();
+		if (length > buffer.length - count) {
+			flushBuffer();
+			if (length > buffer.length) {
+				out.write(bytes, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, count, length);
+		count += length;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		writeChar((char) c);
+	}
+
+	@Override
+	public void write(String str, int offset, int length) throws IOException {
+		for (int i = offset, end = offset + length; i < end; i++) {
+			writeChar(str.charAt(i));
+		}
+	}
+
+	@Override
+	public void write(char[] chars, int offset, int length) throws IOException {
+		for (int i = offset, end = offset + length; i < end; i++) {
+			writeChar(chars[i]);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeChar(char c) throws IOException {
+		if (buffer.length - count < 4) {
+			flushBuffer();
+		}
+
+		if (pendingHighSurrogate != 0) {
+			char high = pendingHighSurrogate;
+			pendingHighSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				writeCodePoint(Character.toCodePoint(high, c));
+				return;
+			}
+			writeCodePoint('?');
+		}
+
+		if (c < 0x80) {
+			buffer[count++] = (byte) c;
+		} else if (Character.isHighSurrogate(c)) {
+			pendingHighSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			writeCodePoint('?');
+		} else {
+			writeCodePoint(c);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeCodePoint(int codePoint) throws IOException {
+		if (buffer.length - count < 4) {
+			flushBuffer();
+		}
+
+		if (codePoint < 0x80) {
+			buffer[count++] = (byte) codePoint;
+		} else if (codePoint < 0x800) {
+			buffer[count++] = (byte) (0xC0 | (codePoint >> 6));
+			buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else if (codePoint < 0x10000) {
+			buffer[count++] = (byte) (0xE0 | (codePoint >> 12));
+			buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else {
+			buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+			buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+			buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * A high surrogate without its low surrogate is written as '?', like the JDK encoder does.
+	 */
+	protected void flushPendingSurrogate() throws IOException {
+		if (pendingHighSurrogate != 0) {
+			pendingHighSurrogate = 0;
+			writeCodePoint('?');
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flushPendingSurrogate();
+		flushBuffer();
+		out.close();
+	}
+
+}
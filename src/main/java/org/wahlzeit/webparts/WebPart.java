@@ -20,21 +20,50 @@
 
 package org.wahlzeit.webparts;
 
+import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.EnumValue;
 import org.wahlzeit.utils.HtmlUtil;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A WebPart is a Writable formatted as HTML, working off a template.
  * A WebPart has its data set from a client using key/value pairs.
  * A WebPart has a recursive structure; it may contain further WebParts.
+ *
+ * Values are kept in an array by the key index of the template. Values for keys the template has no slot for are
+ * dropped; with the system property {@value #DEBUG_PROPERTY} set to true, they are kept and reported once per template
+ * and key.
  */
 public class WebPart implements Writable {
 
+	private static final Logger log = Logger.getLogger(WebPart.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String DEBUG_PROPERTY = "wahlzeit.webParts.debug";
+	protected static boolean isDebugging = Boolean.getBoolean(DEBUG_PROPERTY);
+
+	/**
+	 * Template and key of the unknown keys that have been reported
+	 */
+	protected static final Set<String> reportedUnknownKeys =
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 *
+	 */
+	protected static final Object[] NO_VALUES = new Object[0];
+
 	/**
 	 *
 	 */
@@ -43,17 +72,31 @@ public class WebPart implements Writable {
 	/**
 	 *
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Object[] values;
+
+	/**
+	 * Values for keys the template has no slot for, only kept when debugging
+	 */
+	protected Map<String, Object> unknownValues = null;
 
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		int noKeys = (template == null) ? 0 : template.getNoDistinctKeys();
+		values = (noKeys == 0) ? NO_VALUES : new Object[noKeys];
 	}
 
+	/**
+	 *
+	 */
 	public Object getValue(String key) {
-		return parts.get(key);
+		int keyIndex = getKeyIndex(key);
+		if (keyIndex != -1) {
+			return values[keyIndex];
+		}
+		return (unknownValues == null) ? null : unknownValues.get(key);
 	}
 
 	/**
@@ -66,11 +109,11 @@ public class WebPart implements Writable {
 	}
 
 	/**
-	 *
+	 * The value is masked when the WebPart is written.
 	 */
 	public void maskAndAddString(String key, String value) {
 		if (value != null) {
-			putValue(key, HtmlUtil.maskForWeb(value));
+			putValue(key, new MaskedWritable(value));
 		}
 	}
 
@@ -90,7 +133,7 @@ public class WebPart implements Writable {
 	public void maskAndAddStringFromArgs(Map args, String key) {
 		Object value = args.get(key);
 		if (value != null) {
-			addString(key, HtmlUtil.maskForWeb(value.toString()));
+			maskAndAddString(key, value.toString());
 		}
 	}
 
@@ -112,9 +155,9 @@ public class WebPart implements Writable {
 	public void maskAndAddStringFromArgsWithDefault(Map args, String key, String defval) {
 		Object value = args.get(key);
 		if (value != null) {
-			addString(key, HtmlUtil.maskForWeb(value.toString()));
+			maskAndAddString(key, value.toString());
 		} else {
-			addString(key, HtmlUtil.maskForWeb(defval));
+			maskAndAddString(key, defval);
 		}
 	}
 
@@ -169,37 +212,73 @@ public class WebPart implements Writable {
 	 *
 	 */
 	protected void putValue(String key, Object value) {
-		if (value != null) {
-			parts.put(key, value);
+		if (value == null) {
+			return;
+		}
+
+		int keyIndex = getKeyIndex(key);
+		if (keyIndex != -1) {
+			values[keyIndex] = value;
+		} else if (isDebugging) {
+			putUnknownValue(key, value);
 		}
 	}
 
 	/**
-	 *
+	 * @methodtype get
+	 */
+	protected int getKeyIndex(String key) {
+		return (template == null) ? -1 : template.getKeyIndex(key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void putUnknownValue(String key, Object value) {
+		if (unknownValues == null) {
+			unknownValues = new HashMap<String, Object>();
+		}
+		unknownValues.put(key, value);
+
+		String templateName = (template == null) ? null : template.getName();
+		if (reportedUnknownKeys.add(templateName + "/" + key)) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("template", templateName).
+					addParameter("unknown key", key).log();
+		}
+	}
+
+	/**
+	 * Writes the pre-encoded segments of the template if the writer takes bytes, else the template text. The time
+	 * taken, including that of nested WebParts, goes into the write times of the template.
 	 */
 	public void writeOn(Writer out) throws IOException {
+		long startTime = System.nanoTime();
+		try {
+			if (out instanceof Utf8Writer) {
+				writeOn((Utf8Writer) out);
+			} else {
+				writeTemplateOn(out);
+			}
+		} finally {
+			template.getWriteTimes().recordSince(startTime);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void writeTemplateOn(Writer out) throws IOException {
 		String tmpl = template.asString();
-		String[] keys = template.getKeys();
 		int[] slots = template.getSlots();
+		int[] slotKeyIndexes = template.getSlotKeyIndexes();
 
 		int start = 0;
-		for (int i = 0; i < keys.length; i++) {
+		for (int i = 0; i < slots.length; i++) {
 			int index = slots[i];
 			out.write(tmpl, start, index - start);
 
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
-				}
-			}
+			writePartOn(values[slotKeyIndexes[i]], out);
 
 			start = index;
 		}
@@ -207,4 +286,32 @@ public class WebPart implements Writable {
 		out.write(tmpl, start, tmpl.length() - start);
 	}
 
+	/**
+	 *
+	 */
+	protected void writeOn(Utf8Writer out) throws IOException {
+		byte[][] segments = template.getSegments();
+		int[] slotKeyIndexes = template.getSlotKeyIndexes();
+
+		for (int i = 0; i < slotKeyIndexes.length; i++) {
+			out.writeBytes(segments[i]);
+			writePartOn(values[slotKeyIndexes[i]], out);
+		}
+
+		out.writeBytes(segments[slotKeyIndexes.length]);
+	}
+
+	/**
+	 *
+	 */
+	protected void writePartOn(Object value, Writer out) throws IOException {
+		if (value != null) {
+			if (value instanceof Writable) {
+				((Writable) value).writeOn(out);
+			} else {
+				out.write(value.toString());
+			}
+		}
+	}
+
 }
@@ -0,0 +1,186 @@
+package org.wahlzeit.webparts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The WebPartCache keeps rendered fragments of pages that rarely change, like info texts, sidebars and menus, as UTF-8
+ * bytes. Fragments are keyed by everything they depend on, usually template, language, access rights and the few
+ * arguments that are filled in; see {@link #createKey(String...)}.
+ *
+ * All fragments are dropped when templates are reloaded or other inputs change (see {@link #invalidateAll()}). A
+ * fragment rendered while the cache was invalidated is not served afterwards, as each fragment remembers the
+ * generation of the cache it was rendered in.
+ */
+public class WebPartCache {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_FRAGMENTS = 1024;
+
+	/**
+	 *
+	 */
+	protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 *
+	 */
+	protected static final WebPartCache instance = new WebPartCache(DEFAULT_MAX_FRAGMENTS);
+
+	/**
+	 *
+	 */
+	protected final Map<String, CachedFragment> fragments = new ConcurrentHashMap<String, CachedFragment>();
+	protected final int maxFragments;
+	protected volatile long generation = 0;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public static WebPartCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected WebPartCache(int maxFragments) {
+		this.maxFragments = maxFragments;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates an unambiguous key from the parts; null parts are allowed.
+	 */
+	public static String createKey(String... parts) {
+		StringBuilder result = new StringBuilder(64);
+		for (String part : parts) {
+			if (part == null) {
+				result.append("-;");
+			} else {
+				result.append(part.length()).append(':').append(part).append(';');
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the cached fragment for the key, or renders the WebPart made by the source and caches it.
+	 */
+	public Writable getFragment(String key, FragmentSource source) throws IOException {
+		long currentGeneration = generation;
+		CachedFragment result = fragments.get(key);
+		if (result != null && result.generation == currentGeneration) {
+			hits.incrementAndGet();
+			return result;
+		}
+
+		misses.incrementAndGet();
+		result = new CachedFragment(render(source.makeFragment()), currentGeneration);
+		if (currentGeneration == generation) {
+			if (fragments.size() >= maxFragments) {
+				// fragments are cheap to render again, so a full cache simply starts over
+				fragments.clear();
+			}
+			fragments.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		fragments.clear();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected byte[] render(Writable part) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream(1024);
+		Utf8Writer out = new Utf8Writer(result, 1024);
+		part.writeOn(out);
+		out.close();
+		return result.toByteArray();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return fragments.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Makes the WebPart of a fragment on a cache miss.
+	 */
+	public interface FragmentSource {
+
+		/**
+		 *
+		 */
+		Writable makeFragment();
+
+	}
+
+	/**
+	 * A rendered fragment; it is written as bytes where possible.
+	 */
+	protected static class CachedFragment implements Writable {
+
+		protected final byte[] bytes;
+		protected final long generation;
+
+		/**
+		 *
+		 */
+		protected CachedFragment(byte[] bytes, long generation) {
+			this.bytes = bytes;
+			this.generation = generation;
+		}
+
+		/**
+		 *
+		 */
+		public void writeOn(Writer out) throws IOException {
+			if (out instanceof Utf8Writer) {
+				((Utf8Writer) out).writeBytes(bytes);
+			} else {
+				out.write(new String(bytes, UTF_8));
+			}
+		}
+	}
+
+}
@@ -20,12 +20,22 @@
 
 package org.wahlzeit.webparts;
 
+import org.wahlzeit.services.metrics.TimingHistogram;
+import org.wahlzeit.services.metrics.MetricRegistry;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
+ * Initializing compiles the template into the literal text between the slots, which is also kept UTF-8 encoded so
+ * that rendering to a {@link Utf8Writer} does not encode the same static HTML on every request. Each distinct key gets
+ * an index, so that WebParts can keep their values in an array.
  */
 public class WebPartTemplate {
 
@@ -45,11 +55,34 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 * Literal text before each slot and after the last one, UTF-8 encoded; one more than there are keys
+	 */
+	protected byte[][] segments = null;
+
+	/**
+	 * Distinct keys in order of their first slot, the index of each key, and the key index of each slot
+	 */
+	protected String[] distinctKeys = new String[0];
+	protected Map<String, Integer> keyIndexes = new HashMap<String, Integer>();
+	protected int[] slotKeyIndexes = new int[0];
+
+	/**
+	 * Times of writing WebParts of this template, shared with the templates that reload it
+	 */
+	protected final TimingHistogram writeTimes;
+
+	/**
+	 *
+	 */
+	protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	/**
 	 *
 	 */
 	public WebPartTemplate(String myName) {
 		name = myName;
+		writeTimes = MetricRegistry.getInstance().getHistogram("template " + name);
 	}
 
 	/**
@@ -72,9 +105,9 @@ public class WebPartTemplate {
 					slotList.add(nextSlot);
 
 					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
 				}
-				index = endSlot;
+				// continue where the slot was, so that directly adjacent slots are found as well
+				index = (endSlot != -1) ? nextSlot : -1;
 			} else {
 				index = -1;
 			}
@@ -89,6 +122,29 @@ public class WebPartTemplate {
 		}
 
 		template = buffer.toString();
+
+		segments = new byte[length + 1][];
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			segments[i] = template.substring(start, slots[i]).getBytes(UTF_8);
+			start = slots[i];
+		}
+		segments[length] = template.substring(start).getBytes(UTF_8);
+
+		List<String> distinctKeyList = new ArrayList<String>();
+		Map<String, Integer> newKeyIndexes = new HashMap<String, Integer>();
+		slotKeyIndexes = new int[length];
+		for (int i = 0; i < length; i++) {
+			Integer keyIndex = newKeyIndexes.get(keys[i]);
+			if (keyIndex == null) {
+				keyIndex = distinctKeyList.size();
+				distinctKeyList.add(keys[i]);
+				newKeyIndexes.put(keys[i], keyIndex);
+			}
+			slotKeyIndexes[i] = keyIndex;
+		}
+		distinctKeys = distinctKeyList.toArray(new String[distinctKeyList.size()]);
+		keyIndexes = newKeyIndexes;
 	}
 
 	/**
@@ -98,6 +154,13 @@ public class WebPartTemplate {
 		return name;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public TimingHistogram getWriteTimes() {
+		return writeTimes;
+	}
+
 	/**
 	 *
 	 */
@@ -119,4 +182,42 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the index of the key, or -1 if the template has no slot for it.
+	 */
+	public int getKeyIndex(String key) {
+		Integer result = keyIndexes.get(key);
+		return (result == null) ? -1 : result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoDistinctKeys() {
+		return distinctKeys.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getDistinctKey(int keyIndex) {
+		return distinctKeys[keyIndex];
+	}
+
+	/**
+	 *
+	 */
+	public int[] getSlotKeyIndexes() {
+		return slotKeyIndexes; // not cloned, as it is read on every render
+	}
+
+	/**
+	 *
+	 */
+	public byte[][] getSegments() {
+		return segments; // not cloned, as it is read on every render
+	}
+
 }
@@ -23,34 +23,77 @@ package org.wahlzeit.webparts;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import org.wahlzeit.services.ConfigDir;
+import org.wahlzeit.services.ConfigDirListener;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestThreadFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ *
+ * Templates are kept in an immutable snapshot that is replaced as a whole when templates are added or reloaded, so
+ * that requests never wait for each other. All templates of the configured languages are compiled at startup (see
+ * {@link #preloadTemplates(Collection)}); names without a template file are remembered as missing. When the templates
+ * directory reports changed files, the templates are compiled again and the TemplateChangeListeners are told.
  */
-public class WebPartTemplateService {
+public class WebPartTemplateService implements ConfigDirListener {
 
 	/**
 	 *
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 	private static final Logger log = Logger.getLogger(WebPartTemplateService.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final String TEMPLATE_FILE_EXTENSION = ".html";
+
+	/**
+	 * Stands in for templates that do not exist
+	 */
+	protected static final WebPartTemplate MISSING_TEMPLATE = new WebPartTemplate("missing");
+
+	/**
+	 *
+	 */
+	protected static final long COMPILE_TIMEOUT_SECONDS = 10;
+
 	/**
 	 *
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected volatile Map<String, WebPartTemplate> templates = Collections.emptyMap();
+
 	/**
 	 *
 	 */
 	protected ConfigDir templatesDir = null;
 
+	/**
+	 *
+	 */
+	protected final List<TemplateChangeListener> listeners = new CopyOnWriteArrayList<TemplateChangeListener>();
+
 	/**
 	 *
 	 */
@@ -66,51 +109,205 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Returns the template, or null if there is none.
 	 */
 	public WebPartTemplate getTemplate(String lang, String name) {
 		String shortName = lang + File.separator + name;
 		WebPartTemplate result = templates.get(shortName);
 
 		if (result == null) {
-			try {
-				loadTemplate(shortName);
-				result = templates.get(shortName);
-			} catch (IOException ioex) {
-				log.warning(LogBuilder.createSystemMessage().
-						addParameter("template name", shortName).
-						addException("Problem loading template", ioex).toString());
-			}
+			result = loadTemplate(shortName);
 		}
 
+		return (result == MISSING_TEMPLATE) ? null : result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads a template that has not been preloaded and adds it to the snapshot.
+	 */
+	protected synchronized WebPartTemplate loadTemplate(String shortName) {
+		WebPartTemplate result = templates.get(shortName);
+		if (result == null) {
+			result = compileTemplate(shortName);
+			Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>(templates);
+			newTemplates.put(shortName, result);
+			templates = Collections.unmodifiableMap(newTemplates);
+		}
 		return result;
 	}
 
 	/**
+	 * @methodtype factory
 	 *
+	 * Reads and initializes the template; returns MISSING_TEMPLATE if there is no file or it cannot be read.
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
-		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
-		log.config(LogBuilder.createSystemMessage().
+	protected WebPartTemplate compileTemplate(String shortName) {
+		ConfigDir dir = getTemplatesDir();
+		String shortFileName = shortName + TEMPLATE_FILE_EXTENSION;
+		if (!dir.hasDefaultFile(shortFileName) && !dir.hasCustomFile(shortFileName)) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("template name", shortName).
+					addMessage("template does not exist").log();
+			return MISSING_TEMPLATE;
+		}
+
+		String fileName = dir.getAbsoluteConfigFileName(shortFileName);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("open html template file").
-				addParameter("file name", fileName).toString());
-		File file = new File(fileName);
+				addParameter("file name", fileName).log();
 
 		try {
-			String source = Files.toString(file, Charsets.UTF_8);
-			//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
+			String source = Files.toString(new File(fileName), Charsets.UTF_8);
+			WebPartTemplate result = new WebPartTemplate(shortName);
+			result.initialize(source);
+			return result;
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("template name", shortName).
+					addException("I/O Error while reading Template file", e).log();
+			return MISSING_TEMPLATE;
+		}
+	}
 
-			if (source != null) {
-				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+	/**
+	 * @methodtype command
+	 *
+	 * Compiles all templates of the languages in parallel and adds them to the snapshot at once.
+	 */
+	public void preloadTemplates(Collection<String> languageCodes) throws InterruptedException {
+		Set<String> shortNames = new HashSet<String>();
+		for (String shortFileName : getTemplatesDir().getShortFileNames()) {
+			if (shortFileName.endsWith(TEMPLATE_FILE_EXTENSION)) {
+				String shortName = shortFileName.substring(0, shortFileName.length() - TEMPLATE_FILE_EXTENSION.length());
+				for (String languageCode : languageCodes) {
+					if (shortName.startsWith(languageCode + File.separator)) {
+						shortNames.add(shortName);
+					}
+				}
 			}
+		}
 
-			templates.put(shortName, template);
-		} catch (IOException e) {
-			log.warning(LogBuilder.createSystemMessage().
-					addException("I/O Error while reading Template file", e).toString());
+		Map<String, WebPartTemplate> preloadedTemplates = compileTemplates(shortNames);
+		synchronized (this) {
+			Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>(templates);
+			newTemplates.putAll(preloadedTemplates);
+			templates = Collections.unmodifiableMap(newTemplates);
 		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("preload templates").
+				addParameter("languages", languageCodes).
+				addParameter("templates", preloadedTemplates.size()).log();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected Map<String, WebPartTemplate> compileTemplates(Collection<String> shortNames)
+			throws InterruptedException {
+		int noThreads = Math.max(1, Math.min(shortNames.size(), Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(noThreads, new RequestThreadFactory("template-compiler"));
+
+		try {
+			List<String> names = new ArrayList<String>(shortNames);
+			List<Future<WebPartTemplate>> futures = new ArrayList<Future<WebPartTemplate>>();
+			for (final String shortName : names) {
+				futures.add(executor.submit(new Callable<WebPartTemplate>() {
+					public WebPartTemplate call() {
+						return compileTemplate(shortName);
+					}
+				}));
+			}
+
+			Map<String, WebPartTemplate> result = new HashMap<String, WebPartTemplate>();
+			for (int i = 0; i < names.size(); i++) {
+				try {
+					result.put(names.get(i), futures.get(i).get());
+				} catch (ExecutionException ex) {
+					LogBuilder.createSystemMessage(log, Level.WARNING).
+							addParameter("template name", names.get(i)).
+							addException("Problem compiling template", ex.getCause()).log();
+					result.put(names.get(i), MISSING_TEMPLATE);
+				}
+			}
+			return result;
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(COMPILE_TIMEOUT_SECONDS, TimeUnit.SECONDS); // request threads may not outlive it
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Compiles the changed templates that are known or missing, or all of them if it is unknown what has changed.
+	 */
+	public void configFilesChanged(ConfigDir configDir, Set<String> shortFileNames) {
+		Set<String> shortNames = new HashSet<String>();
+		Map<String, WebPartTemplate> currentTemplates = templates;
+		for (String shortFileName : shortFileNames) {
+			if (shortFileName.endsWith(TEMPLATE_FILE_EXTENSION)) {
+				shortNames.add(shortFileName.substring(0, shortFileName.length() - TEMPLATE_FILE_EXTENSION.length()));
+			}
+		}
+		if (shortFileNames.isEmpty()) {
+			shortNames.addAll(currentTemplates.keySet());
+		}
+
+		try {
+			reloadTemplates(shortNames);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void reloadTemplates(Set<String> shortNames) throws InterruptedException {
+		if (shortNames.isEmpty()) {
+			return;
+		}
+
+		Map<String, WebPartTemplate> reloadedTemplates = compileTemplates(shortNames);
+		synchronized (this) {
+			Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>(templates);
+			newTemplates.putAll(reloadedTemplates);
+			templates = Collections.unmodifiableMap(newTemplates);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("reload templates").
+				addParameter("templates", shortNames).log();
+
+		// a reloaded template changes the fragments and pages rendered from it
+		WebPartCache.getInstance().invalidateAll();
+		for (TemplateChangeListener listener : listeners) {
+			listener.templatesChanged(shortNames);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addTemplateChangeListener(TemplateChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removeTemplateChangeListener(TemplateChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return templates.size();
 	}
 
 	/**
@@ -121,10 +318,17 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Drops all templates, which are loaded from the new directory, and listens to it for changed files.
 	 */
-	public void setTemplatesDir(ConfigDir newTemplatesDir) {
+	public synchronized void setTemplatesDir(ConfigDir newTemplatesDir) {
+		if (templatesDir != null) {
+			templatesDir.removeListener(this);
+		}
 		templatesDir = newTemplatesDir;
+		templates = Collections.emptyMap();
+		if (templatesDir != null) {
+			templatesDir.addListener(this);
+		}
 	}
 
 }
@@ -0,0 +1,450 @@
+package org.wahlzeit.loadtest;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalImagesServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.model.ImageUpload;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.User;
+import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.metrics.Counter;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.services.metrics.TimingHistogram;
+import org.wahlzeit.servlets.MainServlet;
+
+import javax.imageio.ImageIO;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The LoadHarness boots the ServiceMain against the local App Engine service stubs, seeds users and photos, and lets
+ * many SimulatedSessions send requests to the MainServlet from a pool of threads for a while. Each worker takes an idle
+ * session, lets it perform its next action of the LoadMix and puts it back, so that a session never sends two requests
+ * at once. After a warm-up, it measures the throughput and the latency of each request type, as the browser sees it,
+ * and writes them together with the server-side timings of the MetricRegistry.
+ *
+ * It is configured by system properties, e.g. "gradle loadTest -Dwahlzeit.load.sessions=128".
+ */
+public class LoadHarness {
+
+	/**
+	 *
+	 */
+	private static final Logger log = Logger.getLogger(LoadHarness.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String NO_USERS_PROPERTY = "wahlzeit.load.users";
+	public static final String NO_PHOTOS_PROPERTY = "wahlzeit.load.photos";
+	public static final String NO_SESSIONS_PROPERTY = "wahlzeit.load.sessions";
+	public static final String NO_THREADS_PROPERTY = "wahlzeit.load.threads";
+	public static final String USER_SHARE_PROPERTY = "wahlzeit.load.userPercent";
+	public static final String DURATION_PROPERTY = "wahlzeit.load.seconds";
+	public static final String WARM_UP_PROPERTY = "wahlzeit.load.warmUpSeconds";
+	public static final String MIX_PROPERTY = "wahlzeit.load.mix";
+	public static final String SEED_PROPERTY = "wahlzeit.load.seed";
+	public static final String ROOT_DIR_PROPERTY = "wahlzeit.load.rootDir";
+
+	/**
+	 * Tags of seeded and uploaded photos, and of filters
+	 */
+	public static final String[] TAG_VOCABULARY = {
+			"beach", "mountain", "city", "night", "portrait", "forest", "river", "snow", "sunset", "bridge",
+			"street", "garden", "lake", "desert", "harbor", "market", "castle", "train", "flower", "winter"
+	};
+
+	/**
+	 *
+	 */
+	protected static final int IMAGE_WIDTH = 800;
+	protected static final int IMAGE_HEIGHT = 600;
+
+	/**
+	 *
+	 */
+	protected final int noUsers = Integer.getInteger(NO_USERS_PROPERTY, 20);
+	protected final int noPhotos = Integer.getInteger(NO_PHOTOS_PROPERTY, 200);
+	protected final int noSessions = Integer.getInteger(NO_SESSIONS_PROPERTY, 64);
+	protected final int noThreads = Integer.getInteger(NO_THREADS_PROPERTY, 8);
+	protected final int userPercent = Integer.getInteger(USER_SHARE_PROPERTY, 50);
+	protected final int durationSeconds = Integer.getInteger(DURATION_PROPERTY, 30);
+	protected final int warmUpSeconds = Integer.getInteger(WARM_UP_PROPERTY, 5);
+	protected final long seed = Long.getLong(SEED_PROPERTY, 42L);
+	protected final LoadMix mix = LoadMix.getFromString(System.getProperty(MIX_PROPERTY));
+
+	/**
+	 *
+	 */
+	protected final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+			new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+			new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true),
+			new LocalImagesServiceTestConfig(),
+			new LocalUserServiceTestConfig());
+	protected ApiProxy.Environment environment = null;
+	protected final MainServlet servlet = new MainServlet();
+
+	/**
+	 *
+	 */
+	protected final List<User> users = new ArrayList<User>();
+	protected final List<String> photoIds = new ArrayList<String>();
+	protected final BlockingQueue<SimulatedSession> idleSessions = new LinkedBlockingQueue<SimulatedSession>();
+	protected byte[] uploadImageData = null;
+
+	/**
+	 * Timings and errors by request name, as the browser sees them; only recorded after the warm-up
+	 */
+	protected final ConcurrentMap<String, TimingHistogram> timings = new ConcurrentHashMap<String, TimingHistogram>();
+	protected final ConcurrentMap<String, Counter> errors = new ConcurrentHashMap<String, Counter>();
+	protected final ConcurrentMap<String, Boolean> loggedErrors = new ConcurrentHashMap<String, Boolean>();
+	protected volatile boolean isMeasuring = false;
+	protected long measuredNanos = 0;
+
+	/**
+	 *
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadHarness harness = new LoadHarness();
+		try {
+			harness.startUp();
+			harness.seed();
+			harness.run();
+			PrintWriter out = new PrintWriter(System.out);
+			harness.writeReportOn(out);
+			out.flush();
+		} finally {
+			harness.shutDown();
+		}
+
+		// scaling and storage threads are no daemons
+		System.exit(0);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LoadMix getMix() {
+		return mix;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<String> getPhotoIds() {
+		return photoIds;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public byte[] getUploadImageData() {
+		return uploadImageData;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void startUp() throws Exception {
+		if (System.getProperty(ServiceMain.WATCH_CONFIG_DIRS_PROPERTY) == null) {
+			System.setProperty(ServiceMain.WATCH_CONFIG_DIRS_PROPERTY, "false");
+		}
+
+		helper.setUp();
+		environment = ApiProxy.getCurrentEnvironment();
+		OfyService.factory();
+
+		Closeable ofy = ObjectifyService.begin();
+		try {
+			ServiceMain.getInstance().startUp(false, System.getProperty(ROOT_DIR_PROPERTY, "src/main/webapp"));
+		} finally {
+			ofy.close();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Creates the users and their photos, and the sessions; half of the sessions, by default, are logged in.
+	 */
+	public void seed() throws Exception {
+		long startTime = System.nanoTime();
+		Random random = new Random(seed);
+		uploadImageData = createJpeg(IMAGE_WIDTH, IMAGE_HEIGHT, random);
+
+		Closeable ofy = ObjectifyService.begin();
+		try {
+			for (int i = 0; i < noUsers; i++) {
+				users.add(new User("loaduser" + i, "loaduser" + i, "loaduser" + i + "@example.com"));
+			}
+
+			PhotoManager photoManager = PhotoManager.getInstance();
+			for (int i = 0; i < noPhotos; i++) {
+				String fileName = "load" + i + ".jpg";
+				byte[] data = createJpeg(IMAGE_WIDTH, IMAGE_HEIGHT, random);
+				Photo photo = photoManager.createPhoto(fileName, new ImageUpload(fileName, "image/jpeg", data));
+				users.get(i % noUsers).addPhoto(photo);
+				photo.setTags(new Tags(TAG_VOCABULARY[random.nextInt(TAG_VOCABULARY.length)] + ", " +
+						TAG_VOCABULARY[random.nextInt(TAG_VOCABULARY.length)]));
+				photoIds.add(photo.getIdAsString());
+
+				// as the PersistPhotoAgent does after an upload; the owner is saved with the photo
+				photoManager.savePhoto(photo);
+			}
+			ServiceMain.getInstance().saveAll();
+
+			int noUserSessions = noSessions * userPercent / 100;
+			for (int i = 0; i < noSessions; i++) {
+				User user = (i < noUserSessions) ? users.get(i % noUsers) : null;
+				SimulatedSession session = new SimulatedSession(this, "load-session-" + i, user, seed + i);
+				if (user != null) {
+					logIn(session);
+				}
+				idleSessions.add(session);
+			}
+		} finally {
+			ofy.close();
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("Seed load test").
+				addParameter("users", noUsers).addParameter("photos", noPhotos).
+				addParameter("sessions", noSessions).
+				addParameter("ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)).log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Logs the session in as its user, as the LoginFormHandler does after the Google login.
+	 */
+	protected void logIn(SimulatedSession session) {
+		SimulatedHttpSession httpSession = session.getHttpSession();
+		UserSession us = new UserSession(httpSession.getId(), SimulatedRequest.SITE_URL, httpSession.asHttpSession(),
+				Locale.ENGLISH.getLanguage());
+		us.setClient(session.getUser());
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static byte[] createJpeg(int width, int height, Random random) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		for (int i = 0; i < 64; i++) {
+			graphics.setColor(new Color(random.nextInt(0x1000000)));
+			graphics.fillOval(random.nextInt(width), random.nextInt(height), width / 4, height / 4);
+		}
+		graphics.dispose();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void run() throws InterruptedException {
+		final long startTime = System.nanoTime();
+		final long endTime = startTime + TimeUnit.SECONDS.toNanos(warmUpSeconds + durationSeconds);
+
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("Run load test").
+				addParameter("threads", noThreads).addParameter("warm-up s", warmUpSeconds).
+				addParameter("s", durationSeconds).addParameter("mix", mix.asString()).log();
+
+		Thread[] workers = new Thread[noThreads];
+		for (int i = 0; i < noThreads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+					while (System.nanoTime() < endTime) {
+						try {
+							SimulatedSession session = idleSessions.poll(100, TimeUnit.MILLISECONDS);
+							if (session != null) {
+								try {
+									session.performNextAction();
+								} finally {
+									idleSessions.add(session);
+								}
+							}
+						} catch (InterruptedException ex) {
+							return;
+						}
+					}
+				}
+			}, "load-worker-" + i);
+			workers[i].start();
+		}
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmUpSeconds));
+		long measureStartTime = System.nanoTime();
+		isMeasuring = true;
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		isMeasuring = false;
+		measuredNanos = System.nanoTime() - measureStartTime;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Sends the request to the MainServlet in its own Objectify context, as the ObjectifyFilter would, and records how
+	 * long it took; exceptions and error statuses count as errors. The first exception of each request is logged.
+	 */
+	public SimulatedResponse perform(SimulatedRequest request) {
+		request.setHeader("Accept-Encoding", "gzip, deflate");
+		SimulatedResponse response = new SimulatedResponse();
+		boolean isFailed = true;
+
+		long startTime = System.nanoTime();
+		Closeable ofy = ObjectifyService.begin();
+		try {
+			if (request.isPost()) {
+				servlet.doPost(request.asHttpServletRequest(), response.asHttpServletResponse());
+			} else {
+				servlet.doGet(request.asHttpServletRequest(), response.asHttpServletResponse());
+			}
+			isFailed = response.getStatus() >= HttpServletResponse.SC_BAD_REQUEST;
+		} catch (Exception ex) {
+			if (loggedErrors.putIfAbsent(request.getName(), Boolean.TRUE) == null) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("request failed: " + request.getName(), ex).log();
+			}
+		} finally {
+			ofy.close();
+			if (isMeasuring) {
+				getTimings(request.getName()).recordSince(startTime);
+				if (isFailed) {
+					getErrors(request.getName()).increment();
+				}
+			}
+		}
+
+		return response;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected TimingHistogram getTimings(String name) {
+		TimingHistogram result = timings.get(name);
+		if (result == null) {
+			TimingHistogram newTimings = new TimingHistogram(name);
+			result = timings.putIfAbsent(name, newTimings);
+			if (result == null) {
+				result = newTimings;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Counter getErrors(String name) {
+		Counter result = errors.get(name);
+		if (result == null) {
+			Counter newErrors = new Counter(name);
+			result = errors.putIfAbsent(name, newErrors);
+			if (result == null) {
+				result = newErrors;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void writeReportOn(PrintWriter out) {
+		double seconds = measuredNanos / 1e9;
+		long noRequests = 0;
+		long noErrors = 0;
+		for (TimingHistogram histogram : timings.values()) {
+			noRequests += histogram.getCount();
+		}
+		for (Counter counter : errors.values()) {
+			noErrors += counter.getCount();
+		}
+
+		out.println();
+		out.format(Locale.US, "%d users, %d photos, %d sessions (%d%% logged in), %d threads, mix %s%n",
+				noUsers, noPhotos, noSessions, userPercent, noThreads, mix.asString());
+		out.format(Locale.US, "%d requests in %.1f s: %.1f requests/s, %d errors%n%n",
+				noRequests, seconds, noRequests / seconds, noErrors);
+
+		String format = "%-48s %8s %9s %9s %9s %9s %9s %7s%n";
+		out.format(Locale.US, format, "request", "count", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "errors");
+		for (TimingHistogram histogram : new TreeMap<String, TimingHistogram>(timings).values()) {
+			Counter errorCounter = errors.get(histogram.getName());
+			out.format(Locale.US, format, histogram.getName(),
+					String.valueOf(histogram.getCount()),
+					String.format(Locale.US, "%.1f", histogram.getCount() / seconds),
+					asMillisString(histogram.getNanosAtPercentile(50.0)),
+					asMillisString(histogram.getNanosAtPercentile(90.0)),
+					asMillisString(histogram.getNanosAtPercentile(99.0)),
+					asMillisString(histogram.getMaxNanos()),
+					String.valueOf((errorCounter != null) ? errorCounter.getCount() : 0));
+		}
+
+		out.println();
+		out.println("server-side timings (incl. warm-up and seeding):");
+		for (TimingHistogram histogram : MetricRegistry.getInstance().getHistograms()) {
+			out.format(Locale.US, format, histogram.getName(),
+					String.valueOf(histogram.getCount()), "",
+					asMillisString(histogram.getNanosAtPercentile(50.0)),
+					asMillisString(histogram.getNanosAtPercentile(90.0)),
+					asMillisString(histogram.getNanosAtPercentile(99.0)),
+					asMillisString(histogram.getMaxNanos()), "");
+		}
+
+		out.println();
+		for (Counter counter : MetricRegistry.getInstance().getCounters()) {
+			out.format(Locale.US, "%-48s %8d%n", counter.getName(), counter.getCount());
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asMillisString(long nanos) {
+		return String.format(Locale.US, "%.2f", TimingHistogram.asMillis(nanos));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void shutDown() {
+		ServiceMain.getInstance().requestStop();
+		helper.tearDown();
+	}
+
+}
@@ -0,0 +1,163 @@
+package org.wahlzeit.loadtest;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A LoadMix says how often SimulatedSessions perform which Action, by weight. A mix is written as a comma-separated
+ * list of action=weight pairs, e.g. "browse=35,show=25,praise=15"; actions that are not listed are not performed.
+ */
+public class LoadMix {
+
+	/**
+	 * What a visitor does next, with its default weight
+	 */
+	public enum Action {
+		BROWSE(35, false), SHOW(25, false), PRAISE(15, false), FILTER(10, false), HOME(8, true), UPLOAD(5, true),
+		FLAG(2, false);
+
+		/**
+		 *
+		 */
+		protected final int defaultWeight;
+		protected final boolean isForUsersOnly;
+
+		/**
+		 *
+		 */
+		Action(int myDefaultWeight, boolean myIsForUsersOnly) {
+			defaultWeight = myDefaultWeight;
+			isForUsersOnly = myIsForUsersOnly;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		public boolean isForUsersOnly() {
+			return isForUsersOnly;
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		public String asString() {
+			return name().toLowerCase(Locale.US);
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		public static Action getFromString(String name) throws IllegalArgumentException {
+			for (Action action : values()) {
+				if (action.asString().equals(name.trim())) {
+					return action;
+				}
+			}
+			throw new IllegalArgumentException("unknown load action: " + name);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected final Map<Action, Integer> weights;
+	protected final int totalWeight;
+
+	/**
+	 *
+	 */
+	public LoadMix(Map<Action, Integer> myWeights) {
+		weights = new EnumMap<Action, Integer>(myWeights);
+		int total = 0;
+		for (int weight : weights.values()) {
+			if (weight < 0) {
+				throw new IllegalArgumentException("weights must not be negative");
+			}
+			total += weight;
+		}
+		if (total == 0) {
+			throw new IllegalArgumentException("mix has no actions");
+		}
+		totalWeight = total;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static LoadMix getDefault() {
+		Map<Action, Integer> weights = new EnumMap<Action, Integer>(Action.class);
+		for (Action action : Action.values()) {
+			weights.put(action, action.defaultWeight);
+		}
+		return new LoadMix(weights);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the default mix for null or empty strings.
+	 */
+	public static LoadMix getFromString(String mix) throws IllegalArgumentException {
+		if (mix == null || mix.trim().isEmpty()) {
+			return getDefault();
+		}
+
+		Map<Action, Integer> weights = new EnumMap<Action, Integer>(Action.class);
+		for (String pair : mix.split(",")) {
+			int separator = pair.indexOf('=');
+			if (separator == -1) {
+				throw new IllegalArgumentException("expected action=weight, got: " + pair);
+			}
+			Action action = Action.getFromString(pair.substring(0, separator));
+			weights.put(action, Integer.parseInt(pair.substring(separator + 1).trim()));
+		}
+		return new LoadMix(weights);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getWeight(Action action) {
+		Integer result = weights.get(action);
+		return (result != null) ? result : 0;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Draws the next action; guests browse instead of performing actions for users only.
+	 */
+	public Action getNextAction(Random random, boolean isUser) {
+		int value = random.nextInt(totalWeight);
+		Action result = null;
+		for (Map.Entry<Action, Integer> weight : weights.entrySet()) {
+			value -= weight.getValue();
+			if (value < 0) {
+				result = weight.getKey();
+				break;
+			}
+		}
+
+		if (result.isForUsersOnly() && !isUser) {
+			result = Action.BROWSE;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<Action, Integer> weight : weights.entrySet()) {
+			if (result.length() > 0) {
+				result.append(',');
+			}
+			result.append(weight.getKey().asString()).append('=').append(weight.getValue());
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.wahlzeit.loadtest;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the LoadMix.
+ */
+public class LoadMixTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFromString() {
+		LoadMix mix = LoadMix.getFromString(" browse=3, praise = 1");
+		assertEquals(3, mix.getWeight(LoadMix.Action.BROWSE));
+		assertEquals(1, mix.getWeight(LoadMix.Action.PRAISE));
+		assertEquals(0, mix.getWeight(LoadMix.Action.UPLOAD));
+		assertEquals("browse=3,praise=1", mix.asString());
+
+		assertEquals(LoadMix.getDefault().asString(), LoadMix.getFromString(null).asString());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownAction() {
+		LoadMix.getFromString("browse=3,dance=1");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNextActionFollowsWeights() {
+		LoadMix mix = LoadMix.getFromString("browse=1,show=3");
+		Random random = new Random(42);
+		int noShows = 0;
+		for (int i = 0; i < 4000; i++) {
+			if (mix.getNextAction(random, false) == LoadMix.Action.SHOW) {
+				noShows++;
+			}
+		}
+		assertTrue(String.valueOf(noShows), noShows > 2800 && noShows < 3200);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGuestsBrowseInsteadOfUploading() {
+		Map<LoadMix.Action, Integer> weights = new EnumMap<LoadMix.Action, Integer>(LoadMix.Action.class);
+		weights.put(LoadMix.Action.UPLOAD, 1);
+		LoadMix mix = new LoadMix(weights);
+		Random random = new Random(42);
+
+		assertEquals(LoadMix.Action.BROWSE, mix.getNextAction(random, false));
+		assertEquals(LoadMix.Action.UPLOAD, mix.getNextAction(random, true));
+	}
+
+}
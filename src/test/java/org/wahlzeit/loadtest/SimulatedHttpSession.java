@@ -0,0 +1,92 @@
+package org.wahlzeit.loadtest;
+
+import javax.servlet.http.HttpSession;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A SimulatedHttpSession is the HttpSession of one SimulatedSession; it keeps the attributes in memory.
+ */
+public class SimulatedHttpSession extends SimulatedServletObject {
+
+	/**
+	 *
+	 */
+	protected final String id;
+	protected final long creationTime = System.currentTimeMillis();
+	protected final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 *
+	 */
+	protected final HttpSession httpSession;
+
+	/**
+	 *
+	 */
+	public SimulatedHttpSession(String myId) {
+		id = myId;
+		httpSession = createProxy(HttpSession.class);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public HttpSession asHttpSession() {
+		return httpSession;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected Object handle(String methodName, Object[] args) {
+		switch (methodName) {
+			case "getId":
+				return id;
+			case "getAttribute":
+			case "getValue":
+				return attributes.get(args[0]);
+			case "setAttribute":
+			case "putValue":
+				if (args[1] == null) {
+					attributes.remove(args[0]);
+				} else {
+					attributes.put((String) args[0], args[1]);
+				}
+				return null;
+			case "removeAttribute":
+			case "removeValue":
+				attributes.remove(args[0]);
+				return null;
+			case "getAttributeNames":
+				return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+			case "getCreationTime":
+			case "getLastAccessedTime":
+				return creationTime;
+			case "invalidate":
+				attributes.clear();
+				return null;
+			default:
+				return NO_RESULT;
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "SimulatedHttpSession " + id;
+	}
+
+}
@@ -0,0 +1,259 @@
+package org.wahlzeit.loadtest;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A SimulatedRequest is a GET of a page or a POST of a form, as a browser would send it to the MainServlet. Its name
+ * tells the LoadHarness which timings it goes into.
+ */
+public class SimulatedRequest extends SimulatedServletObject {
+
+	/**
+	 *
+	 */
+	public static final String SERVER_NAME = "localhost";
+	public static final int SERVER_PORT = 8080;
+	public static final String SITE_URL = "http://" + SERVER_NAME + ":" + SERVER_PORT + "/";
+
+	/**
+	 *
+	 */
+	protected static final Charset UTF_8 = Charset.forName("UTF-8");
+	protected static final String MULTIPART_BOUNDARY = "----WahlzeitLoadHarnessBoundary";
+
+	/**
+	 *
+	 */
+	protected final String name;
+	protected final String method;
+	protected final String requestUri;
+	protected final SimulatedHttpSession session;
+
+	/**
+	 *
+	 */
+	protected final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+	protected final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+	protected final Map<String, Object> attributes = new HashMap<String, Object>();
+	protected String characterEncoding = null;
+	protected String contentType = null;
+	protected byte[] body = null;
+
+	/**
+	 *
+	 */
+	protected final HttpServletRequest request;
+
+	/**
+	 *
+	 */
+	public SimulatedRequest(String myName, String myMethod, String myRequestUri, SimulatedHttpSession mySession) {
+		name = myName;
+		method = myMethod;
+		requestUri = myRequestUri;
+		session = mySession;
+		request = createProxy(HttpServletRequest.class);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static SimulatedRequest createGet(String name, String pageName, SimulatedHttpSession session) {
+		return new SimulatedRequest(name, "GET", "/" + pageName + ".html", session);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static SimulatedRequest createPost(String formName, SimulatedHttpSession session) {
+		return new SimulatedRequest("POST " + formName, "POST", "/" + formName + ".form", session);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isPost() {
+		return "POST".equals(method);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public SimulatedRequest addParameter(String key, String value) {
+		parameters.put(key, new String[]{value});
+		return this;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public SimulatedRequest setHeader(String key, String value) {
+		headers.put(key, value);
+		return this;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Sends the parameters and the file as multipart/form-data body instead of as request parameters.
+	 */
+	public SimulatedRequest setMultipartBody(String fileFieldName, String fileName, String fileContentType,
+											 byte[] fileData) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(fileData.length + 1024);
+		for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+			writeTextOn(out, "--" + MULTIPART_BOUNDARY + "\r\n");
+			writeTextOn(out, "Content-Disposition: form-data; name=\"" + parameter.getKey() + "\"\r\n\r\n");
+			writeTextOn(out, parameter.getValue()[0] + "\r\n");
+		}
+		writeTextOn(out, "--" + MULTIPART_BOUNDARY + "\r\n");
+		writeTextOn(out, "Content-Disposition: form-data; name=\"" + fileFieldName + "\"; filename=\"" + fileName +
+				"\"\r\n");
+		writeTextOn(out, "Content-Type: " + fileContentType + "\r\n\r\n");
+		out.write(fileData, 0, fileData.length);
+		writeTextOn(out, "\r\n--" + MULTIPART_BOUNDARY + "--\r\n");
+
+		parameters.clear();
+		contentType = "multipart/form-data; boundary=" + MULTIPART_BOUNDARY;
+		body = out.toByteArray();
+		return this;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void writeTextOn(ByteArrayOutputStream out, String text) {
+		byte[] bytes = text.getBytes(UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public HttpServletRequest asHttpServletRequest() {
+		return request;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected Object handle(String methodName, Object[] args) {
+		switch (methodName) {
+			case "getMethod":
+				return method;
+			case "getRequestURI":
+			case "getServletPath":
+				return requestUri;
+			case "getRequestURL":
+				return new StringBuffer("http://" + SERVER_NAME + ":" + SERVER_PORT + requestUri);
+			case "getContextPath":
+				return "";
+			case "getScheme":
+				return "http";
+			case "getProtocol":
+				return "HTTP/1.1";
+			case "getServerName":
+				return SERVER_NAME;
+			case "getServerPort":
+				return SERVER_PORT;
+			case "getRemoteAddr":
+			case "getRemoteHost":
+				return "127.0.0.1";
+			case "getSession":
+				return session.asHttpSession();
+			case "getRequestedSessionId":
+				return session.getId();
+			case "getLocale":
+				return Locale.ENGLISH;
+			case "getLocales":
+				return Collections.enumeration(Collections.singletonList(Locale.ENGLISH));
+			case "getHeader":
+				return headers.get(args[0]);
+			case "getHeaders":
+				String header = headers.get(args[0]);
+				return Collections.enumeration((header != null) ? Collections.singletonList(header) :
+						Collections.<String>emptyList());
+			case "getHeaderNames":
+				return Collections.enumeration(headers.keySet());
+			case "getIntHeader":
+				return -1;
+			case "getDateHeader":
+				return -1L;
+			case "getParameter":
+				String[] values = parameters.get(args[0]);
+				return (values != null) ? values[0] : null;
+			case "getParameterValues":
+				return parameters.get(args[0]);
+			case "getParameterMap":
+				return Collections.unmodifiableMap(parameters);
+			case "getParameterNames":
+				return Collections.enumeration(parameters.keySet());
+			case "getAttribute":
+				return attributes.get(args[0]);
+			case "setAttribute":
+				attributes.put((String) args[0], args[1]);
+				return null;
+			case "removeAttribute":
+				attributes.remove(args[0]);
+				return null;
+			case "getCharacterEncoding":
+				return characterEncoding;
+			case "setCharacterEncoding":
+				characterEncoding = (String) args[0];
+				return null;
+			case "getContentType":
+				return contentType;
+			case "getContentLength":
+				return (body != null) ? body.length : -1;
+			case "getInputStream":
+				return createInputStream();
+			default:
+				return NO_RESULT;
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ServletInputStream createInputStream() {
+		final ByteArrayInputStream in = new ByteArrayInputStream((body != null) ? body : new byte[0]);
+		return new ServletInputStream() {
+			@Override
+			public int read() {
+				return in.read();
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) {
+				return in.read(buffer, offset, length);
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return method + " " + requestUri;
+	}
+
+}
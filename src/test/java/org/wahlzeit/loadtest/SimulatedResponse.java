@@ -0,0 +1,155 @@
+package org.wahlzeit.loadtest;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A SimulatedResponse takes what the MainServlet writes to a browser; it only counts the bytes of the page, and keeps
+ * the status, the headers and where it redirects to.
+ */
+public class SimulatedResponse extends SimulatedServletObject {
+
+	/**
+	 *
+	 */
+	protected int status = HttpServletResponse.SC_OK;
+	protected String redirectLocation = null;
+	protected String contentType = null;
+	protected String characterEncoding = "ISO-8859-1";
+	protected final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+	/**
+	 *
+	 */
+	protected long noBytes = 0;
+	protected final ServletOutputStream outputStream = new ServletOutputStream() {
+		@Override
+		public void write(int b) {
+			noBytes++;
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) {
+			noBytes += length;
+		}
+	};
+	protected PrintWriter writer = null;
+
+	/**
+	 *
+	 */
+	protected final HttpServletResponse response;
+
+	/**
+	 *
+	 */
+	public SimulatedResponse() {
+		response = createProxy(HttpServletResponse.class);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public HttpServletResponse asHttpServletResponse() {
+		return response;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getRedirectLocation() {
+		return redirectLocation;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoBytes() {
+		if (writer != null) {
+			writer.flush();
+		}
+		return noBytes;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected Object handle(String methodName, Object[] args) {
+		switch (methodName) {
+			case "setStatus":
+			case "sendError":
+				status = (Integer) args[0];
+				return null;
+			case "sendRedirect":
+				status = HttpServletResponse.SC_MOVED_TEMPORARILY;
+				redirectLocation = (String) args[0];
+				return null;
+			case "setContentType":
+				contentType = (String) args[0];
+				return null;
+			case "getContentType":
+				return contentType;
+			case "setCharacterEncoding":
+				characterEncoding = (String) args[0];
+				return null;
+			case "getCharacterEncoding":
+				return characterEncoding;
+			case "setHeader":
+			case "addHeader":
+			case "setIntHeader":
+			case "addIntHeader":
+			case "setDateHeader":
+			case "addDateHeader":
+				headers.put((String) args[0], String.valueOf(args[1]));
+				return null;
+			case "containsHeader":
+				return headers.containsKey(args[0]);
+			case "encodeURL":
+			case "encodeUrl":
+			case "encodeRedirectURL":
+			case "encodeRedirectUrl":
+				return args[0];
+			case "getOutputStream":
+				return outputStream;
+			case "getWriter":
+				if (writer == null) {
+					writer = new PrintWriter(new OutputStreamWriter(outputStream, Charset.forName(characterEncoding)));
+				}
+				return writer;
+			case "flushBuffer":
+				getNoBytes();
+				return null;
+			default:
+				return NO_RESULT;
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "SimulatedResponse " + status;
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.wahlzeit.loadtest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A SimulatedServletObject stands in for a servlet container object, like a request or a session, in the LoadHarness.
+ * It is used through a dynamic proxy of the servlet interface, so that it only has to answer the calls Wahlzeit
+ * makes; all other calls return null, false or zero.
+ */
+public abstract class SimulatedServletObject implements InvocationHandler {
+
+	/**
+	 * Returned by handle for calls the object does not answer
+	 */
+	protected static final Object NO_RESULT = new Object();
+
+	/**
+	 *
+	 */
+	protected static final Object[] NO_ARGS = new Object[0];
+
+	/**
+	 *
+	 */
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String methodName = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if ("equals".equals(methodName)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(methodName)) {
+				return System.identityHashCode(proxy);
+			}
+			return toString();
+		}
+
+		Object result = handle(methodName, (args != null) ? args : NO_ARGS);
+		return (result == NO_RESULT) ? getDefaultValue(method.getReturnType()) : result;
+	}
+
+	/**
+	 * Answers the call of the servlet interface method with the given name, or returns NO_RESULT.
+	 */
+	protected abstract Object handle(String methodName, Object[] args) throws IOException;
+
+	/**
+	 * @methodtype factory
+	 */
+	protected <T> T createProxy(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, this));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static Object getDefaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+}
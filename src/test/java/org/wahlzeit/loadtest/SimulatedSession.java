@@ -0,0 +1,135 @@
+package org.wahlzeit.loadtest;
+
+import org.wahlzeit.handlers.PartUtil;
+import org.wahlzeit.model.FlagReason;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoCase;
+import org.wahlzeit.model.PhotoFilter;
+import org.wahlzeit.model.User;
+
+import java.util.Random;
+
+/**
+ * A SimulatedSession is one visitor of the LoadHarness, with a browser that sends one request at a time. Guests
+ * browse, praise, filter and flag photos; users also look at their home page and upload photos. After a post, the
+ * session follows the redirect, as a browser would.
+ */
+public class SimulatedSession {
+
+	/**
+	 *
+	 */
+	protected final LoadHarness harness;
+	protected final SimulatedHttpSession httpSession;
+	protected final User user;
+	protected final Random random;
+
+	/**
+	 *
+	 */
+	public SimulatedSession(LoadHarness myHarness, String myId, User myUser, long seed) {
+		harness = myHarness;
+		httpSession = new SimulatedHttpSession(myId);
+		user = myUser;
+		random = new Random(seed);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public SimulatedHttpSession getHttpSession() {
+		return httpSession;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the user the session is logged in as, or null for guests.
+	 */
+	public User getUser() {
+		return user;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void performNextAction() {
+		LoadMix.Action action = harness.getMix().getNextAction(random, user != null);
+		switch (action) {
+			case BROWSE:
+				get("GET " + PartUtil.SHOW_PHOTO_PAGE_NAME, PartUtil.SHOW_PHOTO_PAGE_NAME);
+				break;
+			case SHOW:
+				get("GET {photoId}", getRandomPhotoId());
+				break;
+			case PRAISE:
+				post(SimulatedRequest.createPost(PartUtil.PRAISE_PHOTO_FORM_NAME, httpSession).
+						addParameter(Photo.ID, getRandomPhotoId()).
+						addParameter(Photo.PRAISE, String.valueOf(1 + random.nextInt(10))));
+				break;
+			case FILTER:
+				post(SimulatedRequest.createPost(PartUtil.FILTER_PHOTOS_FORM_NAME, httpSession).
+						addParameter(PhotoFilter.USER_NAME, "").
+						addParameter(PhotoFilter.TAGS, getRandomTag()));
+				break;
+			case HOME:
+				get("GET " + PartUtil.SHOW_USER_HOME_PAGE_NAME, PartUtil.SHOW_USER_HOME_PAGE_NAME);
+				break;
+			case UPLOAD:
+				post(SimulatedRequest.createPost(PartUtil.UPLOAD_PHOTO_FORM_NAME, httpSession).
+						addParameter(Photo.TAGS, getRandomTag() + ", " + getRandomTag()).
+						setMultipartBody("file", "upload.jpg", "image/jpeg", harness.getUploadImageData()));
+				break;
+			case FLAG:
+				post(SimulatedRequest.createPost(PartUtil.FLAG_PHOTO_FORM_NAME, httpSession).
+						addParameter(Photo.ID, getRandomPhotoId()).
+						addParameter(PhotoCase.FLAGGER, "flagger@example.com").
+						addParameter(PhotoCase.REASON, getRandomFlagReason().asString()).
+						addParameter(PhotoCase.EXPLANATION, "load test"));
+				break;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected SimulatedResponse get(String name, String pageName) {
+		return harness.perform(SimulatedRequest.createGet(name, pageName, httpSession));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Posts the form and gets the page it redirects to.
+	 */
+	protected void post(SimulatedRequest request) {
+		SimulatedResponse response = harness.perform(request);
+		String location = response.getRedirectLocation();
+		if (location != null) {
+			String pageName = location.substring(location.lastIndexOf('/') + 1, location.length() - ".html".length());
+			get("GET " + pageName, pageName);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getRandomPhotoId() {
+		return harness.getPhotoIds().get(random.nextInt(harness.getPhotoIds().size()));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected FlagReason getRandomFlagReason() {
+		return FlagReason.getFromInt(random.nextInt(FlagReason.OTHER.getAllValues().length));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getRandomTag() {
+		return LoadHarness.TAG_VOCABULARY[random.nextInt(LoadHarness.TAG_VOCABULARY.length)];
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.wahlzeit.main;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.services.Session;
+import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.SysSession;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test cases for the StartupPhases.
+ */
+public class StartupPhasesTest {
+
+	@Rule
+	public TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStartedPhasesRunConcurrently() throws Exception {
+		final CountDownLatch bothStarted = new CountDownLatch(2);
+		StartupPhases.Phase phase = new StartupPhases.Phase() {
+			public void run() throws InterruptedException {
+				bothStarted.countDown();
+				assertTrue(bothStarted.await(10, TimeUnit.SECONDS));
+			}
+		};
+
+		StartupPhases phases = new StartupPhases(true);
+		try {
+			Future<Void> first = phases.start("first", phase);
+			Future<Void> second = phases.start("second", phase);
+			phases.await(first);
+			phases.await(second);
+		} finally {
+			phases.finish();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPhasesGetSessionOfStartingThread() throws Exception {
+		Session session = new SysSession("startup test");
+		SessionManager.setThreadLocalSession(session);
+		final AtomicReference<Session> phaseSession = new AtomicReference<Session>();
+		final AtomicReference<Thread> phaseThread = new AtomicReference<Thread>();
+		StartupPhases.Phase phase = new StartupPhases.Phase() {
+			public void run() {
+				phaseSession.set(SessionManager.getThreadLocalSession());
+				phaseThread.set(Thread.currentThread());
+			}
+		};
+
+		try {
+			StartupPhases phases = new StartupPhases(true);
+			phases.await(phases.start("parallel", phase));
+			phases.finish();
+			assertSame(session, phaseSession.get());
+			assertNotSame(Thread.currentThread(), phaseThread.get());
+
+			phases = new StartupPhases(false);
+			phases.await(phases.start("sequential", phase));
+			phases.finish();
+			assertSame(Thread.currentThread(), phaseThread.get());
+			assertSame(session, SessionManager.getThreadLocalSession());
+		} finally {
+			SessionManager.dropThreadLocalSession();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAwaitThrowsWhatPhaseThrew() {
+		StartupPhases phases = new StartupPhases(true);
+		try {
+			phases.await(phases.start("failing", new StartupPhases.Phase() {
+				public void run() throws IOException {
+					throw new IOException("broken");
+				}
+			}));
+			fail("exception expected");
+		} catch (Exception ex) {
+			assertTrue(ex instanceof IOException);
+			assertEquals("broken", ex.getMessage());
+		} finally {
+			phases.finish();
+		}
+	}
+
+}
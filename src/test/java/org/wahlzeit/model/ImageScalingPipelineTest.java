@@ -0,0 +1,112 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.tools.development.testing.LocalImagesServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ImageScalingPipeline.
+ */
+public class ImageScalingPipelineTest {
+
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalImagesServiceTestConfig());
+
+	@Before
+	public void setUp() {
+		helper.setUp();
+	}
+
+	@After
+	public void tearDown() {
+		helper.tearDown();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParentSizes() {
+		List<PhotoSize> all = Arrays.asList(PhotoSize.values());
+
+		assertNull(ImageScalingPipeline.getParentSize(PhotoSize.EXTRA_LARGE, all));
+		assertNull(ImageScalingPipeline.getParentSize(PhotoSize.LARGE, all));
+		assertEquals(PhotoSize.EXTRA_LARGE, ImageScalingPipeline.getParentSize(PhotoSize.MEDIUM, all));
+		assertEquals(PhotoSize.LARGE, ImageScalingPipeline.getParentSize(PhotoSize.SMALL, all));
+		assertEquals(PhotoSize.MEDIUM, ImageScalingPipeline.getParentSize(PhotoSize.EXTRA_SMALL, all));
+		assertEquals(PhotoSize.EXTRA_SMALL, ImageScalingPipeline.getParentSize(PhotoSize.THUMB, all));
+
+		List<PhotoSize> upToMedium = Arrays.asList(PhotoSize.THUMB, PhotoSize.EXTRA_SMALL, PhotoSize.SMALL,
+				PhotoSize.MEDIUM);
+		assertNull(ImageScalingPipeline.getParentSize(PhotoSize.SMALL, upToMedium));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEagerSizes() {
+		assertEquals(Arrays.asList(PhotoSize.THUMB, PhotoSize.MEDIUM, PhotoSize.EXTRA_LARGE),
+				ImageScalingPipeline.getEagerSizes(2000, 1500));
+		assertEquals(Arrays.asList(PhotoSize.THUMB, PhotoSize.MEDIUM, PhotoSize.LARGE),
+				ImageScalingPipeline.getEagerSizes(700, 1000));
+		assertEquals(Arrays.asList(PhotoSize.THUMB, PhotoSize.SMALL),
+				ImageScalingPipeline.getEagerSizes(300, 400));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScaleCreatesEagerSizes() throws Exception {
+		Image source = ImagesServiceFactory.makeImage(createJpeg(700, 1000));
+		Photo photo = new Photo(PhotoId.getNextId());
+		photo.setWidthAndHeight(700, 1000);
+
+		ImageScalingPipeline pipeline = new ImageScalingPipeline(2, 4);
+		assertFalse(pipeline.isBoundToRequest());
+		Photo result = pipeline.scale(source, photo).get(30, TimeUnit.SECONDS);
+
+		assertFalse(pipeline.hasPendingScaling(photo.getId()));
+		List<PhotoSize> eagerSizes = ImageScalingPipeline.getEagerSizes(700, 1000);
+		for (PhotoSize size : PhotoSize.values()) {
+			Image image = result.getImage(size);
+			if (!eagerSizes.contains(size)) {
+				assertNull(image);
+			} else {
+				assertNotNull(image);
+				assertTrue(image.getWidth() <= size.getMaxPhotoWidth());
+				assertTrue(image.getHeight() <= size.getMaxPhotoHeight());
+			}
+		}
+		assertEquals(700, source.getWidth());
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] createJpeg(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		return out.toByteArray();
+	}
+
+}
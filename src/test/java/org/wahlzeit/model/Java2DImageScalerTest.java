@@ -0,0 +1,101 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the Java2DImageScaler.
+ */
+public class Java2DImageScalerTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScaleToAllSizes() throws Exception {
+		Image source = ImagesServiceFactory.makeImage(createImage(1000, 1400, "jpg"));
+		Java2DImageScaler scaler = new Java2DImageScaler();
+
+		for (PhotoSize size : PhotoSize.values()) {
+			Image scaled = scaler.scale(ImagesServiceFactory.makeImage(source.getImageData()), size);
+			BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(scaled.getImageData()));
+
+			assertNotNull(decoded);
+			assertEquals(size.calcAdjustedWidth(1000, 1400), decoded.getWidth());
+			assertEquals(size.calcAdjustedHeight(1000, 1400), decoded.getHeight());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHalveAveragesBlocks() {
+		BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, 0x000000);
+		image.setRGB(1, 0, 0xffffff);
+		image.setRGB(0, 1, 0x000000);
+		image.setRGB(1, 1, 0xffffff);
+
+		BufferedImage halved = new Java2DImageScaler().halve(image);
+
+		assertEquals(1, halved.getWidth());
+		assertEquals(0x808080, halved.getRGB(0, 0) & 0xffffff);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testJpegQualityAffectsSize() throws Exception {
+		Image source = ImagesServiceFactory.makeImage(createImage(840, 1200, "jpg"));
+
+		Image low = new Java2DImageScaler(0.3f).scale(ImagesServiceFactory.makeImage(source.getImageData()),
+				PhotoSize.MEDIUM);
+		Image high = new Java2DImageScaler(0.95f).scale(ImagesServiceFactory.makeImage(source.getImageData()),
+				PhotoSize.MEDIUM);
+
+		assertTrue(low.getImageData().length < high.getImageData().length);
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidJpegQuality() {
+		new Java2DImageScaler(1.5f);
+	}
+
+	/**
+	 * Creates an image with a gradient, so that compression has something to work on.
+	 */
+	protected byte[] createImage(int width, int height, String format) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		for (int y = 0; y < height; y += 10) {
+			g.setColor(new Color((y * 7) % 256, (y * 3) % 256, (y * 11) % 256));
+			g.fillRect(0, y, width, 10);
+		}
+		g.setColor(Color.WHITE);
+		g.drawLine(0, 0, width, height);
+		g.dispose();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,237 @@
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.MemoryImageCache;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.invalidation.Invalidation;
+import org.wahlzeit.services.invalidation.LocalInvalidationBus;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ModelInvalidator, with a LocalInvalidationBus peer standing in for another instance.
+ */
+public class ModelInvalidatorTest {
+
+	@Rule
+	public TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	protected Closeable ofy;
+	protected LocalInvalidationBus otherInstance;
+	protected ModelInvalidator invalidator;
+	protected Photo photo;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws Exception {
+		ofy = ObjectifyService.begin();
+		ImageStorage.setInstance(new MemoryImageCache(1024 * 1024));
+		PhotoFactory.initialize();
+		clearModel();
+
+		LocalInvalidationBus bus = new LocalInvalidationBus(8);
+		otherInstance = bus.createPeer();
+		invalidator = new ModelInvalidator(bus);
+		ModelInvalidator.setInstance(invalidator);
+
+		User user = new User("invalidationuser", "invalidationuser", "invalidationuser@example.com");
+		photo = new Photo();
+		photo.setOwnerId(user.getId());
+		PhotoManager.getInstance().addPhoto(photo);
+		PhotoManager.getInstance().savePhoto(photo);
+		ModelSnapshot.setModelTime(System.currentTimeMillis());
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		clearModel();
+		ModelSnapshot.setModelTime(0);
+		ModelInvalidator.setInstance(null);
+		ofy.close();
+	}
+
+	/**
+	 *
+	 */
+	protected void clearModel() {
+		PhotoManager.getInstance().getPhotoCache().clear();
+		UserManager.getInstance().idClientMap.clear();
+		UserManager.getInstance().listOfUsedNicknames.clear();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes a new version of the photo, as another instance would at the given time, and returns it.
+	 */
+	protected Photo writePhotoElsewhere(int praise, long time) {
+		OfyService.ofy().clear();
+		Photo otherPhoto = OfyService.ofy().load().key(Key.create(photo)).now();
+		assertNotSame(photo, otherPhoto);
+		otherPhoto.addToPraise(praise);
+		otherPhoto.setModifiedOn(time);
+		otherPhoto.incVersion();
+		OfyService.ofy().save().entity(otherPhoto).now();
+		return otherPhoto;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected Photo writePhotoElsewhere(int praise) {
+		return writePhotoElsewhere(praise, System.currentTimeMillis());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void publishElsewhere(Photo otherPhoto) {
+		otherInstance.publish(new Invalidation(ModelInvalidator.PHOTO, otherPhoto.getIdAsString(),
+				Key.create(otherPhoto).getString(), otherPhoto.getVersion()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOwnWritesAreNotReceived() {
+		assertTrue(otherInstance.receive().size() > 0);
+		assertTrue(invalidator.getBus().receive().isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNewerPhotoIsRead() {
+		Photo otherPhoto = writePhotoElsewhere(5);
+		publishElsewhere(otherPhoto);
+
+		invalidator.receive();
+		assertSame(photo, PhotoManager.getInstance().getPhotoCache().get(photo.getId()));
+		assertEquals(otherPhoto.getPraise(), photo.getPraise(), 0.0);
+		assertEquals(otherPhoto.getVersion(), photo.getSavedVersion());
+		assertFalse(photo.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNewerPhotoIsReadFromSlowerClock() {
+		Photo otherPhoto = writePhotoElsewhere(5, photo.getModifiedOn() - 60000);
+		publishElsewhere(otherPhoto);
+
+		invalidator.receive();
+		assertEquals(otherPhoto.getPraise(), photo.getPraise(), 0.0);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnsavedPraiseIsKeptWhenNewerPhotoIsRead() {
+		photo.addToPraise(2);
+		Photo otherPhoto = writePhotoElsewhere(5);
+		publishElsewhere(otherPhoto);
+
+		invalidator.receive();
+		assertSame(photo, PhotoManager.getInstance().getPhotoCache().get(photo.getId()));
+		assertEquals(otherPhoto.praiseSum + 2, photo.praiseSum);
+		assertEquals(otherPhoto.noVotes + 1, photo.noVotes);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOlderPhotoIsNotRead() {
+		photo.addToPraise(2);
+		PhotoManager.getInstance().savePhoto(photo);
+		OfyService.ofy().clear();
+		Photo olderPhoto = OfyService.ofy().load().key(Key.create(photo)).now();
+		olderPhoto.addToPraise(5);
+		olderPhoto.version = 1;
+		olderPhoto.setModifiedOn(photo.getModifiedOn() + 60000);
+		OfyService.ofy().save().entity(olderPhoto).now();
+		publishElsewhere(olderPhoto);
+
+		invalidator.receive();
+		assertEquals(12, photo.praiseSum);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNewUserIsAdded() {
+		User otherUser = new User("elsewhere", "elsewhere", "elsewhere@example.com");
+		UserManager.getInstance().idClientMap.remove(otherUser.getId());
+		otherInstance.publish(new Invalidation(ModelInvalidator.USER, otherUser.getId(),
+				Key.create(otherUser).getString(), otherUser.getVersion()));
+
+		invalidator.receive();
+		assertNotNull(UserManager.getInstance().getUserById(otherUser.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNewerUserIsReadFromSlowerClock() {
+		User user = UserManager.getInstance().getUserById(photo.getOwnerId());
+		OfyService.ofy().clear();
+		User otherUser = OfyService.ofy().load().key(Key.create(user)).now();
+		assertNotSame(user, otherUser);
+		otherUser.setNotifyAboutPraise(false);
+		otherUser.incVersion();
+		otherUser.setModifiedOn(user.getModifiedOn() - 60000);
+		OfyService.ofy().save().entity(otherUser).now();
+		otherInstance.publish(new Invalidation(ModelInvalidator.USER, otherUser.getId(),
+				Key.create(otherUser).getString(), otherUser.getVersion()));
+
+		invalidator.receive();
+		assertFalse(UserManager.getInstance().getUserById(user.getId()).getNotifyAboutPraise());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLostInvalidationsAreCaughtUpOn() {
+		Photo otherPhoto = writePhotoElsewhere(3);
+		for (int i = 0; i < 10; i++) {
+			otherInstance.publish(new Invalidation(ModelInvalidator.PHOTO, "unknown", "unknown", 0L));
+		}
+
+		long receiveTime = System.currentTimeMillis();
+		invalidator.receive();
+		Photo cached = PhotoManager.getInstance().getPhotoCache().get(photo.getId());
+		assertEquals(otherPhoto.getPraise(), cached.getPraise(), 0.0);
+		assertTrue(ModelSnapshot.getModelTime() >= receiveTime);
+	}
+
+}
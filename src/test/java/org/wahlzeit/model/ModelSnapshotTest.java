@@ -0,0 +1,193 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.MemoryImageCache;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ModelSnapshot.
+ */
+public class ModelSnapshotTest {
+
+	@Rule
+	public TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected Closeable ofy;
+	protected ModelSnapshot snapshot;
+	protected User user;
+	protected Photo photo;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws Exception {
+		ofy = ObjectifyService.begin();
+		ImageStorage.setInstance(new MemoryImageCache(1024 * 1024));
+		PhotoFactory.initialize();
+		clearModel();
+
+		user = new User("snapshotuser", "snapshotuser", "snapshotuser@example.com");
+		photo = new Photo();
+		photo.setOwnerId(user.getId());
+		photo.addToPraise(7);
+		PhotoManager.getInstance().addPhoto(photo);
+		PhotoManager.getInstance().savePhoto(photo);
+
+		snapshot = new ModelSnapshot(new File(folder.getRoot(), "model.snapshot"));
+		ModelSnapshot.setModelTime(System.currentTimeMillis());
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		clearModel();
+		ModelSnapshot.setModelTime(0);
+		ofy.close();
+	}
+
+	/**
+	 *
+	 */
+	protected void clearModel() {
+		PhotoManager.getInstance().getPhotoCache().clear();
+		UserManager.getInstance().idClientMap.clear();
+		UserManager.getInstance().listOfUsedNicknames.clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRestoreReadsWrittenPhotosAndUsers() throws Exception {
+		snapshot.write();
+		clearModel();
+
+		assertTrue(snapshot.restore());
+		Photo restoredPhoto = PhotoManager.getInstance().getPhotoCache().get(photo.getId());
+		assertNotNull(restoredPhoto);
+		assertEquals(user.getId(), restoredPhoto.getOwnerId());
+		assertEquals(photo.getPraise(), restoredPhoto.getPraise(), 0.0);
+		assertFalse(restoredPhoto.isDirty());
+		assertNotNull(UserManager.getInstance().getUserById(user.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRestoreDoesNotReadImages() throws Exception {
+		final AtomicInteger noImageStorageCalls = new AtomicInteger();
+		ImageStorage.setInstance(new MemoryImageCache(1024 * 1024) {
+			@Override
+			protected synchronized Image doReadImage(String photoIdAsString, int size) throws IOException {
+				noImageStorageCalls.incrementAndGet();
+				return super.doReadImage(photoIdAsString, size);
+			}
+
+			@Override
+			protected synchronized boolean doDoesImageExist(String photoIdAsString, int size) {
+				noImageStorageCalls.incrementAndGet();
+				return super.doDoesImageExist(photoIdAsString, size);
+			}
+		});
+		snapshot.write();
+		clearModel();
+
+		assertTrue(snapshot.restore());
+		assertNotNull(PhotoManager.getInstance().getPhotoCache().get(photo.getId()));
+		assertEquals(0, noImageStorageCalls.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRestoreCatchesUpOnWritesAfterSnapshot() throws Exception {
+		snapshot.write();
+		photo.addToPraise(3);
+		PhotoManager.getInstance().savePhoto(photo);
+		double praise = photo.getPraise();
+		User newUser = new User("latecomer", "latecomer", "latecomer@example.com");
+		clearModel();
+
+		assertTrue(snapshot.restore());
+		assertEquals(praise, PhotoManager.getInstance().getPhotoCache().get(photo.getId()).getPraise(), 0.0);
+		assertNotNull(UserManager.getInstance().getUserById(newUser.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCorruptSnapshotIsNotRestored() throws Exception {
+		snapshot.write();
+		RandomAccessFile file = new RandomAccessFile(snapshot.getFile(), "rw");
+		try {
+			file.seek(file.length() - 1);
+			int lastByte = file.read();
+			file.seek(file.length() - 1);
+			file.write(lastByte ^ 0xFF);
+		} finally {
+			file.close();
+		}
+		clearModel();
+
+		assertFalse(snapshot.restore());
+		assertTrue(PhotoManager.getInstance().getPhotoCache().isEmpty());
+		assertNull(UserManager.getInstance().getUserById(user.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOldSnapshotIsNotRestored() throws Exception {
+		ModelSnapshot.setModelTime(System.currentTimeMillis() -
+				TimeUnit.HOURS.toMillis(ModelSnapshot.DEFAULT_MAX_AGE_HOURS + 1));
+		snapshot.write();
+		clearModel();
+
+		assertFalse(snapshot.restore());
+		assertTrue(PhotoManager.getInstance().getPhotoCache().isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMissingSnapshotIsNotRestored() {
+		assertFalse(snapshot.restore());
+	}
+
+}
@@ -0,0 +1,281 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.MemoryImageCache;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoManager: storing scaled images, and compare-and-set saves with copies of a photo standing in
+ * for instances.
+ */
+public class PhotoManagerTest {
+
+	@Rule
+	public TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	protected Closeable ofy;
+	protected Photo photo;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws Exception {
+		ofy = ObjectifyService.begin();
+		ImageStorage.setInstance(new MemoryImageCache(1024 * 1024));
+		PhotoFactory.initialize();
+		clearModel();
+
+		User user = new User("versionuser", "versionuser", "versionuser@example.com");
+		photo = new Photo();
+		photo.setOwnerId(user.getId());
+		PhotoManager.getInstance().addPhoto(photo);
+		PhotoManager.getInstance().savePhoto(photo);
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		clearModel();
+		ofy.close();
+	}
+
+	/**
+	 *
+	 */
+	protected void clearModel() {
+		PhotoManager.getInstance().getPhotoCache().clear();
+		UserManager.getInstance().idClientMap.clear();
+		UserManager.getInstance().listOfUsedNicknames.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Reads the photo as another instance would.
+	 */
+	protected Photo readPhoto() {
+		OfyService.ofy().clear();
+		Photo result = OfyService.ofy().load().key(Key.create(photo)).now();
+		assertNotSame(photo, result);
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected Image createImage(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		return ImagesServiceFactory.makeImage(out.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallerSizeIsStoredForOversizedImages() throws Exception {
+		final int maxWidth = PhotoSize.SMALL.getMaxPhotoWidth();
+		ImageStorage imageStorage = new MemoryImageCache(1024 * 1024) {
+			@Override
+			protected synchronized void doWriteImage(Serializable image, String photoIdAsString, int size)
+					throws IOException {
+				if (((Image) image).getWidth() > maxWidth) {
+					throw new IOException("image too large");
+				}
+				super.doWriteImage(image, photoIdAsString, size);
+			}
+		};
+		ImageStorage.setInstance(imageStorage);
+		Photo largePhoto = new Photo();
+		largePhoto.setWidthAndHeight(630, 900);
+		largePhoto.setImage(PhotoSize.LARGE, createImage(630, 900));
+		largePhoto.setImage(PhotoSize.MEDIUM, createImage(420, 600));
+		largePhoto.setImage(PhotoSize.THUMB, createImage(105, 150));
+
+		PhotoManager.getInstance().saveScaledImages(largePhoto);
+
+		String id = largePhoto.getId().asString();
+		assertFalse(imageStorage.doesImageExist(id, PhotoSize.LARGE.asInt()));
+		assertFalse(imageStorage.doesImageExist(id, PhotoSize.MEDIUM.asInt()));
+		assertTrue(imageStorage.doesImageExist(id, PhotoSize.SMALL.asInt()));
+		assertFalse(imageStorage.doesImageExist(id, PhotoSize.EXTRA_SMALL.asInt()));
+		assertTrue(imageStorage.doesImageExist(id, PhotoSize.THUMB.asInt()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadPhotosDoesNotReadImages() {
+		final AtomicInteger noImageStorageCalls = new AtomicInteger();
+		ImageStorage.setInstance(new MemoryImageCache(1024 * 1024) {
+			@Override
+			protected synchronized Image doReadImage(String photoIdAsString, int size) throws IOException {
+				noImageStorageCalls.incrementAndGet();
+				return super.doReadImage(photoIdAsString, size);
+			}
+
+			@Override
+			protected synchronized boolean doDoesImageExist(String photoIdAsString, int size) {
+				noImageStorageCalls.incrementAndGet();
+				return super.doDoesImageExist(photoIdAsString, size);
+			}
+		});
+		clearModel();
+
+		PhotoManager.getInstance().loadPhotos();
+		assertTrue(PhotoManager.getInstance().getPhotoCache().containsKey(photo.getId()));
+		assertEquals(0, noImageStorageCalls.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPhotoIsEntityGroupOfItsOwn() {
+		assertFalse(readPhoto().isInApplicationGroup());
+		assertNull(Key.create(photo).getParent());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPhotoInApplicationGroupIsMovedWhenSaved() {
+		Photo oldPhoto = new Photo();
+		oldPhoto.setOwnerId(photo.getOwnerId());
+		oldPhoto.setParent(ObjectManager.applicationRootKey);
+		OfyService.ofy().save().entity(oldPhoto).now();
+		Key<Photo> oldKey = Key.create(oldPhoto);
+		clearModel();
+		UserManager.getInstance().init();
+
+		PhotoManager.getInstance().loadPhotos();
+		Photo loaded = PhotoManager.getInstance().getPhotoCache().get(oldPhoto.getId());
+		assertTrue(loaded.isInApplicationGroup());
+		loaded.addToPraise(2);
+		PhotoManager.getInstance().savePhoto(loaded);
+
+		assertFalse(loaded.isInApplicationGroup());
+		OfyService.ofy().clear();
+		assertNull(OfyService.ofy().load().key(oldKey).now());
+		assertEquals(12, OfyService.ofy().load().key(Key.create(loaded)).now().praiseSum);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentVotesAreKept() {
+		Photo otherPhoto = readPhoto();
+		photo.addToPraise(5);
+		PhotoManager.getInstance().savePhoto(photo);
+		otherPhoto.addToPraise(3);
+		PhotoManager.getInstance().savePhoto(otherPhoto);
+
+		Photo stored = readPhoto();
+		assertEquals(18, stored.praiseSum);
+		assertEquals(3, stored.noVotes);
+		assertEquals(3, stored.getVersion());
+		assertEquals(stored.praiseSum, otherPhoto.praiseSum);
+
+		photo.addToPraise(1);
+		PhotoManager.getInstance().savePhoto(photo);
+		assertEquals(19, readPhoto().praiseSum);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testVoteGivenWhileSavingIsKept() {
+		photo.addToPraise(5);
+		photo.incVersion();
+		Photo.SavedState saved = new Photo.SavedState(photo);
+		OfyService.ofy().save().entity(photo).now();
+		photo.addToPraise(3);
+		photo.rememberSavedState(saved);
+
+		Photo otherPhoto = readPhoto();
+		otherPhoto.addToPraise(1);
+		PhotoManager.getInstance().savePhoto(otherPhoto);
+		PhotoManager.getInstance().savePhoto(photo);
+
+		Photo stored = readPhoto();
+		assertEquals(10 + 5 + 1 + 3, stored.praiseSum);
+		assertEquals(4, stored.noVotes);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentStatusChangeAndVoteAreKept() {
+		Photo otherPhoto = readPhoto();
+		photo.setStatus(PhotoStatus.FLAGGED);
+		PhotoManager.getInstance().savePhoto(photo);
+		otherPhoto.addToPraise(4);
+		PhotoManager.getInstance().savePhoto(otherPhoto);
+
+		Photo stored = readPhoto();
+		assertEquals(PhotoStatus.FLAGGED, stored.getStatus());
+		assertEquals(14, stored.praiseSum);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRetriedMergeKeepsVotesOnce() {
+		Photo firstStored = readPhoto();
+		firstStored.addToPraise(2);
+		firstStored.incVersion();
+		photo.addToPraise(5);
+
+		photo.mergeStored(firstStored);
+		Photo secondStored = readPhoto();
+		secondStored.praiseSum = firstStored.praiseSum + 1;
+		secondStored.noVotes = firstStored.noVotes + 1;
+		secondStored.version = firstStored.version + 1;
+		photo.mergeStored(secondStored);
+
+		assertEquals(10 + 2 + 1 + 5, photo.praiseSum);
+		assertEquals(4, photo.noVotes);
+		photo.incVersion();
+		assertEquals(secondStored.version + 1, photo.getVersion());
+	}
+
+}
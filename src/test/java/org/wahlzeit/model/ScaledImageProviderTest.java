@@ -0,0 +1,155 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.tools.development.testing.LocalImagesServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.MemoryImageCache;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ScaledImageProvider.
+ */
+public class ScaledImageProviderTest {
+
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalImagesServiceTestConfig());
+
+	private MemoryImageCache imageStorage;
+	private Photo photo;
+
+	@Before
+	public void setUp() throws IOException {
+		helper.setUp();
+		imageStorage = new MemoryImageCache(16 * 1024 * 1024);
+		ImageStorage.setInstance(imageStorage);
+
+		photo = new Photo(PhotoId.getNextId());
+		photo.setWidthAndHeight(840, 1200);
+		photo.setImage(PhotoSize.EXTRA_LARGE, ImagesServiceFactory.makeImage(createJpeg(840, 1200)));
+	}
+
+	@After
+	public void tearDown() {
+		helper.tearDown();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMissingSizeIsCreatedAndPersisted() throws Exception {
+		String photoIdAsString = photo.getIdAsString();
+		assertFalse(imageStorage.doesImageExist(photoIdAsString, PhotoSize.SMALL.asInt()));
+
+		Image image = ScaledImageProvider.getInstance().getImage(photo, PhotoSize.SMALL);
+
+		assertNotNull(image);
+		assertEquals(280, image.getWidth());
+		assertSame(image, photo.getImage(PhotoSize.SMALL));
+		assertTrue(imageStorage.doesImageExist(photoIdAsString, PhotoSize.SMALL.asInt()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStoredSizeIsLoaded() throws Exception {
+		Image stored = ImagesServiceFactory.makeImage(createJpeg(105, 150));
+		imageStorage.writeImage(stored, photo.getIdAsString(), PhotoSize.THUMB.asInt());
+
+		assertSame(stored, ScaledImageProvider.getInstance().getImage(photo, PhotoSize.THUMB));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnsatisfiableSizeIsNull() throws Exception {
+		Photo smallPhoto = new Photo(PhotoId.getNextId());
+		smallPhoto.setWidthAndHeight(300, 400);
+		smallPhoto.setImage(PhotoSize.SMALL, ImagesServiceFactory.makeImage(createJpeg(280, 400)));
+
+		assertNull(ScaledImageProvider.getInstance().getImage(smallPhoto, PhotoSize.MEDIUM));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentRequestsAreCollapsed() throws Exception {
+		final AtomicInteger noGenerations = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final ScaledImageProvider provider = new ScaledImageProvider() {
+			@Override
+			protected Image loadOrCreateImage(Photo photo, PhotoSize size) throws Exception {
+				noGenerations.incrementAndGet();
+				release.await(10, TimeUnit.SECONDS);
+				return super.loadOrCreateImage(photo, size);
+			}
+		};
+
+		final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Image>> results = new ArrayList<Future<Image>>();
+		for (int i = 0; i < 4; i++) {
+			results.add(executor.submit(new Callable<Image>() {
+				@Override
+				public Image call() throws Exception {
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+					return provider.getImage(photo, PhotoSize.EXTRA_SMALL);
+				}
+			}));
+		}
+
+		while (!provider.isGenerating(photo, PhotoSize.EXTRA_SMALL)) {
+			Thread.sleep(5);
+		}
+		Thread.sleep(100);
+		release.countDown();
+
+		Image first = results.get(0).get(30, TimeUnit.SECONDS);
+		for (Future<Image> result : results) {
+			assertSame(first, result.get(30, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+
+		assertEquals(1, noGenerations.get());
+		assertFalse(provider.isGenerating(photo, PhotoSize.EXTRA_SMALL));
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] createJpeg(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		return out.toByteArray();
+	}
+
+}
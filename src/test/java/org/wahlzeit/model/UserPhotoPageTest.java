@@ -0,0 +1,110 @@
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for paging through the photos of a user.
+ */
+public class UserPhotoPageTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	protected User user;
+	protected List<Photo> photos = new ArrayList<Photo>();
+	protected static AtomicInteger noUsers = new AtomicInteger();
+
+	/**
+	 * Photo i is i seconds old and has a praise of i % 4; photo 3 is deleted.
+	 */
+	@Before
+	public void setUp() {
+		user = ObjectifyService.run(new Work<User>() {
+			@Override
+			public User run() {
+				int userNo = noUsers.incrementAndGet();
+				User result = new User("pager" + userNo, "pager" + userNo, "pager" + userNo + "@wahlzeit.org");
+				for (int i = 0; i < 10; i++) {
+					Photo photo = new Photo(PhotoId.getNextId());
+					photo.creationTime = 1000000L - i * 1000L;
+					photo.praiseSum = (i % 4) * photo.noVotes;
+					result.addPhoto(photo);
+					photos.add(photo);
+				}
+				photos.get(3).setStatus(PhotoStatus.DELETED);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPagesOfNewestPhotos() {
+		List<Photo> seen = new ArrayList<Photo>();
+		PhotoCursor cursor = null;
+		for (int i = 0; i < 3; i++) {
+			List<Photo> page = user.getPhotoPage(PhotoSortOrder.NEWEST, cursor, 4);
+			seen.addAll(page);
+			if (page.size() < 4) {
+				break;
+			}
+			cursor = PhotoCursor.getFromString(PhotoSortOrder.NEWEST.asCursor(page.get(3)).asString());
+		}
+
+		assertEquals(9, seen.size());
+		int[] expected = {0, 1, 2, 4, 5, 6, 7, 8, 9};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(photos.get(expected[i]), seen.get(i));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMostPraisedPhotos() {
+		List<Photo> page = user.getPhotoPage(PhotoSortOrder.MOST_PRAISED, null, 3);
+		assertEquals(3, page.size());
+		// praise 3 for photos 3 (deleted) and 7, then praise 2 for photos 2 and 6
+		assertEquals(photos.get(7), page.get(0));
+		assertTrue(page.get(1).getPraise() == 2.0 && page.get(2).getPraise() == 2.0);
+
+		PhotoCursor cursor = PhotoSortOrder.MOST_PRAISED.asCursor(page.get(2));
+		List<Photo> next = user.getPhotoPage(PhotoSortOrder.MOST_PRAISED, cursor, 10);
+		assertEquals(6, next.size());
+		assertEquals(1.0, next.get(0).getPraise(), 0.0);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMalformedCursor() {
+		assertNull(PhotoCursor.getFromString("x1y"));
+		assertNull(PhotoCursor.getFromString("abc_x1y"));
+		assertEquals(PhotoSortOrder.NEWEST, PhotoSortOrder.getFromString("unknown"));
+	}
+
+}
@@ -0,0 +1,144 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link TieredImageStorage}, with the {@link DatastoreAdapter} as authoritative tier.
+ */
+public class TieredImageStorageTest extends AbstractAdapterTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	@Rule
+	public TemporaryFolder diskCacheFolder = new TemporaryFolder();
+
+	private DatastoreAdapter remoteStorage;
+	private MemoryImageCache memoryTier;
+	private DiskImageCache diskTier;
+
+
+	@Override
+	protected void storageDependentSetUp() {
+		remoteStorage = new DatastoreAdapter();
+
+		TieredImageStorage.Builder builder = new TieredImageStorage.Builder(remoteStorage);
+		builder.setMemoryCacheBytes(2 * 1024 * 1024);
+		builder.setDiskCacheDirName(diskCacheFolder.getRoot().getAbsolutePath());
+		builder.setDiskCacheBytes(8 * 1024 * 1024);
+		TieredImageStorage tieredImageStorage = builder.build();
+
+		memoryTier = (MemoryImageCache) tieredImageStorage.getTiers().get(0);
+		diskTier = (DiskImageCache) tieredImageStorage.getTiers().get(1);
+		imageStorage = tieredImageStorage;
+	}
+
+	@Test
+	public void testReadFillsFasterTiers() throws IOException {
+		remoteStorage.writeImage(smallTestImage, "remote", 1);
+		assertFalse(memoryTier.doesImageExist("remote", 1));
+		assertFalse(diskTier.doesImageExist("remote", 1));
+
+		assertNotNull(imageStorage.readImage("remote", 1));
+
+		assertTrue(memoryTier.doesImageExist("remote", 1));
+		assertTrue(diskTier.doesImageExist("remote", 1));
+	}
+
+	@Test
+	public void testReadCountsBytesOncePerStorage() throws IOException {
+		remoteStorage.writeImage(smallTestImage, "counted", 1);
+		long noTieredBytes = imageStorage.noReadBytes.getCount();
+		long noRemoteBytes = remoteStorage.noReadBytes.getCount();
+		long noMemoryBytes = memoryTier.noReadBytes.getCount();
+		long noMemoryReads = memoryTier.readTimes.getCount();
+
+		Image image = (Image) imageStorage.readImage("counted", 1);
+
+		long noBytes = image.getImageData().length;
+		assertEquals(noTieredBytes + noBytes, imageStorage.noReadBytes.getCount());
+		assertEquals(noRemoteBytes + noBytes, remoteStorage.noReadBytes.getCount());
+		assertEquals(noMemoryBytes, memoryTier.noReadBytes.getCount());
+		assertEquals(noMemoryReads + 1, memoryTier.readTimes.getCount());
+		assertEquals("image storage read memory", memoryTier.readTimes.getName());
+	}
+
+	@Test
+	public void testDiskTierServesAfterMemoryEviction() throws IOException {
+		imageStorage.writeImage(smallTestImage, "disk", 1);
+		for (int i = 0; i < 3; i++) {
+			imageStorage.writeImage(maxSizeTestImage, "large" + i, 1);
+		}
+
+		assertFalse(memoryTier.doesImageExist("disk", 1));
+		assertTrue(diskTier.doesImageExist("disk", 1));
+		assertNotNull(imageStorage.readImage("disk", 1));
+		assertTrue(memoryTier.doesImageExist("disk", 1));
+	}
+
+	@Test
+	public void testMemoryTierEvictsLeastRecentlyUsed() throws IOException {
+		MemoryImageCache cache = new MemoryImageCache(3 * 1024);
+		cache.writeImage(smallTestImage, "a", 1);
+		cache.writeImage(smallTestImage, "b", 1);
+		cache.writeImage(smallTestImage, "c", 1);
+		cache.readImage("a", 1);
+		cache.writeImage(smallTestImage, "d", 1);
+
+		assertTrue(cache.doesImageExist("a", 1));
+		assertFalse(cache.doesImageExist("b", 1));
+		assertEquals(3 * 1024, cache.getCurrentBytes());
+	}
+
+	@Test
+	public void testDiskTierEvictsAndReloadsIndex() throws IOException {
+		String dirName = diskCacheFolder.newFolder("lru").getAbsolutePath();
+		DiskImageCache cache = new DiskImageCache(dirName, 3 * 1024);
+		cache.writeImage(smallTestImage, "a", 1);
+		cache.writeImage(smallTestImage, "b", 1);
+		cache.writeImage(smallTestImage, "c", 1);
+		cache.readImage("a", 1);
+		cache.writeImage(smallTestImage, "d", 1);
+
+		assertTrue(cache.doesImageExist("a", 1));
+		assertFalse(cache.doesImageExist("b", 1));
+
+		DiskImageCache reloaded = new DiskImageCache(dirName, 3 * 1024);
+		assertEquals(3 * 1024, reloaded.getCurrentBytes());
+		Image image = (Image) reloaded.readImage("d", 1);
+		assertEquals(1024, image.getImageData().length);
+	}
+
+	@Test
+	public void testPrewarm() throws IOException {
+		Image thumb = ImagesServiceFactory.makeImage(new byte[512]);
+		remoteStorage.writeImage(thumb, "x1", PhotoSize.THUMB.asInt());
+		remoteStorage.writeImage(thumb, "x2", PhotoSize.THUMB.asInt());
+
+		((TieredImageStorage) imageStorage).prewarm(Arrays.asList("x1", "x2", "x3"), PhotoSize.THUMB);
+
+		assertTrue(memoryTier.doesImageExist("x1", PhotoSize.THUMB.asInt()));
+		assertTrue(memoryTier.doesImageExist("x2", PhotoSize.THUMB.asInt()));
+		assertFalse(memoryTier.doesImageExist("x3", PhotoSize.THUMB.asInt()));
+	}
+}
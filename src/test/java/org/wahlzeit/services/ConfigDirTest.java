@@ -0,0 +1,106 @@
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ConfigDir and the ConfigDirWatcher.
+ */
+public class ConfigDirTest {
+
+	/**
+	 *
+	 */
+	@Rule
+	public TemporaryFolder rootDir = new TemporaryFolder();
+
+	/**
+	 *
+	 */
+	protected ConfigDir configDir;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws IOException {
+		rootDir.newFolder("static", "default", "en");
+		rootDir.newFolder("static", "custom");
+		rootDir.newFile("static/default/wahlzeit.css");
+		rootDir.newFile("static/default/en/heading.png");
+		rootDir.newFile("static/custom/logo.png");
+		configDir = new ConfigDir(rootDir.getRoot().getPath(), "static");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResolveFileNames() {
+		assertEquals("static" + File.separator + "default" + File.separator + "wahlzeit.css",
+				configDir.getRelativeConfigFileName("wahlzeit.css"));
+		assertEquals("static" + File.separator + "custom" + File.separator + "logo.png",
+				configDir.getRelativeConfigFileName("logo.png"));
+		assertTrue(configDir.hasDefaultFile("en" + File.separator + "heading.png"));
+		assertFalse(configDir.hasCustomFile("wahlzeit.css"));
+		assertTrue(configDir.hasCustomFile("logo.png"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangesAreSeenAfterRefresh() throws IOException {
+		configDir.getRelativeConfigFileName("logo.png");
+		rootDir.newFile("static/default/logo.png");
+
+		assertFalse(configDir.hasDefaultFile("logo.png"));
+		assertEquals("static" + File.separator + "custom" + File.separator + "logo.png",
+				configDir.getRelativeConfigFileName("logo.png"));
+
+		configDir.refresh();
+		assertTrue(configDir.hasDefaultFile("logo.png"));
+		assertEquals("static" + File.separator + "default" + File.separator + "logo.png",
+				configDir.getRelativeConfigFileName("logo.png"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWatcherRefreshes() throws Exception {
+		ConfigDirWatcher watcher = ConfigDirWatcher.startWatching(configDir);
+		assertNotNull(watcher);
+		try {
+			assertFalse(configDir.hasCustomFile("en" + File.separator + "heading.png"));
+			rootDir.newFolder("static", "custom", "en");
+			waitForCustomFile("en");
+			rootDir.newFile("static/custom/en/heading.png");
+			waitForCustomFile("en" + File.separator + "heading.png");
+		} finally {
+			watcher.stop();
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void waitForCustomFile(String shortFileName) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 30 * 1000;
+		while (!configDir.hasCustomFile(shortFileName) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(20);
+		}
+		assertTrue(configDir.hasCustomFile(shortFileName));
+	}
+
+}
@@ -12,9 +12,17 @@ import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.wahlzeit.services.LogBuilder.ACTION;
 import static org.wahlzeit.services.LogBuilder.CLIENT;
@@ -22,6 +30,7 @@ import static org.wahlzeit.services.LogBuilder.EXCEPTION_REASON;
 import static org.wahlzeit.services.LogBuilder.INFO_SEPARATOR;
 import static org.wahlzeit.services.LogBuilder.LEVEL;
 import static org.wahlzeit.services.LogBuilder.NAME_VALUE_SEPARATOR;
+import static org.wahlzeit.services.LogBuilder.REQUEST;
 import static org.wahlzeit.services.LogBuilder.SESSION;
 import static org.wahlzeit.services.LogBuilder.STACKTRACE;
 import static org.wahlzeit.services.LogBuilder.SYSTEM_LEVEL;
@@ -173,4 +182,134 @@ public class LogBuilderTest {
 		expectedLogMessage = expectedLogMessage + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR + null;
 		assertEquals(expectedLogMessage, logMessage);
 	}
+
+	@Test
+	public void testDisabledLevelBuildsNothing() {
+		Logger logger = createLogger(Level.INFO, new ArrayList<LogRecord>());
+		final boolean[] isAsked = {false};
+		LogBuilder logBuilder = LogBuilder.createSystemMessage(logger, Level.CONFIG).
+				addParameter("Yoda", 1337).
+				addLazyParameter("Jabba", new LogBuilder.LazyValue() {
+					public Object getValue() {
+						isAsked[0] = true;
+						return "the Hutt";
+					}
+				});
+		logBuilder.log();
+
+		assertSame(LogBuilder.DISABLED, logBuilder);
+		assertFalse(isAsked[0]);
+		assertEquals("", logBuilder.toString());
+	}
+
+	@Test
+	public void testLogToLogger() {
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		Logger logger = createLogger(Level.CONFIG, records);
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).
+				addLazyParameter("Jabba", new LogBuilder.LazyValue() {
+					public Object getValue() {
+						return "the Hutt";
+					}
+				}).log();
+		LogBuilder.createUserMessage(logger, Level.INFO).addAction("Build your own lightsaber").log();
+
+		assertEquals(2, records.size());
+		assertEquals(Level.CONFIG, records.get(0).getLevel());
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + "Jabba" + NAME_VALUE_SEPARATOR + "the Hutt",
+				records.get(0).getMessage());
+		assertEquals(getExpectedUserMessage() + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR +
+				"Build your own lightsaber", records.get(1).getMessage());
+	}
+
+	@Test
+	public void testBuilderIsReusedButNotShared() {
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		final Logger logger = createLogger(Level.CONFIG, records);
+		LogBuilder first = LogBuilder.createSystemMessage(logger, Level.CONFIG);
+		first.log();
+		LogBuilder outer = LogBuilder.createSystemMessage(logger, Level.CONFIG);
+		assertSame(first, outer);
+
+		// a message built while building another one gets its own builder
+		outer.addLazyParameter("Vader", new LogBuilder.LazyValue() {
+			public Object getValue() {
+				LogBuilder.createSystemMessage(logger, Level.CONFIG).addMessage("Luke").log();
+				return "father";
+			}
+		}).log();
+
+		assertEquals(3, records.size());
+		assertTrue(records.get(1).getMessage().endsWith(INFO_SEPARATOR + "Luke"));
+		assertTrue(records.get(2).getMessage().endsWith(INFO_SEPARATOR + "Vader" + NAME_VALUE_SEPARATOR + "father"));
+	}
+
+	@Test
+	public void testLogToEventBuffer() {
+		Logger logger = createLogger(Level.CONFIG, new ArrayList<LogRecord>());
+		LogEventBuffer buffer = new LogEventBuffer(4, LogEventBuffer.OverflowPolicy.DROP);
+		LogBuilder.setEventBuffer(buffer);
+		try {
+			LogBuilder.createSystemMessage(logger, Level.WARNING).
+					addAction("Use the force").
+					addException("because I can", new NullPointerException("sorry")).log();
+		} finally {
+			LogBuilder.setEventBuffer(null);
+		}
+
+		LogEvent event = buffer.take();
+		assertEquals(Level.WARNING, event.getLevel());
+		String json = event.asJsonLine();
+		assertTrue(json, json.contains(",\"" + LEVEL + "\":\"" + SYSTEM_LEVEL + "\","));
+		assertTrue(json, json.contains(",\"" + ACTION + "\":\"Use the force\","));
+		assertTrue(json, json.contains(",\"" + EXCEPTION_REASON + "\":\"because I can\","));
+		assertTrue(json, json.contains(",\"" + STACKTRACE + "\":\"java.lang.NullPointerException: sorry\\n"));
+	}
+
+	@Test
+	public void testRequestContext() {
+		RequestContext context = new RequestContext("r2d2", "session-c3po", "Luke");
+		RequestContext.setThreadLocalContext(context);
+		try {
+			String expectedPrefix = LEVEL + NAME_VALUE_SEPARATOR + SYSTEM_LEVEL + INFO_SEPARATOR +
+					SESSION + NAME_VALUE_SEPARATOR + "session-c3po" + INFO_SEPARATOR +
+					CLIENT + NAME_VALUE_SEPARATOR + "Luke" + INFO_SEPARATOR +
+					REQUEST + NAME_VALUE_SEPARATOR + "r2d2";
+			assertEquals(expectedPrefix, LogBuilder.createSystemMessage().toString());
+
+			RequestContext.setThreadLocalContext(context.withClientName("Leia"));
+			assertTrue(LogBuilder.createSystemMessage().toString().contains(CLIENT + NAME_VALUE_SEPARATOR + "Leia"));
+			assertEquals("r2d2", RequestContext.getThreadLocalRequestId());
+		} finally {
+			RequestContext.dropThreadLocalContext();
+		}
+
+		assertEquals(getExpectedSystemMessage(), LogBuilder.createSystemMessage().toString());
+		RequestContext generated = new RequestContext(null, null, null);
+		assertNotNull(generated.getRequestId());
+		assertFalse(generated.getRequestId().equals(new RequestContext(null, null, null).getRequestId()));
+	}
+
+	protected Logger createLogger(Level level, final List<LogRecord> records) {
+		Logger result = Logger.getAnonymousLogger();
+		result.setUseParentHandlers(false);
+		result.setLevel(level);
+		result.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+
+			@Override
+			public void flush() {
+				// do nothing
+			}
+
+			@Override
+			public void close() {
+				// do nothing
+			}
+		});
+		return result;
+	}
 }
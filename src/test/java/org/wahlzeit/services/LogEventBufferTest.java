@@ -0,0 +1,107 @@
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the LogEventBuffer and the JSON lines of LogEvents.
+ */
+public class LogEventBufferTest {
+
+	/**
+	 *
+	 */
+	protected static final Logger log = Logger.getLogger(LogEventBufferTest.class.getName());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDropWhenFull() {
+		LogEventBuffer buffer = new LogEventBuffer(2, LogEventBuffer.OverflowPolicy.DROP);
+		LogEvent first = createEvent("1");
+		assertTrue(buffer.put(first));
+		assertTrue(buffer.put(createEvent("2")));
+		assertFalse(buffer.put(createEvent("3")));
+
+		assertEquals(1, buffer.getNoDroppedEvents());
+		assertSame(first, buffer.take());
+		assertTrue(buffer.put(createEvent("4")));
+		assertEquals("2", buffer.take().getText());
+		assertEquals("4", buffer.take().getText());
+		assertNull(buffer.take());
+		assertEquals(3, buffer.getNoTakenEvents());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBlockingProducersLoseNothing() throws InterruptedException {
+		final LogEventBuffer buffer = new LogEventBuffer(4, LogEventBuffer.OverflowPolicy.BLOCK);
+		final int noThreads = 4;
+		final int noEvents = 1000;
+		Thread[] producers = new Thread[noThreads];
+		for (int i = 0; i < noThreads; i++) {
+			final int threadNo = i;
+			producers[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < noEvents; j++) {
+						buffer.put(createEvent(threadNo + "/" + j));
+					}
+				}
+			});
+			producers[i].start();
+		}
+
+		Set<String> texts = new HashSet<String>();
+		long timeout = System.currentTimeMillis() + 30 * 1000;
+		while (texts.size() < noThreads * noEvents && System.currentTimeMillis() < timeout) {
+			LogEvent event = buffer.take();
+			if (event != null) {
+				texts.add(event.getText());
+			}
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		assertEquals(noThreads * noEvents, texts.size());
+		assertEquals(0, buffer.getNoDroppedEvents());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testJsonLine() {
+		String text = "level=sl, message \"quoted\", action=save\nall, second";
+		int[] partStarts = {0, 10, 28, 45};
+		int[] valueStarts = {6, -1, 35, -1};
+		LogEvent event = new LogEvent(log, Level.INFO, text, partStarts, valueStarts, 2, null);
+
+		String json = event.asJsonLine();
+		assertTrue(json, json.startsWith("{\"time\":\""));
+		assertTrue(json, json.contains(",\"severity\":\"INFO\",\"logger\":\"" + log.getName() + "\""));
+		assertTrue(json, json.endsWith(",\"level\":\"sl\",\"action\":\"save\\nall\"," +
+				"\"message\":\"message \\\"quoted\\\", second\"}"));
+	}
+
+	/**
+	 *
+	 */
+	protected static LogEvent createEvent(String text) {
+		return new LogEvent(log, Level.INFO, text, new int[]{0}, new int[]{-1}, 2, null);
+	}
+
+}
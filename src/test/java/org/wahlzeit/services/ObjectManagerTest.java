@@ -0,0 +1,111 @@
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for reading entities in pages with the ObjectManager.
+ */
+public class ObjectManagerTest {
+
+	@Rule
+	public TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	protected final ObjectManager objectManager = new ObjectManager() {
+	};
+	protected Closeable ofy;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		ofy = ObjectifyService.begin();
+		System.setProperty(ObjectManager.PAGE_SIZE_PROPERTY, "5");
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		System.clearProperty(ObjectManager.PAGE_SIZE_PROPERTY);
+		ofy.close();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadsAllPages() {
+		saveTags(23);
+
+		final List<Integer> pageSizes = new ArrayList<Integer>();
+		final Set<String> texts = new HashSet<String>();
+		int noTags = objectManager.readObjectsInPages(Tag.class, new ObjectManager.PageHandler<Tag>() {
+			public void handlePage(List<Tag> page) {
+				pageSizes.add(page.size());
+				for (Tag tag : page) {
+					texts.add(tag.getText());
+				}
+			}
+		});
+
+		assertEquals(23, noTags);
+		assertEquals(Arrays.asList(5, 5, 5, 5, 3), pageSizes);
+		assertEquals(23, texts.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHandlesNoEmptyPage() {
+		saveTags(10);
+
+		final List<Integer> pageSizes = new ArrayList<Integer>();
+		int noTags = objectManager.readObjectsInPages(Tag.class, new ObjectManager.PageHandler<Tag>() {
+			public void handlePage(List<Tag> page) {
+				pageSizes.add(page.size());
+			}
+		});
+
+		assertEquals(10, noTags);
+		assertEquals(Arrays.asList(5, 5), pageSizes);
+	}
+
+	/**
+	 *
+	 */
+	protected void saveTags(int noTags) {
+		List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < noTags; i++) {
+			tags.add(new Tag("tag" + i, "x" + i));
+		}
+		OfyService.ofy().save().entities(tags).now();
+		OfyService.ofy().clear();
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.wahlzeit.services.invalidation;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the Invalidation, the LocalInvalidationBus and the MemcacheInvalidationBus.
+ */
+public class InvalidationBusTest {
+
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+	@Before
+	public void setUp() {
+		helper.setUp();
+	}
+
+	@After
+	public void tearDown() {
+		helper.tearDown();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMessageRoundTrip() {
+		Invalidation invalidation = new Invalidation("User", "a|b", "key", 42L);
+		String message = invalidation.asMessage("source");
+
+		Invalidation received = Invalidation.getFromMessage(message);
+		assertEquals("User", received.getKind());
+		assertEquals("a|b", received.getId());
+		assertEquals("key", received.getKey());
+		assertEquals(42L, received.getVersion());
+		assertEquals("source", Invalidation.getSourceFromMessage(message));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMessageOfOtherFormatIsIgnored() {
+		String message = new Invalidation("Photo", "x1abz", "key", 1L).asMessage("source");
+		String otherMessage = (Invalidation.FORMAT_VERSION + 1) + message.substring(message.indexOf('|'));
+
+		assertNull(Invalidation.getFromMessage(otherMessage));
+		assertNull(Invalidation.getSourceFromMessage(otherMessage));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLocalPeersReceiveOthersInvalidations() {
+		LocalInvalidationBus bus = new LocalInvalidationBus();
+		LocalInvalidationBus peer = bus.createPeer();
+		assertReceivesOthersInvalidations(bus, peer);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLocalPeerTooFarBehindHasLostInvalidations() {
+		LocalInvalidationBus bus = new LocalInvalidationBus(2);
+		LocalInvalidationBus peer = bus.createPeer();
+		for (int i = 1; i <= 3; i++) {
+			bus.publish(new Invalidation("Photo", "x" + i, "key", i));
+		}
+
+		assertNull(peer.receive());
+		bus.publish(new Invalidation("Photo", "x4", "key", 4L));
+		assertEquals("x4", peer.receive().get(0).getId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMemcachePeersReceiveOthersInvalidations() {
+		MemcacheInvalidationBus bus = new MemcacheInvalidationBus();
+		MemcacheInvalidationBus peer = new MemcacheInvalidationBus();
+		assertReceivesOthersInvalidations(bus, peer);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMemcacheBusWaitsForPendingInvalidation() {
+		MemcacheService memcache = MemcacheServiceFactory.getMemcacheService(MemcacheInvalidationBus.NAMESPACE);
+		MemcacheInvalidationBus bus = new MemcacheInvalidationBus(memcache);
+		MemcacheInvalidationBus peer = new MemcacheInvalidationBus(memcache);
+		bus.publish(new Invalidation("Photo", "x1", "key", 1L));
+		String key = MemcacheInvalidationBus.MESSAGE_KEY_PREFIX + 1;
+		Object message = memcache.get(key);
+		memcache.delete(key);
+
+		assertTrue(peer.receive().isEmpty());
+		memcache.put(key, message);
+		assertEquals("x1", peer.receive().get(0).getId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMemcacheBusHasLostInvalidationsWhenSequenceIsEvicted() {
+		MemcacheService memcache = MemcacheServiceFactory.getMemcacheService(MemcacheInvalidationBus.NAMESPACE);
+		MemcacheInvalidationBus bus = new MemcacheInvalidationBus(memcache);
+		MemcacheInvalidationBus peer = new MemcacheInvalidationBus(memcache);
+		bus.publish(new Invalidation("Photo", "x1", "key", 1L));
+		bus.publish(new Invalidation("Photo", "x2", "key", 2L));
+		assertEquals(2, peer.receive().size());
+
+		memcache.delete(MemcacheInvalidationBus.SEQUENCE_KEY);
+		bus.publish(new Invalidation("Photo", "x3", "key", 3L));
+		assertNull(peer.receive());
+		bus.publish(new Invalidation("Photo", "x4", "key", 4L));
+		assertEquals("x4", peer.receive().get(0).getId());
+	}
+
+	/**
+	 *
+	 */
+	protected void assertReceivesOthersInvalidations(InvalidationBus bus, InvalidationBus peer) {
+		bus.publish(new Invalidation("Photo", "x1", "key1", 1L));
+		peer.publish(new Invalidation("Photo", "x2", "key2", 2L));
+		bus.publish(new Invalidation("User", "jane", "key3", 3L));
+
+		List<Invalidation> received = peer.receive();
+		assertEquals(2, received.size());
+		assertEquals("x1", received.get(0).getId());
+		assertEquals("jane", received.get(1).getId());
+		assertTrue(peer.receive().isEmpty());
+
+		received = bus.receive();
+		assertEquals(1, received.size());
+		assertEquals("x2", received.get(0).getId());
+	}
+
+}
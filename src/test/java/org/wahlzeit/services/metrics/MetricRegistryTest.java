@@ -0,0 +1,97 @@
+package org.wahlzeit.services.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the Counter, the MetricRegistry and the PrometheusFormat.
+ */
+public class MetricRegistryTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNoStripes() {
+		assertEquals(1, Counter.getNoStripes(1));
+		assertEquals(4, Counter.getNoStripes(3));
+		assertEquals(8, Counter.getNoStripes(8));
+		assertEquals(Counter.MAX_STRIPES, Counter.getNoStripes(64));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentCountsAddUp() throws InterruptedException {
+		final Counter counter = new Counter("test");
+		final int noThreads = 8;
+		final int noIncrements = 10000;
+		Thread[] threads = new Thread[noThreads];
+		for (int i = 0; i < noThreads; i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < noIncrements; j++) {
+						counter.increment();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(noThreads * noIncrements, counter.getCount());
+		counter.add(5);
+		assertEquals(noThreads * noIncrements + 5, counter.getCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRegistryKeepsMetricsByName() {
+		MetricRegistry registry = new MetricRegistry();
+		assertSame(registry.getCounter("a"), registry.getCounter("a"));
+		registry.getCounter("b");
+		assertEquals("a", registry.getCounters().get(0).getName());
+		assertEquals("b", registry.getCounters().get(1).getName());
+		assertSame(registry.getHistogram("a"), registry.getHistogram("a"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrometheusFormat() {
+		MetricRegistry registry = new MetricRegistry();
+		registry.getCounter("emails sent").add(3);
+		registry.registerGauge("photo cache size", new Gauge() {
+			public long getValue() {
+				return 42;
+			}
+		});
+		registry.getHistogram("handler \"X\".handleGet").record(2000000);
+
+		StringWriter text = new StringWriter();
+		PrometheusFormat.writeOn(registry, new PrintWriter(text));
+		String result = text.toString();
+
+		assertTrue(result, result.contains("# TYPE wahlzeit_emails_sent_total counter\nwahlzeit_emails_sent_total 3\n"));
+		assertTrue(result, result.contains("# TYPE wahlzeit_photo_cache_size gauge\nwahlzeit_photo_cache_size 42\n"));
+		assertTrue(result, result.contains("# TYPE wahlzeit_duration_seconds summary\n"));
+		assertTrue(result, result.contains(
+				"wahlzeit_duration_seconds{name=\"handler \\\"X\\\".handleGet\",quantile=\"0.5\"} 0.002"));
+		assertTrue(result, result.contains(
+				"wahlzeit_duration_seconds_sum{name=\"handler \\\"X\\\".handleGet\"} 0.002000000\n"));
+		assertTrue(result, result.contains("wahlzeit_duration_seconds_count{name=\"handler \\\"X\\\".handleGet\"} 1\n"));
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.wahlzeit.services.metrics;
+
+import org.junit.Test;
+import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartTemplate;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the TimingHistogram and the MetricRegistry.
+ */
+public class TimingHistogramTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBucketsAreContiguous() {
+		long previousUpperBound = -1;
+		for (int i = 0; i < TimingHistogram.NO_BUCKETS - 1; i++) {
+			long upperBound = TimingHistogram.getBucketUpperBound(i);
+			assertEquals(i, TimingHistogram.getBucketIndex(previousUpperBound + 1));
+			assertEquals(i, TimingHistogram.getBucketIndex(upperBound));
+			previousUpperBound = upperBound;
+		}
+		assertEquals(TimingHistogram.NO_BUCKETS - 1, TimingHistogram.getBucketIndex(Long.MAX_VALUE));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPercentiles() {
+		TimingHistogram histogram = new TimingHistogram("test");
+		assertEquals(0, histogram.getNanosAtPercentile(50.0));
+
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMaxNanos());
+		assertEquals(500500, histogram.getMeanNanos());
+		assertWithinError(500000, histogram.getNanosAtPercentile(50.0));
+		assertWithinError(990000, histogram.getNanosAtPercentile(99.0));
+		assertEquals(1000000, histogram.getNanosAtPercentile(100.0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplateWriteIsTimed() throws IOException {
+		WebPartTemplate template = new WebPartTemplate("timingTest");
+		template.initialize("<p>{$content}</p>");
+		WebPart part = new WebPart(template);
+		part.addString("content", "x");
+		part.writeOn(new StringWriter());
+		part.writeOn(new StringWriter());
+
+		TimingHistogram histogram = MetricRegistry.getInstance().getHistogram("template timingTest");
+		assertSame(template.getWriteTimes(), histogram);
+		assertEquals(2, histogram.getCount());
+
+		List<TimingHistogram> histograms = MetricRegistry.getInstance().getHistograms();
+		assertTrue(histograms.contains(histogram));
+		for (int i = 1; i < histograms.size(); i++) {
+			assertTrue(histograms.get(i - 1).getTotalNanos() >= histograms.get(i).getTotalNanos());
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void assertWithinError(long expected, long actual) {
+		double error = Math.abs(actual - expected) / (double) expected;
+		assertTrue(actual + " is not close to " + expected, error <= 1.0 / TimingHistogram.SUB_BUCKETS);
+	}
+
+}
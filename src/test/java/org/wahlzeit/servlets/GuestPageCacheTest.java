@@ -0,0 +1,180 @@
+package org.wahlzeit.servlets;
+
+import org.junit.Test;
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.Language;
+import org.wahlzeit.services.metrics.Gauge;
+import org.wahlzeit.services.metrics.MetricRegistry;
+import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartTemplate;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for the GuestPageCache.
+ */
+public class GuestPageCacheTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testProcessingTimeIsFilledIn() throws IOException {
+		TestGuestPageCache cache = new TestGuestPageCache(EnumSet.allOf(GuestPageCache.KeyPart.class));
+		cache.put("key", "about", createPage("Über uns"));
+
+		GuestPageCache.CachedPage page = cache.get("key");
+		assertNotNull(page);
+		assertEquals("<p>Über uns</p><p>0.05</p>", write(page, "0.05"));
+		assertEquals("<p>Über uns</p><p>1.2</p>", write(page, "1.2"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompressedPage() throws IOException {
+		TestGuestPageCache cache = new TestGuestPageCache(EnumSet.allOf(GuestPageCache.KeyPart.class));
+		GuestPageCache.CachedPage page = cache.put("key", "about", createPage("Über uns, über alles"));
+		assertTrue(page.isCompressed());
+
+		for (ResponseCompression.ContentEncoding encoding : new ResponseCompression.ContentEncoding[] {
+				ResponseCompression.ContentEncoding.GZIP, ResponseCompression.ContentEncoding.DEFLATE}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			page.writeCompressedOn(out, "0.05", encoding);
+			String expected = "<p>Über uns, über alles</p><p>0.05</p>";
+			assertEquals(expected, ResponseCompressionTest.decompress(out.toByteArray(), encoding));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallPageIsNotCompressed() throws IOException {
+		TestGuestPageCache cache = new TestGuestPageCache(EnumSet.allOf(GuestPageCache.KeyPart.class));
+		assertFalse(cache.put("key", "about", createPage("")).isCompressed());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExpiry() throws IOException {
+		TestGuestPageCache cache = new TestGuestPageCache(EnumSet.allOf(GuestPageCache.KeyPart.class));
+		cache.put("key", "about", createPage("about"));
+
+		cache.time += 59 * 1000;
+		assertNotNull(cache.get("key"));
+		cache.time += 1000;
+		assertNull(cache.get("key"));
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidateLinkAndHitRate() throws IOException {
+		TestGuestPageCache cache = new TestGuestPageCache(EnumSet.allOf(GuestPageCache.KeyPart.class));
+		cache.put("photo-en", "x1y", createPage("photo"));
+		cache.put("photo-de", "x1y", createPage("Foto"));
+		cache.put("about", "about", createPage("about"));
+		long noHits = GuestPageCache.noHits.getCount();
+		long noMisses = GuestPageCache.noMisses.getCount();
+		long noInvalidations = GuestPageCache.noInvalidations.getCount();
+
+		cache.invalidateLink("x1y");
+
+		assertNull(cache.get("photo-en"));
+		assertNotNull(cache.get("about"));
+		assertEquals(noInvalidations + 2, GuestPageCache.noInvalidations.getCount());
+		assertEquals(noHits + 1, GuestPageCache.noHits.getCount());
+		assertEquals(noMisses + 1, GuestPageCache.noMisses.getCount());
+		assertHitRateGauge();
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertHitRateGauge() {
+		for (Map.Entry<String, Gauge> gauge : MetricRegistry.getInstance().getGauges()) {
+			if (gauge.getKey().equals("guest page cache hit rate percent")) {
+				assertEquals(Math.round(GuestPageCache.getHitRate() * 100), gauge.getValue().getValue());
+				return;
+			}
+		}
+		fail("no hit rate gauge");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeyParts() {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getRequestURL()).thenReturn(new StringBuffer("http://localhost:8080/about.html"));
+		Client client = mock(Client.class);
+		when(client.getLanguage()).thenReturn(Language.GERMAN);
+		when(client.getPhotoSize()).thenReturn(PhotoSize.LARGE);
+
+		GuestPageCache all = new TestGuestPageCache(GuestPageCache.parseKeyParts(null));
+		assertEquals("http://localhost:8080/about.html|de|4", all.createKey(request, client));
+
+		GuestPageCache urlOnly = new TestGuestPageCache(GuestPageCache.parseKeyParts("url, photoSize"));
+		assertEquals("http://localhost:8080/about.html||4", urlOnly.createKey(request, client));
+		assertFalse(urlOnly.keyParts.contains(GuestPageCache.KeyPart.LANGUAGE));
+	}
+
+	/**
+	 *
+	 */
+	protected WebPart createPage(String content) {
+		WebPartTemplate template = new WebPartTemplate("page");
+		template.initialize("<p>{$content}</p><p>{$processingTime}</p>");
+		WebPart result = new WebPart(template);
+		result.addString("content", content);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected String write(GuestPageCache.CachedPage page, String processingTime) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		page.writeOn(out, processingTime);
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	/**
+	 * Cache with a clock that tests can set.
+	 */
+	protected static class TestGuestPageCache extends GuestPageCache {
+
+		protected long time = 1000000;
+
+		protected TestGuestPageCache(EnumSet<KeyPart> keyParts) {
+			super(keyParts, 60 * 1000, 16, new ResponseCompression(new DeflaterPool(6, 2), 16));
+		}
+
+		@Override
+		protected long now() {
+			return time;
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.wahlzeit.servlets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.model.ImageUpload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test cases for the ImageUploadSpooler.
+ */
+public class ImageUploadSpoolerTest {
+
+	@Rule
+	public TemporaryFolder spoolFolder = new TemporaryFolder();
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSpoolToFile() throws IOException {
+		File spoolDir = spoolFolder.getRoot();
+		ImageUploadSpooler spooler = new ImageUploadSpooler(1024 * 1024, spoolDir);
+		byte[] data = createJpegData(200 * 1024);
+
+		ImageUpload upload = spooler.spool(new ByteArrayInputStream(data), "a.jpg", "image/jpeg");
+
+		assertTrue(upload.isSpooledToFile());
+		assertEquals(data.length, upload.getLength());
+		assertArrayEquals(data, readAll(upload.openStream()));
+		assertEquals(1, spoolDir.list().length);
+
+		upload.dispose();
+		assertEquals(0, spoolDir.list().length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSpoolToMemory() throws IOException {
+		ImageUploadSpooler spooler = new ImageUploadSpooler(1024 * 1024, null);
+		byte[] data = createJpegData(100 * 1024);
+
+		ImageUpload upload = spooler.spool(new ByteArrayInputStream(data), "a.jpg", "image/jpeg; charset=binary");
+
+		assertFalse(upload.isSpooledToFile());
+		assertArrayEquals(data, readAll(upload.openStream()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRejectsContentType() throws IOException {
+		ImageUploadSpooler spooler = new ImageUploadSpooler(1024 * 1024, spoolFolder.getRoot());
+		assertRejected(spooler, createJpegData(1024), "text/html");
+		assertRejected(spooler, createJpegData(1024), null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRejectsMagicBytes() throws IOException {
+		ImageUploadSpooler spooler = new ImageUploadSpooler(1024 * 1024, spoolFolder.getRoot());
+		assertRejected(spooler, "<html><body></body></html>".getBytes("UTF-8"), "image/jpeg");
+		assertRejected(spooler, new byte[] {(byte) 0xFF}, "image/jpeg");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRejectsTooLargeAndRemovesSpoolFile() throws IOException {
+		File spoolDir = spoolFolder.getRoot();
+		ImageUploadSpooler spooler = new ImageUploadSpooler(256 * 1024, spoolDir);
+
+		assertRejected(spooler, createJpegData(256 * 1024 + 1), "image/jpeg");
+		assertEquals(0, spoolDir.list().length);
+	}
+
+	/**
+	 *
+	 */
+	protected void assertRejected(ImageUploadSpooler spooler, byte[] data, String contentType) throws IOException {
+		try {
+			spooler.spool(new ByteArrayInputStream(data), "a.jpg", contentType);
+			fail("upload should have been rejected");
+		} catch (UploadRejectedException expected) {
+			// expected
+		}
+	}
+
+	/**
+	 * Creates data with a JPEG header; the spooler only checks the magic bytes.
+	 */
+	protected byte[] createJpegData(int length) {
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte) i;
+		}
+		result[0] = (byte) 0xFF;
+		result[1] = (byte) 0xD8;
+		result[2] = (byte) 0xFF;
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] readAll(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int bytesRead = input.read(buffer);
+			while (bytesRead != -1) {
+				result.write(buffer, 0, bytesRead);
+				bytesRead = input.read(buffer);
+			}
+			return result.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+}
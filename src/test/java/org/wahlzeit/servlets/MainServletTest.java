@@ -0,0 +1,121 @@
+package org.wahlzeit.servlets;
+
+import org.junit.Test;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for the multipart uploads of the MainServlet.
+ */
+public class MainServletTest {
+
+	protected static final String BOUNDARY = "----wahlzeitboundary";
+	protected static final int MAX_UPLOAD_BYTES = 1024;
+
+	/**
+	 *
+	 */
+	protected final MainServlet servlet = new MainServlet() {
+		@Override
+		protected synchronized ImageUploadSpooler getUploadSpooler() {
+			return new ImageUploadSpooler(MAX_UPLOAD_BYTES, null);
+		}
+	};
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUploadOverRequestLimitIsRejected() throws Exception {
+		int fileLength = MAX_UPLOAD_BYTES + (int) MainServlet.MAX_FORM_FIELDS_BYTES + 1024;
+		HttpServletRequest request = createRequest(createBody(fileLength), false);
+
+		Map args = servlet.getMultiPartRequestArgs(request, null);
+		assertFalse(args.containsKey("fileName"));
+		assertEquals("flowers", args.get("tags"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUploadOverRequestLimitOfKnownLengthIsRejected() throws Exception {
+		int fileLength = MAX_UPLOAD_BYTES + (int) MainServlet.MAX_FORM_FIELDS_BYTES + 1024;
+		HttpServletRequest request = createRequest(createBody(fileLength), true);
+
+		Map args = servlet.getMultiPartRequestArgs(request, null);
+		assertFalse(args.containsKey("fileName"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUploadOverFileLimitIsRejected() throws Exception {
+		HttpServletRequest request = createRequest(createBody(4 * MAX_UPLOAD_BYTES), false);
+
+		Map args = servlet.getMultiPartRequestArgs(request, null);
+		assertFalse(args.containsKey("fileName"));
+		assertEquals("flowers", args.get("tags"));
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates a request that streams the body, with or without telling its length up front.
+	 */
+	protected HttpServletRequest createRequest(byte[] body, boolean isLengthKnown) throws IOException {
+		final ByteArrayInputStream input = new ByteArrayInputStream(body);
+		HttpServletRequest result = mock(HttpServletRequest.class);
+		when(result.getMethod()).thenReturn("POST");
+		when(result.getContentType()).thenReturn("multipart/form-data; boundary=" + BOUNDARY);
+		when(result.getContentLength()).thenReturn(isLengthKnown ? body.length : -1);
+		when(result.getParameterMap()).thenReturn(new HashMap<String, String>());
+		when(result.getInputStream()).thenReturn(new ServletInputStream() {
+			@Override
+			public int read() {
+				return input.read();
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) {
+				return input.read(buffer, offset, length);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates a body with a tags field and a JPEG file of the given length.
+	 */
+	protected byte[] createBody(int fileLength) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		result.write(("--" + BOUNDARY + "\r\n" +
+				"Content-Disposition: form-data; name=\"tags\"\r\n\r\n" +
+				"flowers\r\n" +
+				"--" + BOUNDARY + "\r\n" +
+				"Content-Disposition: form-data; name=\"file\"; filename=\"a.jpg\"\r\n" +
+				"Content-Type: image/jpeg\r\n\r\n").getBytes("UTF-8"));
+		byte[] file = new byte[fileLength];
+		file[0] = (byte) 0xFF;
+		file[1] = (byte) 0xD8;
+		file[2] = (byte) 0xFF;
+		result.write(file);
+		result.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes("UTF-8"));
+		return result.toByteArray();
+	}
+
+}
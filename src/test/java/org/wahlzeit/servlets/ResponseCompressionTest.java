@@ -0,0 +1,165 @@
+package org.wahlzeit.servlets;
+
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for ResponseCompression, the CompressingOutputStream and the DeflaterPool.
+ */
+public class ResponseCompressionTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNegotiate() {
+		assertEquals(ResponseCompression.ContentEncoding.IDENTITY, ResponseCompression.negotiate(null));
+		assertEquals(ResponseCompression.ContentEncoding.IDENTITY, ResponseCompression.negotiate("br"));
+		assertEquals(ResponseCompression.ContentEncoding.GZIP, ResponseCompression.negotiate("gzip, deflate, br"));
+		assertEquals(ResponseCompression.ContentEncoding.GZIP, ResponseCompression.negotiate("deflate, GZIP"));
+		assertEquals(ResponseCompression.ContentEncoding.DEFLATE, ResponseCompression.negotiate("deflate"));
+		assertEquals(ResponseCompression.ContentEncoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0.5, deflate"));
+		assertEquals(ResponseCompression.ContentEncoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0, *"));
+		assertEquals(ResponseCompression.ContentEncoding.IDENTITY, ResponseCompression.negotiate("gzip;q=0"));
+		assertEquals(ResponseCompression.ContentEncoding.GZIP, ResponseCompression.negotiate("*;q=0.1"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargeResponseIsCompressed() throws IOException {
+		for (ResponseCompression.ContentEncoding encoding : new ResponseCompression.ContentEncoding[] {
+				ResponseCompression.ContentEncoding.GZIP, ResponseCompression.ContentEncoding.DEFLATE}) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			HttpServletResponse response = createResponse(bytes);
+			ResponseCompression compression = new ResponseCompression(new DeflaterPool(6, 1), 64);
+
+			String page = createText(100000);
+			OutputStream out = compression.openStream(createRequest(encoding.asString()), response);
+			out.write(page.substring(0, 10).getBytes("UTF-8"));
+			out.write(page.substring(10).getBytes("UTF-8"));
+			out.close();
+
+			verify(response).setHeader("Content-Encoding", encoding.asString());
+			verify(response).addHeader("Vary", "Accept-Encoding");
+			assertEquals(page, decompress(bytes.toByteArray(), encoding));
+			assertEquals(1, compression.getDeflaterPool().getAvailableDeflaters());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallResponseIsNotCompressed() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(bytes);
+		ResponseCompression compression = new ResponseCompression(new DeflaterPool(6, 1), 64);
+
+		OutputStream out = compression.openStream(createRequest("gzip"), response);
+		out.write("<p>small</p>".getBytes("UTF-8"));
+		out.close();
+
+		verify(response, never()).setHeader("Content-Encoding", "gzip");
+		assertEquals("<p>small</p>", new String(bytes.toByteArray(), "UTF-8"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResponseIsNotCompressedWithoutFreeDeflater() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(bytes);
+		DeflaterPool pool = new DeflaterPool(6, 1);
+		ResponseCompression compression = new ResponseCompression(pool, 8);
+
+		Deflater deflater = pool.borrow();
+		assertNotNull(deflater);
+		assertNull(pool.borrow());
+
+		String page = createText(100);
+		OutputStream out = compression.openStream(createRequest("gzip"), response);
+		out.write(page.getBytes("UTF-8"));
+		out.close();
+		pool.release(deflater);
+
+		verify(response, never()).setHeader("Content-Encoding", "gzip");
+		assertEquals(page, new String(bytes.toByteArray(), "UTF-8"));
+		assertEquals(1, pool.getAvailableDeflaters());
+	}
+
+	/**
+	 *
+	 */
+	protected static String createText(int length) {
+		StringBuilder result = new StringBuilder(length + 32);
+		for (int i = 0; result.length() < length; i++) {
+			result.append("<p>Grüße Nr. ").append(i).append("</p>");
+		}
+		return result.toString();
+	}
+
+	/**
+	 *
+	 */
+	protected static HttpServletRequest createRequest(String acceptEncoding) {
+		HttpServletRequest result = mock(HttpServletRequest.class);
+		when(result.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected static HttpServletResponse createResponse(final ByteArrayOutputStream bytes) throws IOException {
+		HttpServletResponse result = mock(HttpServletResponse.class);
+		when(result.getOutputStream()).thenReturn(new ServletOutputStream() {
+			public void write(int b) {
+				bytes.write(b);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected static String decompress(byte[] data, ResponseCompression.ContentEncoding encoding) throws IOException {
+		InputStream in = new ByteArrayInputStream(data);
+		if (encoding == ResponseCompression.ContentEncoding.GZIP) {
+			in = new GZIPInputStream(in);
+		} else {
+			in = new InflaterInputStream(in);
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int length = in.read(buffer); length != -1; length = in.read(buffer)) {
+			result.write(buffer, 0, length);
+		}
+		in.close();
+		return new String(result.toByteArray(), "UTF-8");
+	}
+
+}
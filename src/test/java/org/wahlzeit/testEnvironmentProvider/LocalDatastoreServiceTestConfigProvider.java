@@ -6,14 +6,16 @@ import org.junit.rules.ExternalResource;
 
 /**
  * Provider for the GAE datastore environment. Necessary for each Unit test that wants to load or store stuff in the
- * datastore.
+ * datastore. It is a High Replication datastore, as in production, so that transactions may span entity groups, but
+ * applies all writes at once, so that queries see them.
  * 
  * @review
  */
 public class LocalDatastoreServiceTestConfigProvider extends ExternalResource {
 
 	private final LocalServiceTestHelper helper =
-			new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+			new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().
+					setApplyAllHighRepJobPolicy());
 
 	@Override
 	protected void before() throws Throwable {
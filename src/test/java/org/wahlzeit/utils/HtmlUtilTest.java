@@ -0,0 +1,48 @@
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the HtmlUtil class.
+ */
+public class HtmlUtilTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaskForWeb() {
+		assertEquals("&lt;b&gt;Tom &amp; &quot;Jerry&quot;&lt;/b&gt;", HtmlUtil.maskForWeb("<b>Tom & \"Jerry\"</b>"));
+		assertEquals("a&amp;", HtmlUtil.maskForWeb("a&"));
+		assertEquals("", HtmlUtil.maskForWeb(""));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStringWithoutSpecialCharsIsNotCopied() {
+		String value = "flowers, tulips, Grüße";
+		assertSame(value, HtmlUtil.maskForWeb(value));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaskForWebOnWriter() throws IOException {
+		String[] values = {"<b>Tom & \"Jerry\"</b>", "no special chars", "&&", ">", ""};
+		for (String value : values) {
+			StringWriter out = new StringWriter();
+			HtmlUtil.maskForWeb(value, out);
+			assertEquals(HtmlUtil.maskForWeb(value), out.toString());
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+package org.wahlzeit.webparts;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the WebPartCache.
+ */
+public class WebPartCacheTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFragmentIsRenderedOnce() throws IOException {
+		WebPartCache cache = new WebPartCache(16);
+		CountingSource source = new CountingSource("<p>Grüße</p>");
+
+		Writable first = cache.getFragment("key", source);
+		Writable second = cache.getFragment("key", source);
+
+		assertSame(first, second);
+		assertEquals(1, source.count.get());
+		assertEquals("<p>Grüße</p>", asString(second));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidateAll() throws IOException {
+		WebPartCache cache = new WebPartCache(16);
+		CountingSource source = new CountingSource("menu");
+
+		cache.getFragment("key", source);
+		cache.invalidateAll();
+		cache.getFragment("key", source);
+
+		assertEquals(2, source.count.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFragmentRenderedDuringInvalidationIsNotCached() throws IOException {
+		final WebPartCache cache = new WebPartCache(16);
+		WebPartCache.FragmentSource source = new WebPartCache.FragmentSource() {
+			public Writable makeFragment() {
+				cache.invalidateAll();
+				return new StringWritable("stale");
+			}
+		};
+
+		cache.getFragment("key", source);
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaxFragments() throws IOException {
+		WebPartCache cache = new WebPartCache(2);
+		CountingSource source = new CountingSource("x");
+
+		cache.getFragment("a", source);
+		cache.getFragment("b", source);
+		cache.getFragment("c", source);
+
+		assertEquals(1, cache.getSize());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeysAreUnambiguous() {
+		assertFalse(WebPartCache.createKey("a|b", "c").equals(WebPartCache.createKey("a", "b|c")));
+		assertFalse(WebPartCache.createKey("a:", "b").equals(WebPartCache.createKey("a", ":b")));
+		assertFalse(WebPartCache.createKey("", null).equals(WebPartCache.createKey(null, "")));
+	}
+
+	/**
+	 *
+	 */
+	protected String asString(Writable writable) throws IOException {
+		StringWriter result = new StringWriter();
+		writable.writeOn(result);
+		return result.toString();
+	}
+
+	/**
+	 *
+	 */
+	protected static class CountingSource implements WebPartCache.FragmentSource {
+
+		protected final String value;
+		protected final AtomicInteger count = new AtomicInteger();
+
+		protected CountingSource(String value) {
+			this.value = value;
+		}
+
+		public Writable makeFragment() {
+			count.incrementAndGet();
+			return new StringWritable(value);
+		}
+	}
+
+}
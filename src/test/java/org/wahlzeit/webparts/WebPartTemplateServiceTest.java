@@ -0,0 +1,183 @@
+package org.wahlzeit.webparts;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.services.ConfigDir;
+import org.wahlzeit.services.ConfigDirWatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the WebPartTemplateService.
+ */
+public class WebPartTemplateServiceTest {
+
+	/**
+	 *
+	 */
+	@Rule
+	public TemporaryFolder rootDir = new TemporaryFolder();
+
+	/**
+	 *
+	 */
+	protected ConfigDir templatesDir;
+	protected CountingTemplateService service;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws IOException {
+		rootDir.newFolder("templates", "default", "en", "pages");
+		rootDir.newFolder("templates", "default", "de", "pages");
+		rootDir.newFolder("templates", "custom");
+		writeTemplate("en/pages/Page", "<p>{$content}</p>");
+		writeTemplate("en/pages/Other", "<p>other</p>");
+		writeTemplate("de/pages/Page", "<p>Inhalt: {$content}</p>");
+
+		templatesDir = new ConfigDir(rootDir.getRoot().getPath(), "templates");
+		service = new CountingTemplateService();
+		service.setTemplatesDir(templatesDir);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPreloadTemplates() throws Exception {
+		service.preloadTemplates(Arrays.asList("en"));
+
+		assertEquals(2, service.getSize());
+		assertEquals(2, service.noCompiles.get());
+		assertEquals("<p>x</p>", render(service.getTemplate("en", "pages/Page"), "x"));
+		assertEquals(2, service.noCompiles.get());
+
+		// other languages are still loaded on demand
+		assertEquals("<p>Inhalt: x</p>", render(service.getTemplate("de", "pages/Page"), "x"));
+		assertEquals(3, service.noCompiles.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMissingTemplateIsRemembered() {
+		assertNull(service.getTemplate("en", "pages/Missing"));
+		assertNull(service.getTemplate("en", "pages/Missing"));
+		assertEquals(1, service.noCompiles.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangedTemplateIsReloaded() throws Exception {
+		service.preloadTemplates(Arrays.asList("en", "de"));
+		assertNull(service.getTemplate("en", "pages/New"));
+		WebPartTemplate other = service.getTemplate("en", "pages/Other");
+
+		final Set<String> changedNames = new HashSet<String>();
+		service.addTemplateChangeListener(new TemplateChangeListener() {
+			public void templatesChanged(Set<String> shortNames) {
+				changedNames.addAll(shortNames);
+			}
+		});
+
+		writeTemplate("en/pages/Page", "<div>{$content}</div>");
+		writeTemplate("en/pages/New", "<p>new</p>");
+		templatesDir.filesChanged(new HashSet<String>(Arrays.asList(
+				"en" + File.separator + "pages" + File.separator + "Page.html",
+				"en" + File.separator + "pages" + File.separator + "New.html")));
+
+		assertEquals("<div>x</div>", render(service.getTemplate("en", "pages/Page"), "x"));
+		assertNotNull(service.getTemplate("en", "pages/New"));
+		assertSame(other, service.getTemplate("en", "pages/Other"));
+		assertEquals(2, changedNames.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnknownChangesReloadAll() throws Exception {
+		service.preloadTemplates(Arrays.asList("en"));
+		writeTemplate("en/pages/Other", "<p>changed</p>");
+
+		templatesDir.filesChanged(Collections.<String>emptySet());
+
+		assertEquals("<p>changed</p>", render(service.getTemplate("en", "pages/Other"), "x"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWatcherReloadsTemplate() throws Exception {
+		service.preloadTemplates(Arrays.asList("en"));
+		ConfigDirWatcher watcher = ConfigDirWatcher.startWatching(templatesDir);
+		assertNotNull(watcher);
+		try {
+			writeTemplate("en/pages/Page", "<h1>{$content}</h1>");
+
+			long timeout = System.currentTimeMillis() + 30 * 1000;
+			while (!render(service.getTemplate("en", "pages/Page"), "x").equals("<h1>x</h1>") &&
+					System.currentTimeMillis() < timeout) {
+				Thread.sleep(20);
+			}
+			assertEquals("<h1>x</h1>", render(service.getTemplate("en", "pages/Page"), "x"));
+		} finally {
+			watcher.stop();
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void writeTemplate(String shortName, String source) throws IOException {
+		File file = new File(rootDir.getRoot(), "templates/default/" + shortName + ".html");
+		Files.write(source, file, Charsets.UTF_8);
+	}
+
+	/**
+	 *
+	 */
+	protected String render(WebPartTemplate template, String content) throws IOException {
+		WebPart part = new WebPart(template);
+		part.addString("content", content);
+		StringWriter result = new StringWriter();
+		part.writeOn(result);
+		return result.toString();
+	}
+
+	/**
+	 * Counts how often templates are compiled.
+	 */
+	protected static class CountingTemplateService extends WebPartTemplateService {
+
+		protected final AtomicInteger noCompiles = new AtomicInteger();
+
+		@Override
+		protected WebPartTemplate compileTemplate(String shortName) {
+			noCompiles.incrementAndGet();
+			return super.compileTemplate(shortName);
+		}
+	}
+
+}
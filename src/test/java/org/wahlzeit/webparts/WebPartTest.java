@@ -0,0 +1,147 @@
+package org.wahlzeit.webparts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for rendering WebParts as text and as pre-encoded bytes.
+ */
+public class WebPartTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplateSegments() throws IOException {
+		WebPartTemplate template = createTemplate("page", "<p>{$a}{$b}</p>{$c}");
+
+		assertEquals(3, template.getKeys().length);
+		assertEquals(4, template.getSegments().length);
+		assertEquals("<p>", new String(template.getSegments()[0], "UTF-8"));
+		assertEquals(0, template.getSegments()[1].length);
+		assertEquals("</p>", new String(template.getSegments()[2], "UTF-8"));
+		assertEquals(0, template.getSegments()[3].length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBytesMatchText() throws IOException {
+		WebPart page = new WebPart(createTemplate("page",
+				"<html><h1>{$title}</h1>{$part}<p>Grüße {$missing}</p>{$footer}</html>"));
+		WebPart part = new WebPart(createTemplate("part", "<div>{$name} – {$text}</div>"));
+		part.addString("name", "Jürgen");
+		part.addString("text", "漢字 📷");
+		page.addString("title", "Wahlzeit");
+		page.addWritable("part", part);
+		page.addString("footer", "©");
+
+		StringWriter text = new StringWriter();
+		page.writeOn(text);
+
+		assertEquals(text.toString(), render(page));
+		assertEquals("<html><h1>Wahlzeit</h1><div>Jürgen – 漢字 📷</div><p>Grüße </p>©</html>",
+				text.toString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeysHaveOneIndexEach() {
+		WebPartTemplate template = createTemplate("page", "{$domain}<p>{$name}</p>{$domain}");
+		assertEquals(2, template.getNoDistinctKeys());
+		assertEquals(0, template.getKeyIndex("domain"));
+		assertEquals(1, template.getKeyIndex("name"));
+		assertEquals(-1, template.getKeyIndex("other"));
+		assertArrayEquals(new int[] {0, 1, 0}, template.getSlotKeyIndexes());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnknownKeysAreDropped() throws IOException {
+		WebPart part = new WebPart(createTemplate("part", "<p>{$name}</p>"));
+		part.addString("name", "Tom");
+		part.addString("other", "Jerry");
+
+		assertEquals("<p>Tom</p>", render(part));
+		assertNull(part.getValue("other"));
+
+		WebPart.isDebugging = true;
+		try {
+			WebPart debugPart = new WebPart(createTemplate("part", "<p>{$name}</p>"));
+			debugPart.addString("other", "Jerry");
+			assertEquals("Jerry", debugPart.getValue("other"));
+			assertEquals("<p></p>", render(debugPart));
+		} finally {
+			WebPart.isDebugging = false;
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testValuesAreMaskedWhenWritten() throws IOException {
+		WebPart part = new WebPart(createTemplate("part", "<p title=\"{$title}\">{$tags}</p>"));
+		part.maskAndAddString("title", "\"Tom\" & Jerry");
+		part.maskAndAddString("tags", "<script>, Grüße");
+
+		String expected = "<p title=\"&quot;Tom&quot; &amp; Jerry\">&lt;script&gt;, Grüße</p>";
+		assertEquals(expected, render(part));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes);
+		part.writeOn(out);
+		out.close();
+		assertEquals(expected, new String(bytes.toByteArray(), "UTF-8"));
+		assertEquals("&lt;script&gt;, Grüße", part.getValue("tags").toString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSurrogatePairSplitBetweenWrites() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes, 4);
+		out.write("a\ud83d");
+		out.write("\udcf7b");
+		out.write("\ud83d");
+		out.writeBytes(new byte[] {'c'});
+		out.close();
+
+		assertEquals("a📷b?c", new String(bytes.toByteArray(), "UTF-8"));
+	}
+
+	/**
+	 *
+	 */
+	protected WebPartTemplate createTemplate(String name, String source) {
+		WebPartTemplate result = new WebPartTemplate(name);
+		result.initialize(source);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected String render(Writable writable) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes, 16);
+		writable.writeOn(out);
+		out.close();
+		return new String(bytes.toByteArray(), "UTF-8");
+	}
+
+}